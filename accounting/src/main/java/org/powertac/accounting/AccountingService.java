@@ -16,12 +16,12 @@
 
 package org.powertac.accounting;
 
-import static org.powertac.util.MessageDispatcher.dispatch;
-
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.function.BiConsumer;
 
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
@@ -83,6 +83,18 @@ public class AccountingService
   private HashMap<Timeslot, ArrayList<MarketTransaction>>
       pendingMarketTransactions;
 
+  // running CONSUME/PRODUCE totals of the pending tariff transactions,
+  // indexed by broker username
+  private HashMap<String, LoadRecord> currentLoad;
+
+  // processTransaction() handlers by transaction class, so activate()
+  // does not need a reflective lookup per transaction
+  private HashMap<Class<?>, BiConsumer<BrokerTransaction, ArrayList<Object>>>
+      txHandlers;
+
+  // market positions already queued for brokers in the current activation
+  private HashSet<MarketPosition> queuedPositions;
+
   // read this from configuration
   
   @ConfigurableValue(valueType = "Double",
@@ -104,6 +116,22 @@ public class AccountingService
     pendingTransactions = new ArrayList<BrokerTransaction>();
     pendingMarketTransactions =
             new HashMap<Timeslot, ArrayList<MarketTransaction>>();
+    currentLoad = new HashMap<String, LoadRecord>();
+    queuedPositions = new HashSet<MarketPosition>();
+    txHandlers =
+        new HashMap<Class<?>, BiConsumer<BrokerTransaction, ArrayList<Object>>>();
+    txHandlers.put(TariffTransaction.class,
+                   (tx, msgs) -> processTransaction((TariffTransaction) tx, msgs));
+    txHandlers.put(BalancingTransaction.class,
+                   (tx, msgs) -> processTransaction((BalancingTransaction) tx, msgs));
+    txHandlers.put(DistributionTransaction.class,
+                   (tx, msgs) -> processTransaction((DistributionTransaction) tx, msgs));
+    txHandlers.put(CapacityTransaction.class,
+                   (tx, msgs) -> processTransaction((CapacityTransaction) tx, msgs));
+    txHandlers.put(MarketTransaction.class,
+                   (tx, msgs) -> processTransaction((MarketTransaction) tx, msgs));
+    txHandlers.put(BankTransaction.class,
+                   (tx, msgs) -> processTransaction((BankTransaction) tx, msgs));
   }
 
   @Override
@@ -111,6 +139,7 @@ public class AccountingService
   {
     pendingTransactions.clear();
     pendingMarketTransactions.clear();
+    currentLoad.clear();
     super.init();
     bankInterest = null;
     serverProps.configureMe(this);
@@ -163,6 +192,11 @@ public class AccountingService
                        double kWh,
                        double charge) 
   {
+    if (DeferredPostings.defer(() -> addTariffTransaction(txType, tariff,
+                                                         customer,
+                                                         customerCount,
+                                                         kWh, charge)))
+      return null;
     TariffTransaction ttx =
             txFactory.makeTariffTransaction(tariff.getBroker(), txType, 
                                             tariffRepo.findSpecificationById(tariff.getSpecId()),
@@ -171,6 +205,7 @@ public class AccountingService
     if (null == ttx.getTariffSpec())
       log.error("Null tariff spec in addTariffTx()");
     pendingTransactions.add(ttx);
+    updateCurrentLoad(ttx);
     return ttx;
   }
 
@@ -179,6 +214,10 @@ public class AccountingService
   addRegulationTransaction (Tariff tariff, CustomerInfo customer,
                             int customerCount, double kWh, double charge)
   {
+    if (DeferredPostings.defer(() -> addRegulationTransaction(tariff, customer,
+                                                             customerCount,
+                                                             kWh, charge)))
+      return null;
     TariffTransaction.Type txType = TariffTransaction.Type.CONSUME;
     if (kWh > 0.0)
       txType = TariffTransaction.Type.PRODUCE;
@@ -190,6 +229,7 @@ public class AccountingService
     if (null == ttx.getTariffSpec())
       log.error("Null tariff spec in addTariffTx()");
     pendingTransactions.add(ttx);
+    updateCurrentLoad(ttx);
     return ttx;
   }
 
@@ -248,17 +288,9 @@ public class AccountingService
   public synchronized double getCurrentNetLoad (Broker broker) 
   {
     double netLoad = 0.0;
-    for (BrokerTransaction btx : pendingTransactions) {
-      if (btx instanceof TariffTransaction) {
-        TariffTransaction ttx = (TariffTransaction)btx;
-        if (ttx.getBroker().getUsername().equals(broker.getUsername())) {
-          if (ttx.getTxType() == TariffTransaction.Type.CONSUME ||
-              ttx.getTxType() == TariffTransaction.Type.PRODUCE) {
-            netLoad += ttx.getKWh();
-          }
-        }
-      }
-    }
+    LoadRecord record = currentLoad.get(broker.getUsername());
+    if (null != record)
+      netLoad = record.consumption + record.production;
     log.info("net load for " + broker.getUsername() + ": " + netLoad);
     return netLoad;
   }
@@ -268,30 +300,37 @@ public class AccountingService
    * customers.
    */
   @Override
-  public Map<Broker, Map<Type, Double>> getCurrentSupplyDemandByBroker ()
+  public synchronized Map<Broker, Map<Type, Double>>
+  getCurrentSupplyDemandByBroker ()
   {
     HashMap<Broker, Map<Type, Double>> result =
             new HashMap<Broker, Map<Type, Double>>();
-    for (BrokerTransaction btx : pendingTransactions) {
-      if (btx instanceof TariffTransaction) {
-        TariffTransaction ttx = (TariffTransaction)btx;
-        Broker broker = ttx.getBroker();
-        Map<Type, Double> record = result.get(broker);
-        if (null == record) {
-          record = new HashMap<Type, Double>();
-          result.put(broker, record);
-          record.put(Type.CONSUME, 0.0);
-          record.put(Type.PRODUCE, 0.0);
-        }
-        if (ttx.getTxType() == Type.CONSUME)
-          record.put(Type.CONSUME, record.get(Type.CONSUME) + ttx.getKWh());
-        else if (ttx.getTxType() == Type.PRODUCE)
-          record.put(Type.PRODUCE, record.get(Type.PRODUCE) + ttx.getKWh());
-      }
+    for (LoadRecord record : currentLoad.values()) {
+      Map<Type, Double> sd = new HashMap<Type, Double>();
+      sd.put(Type.CONSUME, record.consumption);
+      sd.put(Type.PRODUCE, record.production);
+      result.put(record.broker, sd);
     }
     return result;
   }
 
+  // Adds a new tariff transaction to the running load totals. Every broker
+  // with a pending tariff transaction gets a record, as in
+  // getCurrentSupplyDemandByBroker(), even if it has no usage.
+  private void updateCurrentLoad (TariffTransaction ttx)
+  {
+    Broker broker = ttx.getBroker();
+    LoadRecord record = currentLoad.get(broker.getUsername());
+    if (null == record) {
+      record = new LoadRecord(broker);
+      currentLoad.put(broker.getUsername(), record);
+    }
+    if (ttx.getTxType() == Type.CONSUME)
+      record.consumption += ttx.getKWh();
+    else if (ttx.getTxType() == Type.PRODUCE)
+      record.production += ttx.getKWh();
+  }
+
   /**
    * Gets the net market position for the current timeslot. This only works on
    * processed transactions, but it can be used before activation in case there
@@ -326,32 +365,56 @@ public class AccountingService
     log.info("Activate: " + pendingTransactions.size() + " messages");
     totalConsumption = 0.0;
     totalProduction = 0.0;
-    HashMap<Broker, List<Object>> brokerMsg = new HashMap<Broker, List<Object>>();
+    List<BrokerTransaction> pending = getPendingTransactionList();
+
+    // size each broker's message list up front: its transactions plus
+    // the interest payment and cash position added below
+    HashMap<Broker, int[]> txCount = new HashMap<Broker, int[]>();
+    Broker lastBroker = null;
+    int[] lastCount = null;
+    for (BrokerTransaction tx : pending) {
+      if (tx.getBroker() != lastBroker) {
+        lastBroker = tx.getBroker();
+        lastCount = txCount.computeIfAbsent(lastBroker, b -> new int[1]);
+      }
+      lastCount[0] += 1;
+    }
+    HashMap<Broker, ArrayList<Object>> brokerMsg =
+        new HashMap<Broker, ArrayList<Object>>();
     for (Broker broker : brokerRepo.list()) {
-      brokerMsg.put(broker, new ArrayList<Object>());
+      int[] count = txCount.get(broker);
+      brokerMsg.put(broker,
+                    new ArrayList<Object>((null == count ? 0 : count[0]) + 2));
     }
-    
-    // walk through the pending transactions and run the updates
-    for (BrokerTransaction tx : getPendingTransactionList()) {
+    queuedPositions.clear();
+
+    // walk through the pending transactions and run the updates. Runs of
+    // transactions for the same broker share a single map lookup.
+    lastBroker = null;
+    ArrayList<Object> messages = null;
+    for (BrokerTransaction tx : pending) {
       // need to refresh the transaction first
       if (tx.getBroker() == null) {
         log.error("tx " + tx.getClass().getName() + ":" + tx.getId() + 
                   " has null broker");
+        continue;
+      }
+      if (tx.getBroker() != lastBroker) {
+        lastBroker = tx.getBroker();
+        messages = brokerMsg.get(lastBroker);
       }
-      if (brokerMsg.get(tx.getBroker()) == null) {
+      if (messages == null) {
         log.error("tx " + tx.getClass().getName() + ":" + tx.getId() + 
                   " has unknown broker " + tx.getBroker().getUsername());
+        continue;
       }
-      brokerMsg.get(tx.getBroker()).add(tx);
-      // process transactions by method lookup
-      dispatch(this, "processTransaction", 
-               tx, brokerMsg.get(tx.getBroker()));
-    }
+      messages.add(tx);
     // handle the backed-up mkt transactions for this timeslot
     handleMarketTransactionsForTimeslot(timeslotRepo.currentTimeslot());
     // for each broker, compute interest and send messages
     double rate = bankInterest / 365.0;
     for (Broker broker : brokerRepo.list()) {
+      messages = brokerMsg.get(broker);
       // run interest payments at midnight
       if (timeService.getHourOfDay() == 0) {
         double brokerRate = rate;
@@ -361,15 +424,15 @@ public class AccountingService
           brokerRate /= 2.0;
         }
         double interest = cash * brokerRate;
-        brokerMsg.get(broker).add(txFactory.makeBankTransaction(broker, interest));
+        messages.add(txFactory.makeBankTransaction(broker, interest));
         broker.updateCash(interest);
       }
       // add the cash position to the list and send messages
-      brokerMsg.get(broker).add(txFactory.makeCashPosition(broker, broker.getCashBalance()));
+      messages.add(txFactory.makeCashPosition(broker, broker.getCashBalance()));
       log.info("Broker {} balance = {}", broker.getUsername(),
                broker.getCashBalance());
-      log.info("Sending " + brokerMsg.get(broker).size() + " messages to " + broker.getUsername());
-      brokerProxyService.sendMessages(broker, brokerMsg.get(broker));
+      log.info("Sending " + messages.size() + " messages to " + broker.getUsername());
+      brokerProxyService.sendMessages(broker, messages);
     }
     // build and send the distribution report
     distributionReport =
@@ -387,6 +450,7 @@ public class AccountingService
     ArrayList<BrokerTransaction> result = 
       new ArrayList<BrokerTransaction>(pendingTransactions);
     pendingTransactions.clear();
+    currentLoad.clear();
     return result;
   }
 
@@ -440,7 +504,7 @@ public class AccountingService
 
   /**
    * Processes a market transaction by ensuring that the market position
-   * will be sent to the broker.
+   * will be sent to the broker, once per activation.
    * Actual transaction posting is deferred to delivery time
    */
   public void 
@@ -449,7 +513,7 @@ public class AccountingService
   {
     MarketPosition mkt =
         tx.getBroker().findMarketPositionByTimeslot(tx.getTimeslotIndex());
-    if (!messages.contains(mkt))
+    if (queuedPositions.add(mkt))
       messages.add(mkt);
   }
 
@@ -554,4 +618,18 @@ public class AccountingService
   {
     bankInterest = interest;
   }
+
+  // Running usage totals for one broker's pending tariff transactions
+  class LoadRecord
+  {
+    Broker broker;
+    double consumption = 0.0;
+    double production = 0.0;
+
+    LoadRecord (Broker broker)
+    {
+      super();
+      this.broker = broker;
+    }
+  }
 }
@@ -32,10 +32,12 @@ import org.joda.time.Instant;
 import org.powertac.common.Competition;
 import org.powertac.common.CustomerInfo;
 import org.powertac.common.Broker;
+import org.powertac.common.DeferredPostings;
 import org.powertac.common.RandomSeed;
 import org.powertac.common.Rate;
 import org.powertac.common.RegulationRate;
 import org.powertac.common.Tariff;
+import org.powertac.common.TariffCostCache;
 import org.powertac.common.TariffMessage;
 import org.powertac.common.TariffSpecification;
 import org.powertac.common.TariffSubscription;
@@ -203,6 +205,7 @@ public class TariffMarketService
     disabledBrokers.clear();
     revokedTariffs = null;
     lastRevokeProcess = new Instant(0l);
+    TariffCostCache.getInstance().recycle();
 
     serverProps.configureMe(this);
 
@@ -678,6 +681,9 @@ public class TariffMarketService
       
       // then remove the tariff and the tariffSpec
       tariffRepo.removeTariff(tariff);
+
+      // and the customers' cost estimates for it
+      TariffCostCache.getInstance().evict(tariff);
     }
     revokedTariffs = null;
   }
@@ -773,6 +779,9 @@ public class TariffMarketService
                                  CustomerInfo customer,
                                  int customerCount)
   {
+    if (DeferredPostings.defer(() -> subscribeToTariff(tariff, customer,
+                                                      customerCount)))
+      return;
     if (customerCount < 0 || !(tariff.isExpired() || tariff.isRevoked())) {
       postPendingSubscriptionEvent(tariff, customer, customerCount);
       List<TariffSubscription> existingSubscriptions =
@@ -26,6 +26,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.function.BiConsumer;
 
 import org.apache.commons.configuration2.MapConfiguration;
 import org.joda.time.DateTime;
@@ -51,6 +52,7 @@ import org.springframework.test.context.TestExecutionListeners;
 import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
 import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
 import org.springframework.test.context.support.DirtiesContextTestExecutionListener;
+import org.springframework.test.util.ReflectionTestUtils;
 
 @SpringJUnitConfig(locations = {"classpath:test-config.xml"})
 @DirtiesContext
@@ -348,6 +350,28 @@ public class AccountingServiceTests
     assertEquals(0.0, bsd.get(TariffTransaction.Type.PRODUCE), 1e-6, "correct production for Jim");
   }
   
+  // regulation counts toward net load, other tariff transactions do not
+  @Test
+  public void testCurrentNetLoadRegulation ()
+  {
+    initializeService();
+    accountingService.addTariffTransaction(TariffTransaction.Type.CONSUME,
+      tariffB1, customerInfo1, 7, -77.0, 7.7);
+    accountingService.addTariffTransaction(TariffTransaction.Type.PERIODIC,
+      tariffB1, customerInfo1, 7, 0.0, -1.0);
+    accountingService.addRegulationTransaction(tariffB1, customerInfo1,
+      7, 10.0, -1.2);
+    accountingService.addTariffTransaction(TariffTransaction.Type.PERIODIC,
+      tariffJ1, customerInfo2, 12, 0.0, -2.0);
+    assertEquals((-77.0 + 10.0), accountingService.getCurrentNetLoad(bob), 1e-6, "correct net load for Bob");
+    assertEquals(0.0, accountingService.getCurrentNetLoad(jim), 1e-6, "no net load for Jim");
+    Map<Broker, Map<TariffTransaction.Type, Double>> sd =
+            accountingService.getCurrentSupplyDemandByBroker();
+    assertEquals(2, sd.size(), "both brokers present");
+    assertEquals(10.0, sd.get(bob).get(TariffTransaction.Type.PRODUCE), 1e-6, "regulation is production");
+    assertEquals(0.0, sd.get(jim).get(TariffTransaction.Type.CONSUME), 1e-6, "no consumption for Jim");
+  }
+
   // create and test market transactions
   @Test
   public void testMarketTransaction ()
@@ -452,6 +476,144 @@ public class AccountingServiceTests
     assertEquals(-55.0 * 0.6, cp1.getBalance(), 1e-6, "correct cash position");
   }
 
+  // several transactions in one timeslot share a single position message
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  @Test
+  public void testActivateQueuesPositionOnce ()
+  {
+    initializeService();
+    accountingService.setBankInterest(0.12);
+    Timeslot ts2 = timeslotRepo.findBySerialNumber(2);
+    accountingService.addMarketTransaction(bob, ts2, 0.5, -45.0);
+    accountingService.addMarketTransaction(jim, ts2, 0.4, -35.0);
+    accountingService.addMarketTransaction(bob, ts2, 0.3, -31.0);
+    accountingService.addMarketTransaction(bob, ts2, -0.2, 20.0);
+
+    Map<Broker, List> msgMap = captureMessages();
+    accountingService.activate(timeService.getCurrentTime(), 3);
+
+    // three transactions, one position, cash for bob
+    List bobMsgs = msgMap.get(bob);
+    assertEquals(5, bobMsgs.size(), "five messages");
+    assertEquals(3, filter(bobMsgs, new Predicate<Object>() {
+      public boolean apply (Object item) {
+        return (item instanceof MarketTransaction);
+      }
+    }).size(), "three transactions");
+    List<Object> positions = filter(bobMsgs, new Predicate<Object>() {
+      public boolean apply (Object item) {
+        return (item instanceof MarketPosition);
+      }
+    });
+    assertEquals(1, positions.size(), "one position");
+    assertEquals(0.6, ((MarketPosition)positions.get(0)).getOverallBalance(),
+                 1e-6, "combined balance");
+    // jim's position is queued separately
+    assertEquals(3, msgMap.get(jim).size(), "three messages for jim");
+  }
+
+  // transactions without a handler are forwarded but not processed
+  @SuppressWarnings("rawtypes")
+  @Test
+  public void testActivateUnknownTransaction ()
+  {
+    initializeService();
+    accountingService.setBankInterest(0.12);
+    BrokerTransaction odd = mock(BrokerTransaction.class);
+    when(odd.getBroker()).thenReturn(bob);
+    accountingService.getPendingTransactions().add(odd);
+    accountingService.addMarketTransaction(bob,
+        timeslotRepo.findBySerialNumber(2), 0.5, -45.0);
+
+    Map<Broker, List> msgMap = captureMessages();
+    accountingService.activate(timeService.getCurrentTime(), 3);
+    verify(mockProxy, times(2)).sendMessages(isA(Broker.class), anyList());
+
+    // odd tx, market tx and position, cash position
+    List bobMsgs = msgMap.get(bob);
+    assertEquals(4, bobMsgs.size(), "four messages");
+    assertSame(odd, bobMsgs.get(0), "odd tx forwarded");
+    assertNotNull(findFirst(bobMsgs, new Predicate<Object>() {
+      public boolean apply (Object item) {
+        return (item instanceof MarketPosition);
+      }
+    }), "later tx still processed");
+  }
+
+  // transactions for a broker outside the repo are dropped
+  @SuppressWarnings("rawtypes")
+  @Test
+  public void testActivateUnknownBroker ()
+  {
+    initializeService();
+    accountingService.setBankInterest(0.12);
+    Broker sally = new Broker("Sally");
+    Timeslot ts2 = timeslotRepo.findBySerialNumber(2);
+    accountingService.addMarketTransaction(sally, ts2, 0.2, -20.0);
+    accountingService.addMarketTransaction(bob, ts2, 0.5, -45.0);
+
+    Map<Broker, List> msgMap = captureMessages();
+    accountingService.activate(timeService.getCurrentTime(), 3);
+    verify(mockProxy, times(2)).sendMessages(isA(Broker.class), anyList());
+    assertFalse(msgMap.containsKey(sally), "nothing for sally");
+    assertEquals(3, msgMap.get(bob).size(), "three messages for bob");
+  }
+
+  // a failing handler does not stop the activation
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  @Test
+  public void testActivateHandlerThrows ()
+  {
+    initializeService();
+    accountingService.setBankInterest(0.12);
+    Map<Class<?>, BiConsumer<BrokerTransaction, ArrayList<Object>>> handlers =
+        (Map<Class<?>, BiConsumer<BrokerTransaction, ArrayList<Object>>>)
+        ReflectionTestUtils.getField(accountingService, "txHandlers");
+    BiConsumer<BrokerTransaction, ArrayList<Object>> original =
+        handlers.get(MarketTransaction.class);
+    handlers.put(MarketTransaction.class, (tx, msgs) -> {
+      if (tx.getBroker() == bob)
+        throw new IllegalStateException("test");
+      original.accept(tx, msgs);
+    });
+    try {
+      Timeslot ts2 = timeslotRepo.findBySerialNumber(2);
+      accountingService.addMarketTransaction(bob, ts2, 0.5, -45.0);
+      accountingService.addMarketTransaction(jim, ts2, 0.4, -35.0);
+
+      Map<Broker, List> msgMap = captureMessages();
+      accountingService.activate(timeService.getCurrentTime(), 3);
+      verify(mockProxy, times(2)).sendMessages(isA(Broker.class), anyList());
+
+      // bob gets his tx and cash, but no position
+      assertEquals(2, msgMap.get(bob).size(), "two messages for bob");
+      assertNull(findFirst(msgMap.get(bob), new Predicate<Object>() {
+        public boolean apply (Object item) {
+          return (item instanceof MarketPosition);
+        }
+      }), "no position for bob");
+      // jim is processed normally
+      assertEquals(3, msgMap.get(jim).size(), "three messages for jim");
+    }
+    finally {
+      handlers.put(MarketTransaction.class, original);
+    }
+  }
+
+  @SuppressWarnings("rawtypes")
+  private Map<Broker, List> captureMessages ()
+  {
+    final Map<Broker, List> msgMap = new HashMap<Broker, List>();
+    doAnswer(new Answer<Object>() {
+      public Object answer(InvocationOnMock invocation) {
+        Object[] args = invocation.getArguments();
+        msgMap.put((Broker)args[0], (List)args[1]);
+        return null;
+      }
+    }).when(mockProxy).sendMessages(isA(Broker.class), anyList());
+    return msgMap;
+  }
+
   // test activation
   @SuppressWarnings({ "rawtypes", "unchecked" })
   @Test
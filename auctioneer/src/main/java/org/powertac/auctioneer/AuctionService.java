@@ -25,6 +25,7 @@ import org.powertac.common.MarketPosition;
 import org.powertac.common.Order;
 import org.powertac.common.Orderbook;
 import org.powertac.common.OrderbookOrder;
+import org.powertac.common.ParallelStepRunner;
 import org.powertac.common.TimeService;
 import org.powertac.common.Timeslot;
 import org.powertac.common.config.ConfigurableValue;
@@ -40,7 +41,6 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 
@@ -125,14 +125,24 @@ public class AuctionService
       description = "maximum market position at minimum leadtime")
   private double mktPosnLimitFinal = 143.0;
 
+  @ConfigurableValue(valueType = "Integer",
+      description = "Number of threads for clearing timeslots concurrently; 0 clears them on the sim thread")
+  private int clearingThreads = 0;
+
   private double epsilon = 1e-6; // position balance less than this is ignored
 
   private List<Order> incoming;
 
-  private HashMap<Timeslot, ArrayList<OrderWrapper>> sortedBids;
-  private HashMap<Timeslot, ArrayList<OrderWrapper>> sortedAsks;
+  private HashMap<Timeslot, OrderBookSide> sortedBids;
+  private HashMap<Timeslot, OrderBookSide> sortedAsks;
+
+  // wrappers are reused from one clearing to the next
+  private ArrayList<OrderWrapper> wrapperPool = new ArrayList<OrderWrapper>();
   private List<Timeslot> enabledTimeslots = null;
 
+  // matches the timeslots, sequentially or concurrently
+  private ParallelStepRunner clearingRunner = null;
+
   public AuctionService ()
   {
     super();
@@ -144,6 +154,9 @@ public class AuctionService
   {
     incoming.clear();
     serverProps.configureMe(this);
+    if (null != clearingRunner)
+      clearingRunner.shutdown();
+    clearingRunner = new ParallelStepRunner("auction", clearingThreads);
     brokerProxyService.registerBrokerMessageListener(this, Order.class);
     super.init();
     serverProps.publishConfiguration(this);
@@ -165,6 +178,11 @@ public class AuctionService
     return defaultClearingPrice;
   }
 
+  public int getClearingThreads ()
+  {
+    return clearingThreads;
+  }
+
   List<Order> getIncoming ()
   {
     return incoming;
@@ -186,6 +204,27 @@ public class AuctionService
     }
   }
 
+  /**
+   * Receives a batch of Orders from an in-process wholesale participant,
+   * and queues the valid ones in one step.
+   */
+  public void handleMessages (List<Order> orders)
+  {
+    ArrayList<Order> valid = new ArrayList<Order>(orders.size());
+    for (Order order : orders) {
+      if (validateOrder(order)) {
+        valid.add(order);
+      }
+    }
+    synchronized(incoming) {
+      incoming.addAll(valid);
+    }
+    if (!orders.isEmpty()) {
+      log.info("Received " + valid.size() + " of " + orders.size()
+               + " orders from " + orders.get(0).getBroker().getUsername());
+    }
+  }
+
   public boolean validateOrder (Order order)
   {
     if (order.getMWh().equals(Double.NaN) ||
@@ -228,10 +267,10 @@ public class AuctionService
     synchronized(incoming) {
       orders = new ArrayList<OrderWrapper>();
       for (Order order : incoming) {
-        OrderWrapper sw = new OrderWrapper(order);
+        OrderWrapper sw = wrap(order, orders.size());
         if (sw.isValid()) {
           // ignore invalid orders
-          orders.add(new OrderWrapper(order));
+          orders.add(sw);
         }
         else {
           log.info("Ignoring invalid order " + order.getId() +
@@ -240,8 +279,8 @@ public class AuctionService
       }
       incoming.clear();
     }
-    sortedAsks = new HashMap<Timeslot, ArrayList<OrderWrapper>>();
-    sortedBids = new HashMap<Timeslot, ArrayList<OrderWrapper>>();
+    sortedAsks = new HashMap<Timeslot, OrderBookSide>();
+    sortedBids = new HashMap<Timeslot, OrderBookSide>();
     // add bids and asks to the appropriate lists
     for (OrderWrapper sw : orders) {
       if (sw.isBuyOrder())
@@ -250,11 +289,11 @@ public class AuctionService
         addAsk(sw);
     }
     // then sort the lists
-    for (ArrayList<OrderWrapper> list : sortedAsks.values()) {
-      Collections.sort(list);
+    for (OrderBookSide side : sortedAsks.values()) {
+      side.sort();
     }
-    for (ArrayList<OrderWrapper> list : sortedBids.values()) {
-      Collections.sort(list);
+    for (OrderBookSide side : sortedBids.values()) {
+      side.sort();
     }
     log.debug("activate: asks in " + sortedAsks.size() + " timeslots, bids in " +
         sortedBids.size() + " timeslots");
@@ -265,22 +304,54 @@ public class AuctionService
       enabledTimeslots = timeslotRepo.enabledTimeslots();
     }
     collectAskRanges();
-    for (Timeslot timeslot : enabledTimeslots) {
-      clearTimeslot(timeslot);
-    }
+    clearTimeslots();
 
     // save a copy of the current set of enabled timeslots for the next clearing
     enabledTimeslots = new ArrayList<Timeslot>(timeslotRepo.enabledTimeslots());
   }
 
-  private void clearTimeslot (Timeslot timeslot)
+  // Clears the enabled timeslots. The order books of different timeslots
+  // are independent, so they may be matched concurrently; the resulting
+  // transactions, orderbooks and cleared trades are then posted on the
+  // sim thread in timeslot order, so brokers see the same output either way.
+  private void clearTimeslots ()
   {
-    List<OrderWrapper> bids = sortedBids.get(timeslot);
-    List<OrderWrapper> asks = sortedAsks.get(timeslot);
-    if (null != bids)
+    List<Clearing> clearings = new ArrayList<Clearing>();
+    for (Timeslot timeslot : enabledTimeslots) {
+      clearings.add(new Clearing(timeslot));
+    }
+    if (null == clearingRunner) {
+      // not initialized
+      for (Clearing clearing : clearings)
+        matchTimeslot(clearing);
+    }
+    else {
+      clearingRunner.runAll(clearings, clearing -> matchTimeslot(clearing));
+    }
+    for (Clearing clearing : clearings) {
+      postClearing(clearing);
+    }
+  }
+
+  // Matches bids and asks for a single timeslot, and records the trades
+  // and clearing price in the given Clearing. Must not touch shared state
+  // other than the timeslot's own order lists.
+  private void matchTimeslot (Clearing clearing)
+  {
+    Timeslot timeslot = clearing.timeslot;
+    OrderBookSide bids = sortedBids.get(timeslot);
+    OrderBookSide asks = sortedAsks.get(timeslot);
+    clearing.bids = bids;
+    clearing.asks = asks;
+    if (null != bids) {
       constrainMarketPositions(bids, timeslot.getSerialNumber());
+      bids.prepare();
+    }
+    if (null != asks)
+      asks.prepare();
     if (null != bids || null != asks) {
       // we have bids and/or asks to match up
+      clearing.active = true;
       if (bids != null && asks != null)
         log.info("Timeslot " + timeslot.getSerialNumber() + 
                  ": Clearing " + asks.size() + " asks and " +
@@ -291,34 +362,33 @@ public class AuctionService
       ArrayList<PendingTrade> pendingTrades = new ArrayList<PendingTrade>();
       while (bids != null && !bids.isEmpty() &&
              asks != null && !asks.isEmpty() &&
-             (bids.get(0).isMarketOrder() ||
-                 asks.get(0).isMarketOrder() ||
-                 -bids.get(0).getLimitPrice() >= asks.get(0).getLimitPrice())) {
+             (bids.isHeadMarketOrder() ||
+                 asks.isHeadMarketOrder() ||
+                 -bids.headPrice() >= asks.headPrice())) {
         // transfer from ask to bid, keep track of qty
-        OrderWrapper bid = bids.get(0);
+        OrderWrapper bid = bids.peek();
         bidPrice = bid.getLimitPrice();
-        OrderWrapper ask = asks.get(0);
+        OrderWrapper ask = asks.peek();
         askPrice = ask.getLimitPrice();
         // amount to transfer is minimum of remaining bid qty and remaining ask qty
-        log.debug("ask: " + ask.executionMWh + " used out of " + ask.getMWh() +
-                  "; bid: " + bid.executionMWh + " used out of " + bid.getMWh());
-        double transfer = Math.min(bid.getMWh() - bid.executionMWh,
-                                   -ask.getMWh() + ask.executionMWh);
+        double bidRemaining = bids.headRemaining();
+        double askRemaining = asks.headRemaining();
+        log.debug("ask: " + askRemaining + " left of " + ask.getMWh() +
+                  "; bid: " + bidRemaining + " left of " + bid.getMWh());
+        double transfer = Math.min(bidRemaining, -askRemaining);
         if (transfer > 0.0) {
           log.debug("transfer " + transfer + " from " + 
                     ask.getBroker().getUsername() + " at " + askPrice + " to " +
                     bid.getBroker().getUsername() + " at " + bidPrice);
           totalMWh += transfer;
           pendingTrades.add(new PendingTrade(ask.getBroker(), bid.getBroker(), transfer));
-          bid.executionMWh += transfer;
-          ask.executionMWh -= transfer;
         }
-        log.debug("bid remaining=" + (bid.getMWh() - bid.executionMWh));
-        log.debug("ask remaining=" + (ask.getMWh() - ask.executionMWh));
-        if (Math.abs(bid.getMWh() - bid.executionMWh) <= epsilon)
-          bids.remove(bid);
-        if (Math.abs(ask.getMWh() - ask.executionMWh) <= epsilon)
-          asks.remove(ask);
+        else {
+          transfer = 0.0;
+        }
+        // consume the head orders, dropping them once they are used up
+        bids.execute(transfer, epsilon);
+        asks.execute(transfer, epsilon);
       }
       double clearingPrice;
       if (bidPrice != null) {
@@ -346,45 +416,63 @@ public class AuctionService
           log.info("market clears at default clearing price"  + clearingPrice);
         }
       }
-      for (PendingTrade trade : pendingTrades) {
-        accountingService.addMarketTransaction(trade.from, timeslot,
-                                               -trade.mWh, clearingPrice);
-        accountingService.addMarketTransaction(trade.to, timeslot,
-                                               trade.mWh, -clearingPrice);
-      }
-      // create the orderbook and cleared-trade, send to brokers
-      Orderbook orderbook = 
-          orderbookRepo.makeOrderbook(timeslot,
-                                      (pendingTrades.size() > 0
-                                          ? clearingPrice : null));
-      if (bids != null) {
-        for (OrderWrapper bid : bids) {
-          orderbook.addBid(new OrderbookOrder(bid.getMWh() - bid.executionMWh,
-                                              bid.getLimitPrice()));
-        }
-      }
-      if (asks != null) {
-        for (OrderWrapper ask : asks) {
-          orderbook.addAsk(new OrderbookOrder(ask.getMWh() - ask.executionMWh,
-                                              ask.getLimitPrice()));
-        }
+      clearing.pendingTrades = pendingTrades;
+      clearing.clearingPrice = clearingPrice;
+      clearing.totalMWh = totalMWh;
+    }
+  }
+
+  // Posts the market transactions for a matched timeslot, and sends
+  // the orderbook and cleared trade to brokers.
+  private void postClearing (Clearing clearing)
+  {
+    if (!clearing.active)
+      return;
+    Timeslot timeslot = clearing.timeslot;
+    OrderBookSide bids = clearing.bids;
+    OrderBookSide asks = clearing.asks;
+    List<PendingTrade> pendingTrades = clearing.pendingTrades;
+    double clearingPrice = clearing.clearingPrice;
+    double totalMWh = clearing.totalMWh;
+    for (PendingTrade trade : pendingTrades) {
+      accountingService.addMarketTransaction(trade.from, timeslot,
+                                             -trade.mWh, clearingPrice);
+      accountingService.addMarketTransaction(trade.to, timeslot,
+                                             trade.mWh, -clearingPrice);
+    }
+    // create the orderbook and cleared-trade, send to brokers
+    Orderbook orderbook = 
+        orderbookRepo.makeOrderbook(timeslot,
+                                    (pendingTrades.size() > 0
+                                        ? clearingPrice : null));
+    if (bids != null) {
+      for (int i = bids.headIndex(); i < bids.size(); i++) {
+        orderbook.addBid(new OrderbookOrder(bids.remaining(i),
+                                            bids.get(i).getLimitPrice()));
       }
-      brokerProxyService.broadcastMessage(orderbook);
-      if (totalMWh > 0.0) {
-        ClearedTrade trade = new ClearedTrade(timeslot, totalMWh, clearingPrice,
-                                              timeService.getCurrentTime());
-        log.info(trade.toString());
-        brokerProxyService.broadcastMessage(trade);
+    }
+    if (asks != null) {
+      for (int i = asks.headIndex(); i < asks.size(); i++) {
+        orderbook.addAsk(new OrderbookOrder(asks.remaining(i),
+                                            asks.get(i).getLimitPrice()));
       }
     }
+    brokerProxyService.broadcastMessage(orderbook);
+    if (totalMWh > 0.0) {
+      ClearedTrade trade = new ClearedTrade(timeslot, totalMWh, clearingPrice,
+                                            timeService.getCurrentTime());
+      log.info(trade.toString());
+      brokerProxyService.broadcastMessage(trade);
+    }
   }
 
   // Walks through a sorted list of bids, modifying quantities as necessary
   // to impose market position limits.
-  private void constrainMarketPositions (List<OrderWrapper> bids, int ts)
+  private void constrainMarketPositions (OrderBookSide bids, int ts)
   {
     HashMap<Broker, Double>remainingPosn = new HashMap<>();
-    for (OrderWrapper bid: bids) {
+    for (int i = 0; i < bids.size(); i++) {
+      OrderWrapper bid = bids.get(i);
       if (bid.getBroker().isWholesale())
         // Don't limit wholesale entities
         continue;
@@ -424,11 +512,25 @@ public class AuctionService
     return result;
   }
 
+  // Returns a wrapper for the index-th order of this clearing, reusing
+  // one from an earlier clearing if possible
+  private OrderWrapper wrap (Order order, int index)
+  {
+    if (index < wrapperPool.size()) {
+      OrderWrapper result = wrapperPool.get(index);
+      result.reset(order);
+      return result;
+    }
+    OrderWrapper result = new OrderWrapper(order);
+    wrapperPool.add(result);
+    return result;
+  }
+
   private void addAsk (OrderWrapper marketOrder)
   {
     Timeslot timeslot = marketOrder.getTimeslot();
     if (sortedAsks.get(timeslot) == null) {
-      sortedAsks.put(timeslot, new ArrayList<OrderWrapper>());
+      sortedAsks.put(timeslot, new OrderBookSide());
     }
     sortedAsks.get(timeslot).add(marketOrder);
   }
@@ -437,7 +539,7 @@ public class AuctionService
   {
     Timeslot timeslot = marketOrder.getTimeslot();
     if (sortedBids.get(timeslot) == null) {
-      sortedBids.put(timeslot, new ArrayList<OrderWrapper>());
+      sortedBids.put(timeslot, new OrderBookSide());
     }
     sortedBids.get(timeslot).add(marketOrder);
   }
@@ -484,6 +586,24 @@ public class AuctionService
     enabledTimeslots = null;
   }
 
+  // Result of matching a single timeslot
+  class Clearing
+  {
+    Timeslot timeslot;
+    boolean active = false;
+    OrderBookSide bids;
+    OrderBookSide asks;
+    List<PendingTrade> pendingTrades;
+    double clearingPrice = 0.0;
+    double totalMWh = 0.0;
+
+    Clearing (Timeslot timeslot)
+    {
+      super();
+      this.timeslot = timeslot;
+    }
+  }
+
   class PendingTrade
   {
     Broker from;
@@ -499,15 +619,20 @@ public class AuctionService
     }
   }
 
-  class OrderWrapper implements Comparable<OrderWrapper>
+  static class OrderWrapper implements Comparable<OrderWrapper>
   {
     Order order;
-    double executionMWh = 0.0;
     double adjustedMWh = 0.0;
 
     OrderWrapper(Order order)
     {
       super();
+      reset(order);
+    }
+
+    // re-targets a pooled wrapper at a new order
+    void reset (Order order)
+    {
       this.order = order;
       this.adjustedMWh = order.getMWh();
     }
@@ -590,7 +715,7 @@ public class AuctionService
     }
   }
 
-  private int compareQty (Double thisQty, Double otherQty)
+  static private int compareQty (Double thisQty, Double otherQty)
   {
     return -thisQty.compareTo(otherQty);
   }
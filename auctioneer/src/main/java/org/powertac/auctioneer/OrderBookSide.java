@@ -0,0 +1,181 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.auctioneer;
+
+import java.util.Arrays;
+
+import org.powertac.auctioneer.AuctionService.OrderWrapper;
+
+/**
+ * One side (bids or asks) of the order book for a single timeslot.
+ * Orders are added, sorted once, then prepared for matching, which copies
+ * limit prices and remaining quantities into primitive arrays. Matching
+ * consumes orders from the head of the book by advancing a cursor, so
+ * taking the best order is constant-time. The orders from the cursor to
+ * the end are what remains in the book after clearing.
+ * <p>
+ * Market orders have a limit price of NaN in the price array. Remaining
+ * quantities carry the sign of the order: positive for bids, negative
+ * for asks.</p>
+ *
+ * @author agent
+ */
+class OrderBookSide
+{
+  private OrderWrapper[] orders;
+  private int size = 0;
+  private int head = 0;
+
+  // filled in by prepare()
+  private double[] price;
+  private double[] remaining;
+
+  OrderBookSide ()
+  {
+    super();
+    orders = new OrderWrapper[16];
+  }
+
+  /**
+   * Adds an order. Must be called before sort().
+   */
+  void add (OrderWrapper order)
+  {
+    if (size == orders.length)
+      orders = Arrays.copyOf(orders, size * 2);
+    orders[size++] = order;
+  }
+
+  /**
+   * Sorts the orders by price, best first.
+   */
+  void sort ()
+  {
+    Arrays.sort(orders, 0, size);
+  }
+
+  /**
+   * Copies prices and quantities into the matching arrays and resets the
+   * head cursor. Quantity adjustments made to the wrappers after this call
+   * are not seen by the matching process.
+   */
+  void prepare ()
+  {
+    price = new double[size];
+    remaining = new double[size];
+    for (int i = 0; i < size; i++) {
+      OrderWrapper order = orders[i];
+      price[i] = order.isMarketOrder() ? Double.NaN : order.getLimitPrice();
+      remaining[i] = order.getMWh();
+    }
+    head = 0;
+  }
+
+  /**
+   * Total number of orders, including those already consumed.
+   */
+  int size ()
+  {
+    return size;
+  }
+
+  /**
+   * Returns the order at index, in sorted order.
+   */
+  OrderWrapper get (int index)
+  {
+    return orders[index];
+  }
+
+  /**
+   * True just in case all orders have been consumed.
+   */
+  boolean isEmpty ()
+  {
+    return head >= size;
+  }
+
+  /**
+   * Returns the order at the head of the book.
+   */
+  OrderWrapper peek ()
+  {
+    return orders[head];
+  }
+
+  /**
+   * True just in case the head order is a market order.
+   */
+  boolean isHeadMarketOrder ()
+  {
+    return Double.isNaN(price[head]);
+  }
+
+  /**
+   * Limit price of the head order; NaN for a market order.
+   */
+  double headPrice ()
+  {
+    return price[head];
+  }
+
+  /**
+   * Signed quantity not yet executed for the head order.
+   */
+  double headRemaining ()
+  {
+    return remaining[head];
+  }
+
+  /**
+   * Reduces the remaining magnitude of the head order by mWh, and drops it
+   * from the book if the rest is no more than epsilon.
+   */
+  void execute (double mWh, double epsilon)
+  {
+    if (remaining[head] > 0.0)
+      remaining[head] -= mWh;
+    else
+      remaining[head] += mWh;
+    if (Math.abs(remaining[head]) <= epsilon)
+      head += 1;
+  }
+
+  /**
+   * Number of orders left in the book.
+   */
+  int depth ()
+  {
+    return size - head;
+  }
+
+  /**
+   * Returns the index of the first order left in the book. Together with
+   * remaining(), used to build the Orderbook snapshot.
+   */
+  int headIndex ()
+  {
+    return head;
+  }
+
+  /**
+   * Signed quantity not yet executed for the order at index.
+   */
+  double remaining (int index)
+  {
+    return remaining[index];
+  }
+}
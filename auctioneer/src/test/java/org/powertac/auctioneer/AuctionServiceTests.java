@@ -51,6 +51,7 @@ import org.springframework.test.context.support.DependencyInjectionTestExecution
 import org.springframework.test.context.support.DirtiesContextTestExecutionListener;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.TreeMap;
 
@@ -194,6 +195,7 @@ public class AuctionServiceTests
     map.put("auctioneer.auctionService.defaultMargin", "0.2");
     map.put("auctioneer.auctionService.defaultClearingPrice", "40.0");
     map.put("auctioneer.auctionService.mktPosnLimitInitial", "90.0");
+    map.put("auctioneer.auctionService.clearingThreads", "0");
     MapConfiguration mapConfig = new MapConfiguration(map);
     config.setConfiguration(mapConfig);
     svc.initialize(competition, new ArrayList<String>());
@@ -223,6 +225,19 @@ public class AuctionServiceTests
     assertEquals(1, svc.getIncoming().size(), "one order received");
   }
 
+  @Test
+  public void testReceiveBatch ()
+  {
+    // the order for the current timeslot is dropped
+    Order good1 = new Order(b1, ts1.getSerialNumber(), 1.0, -22.0);
+    Order bogus = new Order(b1, ts0.getSerialNumber(), 1.0, -22.0);
+    Order good2 = new Order(b1, ts1.getSerialNumber(), -2.0, 18.0);
+    svc.handleMessages(Arrays.asList(good1, bogus, good2));
+    assertEquals(2, svc.getIncoming().size(), "two orders received");
+    assertSame(good1, svc.getIncoming().get(0), "first order");
+    assertSame(good2, svc.getIncoming().get(1), "second order");
+  }
+
   @Test
   public void testValidateOrder ()
   {
@@ -538,6 +553,40 @@ public class AuctionServiceTests
     assertEquals(20.5, ct.getExecutionPrice(), 1e-6, "correct price");
   }
 
+  // two timeslots cleared concurrently, output in timeslot order
+  @Test
+  public void testParallelClearing ()
+  {
+    TreeMap<String, String> map = new TreeMap<String, String>();
+    map.put("auctioneer.auctionService.clearingThreads", "2");
+    config.setConfiguration(new MapConfiguration(map));
+    svc.initialize(competition, new ArrayList<String>());
+    assertEquals(2, svc.getClearingThreads(), "two threads");
+
+    svc.handleMessage(new Order(s1, ts2.getSerialNumber(), -1.0, 18.0));
+    svc.handleMessage(new Order(b1, ts2.getSerialNumber(), 1.0, -22.0));
+    svc.handleMessage(new Order(s2, ts1Num, -0.5, 20.0));
+    svc.handleMessage(new Order(b2, ts1Num, 0.5, -21.0));
+    svc.activate(timeService.getCurrentTime(), 2);
+
+    assertEquals(4, accountingArgs.size(), "accounting: 4 calls");
+    assertEquals(s2, accountingArgs.get(0)[0], "ts1 ask first");
+    assertEquals(ts1, accountingArgs.get(0)[1], "ts1");
+    assertEquals(b2, accountingArgs.get(1)[0], "ts1 bid");
+    assertEquals(s1, accountingArgs.get(2)[0], "ts2 ask");
+    assertEquals(ts2, accountingArgs.get(2)[1], "ts2");
+    assertEquals(-20.5, (Double) accountingArgs.get(1)[3], 1e-6, "ts1 price");
+    assertEquals(-18.9, (Double) accountingArgs.get(3)[3], 1e-6, "ts2 price");
+
+    assertEquals(4, brokerMsgs.size(), "4 messages");
+    assertEquals(ts1, ((Orderbook) brokerMsgs.get(0)).getTimeslot(), "ts1 ob");
+    assertEquals(ts1, ((ClearedTrade) brokerMsgs.get(1)).getTimeslot(), "ts1 ct");
+    assertEquals(ts2, ((Orderbook) brokerMsgs.get(2)).getTimeslot(), "ts2 ob");
+    ClearedTrade ct = (ClearedTrade) brokerMsgs.get(3);
+    assertEquals(ts2, ct.getTimeslot(), "ts2 ct");
+    assertEquals(1.0, ct.getExecutionMWh(), 1e-6, "correct mWh");
+  }
+
   // three asks, two bids, all tradeable
   @Test
   public void testActivate3_eq_tradeable ()
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.auctioneer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.Test;
+import org.powertac.auctioneer.AuctionService.OrderWrapper;
+import org.powertac.common.Order;
+
+/**
+ * Test cases for OrderBookSide
+ *
+ * @author agent
+ */
+public class OrderBookSideTest
+{
+  static private Logger log = LogManager.getLogger(OrderBookSideTest.class.getName());
+
+  private Order mockOrder (double mWh, Double price)
+  {
+    Order order = mock(Order.class);
+    when(order.getMWh()).thenReturn(mWh);
+    when(order.getLimitPrice()).thenReturn(price);
+    return order;
+  }
+
+  @Test
+  public void testSortAndPrepare ()
+  {
+    OrderBookSide asks = new OrderBookSide();
+    asks.add(new OrderWrapper(mockOrder(-1.0, 22.0)));
+    asks.add(new OrderWrapper(mockOrder(-2.0, 18.0)));
+    asks.add(new OrderWrapper(mockOrder(-0.5, null)));
+    asks.add(new OrderWrapper(mockOrder(-1.5, 20.0)));
+    asks.sort();
+    asks.prepare();
+    assertEquals(4, asks.depth(), "four asks");
+    assertTrue(asks.isHeadMarketOrder(), "market order first");
+    assertTrue(Double.isNaN(asks.headPrice()), "no price");
+    assertEquals(18.0, asks.get(1).getLimitPrice(), 1e-6, "then cheapest");
+    assertEquals(20.0, asks.get(2).getLimitPrice(), 1e-6, "then 20");
+    assertEquals(22.0, asks.get(3).getLimitPrice(), 1e-6, "then 22");
+  }
+
+  @Test
+  public void testExecute ()
+  {
+    OrderBookSide bids = new OrderBookSide();
+    bids.add(new OrderWrapper(mockOrder(1.0, -22.0)));
+    bids.add(new OrderWrapper(mockOrder(2.0, -20.0)));
+    bids.sort();
+    bids.prepare();
+    assertEquals(-22.0, bids.headPrice(), 1e-6, "best bid first");
+    bids.execute(0.4, 1e-6);
+    assertEquals(0, bids.headIndex(), "still at head");
+    assertEquals(0.6, bids.headRemaining(), 1e-6, "partly used");
+    bids.execute(0.6, 1e-6);
+    assertEquals(1, bids.headIndex(), "head used up");
+    assertEquals(2.0, bids.headRemaining(), 1e-6, "next bid");
+
+    OrderBookSide asks = new OrderBookSide();
+    asks.add(new OrderWrapper(mockOrder(-1.0, 18.0)));
+    asks.sort();
+    asks.prepare();
+    asks.execute(0.7, 1e-6);
+    assertEquals(-0.3, asks.remaining(0), 1e-6, "ask is negative");
+    asks.execute(0.3, 1e-6);
+    assertTrue(asks.isEmpty(), "ask used up");
+  }
+
+  @Test
+  public void testAdjustBeforePrepare ()
+  {
+    OrderBookSide bids = new OrderBookSide();
+    OrderWrapper bid = new OrderWrapper(mockOrder(5.0, -22.0));
+    bids.add(bid);
+    bids.sort();
+    bid.setMWh(3.0);
+    bids.prepare();
+    assertEquals(3.0, bids.headRemaining(), 1e-6, "adjusted qty");
+  }
+
+  // Drains books of 10^3 to 10^5 asks one unit at a time; each step is
+  // constant-time, so this is linear in book depth.
+  @Test
+  public void testDeepBooks ()
+  {
+    Order[] levels = new Order[100];
+    for (int i = 0; i < levels.length; i++) {
+      levels[i] = mockOrder(-1.0, 10.0 + ((i * 37) % levels.length) * 0.1);
+    }
+    for (int n = 1000; n <= 100000; n *= 10) {
+      long start = System.nanoTime();
+      OrderBookSide asks = new OrderBookSide();
+      for (int i = 0; i < n; i++) {
+        asks.add(new OrderWrapper(levels[i % levels.length]));
+      }
+      asks.sort();
+      asks.prepare();
+      double lastPrice = Double.NEGATIVE_INFINITY;
+      int count = 0;
+      while (!asks.isEmpty()) {
+        assertTrue(asks.headPrice() >= lastPrice, "ascending");
+        lastPrice = asks.headPrice();
+        asks.execute(1.0, 1e-6);
+        count += 1;
+      }
+      assertEquals(n, count, "all asks consumed");
+      assertEquals(0, asks.depth(), "book empty");
+      log.info("cleared " + n + " asks in "
+               + (System.nanoTime() - start) / 1000000 + " msec");
+    }
+  }
+}
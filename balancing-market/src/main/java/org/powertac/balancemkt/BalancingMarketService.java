@@ -37,6 +37,7 @@ import org.powertac.common.interfaces.ServerConfiguration;
 import org.powertac.common.Broker;
 import org.powertac.common.Competition;
 import org.powertac.common.Orderbook;
+import org.powertac.common.ParallelStepRunner;
 import org.powertac.common.Timeslot;
 import org.powertac.common.interfaces.TimeslotPhaseProcessor;
 import org.powertac.common.msg.BalanceReport;
@@ -107,6 +108,12 @@ implements BalancingMarket, SettlementContext, InitializationService
           + " \"dynamic\" for multiple-timeslot processing, of balancing orders")
   private String settlementProcess = "";
 
+  @ConfigurableValue(valueType = "Integer",
+          description = "Number of threads for computing per-broker imbalance charges in static settlement; 0 uses the sim thread")
+  private int settlementThreads = 0;
+
+  private ParallelStepRunner settlementRunner = null;
+
   // map settlement process to strategy instances
   @SuppressWarnings("serial")
   private Map<String, Class<?>> settlementMap =
@@ -127,6 +134,9 @@ implements BalancingMarket, SettlementContext, InitializationService
     balancingCost = null;
 
     serverProps.configureMe(this);
+    if (null != settlementRunner)
+      settlementRunner.shutdown();
+    settlementRunner = new ParallelStepRunner("settlement", settlementThreads);
 
     if (null == balancingCost)
         balancingCost = 0D;
@@ -355,6 +365,8 @@ implements BalancingMarket, SettlementContext, InitializationService
               processor.getDeclaredConstructor(TariffRepo.class,
                                                CapacityControl.class);
       result = (SettlementProcessor) constructor.newInstance(tariffRepo, capacityControlService);
+      if (result instanceof StaticSettlementProcessor)
+        ((StaticSettlementProcessor) result).setBrokerRunner(settlementRunner);
     }
     catch (Exception e) {
       log.error("cannot create settlement processor: " + e.toString());
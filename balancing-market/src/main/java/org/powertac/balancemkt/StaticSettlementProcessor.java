@@ -17,13 +17,16 @@ package org.powertac.balancemkt;
 
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.function.Consumer;
 
+import org.powertac.common.ParallelStepRunner;
 import org.powertac.common.RegulationAccumulator;
 import org.powertac.common.interfaces.CapacityControl;
 import org.powertac.common.msg.BalancingOrder;
@@ -45,12 +48,35 @@ public class StaticSettlementProcessor extends SettlementProcessor
   double pPlus, pMinus;
   double pPlusPrime, pMinusPrime;
 
+  // If false, imbalance charges are computed by rebuilding the candidate
+  // set for each broker, as they were originally; kept for testing.
+  private boolean incremental = true;
+
+  // runs the per-broker imbalance charge computations, may be null
+  private ParallelStepRunner brokerRunner = null;
+
   public StaticSettlementProcessor (TariffRepo tariffRepo,
                                     CapacityControl capacityControl)
   {
     super(tariffRepo, capacityControl);
   }
 
+  /**
+   * Sets the runner used to compute imbalance charges for each broker.
+   * If null, or if the runner is sequential, brokers are done in turn on
+   * the calling thread.
+   */
+  void setBrokerRunner (ParallelStepRunner runner)
+  {
+    brokerRunner = runner;
+  }
+
+  // test support
+  void setIncremental (boolean value)
+  {
+    incremental = value;
+  }
+
   /* (non-Javadoc)
    * @see org.powertac.balancemkt.SettlementProcessor#settle(java.util.Collection)
    */
@@ -407,6 +433,12 @@ public class StaticSettlementProcessor extends SettlementProcessor
       else
         contributors.add(info);
     }
+    if (incremental) {
+      computeImbalanceChargesIncremental(brokerData, totalImbalance,
+                                         candidates, contributors,
+                                         nonContributors);
+      return;
+    }
     
     // Do the contributors - the brokers on the imbalance side
     for (ChargeInfo broker : contributors) {
@@ -465,6 +497,73 @@ public class StaticSettlementProcessor extends SettlementProcessor
     }
   }
 
+  // Computes the same imbalance charges as the loops in
+  // computeImbalanceCharges(), without building a filtered copy of the
+  // candidate set for each broker. The candidates are copied once into an
+  // array, and each broker's "without me" exercise set is a vector of
+  // exercised quantities over that array, computed by walking it only as
+  // far as the imbalance is covered. Per-broker exercised totals are
+  // collected in the same walk, so each VCG charge only needs to walk the
+  // non-exercised tail. The arithmetic is done in the same order as in
+  // the original, so the results are the same.
+  private void
+  computeImbalanceChargesIncremental (List<ChargeInfo> brokerData,
+                                      double totalImbalance,
+                                      SortedSet<BOWrapper> candidates,
+                                      Set<ChargeInfo> contributors,
+                                      Set<ChargeInfo> nonContributors)
+  {
+    BOWrapper[] orders = candidates.toArray(new BOWrapper[candidates.size()]);
+    double sgn = Math.signum(totalImbalance);
+
+    // Do the contributors - the brokers on the imbalance side. For
+    // contributors, we do not include offers from non-contributors.
+    List<ChargeInfo> brokers = new ArrayList<ChargeInfo>(contributors);
+    runForBrokers(brokers, broker -> {
+      HashSet<ChargeInfo> excluded = new HashSet<ChargeInfo>(nonContributors);
+      excluded.add(broker);
+      ExerciseSet remains =
+          new ExerciseSet(orders, excluded, totalImbalance);
+      double imbalanceCost = remains.rpCost;
+      for (ChargeInfo target : contributors) {
+        if (target != broker) {
+          imbalanceCost -= remains.computeVcgCharges(target, sgn);
+        }
+      }
+      broker.setBalanceChargeP1(-sgn * imbalanceCost * broker.getNetLoadKWh()
+                                / totalImbalance);
+    });
+
+    // do the non-contributors, including all other brokers
+    brokers = new ArrayList<ChargeInfo>(nonContributors);
+    runForBrokers(brokers, info -> {
+      HashSet<ChargeInfo> excluded = new HashSet<ChargeInfo>();
+      excluded.add(info);
+      ExerciseSet remains =
+          new ExerciseSet(orders, excluded, totalImbalance);
+      double imbalanceCost = remains.rpCost;
+      for (ChargeInfo target : brokerData) {
+        if (target != info) {
+          imbalanceCost -= remains.computeVcgCharges(target, sgn);
+        }
+      }
+      info.setBalanceChargeP1(-sgn * imbalanceCost * info.getNetLoadKWh()
+                              / totalImbalance);
+    });
+  }
+
+  private void runForBrokers (List<ChargeInfo> brokers,
+                              Consumer<ChargeInfo> task)
+  {
+    if (null == brokerRunner) {
+      for (ChargeInfo broker : brokers)
+        task.accept(broker);
+    }
+    else {
+      brokerRunner.runAll(brokers, task);
+    }
+  }
+
   // gets the regulating cost across the dummy orders in remains
   private double findRpCost (SortedSet<BOWrapper> remains)
   {
@@ -594,6 +693,12 @@ public class StaticSettlementProcessor extends SettlementProcessor
     // Returns the total cost (integral) for using qty from the 
     // non-exercised portion of order
     double getTotalNECost (double qty)
+    {
+      return getTotalNECost(qty, exercisedCapacity);
+    }
+
+    // Same as getTotalNECost(qty), given the exercised capacity
+    double getTotalNECost (double qty, double exercisedCapacity)
     {
       //double nePrice = getMarginalPrice(exercisedCapacity);
       //return qty * 0.5 * (nePrice + nePrice + slope * qty);
@@ -606,6 +711,12 @@ public class StaticSettlementProcessor extends SettlementProcessor
     
     // Returns total cost of this order, including its effect on earlier dummy orders
     double getTotalECost ()
+    {
+      return getTotalECost(exercisedCapacity);
+    }
+
+    // Same as getTotalECost(), given the exercised capacity
+    double getTotalECost (double exercisedCapacity)
     {
       double mp1 = 0.0;
       if (startX != 0.0)
@@ -631,6 +742,109 @@ public class StaticSettlementProcessor extends SettlementProcessor
     }
   }
 
+  // Exercise set over the shared candidate array for the orders that
+  // remain when the orders of some brokers are excluded. Plays the role
+  // of the filtered copy of the candidates in computeImbalanceCharges().
+  class ExerciseSet
+  {
+    BOWrapper[] orders;
+    Set<ChargeInfo> excluded;
+    double[] exercised;
+    int firstNonExercised = 0; // index of the start of the non-exercised tail
+    double rpCost = 0.0;
+
+    // exercised quantity by broker, as summed in computeVcgCharges()
+    HashMap<ChargeInfo, Double> brokerExercised =
+        new HashMap<ChargeInfo, Double>();
+
+    ExerciseSet (BOWrapper[] orders, Set<ChargeInfo> excluded,
+                 double totalImbalance)
+    {
+      super();
+      this.orders = orders;
+      this.excluded = excluded;
+      exercised = new double[orders.length];
+
+      // same as determineExerciseSet()
+      double remainingImbalance = totalImbalance;
+      double sgn = Math.signum(totalImbalance);
+      for (int i = 0; i < orders.length; i++) {
+        if (excluded.contains(orders[i].info))
+          continue;
+        if (sgn * remainingImbalance <= 0.0)
+          break;
+        double exercise = Math.min(sgn * remainingImbalance,
+                                   -sgn * orders[i].availableCapacity);
+        exercised[i] = -sgn * exercise;
+        remainingImbalance -= sgn * exercise;
+      }
+
+      // same as determineNonExercisedSet(), findRpCost(), and the
+      // first loop in computeVcgCharges(), in a single pass
+      firstNonExercised = -1;
+      boolean tailFound = false;
+      boolean summed = false;
+      for (int i = 0; i < orders.length; i++) {
+        BOWrapper bow = orders[i];
+        if (excluded.contains(bow.info))
+          continue;
+        if (firstNonExercised < 0)
+          firstNonExercised = i;
+        if (bow.isDummy() && exercised[i] != 0.0)
+          rpCost = -bow.getTotalECost(exercised[i]);
+        if (!tailFound) {
+          if (0.0 == exercised[i])
+            tailFound = true;
+          else {
+            firstNonExercised = i;
+            if (Math.abs(bow.availableCapacity - exercised[i]) > 0.0)
+              // this one is partially exercised
+              tailFound = true;
+          }
+        }
+        if (!summed) {
+          if (bow.availableCapacity != 0.0 && 0.0 == exercised[i])
+            summed = true;
+          else {
+            if (null != bow.info) {
+              Double sum = brokerExercised.get(bow.info);
+              brokerExercised.put(bow.info,
+                                  (null == sum ? 0.0 : sum) + exercised[i]);
+            }
+            if (Math.abs(bow.availableCapacity - exercised[i]) > 0.0)
+              // stop on the last one
+              summed = true;
+          }
+        }
+      }
+    }
+
+    // Same as computeVcgCharges(), with nonParticipants being the
+    // excluded brokers plus target
+    double computeVcgCharges (ChargeInfo target, double sgn)
+    {
+      Double exercisedQty = brokerExercised.get(target);
+      double targetRemainingQty = (null == exercisedQty ? 0 : exercisedQty);
+      double price = 0;
+      for (int i = firstNonExercised; i < orders.length; i++) {
+        BOWrapper nextNonExercised = orders[i];
+        if (Math.abs(targetRemainingQty) < epsilon)
+          break;
+        else if (target != nextNonExercised.info
+                 && !excluded.contains(nextNonExercised.info)) {
+          double avail =
+            (nextNonExercised.availableCapacity - exercised[i]);
+          double used = sgn * Math.max(sgn * avail, sgn * targetRemainingQty);
+          price += sgn * nextNonExercised.getTotalNECost(used, exercised[i]);
+          targetRemainingQty -= used;
+        }
+      }
+      if(Math.abs(targetRemainingQty) > epsilon)
+        log.error("Not enough orders to compute VCG price.");
+      return -price; // result is positive for credit to the broker
+    }
+  }
+
   class BOComparator implements Comparator<BOWrapper>
   {
     @Override
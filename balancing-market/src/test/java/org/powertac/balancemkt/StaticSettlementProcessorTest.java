@@ -20,6 +20,8 @@ import static org.mockito.Mockito.*;
 import static org.mockito.AdditionalMatchers.*;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -27,6 +29,7 @@ import org.powertac.balancemkt.ChargeInfo;
 import org.powertac.balancemkt.SettlementContext;
 import org.powertac.balancemkt.StaticSettlementProcessor;
 import org.powertac.common.Broker;
+import org.powertac.common.ParallelStepRunner;
 import org.powertac.common.Rate;
 import org.powertac.common.RegulationAccumulator;
 import org.powertac.common.Tariff;
@@ -878,6 +881,77 @@ public class StaticSettlementProcessorTest
 
   // --------------------------------------------------------
 
+  // Incremental imbalance charges must match the original computation
+  // that rebuilds the candidate set for each broker, sequentially and
+  // in parallel, over a range of random cases.
+  @Test
+  public void incrementalMatchesOriginal ()
+  {
+    ParallelStepRunner runner = new ParallelStepRunner("settlement-test", 3);
+    for (int trial = 0; trial < 40; trial++) {
+      pplus = 0.1;
+      pminus = -0.02;
+      pplusPrime = (trial % 2 == 0) ? 0.0 : 0.0005;
+      pminusPrime = (trial % 2 == 0) ? 0.0 : -0.0005;
+      List<ChargeInfo> original = makeRandomCase(trial);
+      StaticSettlementProcessor reference =
+          new StaticSettlementProcessor(tariffRepo, capacityControlService);
+      reference.setIncremental(false);
+      reference.settle(context, original);
+
+      List<ChargeInfo> sequential = makeRandomCase(trial);
+      new StaticSettlementProcessor(tariffRepo, capacityControlService)
+          .settle(context, sequential);
+
+      List<ChargeInfo> parallel = makeRandomCase(trial);
+      StaticSettlementProcessor ssp =
+          new StaticSettlementProcessor(tariffRepo, capacityControlService);
+      ssp.setBrokerRunner(runner);
+      ssp.settle(context, parallel);
+
+      for (int i = 0; i < original.size(); i++) {
+        String label = "trial " + trial + ", broker " + i;
+        assertEquals(original.get(i).getBalanceChargeP1(),
+                     sequential.get(i).getBalanceChargeP1(), 1e-9, label);
+        assertEquals(original.get(i).getBalanceChargeP2(),
+                     sequential.get(i).getBalanceChargeP2(), 1e-9, label);
+        assertEquals(original.get(i).getBalanceChargeP1(),
+                     parallel.get(i).getBalanceChargeP1(), 1e-9, label);
+        assertEquals(original.get(i).getBalanceChargeP2(),
+                     parallel.get(i).getBalanceChargeP2(), 1e-9, label);
+      }
+    }
+    runner.shutdown();
+  }
+
+  // Builds the same random set of brokers, imbalances and balancing
+  // orders for a given seed
+  private List<ChargeInfo> makeRandomCase (long seed)
+  {
+    Random rng = new Random(seed);
+    Broker[] brokers = {b1, b2, b3, b4};
+    TariffSpecification[] specs = {spec1, spec2, spec3, spec4};
+    List<ChargeInfo> result = new ArrayList<ChargeInfo>();
+    for (int i = 0; i < brokers.length; i++) {
+      double netLoad = (rng.nextInt(5) == 0) ? 0.0 : rng.nextDouble() * 40.0 - 20.0;
+      ChargeInfo info = new ChargeInfo(brokers[i], netLoad);
+      int orderCount = rng.nextInt(5);
+      for (int j = 0; j < orderCount; j++) {
+        boolean up = rng.nextBoolean();
+        double price = 0.02 + rng.nextDouble() * 0.08;
+        BalancingOrder bo =
+            new BalancingOrder(brokers[i], specs[i],
+                               up ? 0.6 : -0.6, up ? price : -price);
+        when(capacityControlService.getRegulationCapacity(bo)).
+          thenReturn(new RegulationAccumulator(rng.nextDouble() * 6.0,
+                                               -rng.nextDouble() * 6.0));
+        info.addBalancingOrder(bo);
+      }
+      result.add(info);
+    }
+    return result;
+  }
+
   class MockSettlementContext implements SettlementContext
   {
     @Override
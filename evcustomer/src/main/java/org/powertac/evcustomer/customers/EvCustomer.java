@@ -236,7 +236,7 @@ public class EvCustomer
     TariffSubscription sub = null;
     List<TariffSubscription> subs =
         service.getTariffSubscriptionRepo().
-        findActiveSubscriptionsForCustomer(customerInfo);
+        getActiveSubscriptionsForCustomer(customerInfo);
     if (null == subs || subs.size() == 0) {
       log.error("No subscriptions found for " + name);
       return;
@@ -127,6 +127,7 @@ public class CpGenco extends Broker
   public void generateOrders (Instant now, List<Timeslot> openSlots)
   {
     log.info("Generate orders for " + getUsername());
+    List<Order> orders = new ArrayList<Order>();
     for (Timeslot slot: openSlots) {
       function.setCoefficients(getTsCoefficients(slot));
       MarketPosition posn =
@@ -148,10 +149,11 @@ public class CpGenco extends Broker
         Order offer = new Order(this, slot.getSerialNumber(), -dx, price);
         log.debug("new order (ts, qty, price): (" + slot.getSerialNumber()
                   + ", " + (-dx) + ", " + price + ")");
-        brokerProxyService.routeMessage(offer);
+        orders.add(offer);
         start += dx;
       }
     }
+    brokerProxyService.routeOrders(this, orders);
   }
 
   // Converts a timeslot to its index in the coefficient ring buffer,
@@ -37,6 +37,7 @@ import org.powertac.common.repo.TimeslotRepo;
 import org.powertac.common.repo.WeatherForecastRepo;
 import org.powertac.common.repo.WeatherReportRepo;
 import org.powertac.common.state.Domain;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -212,6 +213,7 @@ public class MisoBuyer extends Broker
     log.info("Generate orders for " + getUsername());
     double[] tempCorrections =
         computeWeatherCorrections();
+    List<Order> orders = new ArrayList<Order>();
     int i = 0;
     for (Timeslot slot: openSlots) {
       int index = slot.getSerialNumber();
@@ -227,8 +229,9 @@ public class MisoBuyer extends Broker
       Order offer = new Order(this, index, needed, null);
       log.info(getUsername() + " orders " + needed +
                   " ts " + index);
-      brokerProxyService.routeMessage(offer);
+      orders.add(offer);
     }
+    brokerProxyService.routeOrders(this, orders);
   }
 
   // Computes weather-based demand corrections for each forecast.
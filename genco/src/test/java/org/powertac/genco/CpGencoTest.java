@@ -247,12 +247,13 @@ public class CpGencoTest
     // capture orders
     final ArrayList<Order> orderList = new ArrayList<Order>(); 
     doAnswer(new Answer<Object>() {
+      @SuppressWarnings("unchecked")
       public Object answer(InvocationOnMock invocation) {
         Object[] args = invocation.getArguments();
-        orderList.add((Order)args[0]);
+        orderList.addAll((List<Order>)args[1]);
         return null;
       }
-    }).when(mockProxy).routeMessage(isA(Order.class));
+    }).when(mockProxy).routeOrders(eq(genco), anyList());
     // set up some timeslots
     Timeslot ts1 = timeslotRepo.makeTimeslot(start);
     Timeslot ts2 = timeslotRepo.makeTimeslot(start.plus(TimeService.HOUR));
@@ -264,6 +265,8 @@ public class CpGencoTest
     // generate orders and check
     genco.generateOrders(start, timeslotRepo.enabledTimeslots());
     assertEquals(72, orderList.size(), "72 orders");
+    verify(mockProxy, times(1)).routeOrders(eq(genco), anyList());
+    verify(mockProxy, never()).routeMessage(any());
   }
 
   @SuppressWarnings("unused")
@@ -276,12 +279,13 @@ public class CpGencoTest
     // capture orders
     final ArrayList<Order> orderList = new ArrayList<Order>(); 
     doAnswer(new Answer<Object>() {
+      @SuppressWarnings("unchecked")
       public Object answer(InvocationOnMock invocation) {
         Object[] args = invocation.getArguments();
-        orderList.add((Order)args[0]);
+        orderList.addAll((List<Order>)args[1]);
         return null;
       }
-    }).when(mockProxy).routeMessage(isA(Order.class));
+    }).when(mockProxy).routeOrders(eq(genco), anyList());
     // set up some timeslots
     Timeslot ts1 = timeslotRepo.makeTimeslot(start);
     Timeslot ts2 = timeslotRepo.makeTimeslot(start.plus(TimeService.HOUR));
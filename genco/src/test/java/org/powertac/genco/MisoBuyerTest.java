@@ -230,6 +230,56 @@ public class MisoBuyerTest
     }
   }
 
+  // The orders for all open slots go to the proxy in one batch
+  @Test
+  public void generateOrders ()
+  {
+    Competition comp = Competition.currentCompetition();
+    comp.withTimeslotsOpen(4);
+    WeatherReport wr = new WeatherReport(0, 18.0, 0.0, 0.0, 0.0);
+    when(mockReportRepo.currentWeatherReport()).thenReturn(wr);
+    List<WeatherForecastPrediction> wfs = new ArrayList<>();
+    for (int i = 0; i < comp.getTimeslotsOpen(); i += 1) {
+      wfs.add(new WeatherForecastPrediction(i + 1, 18.0, 0.0, 0.0, 0.0));
+    }
+    when(mockForecastRepo.currentWeatherForecast())
+        .thenReturn(new WeatherForecast(0, wfs));
+    final List<Order> orderList = new ArrayList<>();
+    doAnswer(new Answer<Object>() {
+      @SuppressWarnings("unchecked")
+      public Object answer(InvocationOnMock invocation) {
+        orderList.addAll((List<Order>) invocation.getArguments()[1]);
+        return null;
+      }
+    }).when(mockProxy).routeOrders(eq(buyer), anyList());
+
+    init();
+    Instant now = timeService.getCurrentTime();
+    List<Timeslot> open = new ArrayList<>();
+    for (int i = 1; i <= comp.getTimeslotsOpen(); i += 1) {
+      open.add(timeslotRepo.makeTimeslot(now.plus(TimeService.HOUR * i)));
+    }
+    // 20 mwh already bought in the second slot
+    Timeslot bought = open.get(1);
+    buyer.addMarketPosition(new MarketPosition(buyer, bought, 20.0),
+                            bought.getSerialNumber());
+    buyer.generateOrders(now, open);
+
+    verify(mockProxy, times(1)).routeOrders(eq(buyer), anyList());
+    verify(mockProxy, never()).routeMessage(any());
+    assertEquals(4, orderList.size(), "one order per open slot");
+    for (int i = 0; i < open.size(); i += 1) {
+      Order order = orderList.get(i);
+      int index = open.get(i).getSerialNumber();
+      double already = (open.get(i) == bought) ? 20.0 : 0.0;
+      assertSame(buyer, order.getBroker(), "from the buyer");
+      assertEquals(index, order.getTimeslotIndex(), "slot order");
+      assertEquals(buyer.computeScaledValue(index, 0.0) - already,
+                   order.getMWh(), 1e-6, "remaining demand");
+      assertNull(order.getLimitPrice(), "market order");
+    }
+  }
+
   @Test
   public void testForecastSmooth ()
   {
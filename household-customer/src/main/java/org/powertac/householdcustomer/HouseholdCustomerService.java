@@ -29,6 +29,7 @@ import org.apache.logging.log4j.LogManager;
 import org.joda.time.Instant;
 import org.powertac.common.Competition;
 import org.powertac.common.CustomerInfo;
+import org.powertac.common.ParallelStepRunner;
 //import org.powertac.common.RandomSeed;
 import org.powertac.common.Tariff;
 import org.powertac.common.TimeService;
@@ -101,6 +102,12 @@ public class HouseholdCustomerService extends TimeslotPhaseProcessor
 
   // read this from configurator
   private String configFile1 = null;
+  private int parallelVillageThreads = 0;
+  private int parallelHouseThreads = 0;
+
+  // runners for villages, and for households within a village
+  private ParallelStepRunner villageRunner = null;
+  private ParallelStepRunner houseRunner = null;
 
   /**
    * This is the configuration file that will be utilized to pass the parameters
@@ -141,6 +148,7 @@ public class HouseholdCustomerService extends TimeslotPhaseProcessor
     villageList = new ArrayList<Village>();
 
     serverPropertiesService.configureMe(this);
+    createRunners();
 
     if (configFile1 == null) {
       log.info("No Config File for VillageType1 Taken");
@@ -152,6 +160,18 @@ public class HouseholdCustomerService extends TimeslotPhaseProcessor
     return "HouseholdCustomer";
   }
 
+  // Separate pools for villages and houses, so a village task waiting on
+  // its houses cannot starve them of threads.
+  private void createRunners ()
+  {
+    if (null != villageRunner)
+      villageRunner.shutdown();
+    if (null != houseRunner)
+      houseRunner.shutdown();
+    villageRunner = new ParallelStepRunner("village", parallelVillageThreads);
+    houseRunner = new ParallelStepRunner("household", parallelHouseThreads);
+  }
+
   private void addVillages (String configFile, String type)
   {
     InputStream cfgFile =
@@ -214,6 +234,7 @@ public class HouseholdCustomerService extends TimeslotPhaseProcessor
       }
 
       village.setServiceAccessor(this);
+      village.setHouseRunner(houseRunner);
       village.initialize(configuration, seedId++, map);
       villageList.add(village);
       village.subscribeDefault(tariffMarketService);
@@ -225,8 +246,8 @@ public class HouseholdCustomerService extends TimeslotPhaseProcessor
   public void publishNewTariffs (List<Tariff> tariffs)
   {
     // For each village of the server //
-    for (Village village: villageList)
-      village.evaluateTariffs(tariffs);
+    villageRunner.runAll(villageList,
+                         village -> village.evaluateTariffs(tariffs));
   }
 
   // ----------------- Data access -------------------------
@@ -244,6 +265,32 @@ public class HouseholdCustomerService extends TimeslotPhaseProcessor
     configFile1 = config;
   }
 
+  /** Getter method for the number of village stepping threads */
+  public int getParallelVillageThreads ()
+  {
+    return parallelVillageThreads;
+  }
+
+  @ConfigurableValue(valueType = "Integer", description = "number of threads for stepping villages, 0 for sequential")
+  public
+    void setParallelVillageThreads (int threads)
+  {
+    parallelVillageThreads = threads;
+  }
+
+  /** Getter method for the number of per-household weather check threads */
+  public int getParallelHouseThreads ()
+  {
+    return parallelHouseThreads;
+  }
+
+  @ConfigurableValue(valueType = "Integer", description = "number of threads for the per-household weather check, 0 for sequential")
+  public
+    void setParallelHouseThreads (int threads)
+  {
+    parallelHouseThreads = threads;
+  }
+
   /**
    * This function returns the list of the villages created at the beginning of
    * the game by the service
@@ -267,9 +314,7 @@ public class HouseholdCustomerService extends TimeslotPhaseProcessor
   {
     log.info("Activate");
     if (villageList.size() > 0) {
-      for (Village village: villageList) {
-        village.step();
-      }
+      villageRunner.runAll(villageList, village -> village.step());
     }
   }
 
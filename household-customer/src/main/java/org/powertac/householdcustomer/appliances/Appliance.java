@@ -21,10 +21,9 @@ import java.util.Vector;
 
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
-import org.joda.time.Instant;
 import org.powertac.common.RandomSeed;
+import org.powertac.common.ShiftingCostEstimator;
 import org.powertac.common.Tariff;
-import org.powertac.common.TariffEvaluationHelper;
 import org.powertac.common.repo.RandomSeedRepo;
 import org.powertac.householdcustomer.configurations.VillageConstants;
 import org.powertac.householdcustomer.customers.Household;
@@ -231,14 +230,13 @@ public class Appliance
    * 
    * @param tariff
    * @param nonDominantLoad
-   * @param tariffEvalHelper
+   * @param estimator
    * @param day
-   * @param start 
    * @return TODO
    */
   public double[] dailyShifting (Tariff tariff, double[] nonDominantLoad,
-                                 TariffEvaluationHelper tariffEvalHelper,
-                                 int day, Instant start)
+                                 ShiftingCostEstimator estimator,
+                                 int day)
   {
     return new double[VillageConstants.HOURS_OF_DAY];
   }
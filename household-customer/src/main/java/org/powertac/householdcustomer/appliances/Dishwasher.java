@@ -20,9 +20,8 @@ import java.util.Arrays;
 import java.util.Properties;
 import java.util.Vector;
 
-import org.joda.time.Instant;
+import org.powertac.common.ShiftingCostEstimator;
 import org.powertac.common.Tariff;
-import org.powertac.common.TariffEvaluationHelper;
 import org.powertac.common.repo.RandomSeedRepo;
 import org.powertac.common.spring.SpringApplicationContext;
 import org.powertac.householdcustomer.configurations.VillageConstants;
@@ -176,8 +175,8 @@ public class Dishwasher extends SemiShiftingAppliance
 
   @Override
   public double[] dailyShifting (Tariff tariff, double[] nonDominantUsage,
-                                 TariffEvaluationHelper tariffEvalHelper,
-                                 int day, Instant start)
+                                 ShiftingCostEstimator estimator,
+                                 int day)
   {
 
     double[] newControllableLoad = new double[VillageConstants.HOURS_OF_DAY];
@@ -208,18 +207,15 @@ public class Dishwasher extends SemiShiftingAppliance
         int minIndex = -1;
         int counter = 1;
         double minCost = Double.POSITIVE_INFINITY;
+        estimator.setBase(nonDominantUsage);
 
         for (int j = 0; j < possibleHours.size(); j++) {
 
-          newTemp = Arrays.copyOf(nonDominantUsage, nonDominantUsage.length);
-
-          newTemp[possibleHours.get(j)] +=
-            VillageConstants.QUARTERS_OF_HOUR * power;
-          newTemp[possibleHours.get(j) + 1] +=
-            VillageConstants.QUARTERS_OF_HOUR * power;
-
           double cost =
-            Math.abs(tariffEvalHelper.estimateCost(tariff, newTemp, start));
+            Math.abs(estimator.costWith(possibleHours.get(j),
+                                        VillageConstants.QUARTERS_OF_HOUR * power,
+                                        possibleHours.get(j) + 1,
+                                        VillageConstants.QUARTERS_OF_HOUR * power));
 
           // log.debug("Overall Cost for hour " + possibleHours.get(j) + " : "
           // + cost);
@@ -19,9 +19,8 @@ package org.powertac.householdcustomer.appliances;
 import java.util.Properties;
 import java.util.Vector;
 
-import org.joda.time.Instant;
+import org.powertac.common.ShiftingCostEstimator;
 import org.powertac.common.Tariff;
-import org.powertac.common.TariffEvaluationHelper;
 import org.powertac.common.repo.RandomSeedRepo;
 import org.powertac.common.spring.SpringApplicationContext;
 import org.powertac.householdcustomer.configurations.VillageConstants;
@@ -99,8 +98,8 @@ public class Freezer extends NotShiftingAppliance
 
   @Override
   public double[] dailyShifting (Tariff tariff, double[] nonDominantUsage,
-                                 TariffEvaluationHelper tariffEvalHelper,
-                                 int day, Instant start)
+                                 ShiftingCostEstimator estimator,
+                                 int day)
   {
 
     double[] newControllableLoad = new double[VillageConstants.HOURS_OF_DAY];
@@ -20,9 +20,8 @@ import java.util.Arrays;
 import java.util.Properties;
 import java.util.Vector;
 
-import org.joda.time.Instant;
+import org.powertac.common.ShiftingCostEstimator;
 import org.powertac.common.Tariff;
-import org.powertac.common.TariffEvaluationHelper;
 import org.powertac.common.repo.RandomSeedRepo;
 import org.powertac.common.spring.SpringApplicationContext;
 import org.powertac.householdcustomer.configurations.VillageConstants;
@@ -165,8 +164,8 @@ public class WashingMachine extends SemiShiftingAppliance
 
   @Override
   public double[] dailyShifting (Tariff tariff, double[] nonDominantUsage,
-                                 TariffEvaluationHelper tariffEvalHelper,
-                                 int day, Instant start)
+                                 ShiftingCostEstimator estimator,
+                                 int day)
   {
 
     double[] newControllableLoad = new double[VillageConstants.HOURS_OF_DAY];
@@ -199,28 +198,36 @@ public class WashingMachine extends SemiShiftingAppliance
         int minIndex = -1;
         int counter = 1;
         double minCost = Double.POSITIVE_INFINITY;
+        estimator.setBase(nonDominantUsage);
 
         for (int j = 0; j < possibleHours.size(); j++) {
 
-          newTemp = Arrays.copyOf(nonDominantUsage, nonDominantUsage.length);
-
-          newTemp[possibleHours.get(j)] +=
-            VillageConstants.QUARTERS_OF_HOUR * power;
-          newTemp[possibleHours.get(j) + 1] +=
-            VillageConstants.QUARTERS_OF_HOUR * power;
+          int hour = possibleHours.get(j);
+          double cost;
 
           if (dryerFlag) {
-            newTemp[possibleHours.get(j) + 2] =
-              VillageConstants.QUARTERS_OF_HOUR * dryerPower
-                      - VillageConstants.DRYER_THIRD_PHASE_LOAD;
-            newTemp[possibleHours.get(j) + 3] =
-              (VillageConstants.QUARTERS_OF_HOUR / 2) * dryerPower
-                      - (VillageConstants.QUARTERS_OF_HOUR + 1)
-                      * VillageConstants.DRYER_THIRD_PHASE_LOAD;
+            // the dryer phases replace, rather than add to, the base load
+            cost =
+              Math.abs(estimator.costWith(new int[] { hour, hour + 1,
+                                                      hour + 2, hour + 3 },
+                                          new double[] {
+                  VillageConstants.QUARTERS_OF_HOUR * power,
+                  VillageConstants.QUARTERS_OF_HOUR * power,
+                  VillageConstants.QUARTERS_OF_HOUR * dryerPower
+                          - VillageConstants.DRYER_THIRD_PHASE_LOAD
+                          - nonDominantUsage[hour + 2],
+                  (VillageConstants.QUARTERS_OF_HOUR / 2) * dryerPower
+                          - (VillageConstants.QUARTERS_OF_HOUR + 1)
+                          * VillageConstants.DRYER_THIRD_PHASE_LOAD
+                          - nonDominantUsage[hour + 3] }));
+          }
+          else {
+            cost =
+              Math.abs(estimator.costWith(hour,
+                                          VillageConstants.QUARTERS_OF_HOUR * power,
+                                          hour + 1,
+                                          VillageConstants.QUARTERS_OF_HOUR * power));
           }
-
-          double cost =
-            Math.abs(tariffEvalHelper.estimateCost(tariff, newTemp, start));
 
           // log.debug("Overall Cost for hour " + possibleHours.get(j) + " : "
           // + cost);
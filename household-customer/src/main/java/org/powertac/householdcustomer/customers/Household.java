@@ -25,8 +25,8 @@ import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 import org.joda.time.Instant;
 import org.powertac.common.RandomSeed;
+import org.powertac.common.ShiftingCostEstimator;
 import org.powertac.common.Tariff;
-import org.powertac.common.TariffEvaluationHelper;
 import org.powertac.common.repo.RandomSeedRepo;
 import org.powertac.common.spring.SpringApplicationContext;
 import org.powertac.householdcustomer.appliances.AirCondition;
@@ -1128,15 +1128,14 @@ public class Household
    * 
    * @param tariff
    * @param nonDominantLoad
-   * @param tariffEvalHelper
+   * @param estimator
    * @param day
    * @param gen
-   * @param start
    * @return TODO
    */
   double[] dailyShifting (Tariff tariff, double[] nonDominantLoad,
-                          TariffEvaluationHelper tariffEvalHelper, int day,
-                          RandomSeed gen, Instant start)
+                          ShiftingCostEstimator estimator, int day,
+                          RandomSeed gen)
   {
 
     double[] dominantLoad = new double[VillageConstants.HOURS_OF_DAY];
@@ -1146,7 +1145,7 @@ public class Household
     if (appliance.getOverallPower() != -1)
       dominantLoad =
         appliance.dailyShifting(tariff, nonDominantLoad,
-                                tariffEvalHelper, day, start);
+                                estimator, day);
 
     log.debug("Dominant Appliance " + appliance.toString() + " Overall Power: "
               + appliance.getOverallPower());
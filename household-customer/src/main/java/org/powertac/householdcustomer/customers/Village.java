@@ -30,7 +30,9 @@ import org.apache.logging.log4j.LogManager;
 import org.joda.time.Instant;
 import org.powertac.common.CapacityProfile;
 import org.powertac.common.CustomerInfo;
+import org.powertac.common.ParallelStepRunner;
 import org.powertac.common.RandomSeed;
+import org.powertac.common.ShiftingCostEstimator;
 import org.powertac.common.Tariff;
 import org.powertac.common.TariffEvaluationHelper;
 import org.powertac.common.TariffEvaluator;
@@ -200,6 +202,13 @@ public class Village extends AbstractCustomer
    */
   RandomSeed gen;
 
+  /**
+   * Runner for the per-house weather check, supplied by the service. Each
+   * household and appliance owns its RandomSeed, so houses can be checked
+   * concurrently. Null means sequential.
+   */
+  ParallelStepRunner houseRunner = null;
+
   /**
    * These variables are mapping of the characteristics of the types of houses.
    */
@@ -1261,6 +1270,17 @@ public class Village extends AbstractCustomer
     return (double) summary / VillageConstants.THOUSAND;
   }
 
+  /**
+   * Sets the runner used for the per-house weather check. Load shifting
+   * is not run through it, because each house shifts against the load
+   * already shifted by the houses before it, using the village's
+   * RandomSeed.
+   */
+  public void setHouseRunner (ParallelStepRunner runner)
+  {
+    houseRunner = runner;
+  }
+
   // =====GETTER FUNCTIONS===== //
 
   /** This function returns the inertia Map variable of the village. */
@@ -1665,10 +1685,15 @@ public class Village extends AbstractCustomer
       houses = smartShiftingHouses;
     }
 
+    // the tariff's price curve is computed once for all houses
+    ShiftingCostEstimator estimator =
+      new ShiftingCostEstimator(tariffEvalHelper, tariff, start,
+                                VillageConstants.HOURS_OF_DAY);
+
     for (Household house: houses) {
       double[] temp =
-        house.dailyShifting(tariff, newControllableLoad, tariffEvalHelper,
-                            dayTemp, gen, start);
+        house.dailyShifting(tariff, newControllableLoad, estimator,
+                            dayTemp, gen);
 
       log.debug("New Dominant Load for house " + house.toString()
                 + " for Tariff " + tariff.toString() + ": "
@@ -1775,8 +1800,14 @@ public class Village extends AbstractCustomer
 
       Vector<Household> houses = getHouses();
 
-      for (Household house: houses) {
-        house.weatherCheck(dayTemp, hour, now, temperature);
+      if (null == houseRunner) {
+        for (Household house: houses) {
+          house.weatherCheck(dayTemp, hour, now, temperature);
+        }
+      }
+      else {
+        houseRunner.runChunked(houses, house ->
+          house.weatherCheck(dayTemp, hour, now, temperature));
       }
 
       for (String type: numberOfHouses.keySet()) {
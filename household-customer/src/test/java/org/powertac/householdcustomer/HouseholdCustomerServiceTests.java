@@ -20,7 +20,9 @@ import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.TreeMap;
 
 import org.apache.commons.configuration2.MapConfiguration;
@@ -797,4 +799,95 @@ public class HouseholdCustomerServiceTests
       householdCustomerService.activate(timeService.getCurrentTime(), 1);
     }
   }
+
+  // Villages and houses stepped concurrently must post the same
+  // transactions, and record the same tariff usage, as a sequential run
+  @Test
+  public void testParallelMatchesSequential ()
+  {
+    // a first run finds the seeds, which then get fixed values
+    runVillages(0, 0, null);
+    @SuppressWarnings("unchecked")
+    Map<String, ?> seedMap =
+        (Map<String, ?>) ReflectionTestUtils.getField(randomSeedRepo,
+                                                      "seedMap");
+    Map<String, Long> seeds = new HashMap<String, Long>();
+    for (String name: seedMap.keySet())
+      seeds.put(name, (long) name.hashCode());
+
+    List<String> sequential = new ArrayList<String>();
+    double sequentialPrice = runVillages(0, 0, seeds);
+    sequential.addAll(transactions());
+    double parallelPrice;
+    try {
+      parallelPrice = runVillages(2, 3, seeds);
+    }
+    finally {
+      householdCustomerService.setParallelVillageThreads(0);
+      householdCustomerService.setParallelHouseThreads(0);
+    }
+    assertTrue(sequential.size() > 0, "transactions posted");
+    assertEquals(sequential, transactions(), "same transactions");
+    assertEquals(sequentialPrice, parallelPrice, 0.0, "same realized price");
+  }
+
+  // Runs the villages through a day on a fresh default tariff, using the
+  // given thread counts and seed values, and returns the realized price
+  private double runVillages (int villageThreads, int houseThreads,
+                              Map<String, Long> seeds)
+  {
+    customerRepo.recycle();
+    tariffSubscriptionRepo.recycle();
+    timeslotRepo.recycle();
+    weatherReportRepo.recycle();
+    randomSeedRepo.recycle();
+    if (null != seeds) {
+      @SuppressWarnings("unchecked")
+      Map<String, Long> pending =
+          (Map<String, Long>) ReflectionTestUtils.getField(randomSeedRepo,
+                                                           "pendingSeedMap");
+      pending.putAll(seeds);
+    }
+    accountingArgs.clear();
+    householdCustomerService.seedId = 1;
+    householdCustomerService.setParallelVillageThreads(villageThreads);
+    householdCustomerService.setParallelHouseThreads(houseThreads);
+
+    Tariff tariff = new Tariff(defaultTariffSpec);
+    tariff.init();
+    tariff.setState(Tariff.State.OFFERED);
+    when(mockTariffMarket.getDefaultTariff(PowerType.CONSUMPTION))
+            .thenReturn(tariff);
+    when(mockTariffMarket.getDefaultTariff(PowerType.INTERRUPTIBLE_CONSUMPTION))
+            .thenReturn(tariff);
+    timeService.setCurrentTime(now);
+    initializeService();
+    for (Village customer: householdCustomerService.getVillageList()) {
+      for (CustomerInfo customerInfo: customer.getCustomerInfos()) {
+        tariffSubscriptionRepo.getSubscription(customerInfo, tariff)
+            .subscribe(customerInfo.getPopulation());
+      }
+    }
+    accountingArgs.clear();
+
+    for (int hour = 0; hour < 24; hour++) {
+      timeService.setCurrentTime(now.plus(hour * TimeService.HOUR));
+      Timeslot ts = timeslotRepo.makeTimeslot(timeService.getCurrentTime());
+      weatherReportRepo.add(new WeatherReport(ts.getSerialNumber(),
+                                              hour - 5.0, 2, 3, 4));
+      householdCustomerService.activate(timeService.getCurrentTime(), 1);
+    }
+    return tariff.getRealizedPrice();
+  }
+
+  // The captured tariff transactions, without object ids
+  private List<String> transactions ()
+  {
+    List<String> result = new ArrayList<String>();
+    for (Object[] args: accountingArgs) {
+      result.add(args[0] + ":" + ((CustomerInfo) args[2]).getName() + ":"
+                 + args[3] + ":" + args[4] + ":" + args[5]);
+    }
+    return result;
+  }
 }
@@ -0,0 +1,422 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.logtool;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.powertac.logtool.ifc.Analyzer;
+import org.powertac.logtool.ifc.BatchMerger;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Analyzes many state logs in one JVM, several at a time. Give a source
+ * and the classnames of a set of Analyzers, as for Logtool. The source is
+ * a directory (all the state logs in it), a glob pattern such as
+ * <code>games/*.tar.gz</code>, or <code>@file</code>, where file lists one
+ * log per line.
+ * <p>
+ * The domain classes and repos find each other through the static
+ * SpringApplicationContext, so two games cannot share a class loader.
+ * Each worker thread has its own class loader over the application
+ * classpath, with its own Spring context and repos. Games on the same
+ * worker run one after the other, and each game gets new Analyzer
+ * instances. When all games are done, the summaries are passed to an
+ * optional BatchMerger in the order the games were listed.</p>
+ * @author agent
+ */
+public class LogtoolBatch
+{
+  static private Logger log = LogManager.getLogger(LogtoolBatch.class.getName());
+
+  private int threads;
+  private int parseThreads = 1;
+  private URL[] classpath;
+
+  // one isolated class loader per worker thread
+  private ThreadLocal<URLClassLoader> workerLoader = new ThreadLocal<>();
+  private List<URLClassLoader> loaders =
+      Collections.synchronizedList(new ArrayList<>());
+
+  // key for the error, if any, in a game result
+  static final String ERROR = "error";
+
+  /**
+   * Creates a batch runner that analyzes up to threads games at a time.
+   */
+  public LogtoolBatch (int threads)
+  {
+    super();
+    this.threads = Math.max(1, threads);
+  }
+
+  /**
+   * Sets the number of parse threads used by each game's LogtoolCore.
+   * The default is one, since the games already run in parallel.
+   */
+  public void setParseThreads (int parseThreads)
+  {
+    this.parseThreads = parseThreads;
+  }
+
+  /**
+   * Command-line entry point. Arguments are
+   * <code>[-threads n] [-merger classname] source analyzer ...</code>
+   */
+  public static void main (String[] args)
+  {
+    int threads = Runtime.getRuntime().availableProcessors();
+    String mergerName = null;
+    int index = 0;
+    while (index < args.length && args[index].startsWith("-")) {
+      if (args[index].equals("-threads") && index + 1 < args.length) {
+        threads = Integer.parseInt(args[index + 1]);
+        index += 2;
+      }
+      else if (args[index].equals("-merger") && index + 1 < args.length) {
+        mergerName = args[index + 1];
+        index += 2;
+      }
+      else {
+        break;
+      }
+    }
+    if (args.length - index < 2) {
+      System.out.println("Usage: LogtoolBatch [-threads n] [-merger class] "
+                         + "source analyzer ...");
+      System.exit(-1);
+    }
+    int exitCode = 0;
+    String error = null;
+    try {
+      BatchMerger merger = null;
+      if (null != mergerName) {
+        Class<?> mergerClass = Class.forName(mergerName);
+        merger = (BatchMerger) mergerClass.getDeclaredConstructor().newInstance();
+      }
+      LogtoolBatch batch = new LogtoolBatch(threads);
+      List<String> sources = batch.findSources(args[index]);
+      String[] analyzers = Arrays.copyOfRange(args, index + 1, args.length);
+      error = batch.run(sources, analyzers, merger);
+    }
+    catch (ClassNotFoundException cnf) {
+      error = "Cannot find merger class " + mergerName;
+    }
+    catch (IOException ioe) {
+      error = "Cannot list sources: " + ioe.toString();
+    }
+    catch (Exception ex) {
+      error = "Exception creating merger " + ex.toString();
+    }
+    if (error != null) {
+      System.out.println(error);
+      exitCode = -1;
+    }
+    System.exit(exitCode);
+  }
+
+  /**
+   * Expands a source spec into a sorted list of state logs. The spec is a
+   * directory, a glob pattern, or @file naming a file that lists one log
+   * per line. A spec that is none of these is taken as a single log.
+   */
+  public List<String> findSources (String spec) throws IOException
+  {
+    List<String> result = new ArrayList<>();
+    if (spec.startsWith("@")) {
+      for (String line : Files.readAllLines(Paths.get(spec.substring(1)))) {
+        line = line.trim();
+        if (!line.isEmpty() && !line.startsWith("#"))
+          result.add(line);
+      }
+      // keep the listed order
+      return result;
+    }
+    Path path = Paths.get(spec);
+    if (Files.isDirectory(path)) {
+      try (DirectoryStream<Path> dir = Files.newDirectoryStream(path)) {
+        for (Path entry : dir) {
+          if (Files.isRegularFile(entry) && isStateLog(entry))
+            result.add(entry.toString());
+        }
+      }
+    }
+    else if (spec.indexOf('*') >= 0 || spec.indexOf('?') >= 0
+             || spec.indexOf('[') >= 0 || spec.indexOf('{') >= 0) {
+      // glob; the pattern applies to the last path element
+      Path parent = path.getParent();
+      if (null == parent)
+        parent = Paths.get(".");
+      String pattern = path.getFileName().toString();
+      try (DirectoryStream<Path> dir =
+          Files.newDirectoryStream(parent, pattern)) {
+        for (Path entry : dir) {
+          if (Files.isRegularFile(entry))
+            result.add(entry.toString());
+        }
+      }
+    }
+    else {
+      result.add(spec);
+    }
+    Collections.sort(result);
+    return result;
+  }
+
+  // State logs may be plain, compressed, or inside a game archive
+  private boolean isStateLog (Path entry)
+  {
+    String name = entry.getFileName().toString();
+    return name.endsWith(".state") || name.contains(".state.")
+        || name.endsWith(".tar.gz") || name.endsWith(".tgz")
+        || name.endsWith(".tar.bz2") || name.endsWith(".zip");
+  }
+
+  /**
+   * Analyzes the given logs, up to threads at a time, with new instances
+   * of the named Analyzer classes for each game. Results are passed to
+   * merger, if it is not null. Returns null if all games were read, or a
+   * description of the failures.
+   */
+  public String run (List<String> sources, String[] analyzers,
+                     BatchMerger merger)
+  {
+    classpath = findClasspath();
+    ExecutorService workers =
+        Executors.newFixedThreadPool(threads, new WorkerFactory());
+    List<Future<Map<String, Object>>> results = new ArrayList<>();
+    for (String source : sources) {
+      results.add(workers.submit(() -> runGame(source, analyzers)));
+    }
+    StringBuilder errors = new StringBuilder();
+    try {
+      for (int i = 0; i < sources.size(); i++) {
+        String source = sources.get(i);
+        Map<String, Object> result;
+        try {
+          result = results.get(i).get();
+        }
+        catch (ExecutionException ee) {
+          Throwable cause = ee.getCause();
+          if (cause instanceof InvocationTargetException)
+            cause = cause.getCause();
+          log.error("Game " + source + " failed", cause);
+          result = new LinkedHashMap<>();
+          result.put(ERROR, cause.toString());
+        }
+        String error = (String) result.get(ERROR);
+        if (null != error) {
+          errors.append(source).append(": ").append(error).append("\n");
+        }
+        if (null != merger) {
+          mergeGame(merger, source, analyzers, result, error);
+        }
+      }
+    }
+    catch (InterruptedException ie) {
+      log.warn("Interrupted waiting for games");
+      Thread.currentThread().interrupt();
+      errors.append("interrupted\n");
+    }
+    finally {
+      workers.shutdownNow();
+      closeLoaders();
+    }
+    if (null != merger)
+      merger.report();
+    if (0 == errors.length())
+      return null;
+    return errors.toString();
+  }
+
+  @SuppressWarnings("unchecked")
+  private void mergeGame (BatchMerger merger, String source,
+                          String[] analyzers, Map<String, Object> result,
+                          String error)
+  {
+    for (String analyzer : analyzers) {
+      merger.merge(source, analyzer,
+                   (Map<String, Object>) result.get(analyzer), error);
+    }
+  }
+
+  // Runs one game in this worker's class loader
+  @SuppressWarnings("unchecked")
+  private Map<String, Object> runGame (String source, String[] analyzers)
+      throws Exception
+  {
+    URLClassLoader loader = workerLoader.get();
+    if (null == loader) {
+      loader = new URLClassLoader(classpath,
+                                  ClassLoader.getPlatformClassLoader());
+      workerLoader.set(loader);
+      loaders.add(loader);
+    }
+    Thread current = Thread.currentThread();
+    ClassLoader saved = current.getContextClassLoader();
+    current.setContextClassLoader(loader);
+    try {
+      log.info("Analyzing " + source);
+      Class<?> game = loader.loadClass(Game.class.getName());
+      Method analyze = game.getMethod("analyze", String.class,
+                                      String[].class, int.class);
+      return (Map<String, Object>) analyze.invoke(null, source,
+                                                  analyzers, parseThreads);
+    }
+    finally {
+      current.setContextClassLoader(saved);
+    }
+  }
+
+  private void closeLoaders ()
+  {
+    synchronized (loaders) {
+      for (URLClassLoader loader : loaders) {
+        try {
+          loader.close();
+        }
+        catch (IOException ioe) {
+          log.warn("Could not close class loader: " + ioe.toString());
+        }
+      }
+      loaders.clear();
+    }
+  }
+
+  // The classpath the batch itself was loaded from. Loaders that expose
+  // their URLs, such as those of an IDE or an application server, are
+  // used as they are; the JDK application loader does not, so its
+  // classpath comes from java.class.path. Either way, the location this
+  // class came from is included.
+  private URL[] findClasspath ()
+  {
+    LinkedHashSet<URL> result = new LinkedHashSet<>();
+    ClassLoader loader = Thread.currentThread().getContextClassLoader();
+    if (null == loader)
+      loader = LogtoolBatch.class.getClassLoader();
+    for (; null != loader; loader = loader.getParent()) {
+      if (loader instanceof URLClassLoader)
+        result.addAll(Arrays.asList(((URLClassLoader) loader).getURLs()));
+    }
+    if (result.isEmpty()) {
+      String[] entries =
+          System.getProperty("java.class.path").split(File.pathSeparator);
+      for (String entry : entries) {
+        try {
+          result.add(new File(entry).toURI().toURL());
+        }
+        catch (MalformedURLException e) {
+          log.error("Bad classpath entry " + entry);
+        }
+      }
+    }
+    CodeSource source = LogtoolBatch.class.getProtectionDomain().getCodeSource();
+    if (null != source && null != source.getLocation())
+      result.add(source.getLocation());
+    return result.toArray(new URL[result.size()]);
+  }
+
+  /**
+   * Analyzes a single game. This class is loaded separately in each
+   * worker's class loader, so it must only exchange standard Java types
+   * with the rest of the batch.
+   */
+  public static class Game
+  {
+    /**
+     * Reads the log with new instances of the analyzers, the same way
+     * Logtool does for a single game. Returns the analyzer summaries,
+     * by class name, and the error, if any, under "error".
+     */
+    public static Map<String, Object> analyze (String source,
+                                               String[] analyzers,
+                                               int parseThreads)
+    {
+      Map<String, Object> result = new LinkedHashMap<>();
+      Logtool lt = new Logtool();
+      LogtoolCore core = lt.getCore();
+      core.setParseThreads(parseThreads);
+      try {
+        Analyzer[] tools = new Analyzer[analyzers.length];
+        for (int i = 0; i < analyzers.length; i++) {
+          try {
+            Class<?> toolClass = Class.forName(analyzers[i]);
+            tools[i] =
+                (Analyzer) toolClass.getDeclaredConstructor().newInstance();
+          }
+          catch (ClassNotFoundException e1) {
+            result.put(ERROR, "Cannot find analyzer class " + analyzers[i]);
+            return result;
+          }
+          catch (Exception ex) {
+            result.put(ERROR, "Exception creating analyzer " + ex.toString());
+            return result;
+          }
+        }
+        String error = core.readStateLog(source, tools);
+        if (null != error)
+          result.put(ERROR, error);
+        for (int i = 0; i < tools.length; i++) {
+          result.put(analyzers[i], tools[i].getSummary());
+        }
+        return result;
+      }
+      finally {
+        if (lt.getContext() instanceof ConfigurableApplicationContext)
+          ((ConfigurableApplicationContext) lt.getContext()).close();
+      }
+    }
+  }
+
+  // Names worker threads, and keeps them from holding up exit
+  private static class WorkerFactory implements ThreadFactory
+  {
+    private final AtomicInteger count = new AtomicInteger(0);
+
+    @Override
+    public Thread newThread (Runnable r)
+    {
+      Thread result = new Thread(r, "logtool-game-" + count.incrementAndGet());
+      result.setDaemon(true);
+      return result;
+    }
+  }
+}
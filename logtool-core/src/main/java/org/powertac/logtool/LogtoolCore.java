@@ -23,10 +23,18 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.Reader;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.PostConstruct;
 
@@ -38,6 +46,7 @@ import org.apache.commons.compress.archivers.ArchiveStreamFactory;
 import org.apache.commons.compress.compressors.CompressorException;
 import org.apache.commons.compress.compressors.CompressorStreamFactory;
 import org.apache.logging.log4j.LogManager;
+import org.powertac.common.BinaryStateLog;
 import org.powertac.common.msg.SimEnd;
 import org.powertac.common.msg.SimStart;
 import org.powertac.common.repo.DomainRepo;
@@ -46,6 +55,8 @@ import org.powertac.logtool.common.DomainObjectReader;
 import org.powertac.logtool.common.MissingDomainObject;
 import org.powertac.logtool.common.DomainBuilder;
 import org.powertac.logtool.common.NewObjectListener;
+import org.powertac.logtool.common.ParsedLine;
+import org.powertac.logtool.common.ReplayStart;
 import org.powertac.logtool.ifc.Analyzer;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -66,9 +77,26 @@ public class LogtoolCore
   @Autowired
   private DomainBuilder builder;
 
-  private boolean simEnd = false;
+  private volatile boolean simEnd = false;
   private boolean isInterrupted = false;
 
+  // Number of threads parsing lines in the pipelined reader. If zero,
+  // each line is read, parsed, and applied in turn on the calling thread.
+  private int parseThreads =
+      Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+  // lines per parse task, and parse tasks queued ahead of the apply stage
+  private static final int BATCH_SIZE = 500;
+  private static final int QUEUE_DEPTH = 16;
+  private static final long POLL_INTERVAL = 100; // msec
+
+  // marks the end of input in the batch queue
+  private static final Future<ParsedLine[]> END_OF_INPUT =
+      CompletableFuture.completedFuture(null);
+
+  // most recent entry handed to the reader, for error reports
+  private Object currentEntry = null;
+
   static private CompressorStreamFactory compressFactory = new CompressorStreamFactory();
   static private ArchiveStreamFactory archiveFactory = new ArchiveStreamFactory();
 
@@ -82,8 +110,8 @@ public class LogtoolCore
 
   @PostConstruct
   public void postConstruct() {
-    reader.registerNewObjectListener(new SimStartHandler(), SimStart.class);
-    reader.registerNewObjectListener(new SimEndHandler(), SimEnd.class);
+    reader.registerStateListener(new SimStartHandler(), SimStart.class);
+    reader.registerStateListener(new SimEndHandler(), SimEnd.class);
     builder.setup();
   }
 
@@ -95,6 +123,22 @@ public class LogtoolCore
     reader.setTimeslotPause(msec);
   }
 
+  /**
+   * Sets the number of threads used to parse state-log lines. With zero
+   * threads, lines are read and applied one at a time on the calling
+   * thread. Otherwise, reading and decompression, parsing, and applying
+   * lines to the domain objects run as separate pipeline stages.
+   */
+  public void setParseThreads (int threads)
+  {
+    parseThreads = threads;
+  }
+
+  public int getParseThreads ()
+  {
+    return parseThreads;
+  }
+
   /**
    * Processes a command line, providing a state-log file from the local
    * filesystem, or a remote URL.
@@ -149,6 +193,33 @@ public class LogtoolCore
     return readStateLog(inputFile, tools);
   }
 
+  /**
+   * Reads the given state-log file, starting the replay at the given
+   * timeslot. The lines before that timeslot are still applied, to rebuild
+   * the domain state, but analyzers and other listeners do not see them.
+   * The start is found while reading, so the log is read only once.
+   */
+  public String readStateLog (String source, int startTimeslot,
+                              Analyzer... tools)
+  {
+    File inputFile = new File(source);
+    if (!inputFile.canRead()) {
+      return "Cannot read file " + source;
+    }
+    log.info("Reading file {} from timeslot {}", source, startTimeslot);
+    ReplayStart start = new ReplayStart(startTimeslot);
+    String result;
+    try {
+      result = readStateLog(new FileInputStream(inputFile), start, tools);
+    } catch (FileNotFoundException e) {
+      return "Cannot open file " + source;
+    }
+    if (null == result && !start.isReached()) {
+      return "No timeslot " + startTimeslot + " in " + source;
+    }
+    return result;
+  }
+
   /**
    * Reads state-log from given input file using the DomainObjectReader.
    */
@@ -178,47 +249,22 @@ public class LogtoolCore
    */
   public String readStateLog (InputStream inputStream, Analyzer... tools)
   {
-    Reader inputReader;
-    String line = null;
+    return readStateLog(inputStream, null, tools);
+  }
 
+  // Reads the log, fast-forwarding up to start if it is not null
+  private String readStateLog (InputStream inputStream, ReplayStart start,
+                               Analyzer... tools)
+  {
     log.info("Reading state log from stream for {}",
              tools[0].getClass().getName());
     simEnd = false;
     isInterrupted = false;
 
     try {
-      // Stack compression logic if appropriate
-      try {
-        if (!inputStream.markSupported()) {
-          inputStream = new BufferedInputStream(inputStream);
-        }
-        inputStream = compressFactory.createCompressorInputStream(inputStream);
-      } catch (CompressorException x) {
-        // Stream not compressed (or unknown compression scheme)
-      }
-
-      // Stack archive logic if appropriate
-      try {
-        if (!inputStream.markSupported()) {
-          inputStream = new BufferedInputStream(inputStream);
-        }
-        ArchiveInputStream archiveStream = archiveFactory.createArchiveInputStream(inputStream);
-        ArchiveEntry entry;
-        inputStream = null;
-        while ((entry = archiveStream.getNextEntry()) != null) {
-          String name = entry.getName();
-          if (entry.isDirectory() || !name.startsWith("log/")
-                  || !name.endsWith(".state") || name.endsWith("init.state")) {
-            continue;
-          }
-          inputStream = archiveStream;
-          break;
-        }
-        if (inputStream == null) {
-          return "Cannot read archive, no valid state log entry";
-        }
-      } catch (ArchiveException x) {
-        // Stream not archived (or unknown archiving scheme)
+      inputStream = decodeStream(inputStream);
+      if (inputStream == null) {
+        return "Cannot read archive, no valid state log entry";
       }
 
       // Recycle repos from previous session
@@ -228,28 +274,28 @@ public class LogtoolCore
           repo.recycle();
         }
 
-      // Now go read the state-log
-      inputReader = new InputStreamReader(inputStream);
+      // Now go read the state-log, in whichever format it's in
+      EntrySource in;
+      if (BinaryStateLog.isBinary(inputStream)) {
+        log.info("Binary state log");
+        in = new BinarySource(new BinaryStateLog.Reader(inputStream));
+      }
+      else {
+        in = new TextSource(new BufferedReader(new InputStreamReader(inputStream)));
+      }
       for (Analyzer tool: tools) {
         log.info("Setting up {}", tool.getClass().getName());
         tool.setup();
       }
-      BufferedReader in = new BufferedReader(inputReader);
-      int lineNumber = 0;
-      while (!simEnd) {
-        synchronized(this) {
-          if (isInterrupted) {
-            in.close();
-            break;
-          }
-        }
-        line = in.readLine();
-        if (null == line) {
-          log.info("Last line " + lineNumber);
-          break;
-        }
-        lineNumber += 1;
-        reader.readObject(line);
+      // fast-forward to the starting timeslot, if any
+      reader.setFastForward(null != start);
+      if (parseThreads > 0)
+        readPipelined(in, start);
+      else
+        readSequential(in, start);
+      if (null != start && !start.isReached()) {
+        log.warn("Log ended before timeslot {}", start.getTimeslot());
+        return null;
       }
       builder.report();
       for (Analyzer tool: tools) {
@@ -260,11 +306,271 @@ public class LogtoolCore
       return "Error reading from stream";
     }
     catch (MissingDomainObject e) {
-      return "MDO on " + line;
+      return "MDO on " + describe(currentEntry);
+    }
+    finally {
+      reader.setFastForward(false);
     }
     return null;
   }
 
+  // Stacks decompression and archive extraction on the raw stream, as
+  // needed. Returns null for an archive with no state log. The result
+  // supports mark(), so the format can be checked.
+  static InputStream decodeStream (InputStream inputStream)
+      throws IOException
+  {
+    // Stack compression logic if appropriate
+    try {
+      if (!inputStream.markSupported()) {
+        inputStream = new BufferedInputStream(inputStream);
+      }
+      inputStream = compressFactory.createCompressorInputStream(inputStream);
+    } catch (CompressorException x) {
+      // Stream not compressed (or unknown compression scheme)
+    }
+
+    // Stack archive logic if appropriate
+    try {
+      if (!inputStream.markSupported()) {
+        inputStream = new BufferedInputStream(inputStream);
+      }
+      ArchiveInputStream archiveStream = archiveFactory.createArchiveInputStream(inputStream);
+      ArchiveEntry entry;
+      inputStream = null;
+      while ((entry = archiveStream.getNextEntry()) != null) {
+        String name = entry.getName();
+        if (entry.isDirectory() || !name.startsWith("log/")
+                || !name.endsWith(".state") || name.endsWith("init.state")) {
+          continue;
+        }
+        inputStream = archiveStream;
+        break;
+      }
+    } catch (ArchiveException x) {
+      // Stream not archived (or unknown archiving scheme)
+    }
+    if (null != inputStream && !inputStream.markSupported()) {
+      inputStream = new BufferedInputStream(inputStream);
+    }
+    return inputStream;
+  }
+
+  // Reads and applies one line at a time, fast-forwarding up to start
+  void readSequential (EntrySource in, ReplayStart start)
+      throws IOException, MissingDomainObject
+  {
+    int lineNumber = 0;
+    while (!simEnd) {
+      synchronized(this) {
+        if (isInterrupted) {
+          in.close();
+          break;
+        }
+      }
+      currentEntry = in.next();
+      if (null == currentEntry) {
+        log.info("Last line " + lineNumber);
+        break;
+      }
+      lineNumber += 1;
+      if (null == start || start.isReached()) {
+        if (currentEntry instanceof String)
+          reader.readObject((String) currentEntry);
+        else
+          reader.readObject((BinaryStateLog.Record) currentEntry);
+        continue;
+      }
+      ParsedLine parsed = (currentEntry instanceof String) ?
+          reader.parse((String) currentEntry) :
+          reader.parse((BinaryStateLog.Record) currentEntry);
+      if (null == parsed)
+        continue;
+      if (start.reached(parsed))
+        reader.setFastForward(false);
+      reader.apply(parsed);
+    }
+  }
+
+  // Reads the log in three stages. One thread reads (and decompresses)
+  // batches of lines and hands each batch to the parse pool; the futures
+  // go into a bounded queue in log order. The calling thread takes them
+  // from the queue and applies the parsed lines, so the reader's id map
+  // is only touched by one thread, in the original order. Fast-forwards
+  // up to start, if it is not null.
+  void readPipelined (EntrySource in, ReplayStart start)
+      throws IOException, MissingDomainObject
+  {
+    ExecutorService readStage =
+        Executors.newSingleThreadExecutor(new StageFactory("logtool-read"));
+    ExecutorService parseStage =
+        Executors.newFixedThreadPool(parseThreads,
+                                     new StageFactory("logtool-parse"));
+    ArrayBlockingQueue<Future<ParsedLine[]>> batches =
+        new ArrayBlockingQueue<>(QUEUE_DEPTH);
+    Future<?> reading = readStage.submit(() -> {
+      readBatches(in, parseStage, batches);
+      return null;
+    });
+    try {
+      boolean done = false;
+      while (!done && !simEnd) {
+        Future<ParsedLine[]> next =
+            batches.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+        if (null == next) {
+          if (reading.isDone() && batches.isEmpty()) {
+            // read stage failed before it could queue the end marker
+            reading.get();
+            break;
+          }
+          continue;
+        }
+        if (END_OF_INPUT == next)
+          break;
+        for (ParsedLine parsed : next.get()) {
+          synchronized(this) {
+            if (isInterrupted) {
+              in.close();
+              done = true;
+              break;
+            }
+          }
+          if (simEnd)
+            break;
+          if (null == parsed)
+            continue;
+          if (null != start && start.reached(parsed))
+            reader.setFastForward(false);
+          currentEntry = parsed;
+          reader.apply(parsed);
+        }
+      }
+    }
+    catch (InterruptedException ie) {
+      log.warn("Interrupted reading state log");
+      Thread.currentThread().interrupt();
+    }
+    catch (ExecutionException ee) {
+      Throwable cause = ee.getCause();
+      if (cause instanceof IOException)
+        throw (IOException) cause;
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+      if (cause instanceof Error)
+        throw (Error) cause;
+      throw new IOException(cause);
+    }
+    finally {
+      readStage.shutdownNow();
+      parseStage.shutdownNow();
+    }
+  }
+
+  // Read stage of the pipeline
+  private void readBatches (EntrySource in, ExecutorService parseStage,
+                            ArrayBlockingQueue<Future<ParsedLine[]>> batches)
+      throws IOException, InterruptedException
+  {
+    int lineNumber = 0;
+    Object[] batch = new Object[BATCH_SIZE];
+    int count = 0;
+    Object entry;
+    while (!simEnd && null != (entry = in.next())) {
+      lineNumber += 1;
+      batch[count++] = entry;
+      if (BATCH_SIZE == count) {
+        batches.put(parseBatch(parseStage, batch, count));
+        batch = new Object[BATCH_SIZE];
+        count = 0;
+      }
+    }
+    if (count > 0)
+      batches.put(parseBatch(parseStage, batch, count));
+    log.info("Last line " + lineNumber);
+    batches.put(END_OF_INPUT);
+  }
+
+  private Future<ParsedLine[]> parseBatch (ExecutorService parseStage,
+                                           Object[] entries, int count)
+  {
+    return parseStage.submit(() -> {
+      ParsedLine[] result = new ParsedLine[count];
+      for (int i = 0; i < count; i++) {
+        if (entries[i] instanceof String)
+          result[i] = reader.parse((String) entries[i]);
+        else
+          result[i] = reader.parse((BinaryStateLog.Record) entries[i]);
+      }
+      return result;
+    });
+  }
+
+  // Text of a log entry, for error reports
+  private String describe (Object entry)
+  {
+    if (entry instanceof ParsedLine)
+      return ((ParsedLine) entry).getLine();
+    if (entry instanceof BinaryStateLog.Record)
+      return ((BinaryStateLog.Record) entry).toLine();
+    return String.valueOf(entry);
+  }
+
+  // Source of log entries: text lines, or records from a binary log
+  interface EntrySource
+  {
+    /** Returns the next entry, or null at the end of the log */
+    Object next () throws IOException;
+
+    void close () throws IOException;
+  }
+
+  static class TextSource implements EntrySource
+  {
+    private BufferedReader in;
+
+    TextSource (BufferedReader in)
+    {
+      this.in = in;
+    }
+
+    @Override
+    public Object next () throws IOException
+    {
+      return in.readLine();
+    }
+
+    @Override
+    public void close () throws IOException
+    {
+      in.close();
+    }
+  }
+
+  static class BinarySource implements EntrySource
+  {
+    private BinaryStateLog.Reader in;
+    private boolean closed = false;
+
+    BinarySource (BinaryStateLog.Reader in)
+    {
+      this.in = in;
+    }
+
+    @Override
+    public synchronized Object next () throws IOException
+    {
+      if (closed)
+        return null;
+      return in.next();
+    }
+
+    @Override
+    public synchronized void close ()
+    {
+      closed = true;
+    }
+  }
+
   public synchronized void interrupt() {
     isInterrupted = true;
   }
@@ -286,4 +592,24 @@ public class LogtoolCore
     }
     
   }
+
+  // Names pipeline threads, and keeps them from holding up exit
+  private static class StageFactory implements ThreadFactory
+  {
+    private final String prefix;
+    private final AtomicInteger count = new AtomicInteger(0);
+
+    StageFactory (String name)
+    {
+      prefix = name + "-";
+    }
+
+    @Override
+    public Thread newThread (Runnable r)
+    {
+      Thread result = new Thread(r, prefix + count.incrementAndGet());
+      result.setDaemon(true);
+      return result;
+    }
+  }
 }
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.logtool;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import org.powertac.common.BinaryStateLog;
+
+/**
+ * Converts a state log between the text and binary formats. The input
+ * may be compressed or inside a game archive, as for the logtool; the
+ * output is uncompressed. A text log is written as binary, and a binary
+ * log as text.
+ * @author agent
+ */
+public class StateLogConverter
+{
+  public static void main (String[] args)
+  {
+    if (args.length != 2) {
+      System.out.println("Usage: StateLogConverter input output");
+      System.exit(-1);
+    }
+    try {
+      convert(args[0], args[1]);
+    }
+    catch (IOException ioe) {
+      System.out.println("Cannot convert " + args[0] + ": " + ioe.toString());
+      System.exit(-1);
+    }
+  }
+
+  /**
+   * Converts the log in the input file, and writes the result to the
+   * output file.
+   */
+  public static void convert (String input, String output) throws IOException
+  {
+    try (InputStream in =
+             LogtoolCore.decodeStream(new FileInputStream(input));
+         OutputStream out =
+             new BufferedOutputStream(new FileOutputStream(output))) {
+      if (null == in)
+        throw new IOException("No state log in " + input);
+      convert(in, out);
+    }
+  }
+
+  /**
+   * Converts the log on in, which must support mark(), and writes the
+   * result to out. Returns the number of lines converted.
+   */
+  public static long convert (InputStream in, OutputStream out)
+      throws IOException
+  {
+    long count = 0;
+    if (BinaryStateLog.isBinary(in)) {
+      BinaryStateLog.Reader reader = new BinaryStateLog.Reader(in);
+      Writer writer = new BufferedWriter(
+          new OutputStreamWriter(out, StandardCharsets.UTF_8));
+      String line;
+      while (null != (line = reader.readLine())) {
+        writer.write(line);
+        writer.write('\n');
+        count += 1;
+      }
+      writer.flush();
+    }
+    else {
+      BufferedReader reader = new BufferedReader(
+          new InputStreamReader(in, StandardCharsets.UTF_8));
+      BinaryStateLog.Writer writer = new BinaryStateLog.Writer(out, true);
+      String line;
+      while (null != (line = reader.readLine())) {
+        writer.writeLine(line);
+        count += 1;
+      }
+      writer.flush();
+    }
+    return count;
+  }
+}
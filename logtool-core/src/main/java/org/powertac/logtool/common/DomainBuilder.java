@@ -70,11 +70,11 @@ public class DomainBuilder implements Analyzer
   @Override
   public void setup ()
   {
-    dor.registerNewObjectListener(new BrokerHandler(), Broker.class);
-    dor.registerNewObjectListener(new CustomerHandler(), CustomerInfo.class);
-    dor.registerNewObjectListener(new TariffSpecHandler(), TariffSpecification.class);
-    dor.registerNewObjectListener(new RateHandler(), RateCore.class);
-    dor.registerNewObjectListener(new TimeslotHandler(), Timeslot.class);
+    dor.registerStateListener(new BrokerHandler(), Broker.class);
+    dor.registerStateListener(new CustomerHandler(), CustomerInfo.class);
+    dor.registerStateListener(new TariffSpecHandler(), TariffSpecification.class);
+    dor.registerStateListener(new RateHandler(), RateCore.class);
+    dor.registerStateListener(new TimeslotHandler(), Timeslot.class);
   }
 
   @Override
@@ -17,6 +17,8 @@ package org.powertac.logtool.common;
 
 import static org.powertac.util.MessageDispatcher.dispatch;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
@@ -29,10 +31,12 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 import org.joda.time.Instant;
+import org.powertac.common.BinaryStateLog;
 import org.powertac.common.TimeService;
 import org.powertac.common.config.ConfigurableValue;
 import org.powertac.common.enumerations.PowerType;
@@ -71,11 +75,25 @@ public class DomainObjectReader
   HashSet<Class<?>> noIdTypes;
   PowerTypeConverter ptConverter = new PowerTypeConverter();
 
+  // reflection plans, by class name as it appears in the log; the
+  // missingPlan marks classes that cannot be found. Lines may be parsed
+  // on several threads, so this one must be concurrent.
+  ConcurrentHashMap<String, ClassPlan> classPlans = new ConcurrentHashMap<>();
+  private final ClassPlan missingPlan = new ClassPlan(null);
+  HashMap<Class<?>, ArgConverter> simpleConverters = new HashMap<>();
+  HashMap<Class<?>, IdSetter> idSetters = new HashMap<>();
+  private static final Object[] NO_ARGS = new Object[0];
+
   // listeners can be the old-style NewObjectListeners, or they can be
   // LogtoolContext instances with handleMessage() methods
   HashMap<Class<?>, ArrayList<NewObjectListener>> newObjectListeners;
   HashMap<Class<?>, ArrayList<LogtoolContext>> messageListeners;
 
+  // listeners that keep the domain state up to date, and so are still
+  // called while fast-forwarding
+  HashSet<NewObjectListener> stateListeners = new HashSet<>();
+  private boolean fastForward = false;
+
   //per-timeslot pause in msec"
   private int timeslotPause = 0;
 
@@ -153,6 +171,33 @@ public class DomainObjectReader
     list.add(listener);
   }
 
+  /**
+   * Registers a NewObjectListener that maintains domain state, such as the
+   * repos. Unlike other listeners, it is also called while fast-forwarding.
+   */
+  public void registerStateListener (NewObjectListener listener,
+                                     Class<?> type)
+  {
+    registerNewObjectListener(listener, type);
+    stateListeners.add(listener);
+  }
+
+  /**
+   * Turns fast-forward mode on or off. While fast-forwarding, lines are
+   * applied to rebuild the domain state, but only state listeners are
+   * called, and there is no per-timeslot pause. Used to start the replay
+   * of a game part-way through.
+   */
+  public void setFastForward (boolean value)
+  {
+    fastForward = value;
+  }
+
+  public boolean isFastForward ()
+  {
+    return fastForward;
+  }
+
   /**
    * Registers the given LogtoolContext as a messageListener. Incoming messages
    * must be dispatched using util.MessageDispatcher
@@ -183,51 +228,113 @@ public class DomainObjectReader
   throws MissingDomainObject
   {
     log.debug("readObject(" + line + ")");
+    ParsedLine parsed = parse(line);
+    if (null == parsed)
+      return null;
+    return apply(parsed);
+  }
+
+  /**
+   * First half of readObject(): splits the line and resolves its class and
+   * id, without touching the objects created by earlier lines. Returns null
+   * for lines that are ignored or cannot be parsed. This method is
+   * thread-safe, so a pipelined reader can parse lines concurrently, as
+   * long as the results are passed to apply() in log order.
+   */
+  public ParsedLine parse (String line)
+  {
     String body = line.substring(line.indexOf(':') + 1);
-    String[] tokens = body.split("::");
-    Class<?> clazz;
+    return parse(line, null, splitTokens(body));
+  }
+
+  /**
+   * Like parse(String), for a record from a binary state log
+   */
+  public ParsedLine parse (BinaryStateLog.Record record)
+  {
+    String[] tokens = record.getTokens();
+    if (null == tokens)
+      // not in class::id::method form
+      return parse(record.toLine());
+    // like split(), drop trailing empty strings
+    int size = tokens.length;
+    while (size > 1 && tokens[size - 1].isEmpty())
+      size -= 1;
+    if (size < tokens.length)
+      tokens = Arrays.copyOf(tokens, size);
+    return parse(null, record, tokens);
+  }
+
+  /**
+   * Reads one record from a binary state log, like readObject(String)
+   */
+  public Object readObject (BinaryStateLog.Record record)
+  throws MissingDomainObject
+  {
+    ParsedLine parsed = parse(record);
+    if (null == parsed)
+      return null;
+    return apply(parsed);
+  }
+
+  private ParsedLine parse (String line, BinaryStateLog.Record record,
+                            String[] tokens)
+  {
     if (ignores.contains(tokens[0])) {
       //log.info("ignoring " + tokens[0]);
       return null;
     }
-    try {
-      clazz = Class.forName(tokens[0]);
-    }
-    catch (ClassNotFoundException e) {
-      Class<?> subst = substitutes.get(tokens[0]);
-      if (null == subst) {
-        log.warn("class " + tokens[0] + " not found");
-        return null;
-      }
-      else {
-        clazz = subst;
-        //log.info("substituting " + clazz.getName() + " for " + tokens[0]);
-      }
-    }
+    ClassPlan plan = findClassPlan(tokens[0]);
+    if (null == plan)
+      return null;
+    Class<?> clazz = plan.clazz;
+    ParsedLine result = new ParsedLine(line, tokens[0], plan);
+    result.record = record;
 
-    long id = -1;
     try {
-      id = Long.parseLong(tokens[1]);
+      result.id = Long.parseLong(tokens[1]);
     }
     catch (NumberFormatException nfe) {
       if (clazz == TimeService.class) {
         // normal case - timeService does not have an id
-        updateTime(tokens[3]);
-        return null;
+        result.args = new String[] {tokens[3]};
+        return result;
       }
       else if (noIdTypes.contains(clazz)) {
-        id = 0;
+        result.id = 0;
       }
       else {
         log.debug("Number format exception reading id");
         return null;
       }
     }
-    String methodName = tokens[2];
+    result.methodName = tokens[2];
+    result.args = Arrays.copyOfRange(tokens, 3, tokens.length);
+    return result;
+  }
+
+  /**
+   * Second half of readObject(): creates, restores, or updates the object
+   * described by a parsed line, and notifies listeners. Must be called on
+   * one thread at a time, in log order.
+   */
+  public Object apply (ParsedLine parsed)
+  throws MissingDomainObject
+  {
+    ClassPlan plan = parsed.plan;
+    Class<?> clazz = plan.clazz;
+    if (null == parsed.methodName) {
+      updateTime(parsed.args[0]);
+      return null;
+    }
+    long id = parsed.id;
+    String methodName = parsed.methodName;
     log.debug("methodName=" + methodName);
+    String[] args = parsed.args;
     if (methodName.equals("new")) {
       // maybe pause before handling TimeslotUpdate msg
-      if (clazz == TimeslotUpdate.class && timeslotPause > 0) {
+      if (clazz == TimeslotUpdate.class && timeslotPause > 0
+          && !fastForward) {
         try {
           Thread.sleep(timeslotPause);
         }
@@ -236,28 +343,26 @@ public class DomainObjectReader
         }
       }
       // constructor
-      Object newInst =
-              constructInstance(clazz, Arrays.copyOfRange(tokens, 3,
-                                                          tokens.length));
+      Object newInst = constructInstance(plan, args);
       if (null != newInst) {
         if (!noIdTypes.contains(clazz)) {
           setId(newInst, id);
           idMap.put(id, newInst);
         }
-        log.debug("Created new instance " + id + " of class " + tokens[0]);
+        log.debug("Created new instance " + id + " of class "
+                  + parsed.className);
         fireNewObjectEvent(newInst);
       }
       return newInst;
     }
     else if (methodName.equals("-rr")) {
       // readResolve
-      Object newInst =
-              restoreInstance(clazz, Arrays.copyOfRange(tokens, 3,
-                                                        tokens.length));
+      Object newInst = restoreInstance(plan, args);
       if (null != newInst) {
         setId(newInst, id);
         idMap.put(id, newInst);
-        log.debug("Restored instance " + id + " of class " + tokens[0]);
+        log.debug("Restored instance " + id + " of class "
+                  + parsed.className);
         fireNewObjectEvent(newInst);
       }
       return newInst;      
@@ -270,13 +375,7 @@ public class DomainObjectReader
                  + " of type " + clazz.getCanonicalName());
         return null;
       }
-      Method[] methods = clazz.getMethods();
-      ArrayList<Method> candidates = new ArrayList<>();
-      for (Method method : methods) {
-        if (method.getName().equals(methodName)) {
-          candidates.add(method);
-        }
-      }
+      List<MethodPlan> candidates = plan.getMethods(methodName);
       // We now have a list of candidate methods.
       if (0 == candidates.size()) {
         log.error("Cannot find method " + methodName
@@ -285,8 +384,7 @@ public class DomainObjectReader
       }
       if (1 == candidates.size()) {
         // there's one candidate, probably it is the correct one
-        if (!tryMethodCall(inst, candidates.get(0),
-                           Arrays.copyOfRange(tokens, 3, tokens.length))) {
+        if (!tryMethodCall(inst, candidates.get(0), args)) {
           log.error("Failed to invoke method " + methodName
                     + " on instance of " + clazz.getName());
         }
@@ -294,9 +392,8 @@ public class DomainObjectReader
       else {
         // multiple candidates -- try them until we get success
         boolean success = false;
-        for (Method candidate : candidates) {
-          success = tryMethodCall(inst, candidate,
-                                  Arrays.copyOfRange(tokens, 3, tokens.length));
+        for (MethodPlan candidate : candidates) {
+          success = tryMethodCall(inst, candidate, args);
           if (success)
             break;
         }
@@ -308,6 +405,57 @@ public class DomainObjectReader
     }
     return null;
   }
+
+  // Splits a log line body on "::", with the same result as
+  // body.split("::") but without the regex machinery.
+  static String[] splitTokens (String body)
+  {
+    ArrayList<String> result = new ArrayList<>();
+    int start = 0;
+    int end = body.indexOf("::");
+    while (end >= 0) {
+      result.add(body.substring(start, end));
+      start = end + 2;
+      end = body.indexOf("::", start);
+    }
+    result.add(body.substring(start));
+    // like split(), drop trailing empty strings
+    int size = result.size();
+    while (size > 1 && result.get(size - 1).isEmpty())
+      size -= 1;
+    return result.subList(0, size).toArray(new String[size]);
+  }
+
+  // Returns the cached plan for the named class, creating it on first use.
+  // Returns null if the class cannot be found.
+  private ClassPlan findClassPlan (String className)
+  {
+    ClassPlan plan = classPlans.get(className);
+    if (missingPlan == plan)
+      // we already know it's not there
+      return null;
+    if (null != plan)
+      return plan;
+    Class<?> clazz;
+    try {
+      clazz = Class.forName(className);
+    }
+    catch (ClassNotFoundException e) {
+      Class<?> subst = substitutes.get(className);
+      if (null == subst) {
+        log.warn("class " + className + " not found");
+        classPlans.putIfAbsent(className, missingPlan);
+        return null;
+      }
+      else {
+        clazz = subst;
+        //log.info("substituting " + clazz.getName() + " for " + className);
+      }
+    }
+    plan = new ClassPlan(clazz);
+    ClassPlan existing = classPlans.putIfAbsent(className, plan);
+    return (null == existing) ? plan : existing;
+  }
   
   public Object getById (long id)
   {
@@ -324,7 +472,8 @@ public class DomainObjectReader
   private void fireNewObjectEvent (Object thing)
   {
     dispatchNewObjectListeners(thing);
-    dispatchMessageListeners(thing);
+    if (!fastForward)
+      dispatchMessageListeners(thing);
   }
 
   private void dispatchNewObjectListeners(Object thing)
@@ -336,14 +485,16 @@ public class DomainObjectReader
       listeners = newObjectListeners.get(thing.getClass().getSuperclass());
     if (null != listeners) {
       for (NewObjectListener li : listeners) {
-        li.handleNewObject(thing);
+        if (!fastForward || stateListeners.contains(li))
+          li.handleNewObject(thing);
       }
     }
     // check for promiscuous listener
     listeners = newObjectListeners.get(null);
     if (null != listeners) {
       for (NewObjectListener li : listeners) {
-        li.handleNewObject(thing);
+        if (!fastForward || stateListeners.contains(li))
+          li.handleNewObject(thing);
       }
     }
   }
@@ -359,27 +510,17 @@ public class DomainObjectReader
     }
   }
 
-  private Object constructInstance (Class<?> clazz, String[] args)
+  private Object constructInstance (ClassPlan plan, String[] args)
           throws MissingDomainObject
   {
-    //if (clazz.getName().equals("org.powertac.common.Order"))
-    //  System.out.println("Order");
-    //else if (clazz.getName().equals("org.powertac.common.TariffSpecification"))
-    //  System.out.println("TariffSpecification");
-    Constructor<?>[] potentials = clazz.getDeclaredConstructors();
-    Constructor<?> target = null;
+    ConstructorPlan target = null;
     Object[] params = null;
-    for (Constructor<?> cons : potentials) {
-      Type[] types = cons.getGenericParameterTypes();
-      if (types.length != args.length)
-        // not this one
-        continue;
+    for (ConstructorPlan cons : plan.getConstructors(args.length)) {
       // correct length of parameter list -
       // now try to resolve the types.
       // If we get a MissingDomainObject exception, keep going.
-      
       try {
-        params = resolveArgs(types, args);
+        params = resolveArgs(cons.converters, args);
       }
       catch (MissingDomainObject mdo) {
         // ignore
@@ -396,15 +537,14 @@ public class DomainObjectReader
     if (null != target) {
       Object result = null;
       try {
-        target.setAccessible(true);
-        result = target.newInstance(params);
+        result = target.constructor.newInstance(params);
       }
       catch (InvocationTargetException ite) {
         // arg-constructor mismatch
-        return restoreInstance(clazz, args);
+        return restoreInstance(plan, args);
       }
       catch (Exception e) {
-        log.error("could not construct instance of " + clazz.getName()
+        log.error("could not construct instance of " + plan.clazz.getName()
                   + ": " + e.toString());
         return null;
       }
@@ -412,69 +552,56 @@ public class DomainObjectReader
     }
     else {
       // otherwise, try to use the readResolve method
-      return restoreInstance(clazz, args);
+      return restoreInstance(plan, args);
     }
   }
 
   // restores an instance from a readResolve record.
   // Fields are given in the @Domain annotation.
-  private Object restoreInstance (Class<?> clazz, String[] args)
+  private Object restoreInstance (ClassPlan plan, String[] args)
           throws MissingDomainObject
   {
-    Domain domain = clazz.getAnnotation(Domain.class);
-    if (domain instanceof Domain) {
+    RestorePlan restore = plan.getRestorePlan();
+    if (null == restore)
       // only do this for @Domain classes
-      Object thing = null;
-      try {
-        Constructor<?> cons = clazz.getDeclaredConstructor();
-        cons.setAccessible(true);
-        thing = cons.newInstance();
-      }
-      catch (Exception e) {
-        log.warn("No default constructor for " + clazz.getName()
-                  + ": " + e.toString());
-        return null;
-      }
-      String[] fieldNames = domain.fields();
-      Field[] fields = new Field[fieldNames.length];
-      Class<?>[] types = new Class<?>[fieldNames.length];
-      for (int i = 0; i < fieldNames.length; i++) {
-        fields[i] = ReflectionUtils.findField(clazz,
-                                              resolveDoubleCaps(fieldNames[i]));
-        if (null == fields[i]) {
-          log.warn("No field in " + clazz.getName()
-                   + " named " + fieldNames[i]);
-          types[i] = null;
-        }
-        else {
-          types[i] = fields[i].getType();
+      return null;
+    Object thing = null;
+    if (null == restore.constructor) {
+      log.warn("No default constructor for " + plan.clazz.getName()
+               + ": " + restore.constructorProblem);
+      return null;
+    }
+    try {
+      thing = restore.constructor.newInstance();
+    }
+    catch (Exception e) {
+      log.warn("No default constructor for " + plan.clazz.getName()
+                + ": " + e.toString());
+      return null;
+    }
+    Field[] fields = restore.fields;
+    if (fields.length != args.length)
+      log.error("RR arg mismatch class {}, {} fields, args {}",
+                plan.clazz.getName(), fields.length, args);
+    Object[] data = resolveArgs(restore.converters, args);
+    if (null == data) {
+      log.error("Could not resolve args for " + plan.clazz.getName());
+      return null;
+    }
+    else {
+      for (int i = 0; i < fields.length; i++) {
+        if (null == fields[i])
+          continue;
+        try {
+          fields[i].set(thing, data[i]);
         }
-      }
-      if (types.length != args.length)
-        log.error("RR arg mismatch class {}, {} fields, args {}",
-                  clazz.getName(), fields.length, args);
-      Object[] data = resolveArgs(types, args);
-      if (null == data) {
-        log.error("Could not resolve args for " + clazz.getName());
-        return null;
-      }
-      else {
-        for (int i = 0; i < fields.length; i++) {
-          if (null == fields[i])
-            continue;
-          fields[i].setAccessible(true);
-          try {
-            fields[i].set(thing, data[i]);
-          }
-          catch (Exception e) {
-            log.error("Exception setting field: " + e.toString());
-            return null;
-          }
+        catch (Exception e) {
+          log.error("Exception setting field: " + e.toString());
+          return null;
         }
       }
-      return thing;
     }
-    return null;
+    return thing;
   }
   
   private String resolveDoubleCaps (String name)
@@ -490,20 +617,20 @@ public class DomainObjectReader
   }
 
   // attempts to call a method by reconstructing its args and invoking it
-  private boolean tryMethodCall (Object thing, Method method, String[] args)
+  private boolean tryMethodCall (Object thing, MethodPlan method,
+                                 String[] args)
   {
-    Type[] argTypes = method.getGenericParameterTypes();
-    if (argTypes.length != args.length)
+    if (method.converters.length != args.length)
       // bail if arglist lengths do not match
       return false;
     Object[] realArgs;
-    if (0 == argTypes.length) {
+    if (0 == args.length) {
       // no args
-      realArgs = null;
+      realArgs = NO_ARGS;
     }
     else {
       try {
-        realArgs = resolveArgs(argTypes, args);
+        realArgs = resolveArgs(method.converters, args);
         if (null == realArgs || realArgs.length != args.length) {
           log.debug("Could not resolve args: method " + method.getName()
                     + ", class = " + thing.getClass().getName()
@@ -519,7 +646,10 @@ public class DomainObjectReader
       method.invoke(thing, realArgs);
       return true;
     }
-    catch (Exception e) {
+    catch (Error e) {
+      throw e;
+    }
+    catch (Throwable e) {
       StringBuilder argsString = new StringBuilder();
       for (Object arg : realArgs) {
         argsString.append("(" + arg.getClass().getName() + ") " + arg.toString() + ", ");
@@ -531,42 +661,44 @@ public class DomainObjectReader
     return false;
   }
 
-  // attempts to match a set of types with a set of String arguments
-  // from the logfile. They match if the strings can be resolved to
-  // the corresponding types. 
-  private Object[] resolveArgs (Type[] types, String[] args)
+  // attempts to match a set of types, represented by their converters,
+  // with a set of String arguments from the logfile. They match if the
+  // strings can be resolved to the corresponding types. 
+  private Object[] resolveArgs (ArgConverter[] converters, String[] args)
           throws MissingDomainObject
   {
     // for each type, we attempt to resolve the corresponding arg
     // as an instance of that type.
-    Object[] result = new Object[types.length];
+    Object[] result = new Object[converters.length];
     for (int i = 0; i < args.length; i++) {
-      result[i] = resolveArg(types[i], args[i]);
+      result[i] = converters[i].convert(args[i]);
     }
     return result;
   }
-  
+
+  // Builds the converter for an argument of the given type. The decisions
+  // that depend only on the type are made here, once. Returns null for a
+  // collection whose element type is not a class.
   @SuppressWarnings({ "unchecked", "rawtypes" })
-  private Object resolveArg (Type type, String arg)
-  throws MissingDomainObject
+  private ArgConverter makeConverter (Type type)
   {
     // type can be null in a few cases - nothing to be done about it?
     if (null == type) {
-      return null;
+      return arg -> null;
     }
 
     // check for non-parameterized types
     if (type instanceof Class) {
       Class<?> clazz = (Class<?>)type;
       if (clazz.isEnum()) {
-        return Enum.valueOf((Class<Enum>)type, arg);
+        return arg -> Enum.valueOf((Class<Enum>)type, arg);
       }
       else if (PowerType.class == clazz) {
         //System.out.println("Class: " + clazz.getCanonicalName());
-        return ptConverter.fromString(arg);
+        return arg -> ptConverter.fromString(arg);
       }
       else {
-        return resolveSimpleArg(clazz, arg);
+        return getSimpleConverter(clazz);
       }
     }
 
@@ -586,24 +718,27 @@ public class DomainObjectReader
           }
         }
       }
-      if (isCollection) {
-        // expect arg to start with "("
-        log.debug("processing collection " + clazz.getName());
-        if (arg.charAt(0) != '(') {
-          log.error("Collection arg " + arg + " does not start with paren");
+      // extract element type and resolve recursively
+      Type[] tas = ptype.getActualTypeArguments();
+      if (isCollection && 1 == tas.length) {
+        if (!(tas[0] instanceof Class))
+          // element type such as T or ? extends X; not a candidate
           return null;
-        }
-        // extract element type and resolve recursively
-        Type[] tas = ptype.getActualTypeArguments();
-        if (1 == tas.length) {
-          Class<?> argClazz = (Class<?>) tas[0];
+        ArgConverter element = getSimpleConverter((Class<?>) tas[0]);
+        // resolve interfaces into actual classes
+        Class<?> collClazz =
+            clazz.isInterface() ? ifImplementors.get(clazz) : clazz;
+        return arg -> {
+          // expect arg to start with "("
+          log.debug("processing collection " + clazz.getName());
+          if (arg.charAt(0) != '(') {
+            log.error("Collection arg " + arg + " does not start with paren");
+            return null;
+          }
           // create an instance of the collection
           Collection<Object> coll;
-          // resolve interfaces into actual classes
-          if (clazz.isInterface())
-            clazz = ifImplementors.get(clazz);
           try {
-            coll = (Collection<Object>)clazz.newInstance();
+            coll = (Collection<Object>)collClazz.newInstance();
           }
           catch (Exception e) {
             log.error("Exception creating collection: " + e.toString());
@@ -613,168 +748,432 @@ public class DomainObjectReader
           String body = arg.substring(1, arg.indexOf(')'));
           String[] items = body.split(",");
           for (String item : items) {
-            coll.add(resolveSimpleArg(argClazz, item));
+            coll.add(element.convert(item));
           }
           return coll;
-        }
+        };
       }
     }
 
     // if we get here, no resolution
-    log.error("unresolved arg: type = " + type
-              + ", arg = " + arg);
-    return null;
+    return arg -> {
+      log.error("unresolved arg: type = " + type
+                + ", arg = " + arg);
+      return null;
+    };
   }
 
-  private Object resolveSimpleArg (Class<?> clazz, String arg)
-  throws MissingDomainObject
+  // Builds the converters for a parameter list, or returns null if any
+  // of the parameters cannot be converted
+  private ArgConverter[] makeConverters (Type[] types)
   {
-    // handle the simplest case first
-    if (arg.equals("null"))
-      return null;
-    
+    ArgConverter[] result = new ArgConverter[types.length];
+    for (int i = 0; i < types.length; i++) {
+      result[i] = makeConverter(types[i]);
+      if (null == result[i])
+        return null;
+    }
+    return result;
+  }
+
+  // Returns the cached converter for a non-parameterized type
+  private ArgConverter getSimpleConverter (Class<?> clazz)
+  {
+    ArgConverter result = simpleConverters.get(clazz);
+    if (null == result) {
+      result = makeSimpleConverter(clazz);
+      simpleConverters.put(clazz, result);
+    }
+    return result;
+  }
+
+  private ArgConverter makeSimpleConverter (Class<?> clazz)
+  {
+    ArgConverter value = makeValueConverter(clazz);
     if (clazz.getName().startsWith("org.powertac")) {
-      Method getId;
       try {
-        getId = clazz.getMethod("getId");
+        Method getId = clazz.getMethod("getId");
         if (getId.getReturnType() == long.class) {
           // this is a domain type; it may or may not be in the map
-          Long key = Long.parseLong(arg);
-          Object value = idMap.get(key);
-          if (null != value && clazz.isAssignableFrom(value.getClass())) {
-            return value;
-          }
-          else {
-            // it's a domain object, but we cannot resolve it
-            // -- this can be an error, or a symptom of using the wrong
-            //    constructor or method.
-            throw new MissingDomainObject("missing object id=" + key);
-          }
+          return arg -> {
+            // handle the simplest case first
+            if (arg.equals("null"))
+              return null;
+            Long key;
+            try {
+              key = Long.parseLong(arg);
+            }
+            catch (NumberFormatException e) {
+              // normal result of non-integer id value
+              return value.convert(arg);
+            }
+            Object thing = idMap.get(key);
+            if (null != thing && clazz.isAssignableFrom(thing.getClass())) {
+              return thing;
+            }
+            else {
+              // it's a domain object, but we cannot resolve it
+              // -- this can be an error, or a symptom of using the wrong
+              //    constructor or method.
+              throw new MissingDomainObject("missing object id=" + key);
+            }
+          };
         }
       }
       catch (SecurityException e) {
-        log.error("Exception on getId(): " + e.toString());
-        return null;
+        String problem = e.toString();
+        return arg -> {
+          if (arg.equals("null"))
+            return null;
+          log.error("Exception on getId(): " + problem);
+          return null;
+        };
       }
       catch (NoSuchMethodException e) {
         // normal result of no getId() method
       }
-      catch (NumberFormatException e) {
-        // normal result of non-integer id value
-      }
     }
-    
-    // arg is not an id value - check if it's supposed to be a primitive
-    if (clazz.getName().equals("boolean")) {
-      boolean value = Boolean.parseBoolean(arg);
-      if (value) {
-        return true; // resolved as boolean
-      }
-      else if (arg.equalsIgnoreCase("false")) {
-        return false; // resolved as boolean
-      }
-      else
-        return null; // does not resolve
-    }
-    
-    if (clazz.getName().equals("long")) {
-      try {
-        long value = Long.parseLong(arg);
-        return value;
-      }
-      catch (NumberFormatException nfe) {
-        // not a long
+    return arg -> {
+      // handle the simplest case first
+      if (arg.equals("null"))
         return null;
-      }
+      return value.convert(arg);
+    };
+  }
+
+  // converts args that are not id values
+  private ArgConverter makeValueConverter (Class<?> clazz)
+  {
+    // check if it's supposed to be a primitive
+    if (clazz == boolean.class) {
+      return arg -> {
+        boolean value = Boolean.parseBoolean(arg);
+        if (value) {
+          return true; // resolved as boolean
+        }
+        else if (arg.equalsIgnoreCase("false")) {
+          return false; // resolved as boolean
+        }
+        else
+          return null; // does not resolve
+      };
     }
     
-    if (clazz.getName().equals("int")) {
-      try {
-        int value = Integer.parseInt(arg);
-        return value;
-      }
-      catch (NumberFormatException nfe) {
-        // not an int
-        return null;
-      }        
+    if (clazz == long.class) {
+      return arg -> {
+        try {
+          long value = Long.parseLong(arg);
+          return value;
+        }
+        catch (NumberFormatException nfe) {
+          // not a long
+          return null;
+        }
+      };
     }
     
-    if (clazz.getName().equals("double") || clazz == Double.class) {
-      try {
-        double value = Double.parseDouble(arg);
-        return value;
-      }
-      catch (NumberFormatException nfe) {
-        // not a double
-        return null;
-      }        
+    if (clazz == int.class) {
+      return arg -> {
+        try {
+          int value = Integer.parseInt(arg);
+          return value;
+        }
+        catch (NumberFormatException nfe) {
+          // not an int
+          return null;
+        }        
+      };
     }
     
-    if (clazz.getName() == "java.lang.Double") {
-      
+    if (clazz == double.class || clazz == Double.class) {
+      return arg -> {
+        try {
+          double value = Double.parseDouble(arg);
+          return value;
+        }
+        catch (NumberFormatException nfe) {
+          // not a double
+          return null;
+        }        
+      };
     }
     
     // check for time value
-    if (clazz.getName() == "org.joda.time.Instant") {
-      try {
-        Instant value = Instant.parse(arg);
-        return value;
-       }
-      catch (IllegalArgumentException iae) {
-        // make Instant from Long
+    if (clazz == Instant.class) {
+      return arg -> {
         try {
-          Long msec = Long.parseLong(arg);
-          return new Instant(msec);
+          Instant value = Instant.parse(arg);
+          return value;
+         }
+        catch (IllegalArgumentException iae) {
+          // make Instant from Long
+          try {
+            Long msec = Long.parseLong(arg);
+            return new Instant(msec);
+          }
+          catch (Exception e) {
+            // Long parse failure
+            log.error("could not parse Long " + arg);
+            return null;
+          }
         }
         catch (Exception e) {
-          // Long parse failure
-          log.error("could not parse Long " + arg);
+          // Instant parse failure
+          log.error("could not parse Instant " + arg);
           return null;
         }
-      }
-      catch (Exception e) {
-        // Instant parse failure
-        log.error("could not parse Instant " + arg);
-        return null;
-      }
+      };
     }
     
     // check for type with String constructor
     try {
       Constructor<?> cons = clazz.getConstructor(String.class);
-      return cons.newInstance(arg);
+      return arg -> {
+        try {
+          return cons.newInstance(arg);
+        }
+        catch (Exception e) {
+          log.error("Exception looking up constructor for "
+                    + clazz.getName() + ": " + e.toString());
+          return null;
+        }
+      };
     }
     catch (NoSuchMethodException e) {
-      // normal result of failure - fall through and try something else
+      // normal result of failure - no type matched
+      return arg -> null;
     }
     catch (Exception e) {
-      log.error("Exception looking up constructor for "
-                + clazz.getName() + ": " + e.toString());
-      return null;
+      String problem = e.toString();
+      return arg -> {
+        log.error("Exception looking up constructor for "
+                  + clazz.getName() + ": " + problem);
+        return null;
+      };
     }
-    // no type matched
-    return null;
   }
   
   // Sets the id field of a newly-constructed thing
   private void setId (Object thing, Long id)
   {
     Class<?> clazz = thing.getClass();
-    Method setId;
-    try {
-      setId = clazz.getMethod("setId", long.class);
-      setId.setAccessible(true);
-      setId.invoke(thing, (long)id);
+    IdSetter setter = idSetters.get(clazz);
+    if (null == setter) {
+      setter = new IdSetter(clazz);
+      idSetters.put(clazz, setter);
     }
-    catch (SecurityException e) {
-      log.error("Exception on setId(): " + e.toString());
+    setter.setId(thing, id);
+  }
+
+  // ------------ Cached reflection plans ------------
+  // Everything the reader needs to know about a class is looked up once,
+  // the first time the class appears in the log, and kept here.
+
+  class ClassPlan
+  {
+    Class<?> clazz;
+    HashMap<Integer, List<ConstructorPlan>> constructors = new HashMap<>();
+    HashMap<String, List<MethodPlan>> methods = new HashMap<>();
+    RestorePlan restorePlan = null;
+    boolean restoreChecked = false;
+
+    ClassPlan (Class<?> clazz)
+    {
+      super();
+      this.clazz = clazz;
     }
-    catch (NoSuchMethodException e) {
-      // normal result of no setId() method
-      ReflectionTestUtils.setField(thing, "id", id);
+
+    // Constructors with the given number of parameters, in
+    // getDeclaredConstructors() order
+    List<ConstructorPlan> getConstructors (int arity)
+    {
+      List<ConstructorPlan> result = constructors.get(arity);
+      if (null == result) {
+        result = new ArrayList<>();
+        for (Constructor<?> cons : clazz.getDeclaredConstructors()) {
+          Type[] types = cons.getGenericParameterTypes();
+          if (types.length != arity)
+            // not this one
+            continue;
+          ArgConverter[] converters = makeConverters(types);
+          if (null == converters) {
+            log.debug("Skipping " + cons.toString());
+            continue;
+          }
+          result.add(new ConstructorPlan(cons, converters));
+        }
+        constructors.put(arity, result);
+      }
+      return result;
     }
-    catch (Exception e) {
-      log.error("Error setting id value " + e.toString());
+
+    // Public methods with the given name, in getMethods() order
+    List<MethodPlan> getMethods (String name)
+    {
+      List<MethodPlan> result = methods.get(name);
+      if (null == result) {
+        result = new ArrayList<>();
+        for (Method method : clazz.getMethods()) {
+          if (method.getName().equals(name)) {
+            ArgConverter[] converters =
+                makeConverters(method.getGenericParameterTypes());
+            if (null == converters) {
+              log.debug("Skipping " + method.toString());
+              continue;
+            }
+            result.add(new MethodPlan(method, converters));
+          }
+        }
+        methods.put(name, result);
+      }
+      return result;
+    }
+
+    // Field plan for readResolve records, or null if the class is not
+    // a @Domain class
+    RestorePlan getRestorePlan ()
+    {
+      if (!restoreChecked) {
+        Domain domain = clazz.getAnnotation(Domain.class);
+        if (domain instanceof Domain)
+          restorePlan = new RestorePlan(clazz, domain);
+        restoreChecked = true;
+      }
+      return restorePlan;
+    }
+  }
+
+  class ConstructorPlan
+  {
+    Constructor<?> constructor;
+    ArgConverter[] converters;
+
+    ConstructorPlan (Constructor<?> constructor, ArgConverter[] converters)
+    {
+      super();
+      this.constructor = constructor;
+      constructor.setAccessible(true);
+      this.converters = converters;
+    }
+  }
+
+  class MethodPlan
+  {
+    Method method;
+    ArgConverter[] converters;
+
+    // (Object, Object[])void, or null if the method cannot be
+    // unreflected, in which case it's called through Method.invoke()
+    MethodHandle handle = null;
+
+    MethodPlan (Method method, ArgConverter[] converters)
+    {
+      super();
+      this.method = method;
+      this.converters = converters;
+      try {
+        MethodHandle mh =
+            MethodHandles.lookup().unreflect(method).asFixedArity();
+        // the result, if any, is dropped
+        handle = mh.asType(mh.type().generic().changeReturnType(void.class))
+            .asSpreader(Object[].class, converters.length);
+      }
+      catch (IllegalAccessException iae) {
+        // public method of a non-public class
+        log.debug("Using reflection for " + method.toString());
+      }
+    }
+
+    String getName ()
+    {
+      return method.getName();
+    }
+
+    void invoke (Object thing, Object[] args) throws Throwable
+    {
+      if (null != handle) {
+        handle.invokeExact(thing, args);
+      }
+      else {
+        method.invoke(thing, args);
+      }
+    }
+  }
+
+  class RestorePlan
+  {
+    Constructor<?> constructor = null;
+    String constructorProblem = null;
+    Field[] fields;
+    ArgConverter[] converters;
+
+    RestorePlan (Class<?> clazz, Domain domain)
+    {
+      super();
+      try {
+        constructor = clazz.getDeclaredConstructor();
+        constructor.setAccessible(true);
+      }
+      catch (Exception e) {
+        constructor = null;
+        constructorProblem = e.toString();
+      }
+      String[] fieldNames = domain.fields();
+      fields = new Field[fieldNames.length];
+      converters = new ArgConverter[fieldNames.length];
+      for (int i = 0; i < fieldNames.length; i++) {
+        fields[i] = ReflectionUtils.findField(clazz,
+                                              resolveDoubleCaps(fieldNames[i]));
+        if (null == fields[i]) {
+          log.warn("No field in " + clazz.getName()
+                   + " named " + fieldNames[i]);
+          converters[i] = makeConverter(null);
+        }
+        else {
+          fields[i].setAccessible(true);
+          converters[i] = makeConverter(fields[i].getType());
+        }
+      }
+    }
+  }
+
+  // Sets the id of a new instance, through setId(long) if it has one,
+  // or directly on its id field if not
+  class IdSetter
+  {
+    Method setId = null;
+    String problem = null;
+
+    IdSetter (Class<?> clazz)
+    {
+      super();
+      try {
+        setId = clazz.getMethod("setId", long.class);
+        setId.setAccessible(true);
+      }
+      catch (SecurityException e) {
+        problem = e.toString();
+      }
+      catch (NoSuchMethodException e) {
+        // normal result of no setId() method
+      }
+    }
+
+    void setId (Object thing, Long id)
+    {
+      if (null != problem) {
+        log.error("Exception on setId(): " + problem);
+        return;
+      }
+      try {
+        if (null == setId)
+          ReflectionTestUtils.setField(thing, "id", id);
+        else
+          setId.invoke(thing, (long)id);
+      }
+      catch (Exception e) {
+        log.error("Error setting id value " + e.toString());
+      }
     }
   }
 
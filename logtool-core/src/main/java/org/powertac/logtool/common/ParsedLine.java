@@ -0,0 +1,59 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.logtool.common;
+
+import org.powertac.common.BinaryStateLog;
+
+/**
+ * One state-log line, split into tokens and with its class and id
+ * resolved, ready to be applied by the DomainObjectReader. Parsing does
+ * not depend on objects created by earlier lines, so lines can be parsed
+ * out of order and on other threads; they must be applied in log order.
+ * @author agent
+ */
+public class ParsedLine
+{
+  // one of these is set, depending on the log format
+  String line;
+  BinaryStateLog.Record record;
+
+  String className;
+  DomainObjectReader.ClassPlan plan;
+
+  // null for a TimeService update, which carries only the time
+  String methodName;
+  long id;
+  String[] args;
+
+  ParsedLine (String line, String className,
+              DomainObjectReader.ClassPlan plan)
+  {
+    super();
+    this.line = line;
+    this.className = className;
+    this.plan = plan;
+  }
+
+  /**
+   * Returns the original text of the line
+   */
+  public String getLine ()
+  {
+    if (null == line && null != record)
+      line = record.toLine();
+    return line;
+  }
+}
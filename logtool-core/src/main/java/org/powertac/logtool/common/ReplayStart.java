@@ -0,0 +1,97 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.logtool.common;
+
+import org.joda.time.Instant;
+import org.powertac.common.TimeService;
+
+/**
+ * Finds the line at which a replay starting at a given timeslot should
+ * stop fast-forwarding. Lines are passed in as they are applied; the
+ * start is the first TimeService update at or after the timeslot.
+ * Timeslot numbers are counted from the competition's simulation base
+ * time, picked up from the Competition lines along the way.
+ * <p>
+ * The domain objects are not serializable, so there is nothing to seek
+ * to: every line before the start is still applied, in fast-forward
+ * mode. Each replay needs its own instance.</p>
+ * @author agent
+ */
+public class ReplayStart
+{
+  private static final String TIME_SERVICE_CLASS =
+      "org.powertac.common.TimeService";
+  private static final String COMPETITION_CLASS =
+      "org.powertac.common.Competition";
+
+  private final int timeslot;
+  private long baseTime = -1;
+  private long timeslotLength = TimeService.HOUR;
+  private boolean reached = false;
+
+  public ReplayStart (int timeslot)
+  {
+    super();
+    this.timeslot = timeslot;
+  }
+
+  /**
+   * Returns true if parsed is the line that starts the replay. Returns
+   * false for every line after that one.
+   */
+  public boolean reached (ParsedLine parsed)
+  {
+    if (reached || null == parsed.args || parsed.args.length == 0)
+      return false;
+    if (COMPETITION_CLASS.equals(parsed.className)) {
+      if ("withSimulationBaseTime".equals(parsed.methodName))
+        baseTime = parseTime(parsed.args[0]);
+      else if ("withTimeslotLength".equals(parsed.methodName))
+        timeslotLength = Long.parseLong(parsed.args[0]) * TimeService.MINUTE;
+    }
+    else if (TIME_SERVICE_CLASS.equals(parsed.className) && baseTime >= 0) {
+      long time = parseTime(parsed.args[0]);
+      reached = (time - baseTime) / timeslotLength >= timeslot;
+    }
+    return reached;
+  }
+
+  /**
+   * True once the starting line has been seen
+   */
+  public boolean isReached ()
+  {
+    return reached;
+  }
+
+  /**
+   * The timeslot at which the replay starts
+   */
+  public int getTimeslot ()
+  {
+    return timeslot;
+  }
+
+  private static long parseTime (String value)
+  {
+    try {
+      return Long.parseLong(value);
+    }
+    catch (NumberFormatException nfe) {
+      return Instant.parse(value).getMillis();
+    }
+  }
+}
@@ -16,6 +16,7 @@
 package org.powertac.logtool.ifc;
 
 import java.io.FileNotFoundException;
+import java.util.Map;
 
 /**
  * Interface for analyzers
@@ -34,4 +35,16 @@ public interface Analyzer
    * Called after reading the logfile
    */
   public void report();
+
+  /**
+   * Called after report() when games are analyzed in batch mode, to
+   * collect a summary of the game for the BatchMerger. Each game runs in
+   * its own class loader, so the values must be standard Java types:
+   * strings, boxed numbers, and collections or arrays of them. The default
+   * is no summary.
+   */
+  public default Map<String, Object> getSummary ()
+  {
+    return null;
+  }
 }
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.logtool.ifc;
+
+import java.util.Map;
+
+/**
+ * Combines the per-game results of a batch run. Each game is analyzed by
+ * its own Analyzer instances; when all games are done, the summary from
+ * each Analyzer of each game is passed to merge(), in the order the games
+ * were listed, and then report() is called once.
+ * @author agent
+ */
+public interface BatchMerger
+{
+  /**
+   * Called once for each analyzer of each game. The summary is whatever
+   * the analyzer returned from getSummary(), and may be null. If the game
+   * could not be read, error is the reason; otherwise it is null.
+   */
+  public void merge (String source, String analyzer,
+                     Map<String, Object> summary, String error);
+
+  /**
+   * Called after all games have been merged
+   */
+  public void report ();
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.logtool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.powertac.common.Broker;
+import org.powertac.common.spring.SpringApplicationContext;
+import org.powertac.logtool.common.DomainObjectReader;
+import org.powertac.logtool.common.NewObjectListener;
+import org.powertac.logtool.ifc.Analyzer;
+import org.powertac.logtool.ifc.BatchMerger;
+
+/**
+ * Test cases for LogtoolBatch source lists and batch runs
+ * @author agent
+ */
+public class LogtoolBatchTest
+{
+  @TempDir
+  Path dir;
+
+  private LogtoolBatch batch;
+
+  @BeforeEach
+  public void setUp () throws IOException
+  {
+    batch = new LogtoolBatch(2);
+    for (String name : new String[] {"game-2.state", "game-1.state.bz2",
+                                     "game-3.tar.gz", "notes.txt"}) {
+      Files.createFile(dir.resolve(name));
+    }
+  }
+
+  private String path (String name)
+  {
+    return dir.resolve(name).toString();
+  }
+
+  @Test
+  public void directorySource () throws IOException
+  {
+    List<String> sources = batch.findSources(dir.toString());
+    assertEquals(Arrays.asList(path("game-1.state.bz2"), path("game-2.state"),
+                               path("game-3.tar.gz")),
+                 sources, "state logs in sorted order");
+  }
+
+  @Test
+  public void globSource () throws IOException
+  {
+    List<String> sources = batch.findSources(path("game-*.state*"));
+    assertEquals(Arrays.asList(path("game-1.state.bz2"), path("game-2.state")),
+                 sources, "matching logs");
+  }
+
+  @Test
+  public void listSource () throws IOException
+  {
+    Path list = dir.resolve("games.txt");
+    Files.write(list, Arrays.asList(path("game-3.tar.gz"), "# skip",
+                                    "", path("game-2.state")));
+    List<String> sources = batch.findSources("@" + list.toString());
+    assertEquals(Arrays.asList(path("game-3.tar.gz"), path("game-2.state")),
+                 sources, "listed order");
+  }
+
+  @Test
+  public void singleSource () throws IOException
+  {
+    List<String> sources = batch.findSources(path("game-2.state"));
+    assertEquals(Arrays.asList(path("game-2.state")), sources, "one log");
+  }
+
+  @Test
+  public void runMergesGames () throws IOException
+  {
+    Files.write(dir.resolve("game-4.state"),
+                Arrays.asList("10:org.powertac.common.Broker::601::new::CrocodileAgent"),
+                StandardCharsets.UTF_8);
+    Files.write(dir.resolve("game-5.state"),
+                Arrays.asList("10:org.powertac.common.Broker::602::new::AstonTAC",
+                              "11:org.powertac.common.Broker::603::new::TacTex"),
+                StandardCharsets.UTF_8);
+    RecordingMerger merger = new RecordingMerger();
+    String error = batch.run(Arrays.asList(path("game-4.state"),
+                                           path("game-5.state")),
+                             new String[] {BrokerNames.class.getName()},
+                             merger);
+    assertNull(error, "no errors");
+    assertEquals(Arrays.asList(path("game-4.state"), path("game-5.state")),
+                 merger.sources, "merged in listed order");
+    assertEquals(Arrays.asList(BrokerNames.class.getName(),
+                               BrokerNames.class.getName()),
+                 merger.analyzers, "one merge per analyzer");
+    assertEquals(Arrays.asList(Arrays.asList("CrocodileAgent"),
+                               Arrays.asList("AstonTAC", "TacTex")),
+                 merger.brokers, "each game seen on its own");
+    assertEquals(Arrays.asList(null, null), merger.errors, "no game errors");
+    assertEquals(1, merger.reports, "reported once");
+  }
+
+  /**
+   * Collects the names of the brokers created in a game. Runs in a
+   * worker's class loader, so it finds the reader through that loader's
+   * Spring context.
+   */
+  public static class BrokerNames implements Analyzer, NewObjectListener
+  {
+    private List<String> names = new ArrayList<>();
+
+    @Override
+    public void setup ()
+    {
+      DomainObjectReader dor = (DomainObjectReader)
+          SpringApplicationContext.getBean("domainObjectReader");
+      dor.registerNewObjectListener(this, Broker.class);
+    }
+
+    @Override
+    public void handleNewObject (Object thing)
+    {
+      names.add(((Broker) thing).getUsername());
+    }
+
+    @Override
+    public void report ()
+    {
+    }
+
+    @Override
+    public Map<String, Object> getSummary ()
+    {
+      Map<String, Object> result = new LinkedHashMap<>();
+      result.put("brokers", names);
+      return result;
+    }
+  }
+
+  // Keeps what it is given, in order
+  private static class RecordingMerger implements BatchMerger
+  {
+    List<String> sources = new ArrayList<>();
+    List<String> analyzers = new ArrayList<>();
+    List<Object> brokers = new ArrayList<>();
+    List<String> errors = new ArrayList<>();
+    int reports = 0;
+
+    @Override
+    public void merge (String source, String analyzer,
+                       Map<String, Object> summary, String error)
+    {
+      sources.add(source);
+      analyzers.add(analyzer);
+      brokers.add(null == summary ? null : summary.get("brokers"));
+      errors.add(error);
+    }
+
+    @Override
+    public void report ()
+    {
+      reports += 1;
+    }
+  }
+}
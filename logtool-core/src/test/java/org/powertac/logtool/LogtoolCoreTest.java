@@ -0,0 +1,167 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.logtool;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.powertac.logtool.common.DomainObjectReader;
+import org.powertac.logtool.common.ParsedLine;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Test cases for the pipelined state-log reader in LogtoolCore
+ * @author agent
+ */
+public class LogtoolCoreTest
+{
+  // more than two parse batches, and a partial one
+  private static final int LINES = 1234;
+
+  private LogtoolCore core;
+  private DomainObjectReader reader;
+  private Map<String, ParsedLine> parsed;
+  private List<String> applied;
+
+  @BeforeEach
+  public void setUp () throws Exception
+  {
+    core = new LogtoolCore();
+    reader = mock(DomainObjectReader.class);
+    ReflectionTestUtils.setField(core, "reader", reader);
+    applied = Collections.synchronizedList(new ArrayList<>());
+
+    // parse() runs on the parse threads, so the results are made here
+    parsed = new HashMap<>();
+    for (int i = 1; i <= LINES; i++) {
+      String line = line(i);
+      ParsedLine result = mock(ParsedLine.class);
+      when(result.getLine()).thenReturn(line);
+      parsed.put(line, result);
+    }
+    when(reader.parse(anyString()))
+        .thenAnswer(invocation -> parsed.get(invocation.getArgument(0)));
+    when(reader.readObject(anyString())).thenAnswer(invocation -> {
+      applied.add(invocation.getArgument(0));
+      return null;
+    });
+    when(reader.apply(any(ParsedLine.class))).thenAnswer(invocation -> {
+      applied.add(((ParsedLine) invocation.getArgument(0)).getLine());
+      return null;
+    });
+  }
+
+  private String line (int n)
+  {
+    return n + ":org.powertac.common.Broker::" + n + "::new::broker-" + n;
+  }
+
+  private LogtoolCore.EntrySource source (int lines)
+  {
+    StringBuilder text = new StringBuilder();
+    for (int i = 1; i <= lines; i++) {
+      text.append(line(i)).append('\n');
+    }
+    return new LogtoolCore.TextSource(new BufferedReader(new StringReader(text.toString())));
+  }
+
+  // Waits for the read and parse threads to go away
+  private boolean pipelineStopped () throws InterruptedException
+  {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (System.currentTimeMillis() < deadline) {
+      boolean running = Thread.getAllStackTraces().keySet().stream()
+          .anyMatch(thread -> thread.getName().startsWith("logtool-read-")
+                    || thread.getName().startsWith("logtool-parse-"));
+      if (!running)
+        return true;
+      Thread.sleep(20);
+    }
+    return false;
+  }
+
+  @Test
+  public void pipelinedMatchesSequential () throws Exception
+  {
+    core.readSequential(source(LINES), null);
+    List<String> sequential = new ArrayList<>(applied);
+    assertEquals(LINES, sequential.size(), "all lines read");
+
+    applied.clear();
+    core.setParseThreads(4);
+    core.readPipelined(source(LINES), null);
+    assertEquals(sequential, applied, "same lines, same order");
+    assertTrue(pipelineStopped(), "pipeline threads gone");
+  }
+
+  @Test
+  public void parseExceptionPropagates () throws Exception
+  {
+    String bad = line(700);
+    when(reader.parse(bad)).thenThrow(new IllegalStateException("bad line"));
+    core.setParseThreads(2);
+    IllegalStateException ise =
+        assertThrows(IllegalStateException.class,
+                     () -> core.readPipelined(source(LINES), null));
+    assertEquals("bad line", ise.getMessage(), "parse failure surfaces");
+    assertFalse(applied.contains(bad), "bad line not applied");
+    assertTrue(applied.size() < 700, "stopped at the failed batch");
+    assertTrue(pipelineStopped(), "pipeline threads gone");
+  }
+
+  @Test
+  public void interruptStopsPipeline () throws Exception
+  {
+    // a log that never ends, and ignores close()
+    LogtoolCore.EntrySource endless = new LogtoolCore.EntrySource() {
+      private int count = 0;
+
+      @Override
+      public Object next ()
+      {
+        count = count % LINES + 1;
+        return line(count);
+      }
+
+      @Override
+      public void close ()
+      {
+      }
+    };
+    when(reader.apply(any(ParsedLine.class))).thenAnswer(invocation -> {
+      applied.add(((ParsedLine) invocation.getArgument(0)).getLine());
+      if (applied.size() == 10)
+        core.interrupt();
+      return null;
+    });
+    core.setParseThreads(2);
+    core.readPipelined(endless, null);
+    assertEquals(10, applied.size(), "stopped after the interrupt");
+    assertTrue(pipelineStopped(), "pipeline threads gone");
+  }
+}
@@ -3,8 +3,15 @@ package org.powertac.logtool.common;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.mock;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.joda.time.Instant;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.powertac.common.BinaryStateLog;
 import org.powertac.common.Broker;
 import org.powertac.common.Competition;
 import org.powertac.common.CustomerInfo;
@@ -15,6 +22,7 @@ import org.powertac.common.Rate;
 import org.powertac.common.RegulationRate;
 import org.powertac.common.TariffSpecification;
 import org.powertac.common.TariffSubscription;
+import org.powertac.common.TimeService;
 import org.powertac.common.msg.BalancingOrder;
 import org.powertac.common.repo.BrokerRepo;
 import org.powertac.common.repo.TariffRepo;
@@ -301,4 +309,128 @@ public class DomainObjectReaderTest
       fail("missing DO " + mdo.toString());
     }
   }
+
+  @Test
+  public void repeatedCallsUseCachedPlans ()
+  {
+    String nc = "140:org.powertac.common.Competition::0::new::game-9";
+    String m2 = "222:org.powertac.common.Competition::0::withMinimumTimeslotCount::";
+    try {
+      Competition comp = (Competition)dor.readObject(nc);
+      for (int count = 1000; count < 1010; count++) {
+        dor.readObject(m2 + count);
+        assertEquals(count, comp.getMinimumTimeslotCount(), "updated count");
+      }
+      for (int id = 700; id < 710; id++) {
+        Broker broker = (Broker)dor.readObject("1:org.powertac.common.Broker::"
+                                               + id + "::new::B" + id);
+        assertEquals(id, broker.getId(), "correct id");
+        assertEquals(broker, dor.getById(id), "object stored in map");
+      }
+      assertNull(dor.readObject("1:org.powertac.common.NoSuchThing::5::new::x"),
+                 "unknown class");
+      assertNull(dor.readObject("1:org.powertac.common.NoSuchThing::6::new::x"),
+                 "still unknown");
+    }
+    catch (MissingDomainObject mdo) {
+      fail("should not happen: " + mdo.toString());
+    }
+  }
+
+  @Test
+  public void splitTokens ()
+  {
+    String[] lines = {"a::b::c", "a::::c", "a::b::", "::a", "a::b::::", "abc", ""};
+    for (String line : lines) {
+      assertArrayEquals(line.split("::"), DomainObjectReader.splitTokens(line),
+                        "same as split for " + line);
+    }
+  }
+
+  @Test
+  public void parseAheadApplyInOrder ()
+  {
+    String[] lines = {
+      "1255:org.powertac.common.Broker::601::new::CrocodileAgent",
+      "1773:org.powertac.common.Rate::200076920::new::1878::-1::-1::-1::-1::0.0::true::-0.045598969348039364::0.0::0::0.0::0.1",
+      "1774:org.powertac.common.TariffSpecification::1878::new::601::INTERRUPTIBLE_CONSUMPTION::0::0.0::0.0::-0.6",
+      "1775:org.powertac.common.Tariff::1878::new::1878",
+      "1776:org.powertac.common.TimeService::null::setCurrentTime::2009-12-19T00:00:00.000Z"
+    };
+    TimeService timeService = new TimeService();
+    ReflectionTestUtils.setField(dor, "timeService", timeService);
+    // parse from the back, as a parse thread might, then apply in order
+    ParsedLine[] parsed = new ParsedLine[lines.length];
+    for (int i = lines.length - 1; i >= 0; i--) {
+      parsed[i] = dor.parse(lines[i]);
+    }
+    assertNull(parsed[3], "Tariff is ignored");
+    try {
+      Broker broker = (Broker) dor.apply(parsed[0]);
+      assertEquals(601, broker.getId(), "correct broker id");
+      Rate rate = (Rate) dor.apply(parsed[1]);
+      assertNotNull(rate, "valid rate");
+      TariffSpecification spec = (TariffSpecification) dor.apply(parsed[2]);
+      assertEquals(broker, spec.getBroker(), "spec refers to broker");
+      assertEquals(spec, dor.getById(1878), "spec stored in map");
+      assertNull(dor.apply(parsed[4]), "time update");
+      assertEquals(Instant.parse("2009-12-19T00:00:00.000Z"),
+                   timeService.getCurrentTime(), "time set");
+      assertEquals(lines[4], parsed[4].getLine(), "line retained");
+    }
+    catch (MissingDomainObject mdo) {
+      fail("missing DO " + mdo.toString());
+    }
+  }
+
+  @Test
+  public void fastForwardCallsOnlyStateListeners ()
+  {
+    ArrayList<Object> seen = new ArrayList<>();
+    ArrayList<Object> state = new ArrayList<>();
+    dor.registerNewObjectListener(thing -> seen.add(thing), Broker.class);
+    dor.registerStateListener(thing -> state.add(thing), Broker.class);
+    try {
+      dor.setFastForward(true);
+      dor.readObject("1255:org.powertac.common.Broker::601::new::CrocodileAgent");
+      assertEquals(0, seen.size(), "not seen while fast-forwarding");
+      assertEquals(1, state.size(), "state listener called");
+      dor.setFastForward(false);
+      dor.readObject("1256:org.powertac.common.Broker::602::new::AstonTAC");
+      assertEquals(1, seen.size(), "seen after fast-forward");
+      assertEquals(2, state.size(), "state listener called again");
+    }
+    catch (MissingDomainObject mdo) {
+      fail("missing DO " + mdo.toString());
+    }
+  }
+
+  @Test
+  public void readBinaryRecords () throws IOException
+  {
+    String[] lines = {
+      "1255:org.powertac.common.Broker::601::new::CrocodileAgent",
+      "1773:org.powertac.common.Rate::200076920::new::1878::-1::-1::-1::-1::0.0::true::-0.045598969348039364::0.0::0::0.0::0.1",
+      "1774:org.powertac.common.TariffSpecification::1878::new::601::INTERRUPTIBLE_CONSUMPTION::0::0.0::0.0::-0.6"
+    };
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    BinaryStateLog.Writer writer = new BinaryStateLog.Writer(out, true);
+    for (String line : lines)
+      writer.writeLine(line);
+    writer.flush();
+    BinaryStateLog.Reader reader =
+        new BinaryStateLog.Reader(new ByteArrayInputStream(out.toByteArray()));
+    try {
+      Broker broker = (Broker) dor.readObject(reader.next());
+      assertEquals(601, broker.getId(), "correct broker id");
+      Rate rate = (Rate) dor.readObject(reader.next());
+      assertEquals(200076920, rate.getId(), "correct rate id");
+      TariffSpecification spec = (TariffSpecification) dor.readObject(reader.next());
+      assertEquals(broker, spec.getBroker(), "spec refers to broker");
+      assertEquals(spec, dor.getById(1878), "spec stored in map");
+    }
+    catch (MissingDomainObject mdo) {
+      fail("missing DO " + mdo.toString());
+    }
+  }
 }
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.logtool.common;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test cases for ReplayStart
+ * @author agent
+ */
+public class ReplayStartTest
+{
+  private final String[] log = {
+      "140:org.powertac.common.Competition::0::new::game-9",
+      "221:org.powertac.common.Competition::0::withSimulationBaseTime::1229644800000",
+      "1255:org.powertac.common.Broker::601::new::CrocodileAgent",
+      "3000:org.powertac.common.TimeService::null::setCurrentTime::2008-12-20T00:00:00.000Z",
+      "3001:org.powertac.common.Broker::602::new::AstonTAC",
+      "5000:org.powertac.common.TimeService::null::setCurrentTime::2008-12-20T01:00:00.000Z",
+      "5001:org.powertac.common.TimeService::null::setCurrentTime::2008-12-20T01:30:00.000Z",
+      "7000:org.powertac.common.TimeService::null::setCurrentTime::2008-12-20T03:00:00.000Z"
+  };
+
+  // like DomainObjectReader.parse(), without resolving the class
+  private ParsedLine parse (String line)
+  {
+    String[] tokens =
+        DomainObjectReader.splitTokens(line.substring(line.indexOf(':') + 1));
+    ParsedLine result = new ParsedLine(line, tokens[0], null);
+    if ("null".equals(tokens[1])) {
+      result.args = new String[] {tokens[3]};
+      return result;
+    }
+    result.id = Long.parseLong(tokens[1]);
+    result.methodName = tokens[2];
+    result.args = Arrays.copyOfRange(tokens, 3, tokens.length);
+    return result;
+  }
+
+  // index of the line that starts the replay, or -1
+  private int find (int timeslot)
+  {
+    ReplayStart start = new ReplayStart(timeslot);
+    int found = -1;
+    for (int i = 0; i < log.length; i++) {
+      if (start.reached(parse(log[i]))) {
+        assertEquals(-1, found, "reached once");
+        found = i;
+      }
+    }
+    assertEquals(found >= 0, start.isReached(), "isReached");
+    return found;
+  }
+
+  @Test
+  public void findStart ()
+  {
+    assertEquals(3, find(0), "before start");
+    assertEquals(3, find(24), "first timeslot");
+    assertEquals(5, find(25), "first update in the timeslot");
+    assertEquals(7, find(26), "gap");
+    assertEquals(-1, find(28), "after end");
+  }
+
+  @Test
+  public void timeslotLength ()
+  {
+    ReplayStart start = new ReplayStart(50);
+    start.reached(parse(log[1]));
+    start.reached(parse("222:org.powertac.common.Competition::0::withTimeslotLength::30"));
+    assertFalse(start.reached(parse(log[3])), "00:00 is timeslot 48");
+    assertTrue(start.reached(parse(log[5])), "01:00 is timeslot 50");
+  }
+}
@@ -19,9 +19,8 @@ import java.util.Arrays;
 import java.util.Properties;
 import java.util.Vector;
 
-import org.joda.time.Instant;
+import org.powertac.common.ShiftingCostEstimator;
 import org.powertac.common.Tariff;
-import org.powertac.common.TariffEvaluationHelper;
 import org.powertac.common.repo.RandomSeedRepo;
 import org.powertac.common.spring.SpringApplicationContext;
 import org.powertac.officecomplexcustomer.configurations.OfficeComplexConstants;
@@ -125,8 +124,8 @@ public class CopyMachine extends SemiShiftingAppliance
 
   @Override
   public double[] dailyShifting (Tariff tariff, double[] nonDominantUsage,
-                                 TariffEvaluationHelper tariffEvalHelper,
-                                 int day, Instant start)
+                                 ShiftingCostEstimator estimator,
+                                 int day)
   {
 
     double[] newControllableLoad =
@@ -143,15 +142,13 @@ public class CopyMachine extends SemiShiftingAppliance
       int minIndex = -1;
       int counter = 1;
       double minCost = Double.POSITIVE_INFINITY;
+      estimator.setBase(nonDominantUsage);
 
       for (int j = OfficeComplexConstants.START_OF_FUNCTION_HOURS; j < OfficeComplexConstants.END_OF_FUNCTION_HOUR; j++) {
 
-        newTemp = Arrays.copyOf(nonDominantUsage, nonDominantUsage.length);
-
-        newTemp[j] += OfficeComplexConstants.QUARTERS_OF_HOUR * power;
-
         double cost =
-            Math.abs(tariffEvalHelper.estimateCost(tariff, newTemp, start));
+            Math.abs(estimator.costWith(j,
+                                        OfficeComplexConstants.QUARTERS_OF_HOUR * power));
 
         // log.debug("Overall Cost for hour " + j + " : " + cost);
 
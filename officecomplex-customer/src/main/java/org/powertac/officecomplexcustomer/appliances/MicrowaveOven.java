@@ -20,9 +20,8 @@ import java.util.Arrays;
 import java.util.Properties;
 import java.util.Vector;
 
-import org.joda.time.Instant;
+import org.powertac.common.ShiftingCostEstimator;
 import org.powertac.common.Tariff;
-import org.powertac.common.TariffEvaluationHelper;
 import org.powertac.common.repo.RandomSeedRepo;
 import org.powertac.common.spring.SpringApplicationContext;
 import org.powertac.officecomplexcustomer.configurations.OfficeComplexConstants;
@@ -116,8 +115,8 @@ public class MicrowaveOven extends SemiShiftingAppliance
 
   @Override
   public double[] dailyShifting (Tariff tariff, double[] nonDominantUsage,
-                                 TariffEvaluationHelper tariffEvalHelper,
-                                 int day, Instant start)
+                                 ShiftingCostEstimator estimator,
+                                 int day)
   {
     double[] newControllableLoad =
       new double[OfficeComplexConstants.HOURS_OF_DAY];
@@ -128,15 +127,11 @@ public class MicrowaveOven extends SemiShiftingAppliance
       int minIndex = -1;
       int counter = 1;
       double minCost = Double.POSITIVE_INFINITY;
+      estimator.setBase(nonDominantUsage);
 
       for (int j = OfficeComplexConstants.START_OF_LAUNCH_BREAK_HOUR - 1; j < OfficeComplexConstants.END_OF_LAUNCH_BREAK_HOUR + 2; j++) {
 
-        newTemp = Arrays.copyOf(nonDominantUsage, nonDominantUsage.length);
-
-        newTemp[j] += power;
-
-        double cost =
-            Math.abs(tariffEvalHelper.estimateCost(tariff, newTemp, start));
+        double cost = Math.abs(estimator.costWith(j, power));
 
         // log.debug("Overall Cost for hour " + j + " : " + cost);
 
@@ -25,8 +25,8 @@ import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 import org.joda.time.Instant;
 import org.powertac.common.RandomSeed;
+import org.powertac.common.ShiftingCostEstimator;
 import org.powertac.common.Tariff;
-import org.powertac.common.TariffEvaluationHelper;
 import org.powertac.common.repo.RandomSeedRepo;
 import org.powertac.common.spring.SpringApplicationContext;
 import org.powertac.officecomplexcustomer.appliances.AirCondition;
@@ -1147,14 +1147,12 @@ public class Office
    * 
    * @param tariff
    * @param nonDominantLoad
-   * @param tariffEvalHelper
+   * @param estimator
    * @param day
-   * @param start
    * @return TODO
    */
   double[] dailyShifting (Tariff tariff, double[] nonDominantLoad,
-                          TariffEvaluationHelper tariffEvalHelper, int day,
-                          Instant start)
+                          ShiftingCostEstimator estimator, int day)
   {
 
     double[] dominantLoad = new double[OfficeComplexConstants.HOURS_OF_DAY];
@@ -1164,7 +1162,7 @@ public class Office
     if (appliance.getOverallPower() != -1)
       dominantLoad =
         appliance.dailyShifting(tariff, nonDominantLoad,
-                                tariffEvalHelper, day, start);
+                                estimator, day);
 
     log.debug("Dominant Appliance " + appliance.toString() + " Overall Power: "
               + appliance.getOverallPower());
@@ -31,6 +31,7 @@ import org.joda.time.Instant;
 import org.powertac.common.CapacityProfile;
 import org.powertac.common.CustomerInfo;
 import org.powertac.common.RandomSeed;
+import org.powertac.common.ShiftingCostEstimator;
 import org.powertac.common.Tariff;
 import org.powertac.common.TariffEvaluationHelper;
 import org.powertac.common.TariffEvaluator;
@@ -1280,10 +1281,15 @@ public class OfficeComplex extends AbstractCustomer
       offices = smartShiftingOffices;
     }
 
+    // the tariff's price curve is computed once for all offices
+    ShiftingCostEstimator estimator =
+      new ShiftingCostEstimator(tariffEvalHelper, tariff, nextStartOfDay(),
+                                OfficeComplexConstants.HOURS_OF_DAY);
+
     for (Office office: offices) {
       double[] temp =
-        office.dailyShifting(tariff, newControllableLoad, tariffEvalHelper,
-                             dayTemp, nextStartOfDay());
+        office.dailyShifting(tariff, newControllableLoad, estimator,
+                             dayTemp);
 
       log.debug("New Dominant Load for house " + office.toString()
                 + " for Tariff " + tariff.toString() + ": "
@@ -0,0 +1,507 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.common;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Compact binary encoding of the state log. A text state-log line has the
+ * form <code>msec:class::id::method::arg...</code>; in the binary form,
+ * class names, method names, and short string arguments are sent once and
+ * then referred to by dictionary index, integers are written as varints,
+ * and doubles as their raw 8 bytes. Timestamps are written as the change
+ * from the previous record.
+ * <p>
+ * The encoding is lossless: a number is only written in binary form if
+ * the text it came from is exactly what Java prints for that number, and
+ * decoding a record gives back the original line. Lines that do not have
+ * the class::id::method form are written as they are.</p>
+ * <p>
+ * A binary log starts with the four bytes "PTSB" and a version byte, which
+ * is how readers tell it from a text log.</p>
+ *
+ * @author agent
+ */
+public class BinaryStateLog
+{
+  public static final byte[] MAGIC = {'P', 'T', 'S', 'B'};
+  public static final int VERSION = 1;
+
+  // record tags
+  static final int CLASS_DEF = 1;
+  static final int METHOD_DEF = 2;
+  static final int STRING_DEF = 3;
+  static final int ENTRY = 4;
+  static final int RAW = 5;
+  static final int RAW_LINE = 6; // line without a timestamp
+
+  // token types
+  static final int T_STRING = 0; // dictionary reference
+  static final int T_LITERAL = 1; // inline string
+  static final int T_LONG = 2;
+  static final int T_DOUBLE = 3;
+
+  // strings longer than this are not put in the dictionary
+  static final int MAX_DICT_STRING = 64;
+  static final int MAX_DICT_SIZE = 1 << 16;
+
+  /**
+   * Returns the file header
+   */
+  public static byte[] header ()
+  {
+    byte[] result = Arrays.copyOf(MAGIC, MAGIC.length + 1);
+    result[MAGIC.length] = (byte) VERSION;
+    return result;
+  }
+
+  /**
+   * True just in case the stream starts with the binary header. The
+   * stream must support mark(); its position is not changed.
+   */
+  public static boolean isBinary (InputStream in) throws IOException
+  {
+    in.mark(MAGIC.length);
+    try {
+      for (byte b : MAGIC) {
+        if (in.read() != b)
+          return false;
+      }
+      return true;
+    }
+    finally {
+      in.reset();
+    }
+  }
+
+  /**
+   * Splits a state-log message on "::", keeping empty tokens
+   */
+  static String[] split (String message)
+  {
+    ArrayList<String> result = new ArrayList<>();
+    int start = 0;
+    int end = message.indexOf("::");
+    while (end >= 0) {
+      result.add(message.substring(start, end));
+      start = end + 2;
+      end = message.indexOf("::", start);
+    }
+    result.add(message.substring(start));
+    return result.toArray(new String[result.size()]);
+  }
+
+  // ------------------------------------------------------------------
+
+  /**
+   * Writes state-log records in binary form. Not thread-safe.
+   */
+  public static class Writer
+  {
+    private DataOutputStream out;
+    private HashMap<String, Integer> classes = new HashMap<>();
+    private HashMap<String, Integer> methods = new HashMap<>();
+    private HashMap<String, Integer> strings = new HashMap<>();
+    private long lastMsec = 0;
+
+    /**
+     * Creates a writer on out. If writeHeader is false, the caller is
+     * responsible for writing the header first.
+     */
+    public Writer (OutputStream out, boolean writeHeader) throws IOException
+    {
+      super();
+      this.out = new DataOutputStream(out);
+      if (writeHeader)
+        this.out.write(header());
+    }
+
+    /**
+     * Writes one state-log message, without its timestamp, as logged at
+     * msec.
+     */
+    public void write (long msec, String message) throws IOException
+    {
+      String[] tokens = split(message);
+      if (tokens.length < 3) {
+        out.writeByte(RAW);
+        writeTime(msec);
+        writeString(message);
+        return;
+      }
+      int classIndex = define(classes, CLASS_DEF, tokens[0]);
+      int methodIndex = define(methods, METHOD_DEF, tokens[2]);
+      for (int i = 1; i < tokens.length; i++) {
+        if (i != 2 && isDictString(tokens[i]))
+          define(strings, STRING_DEF, tokens[i]);
+      }
+      out.writeByte(ENTRY);
+      writeTime(msec);
+      writeVarint(classIndex);
+      writeToken(tokens[1]);
+      writeVarint(methodIndex);
+      writeVarint(tokens.length - 3);
+      for (int i = 3; i < tokens.length; i++) {
+        writeToken(tokens[i]);
+      }
+    }
+
+    /**
+     * Writes one text state-log line, timestamp included
+     */
+    public void writeLine (String line) throws IOException
+    {
+      int colon = line.indexOf(':');
+      if (colon < 0 || !isLong(line.substring(0, colon))) {
+        // no timestamp - keep the whole line
+        out.writeByte(RAW_LINE);
+        writeString(line);
+        return;
+      }
+      write(Long.parseLong(line.substring(0, colon)),
+            line.substring(colon + 1));
+    }
+
+    public void flush () throws IOException
+    {
+      out.flush();
+    }
+
+    private void writeTime (long msec) throws IOException
+    {
+      writeVarlong(zigzag(msec - lastMsec));
+      lastMsec = msec;
+    }
+
+    private int define (HashMap<String, Integer> dict, int tag, String value)
+        throws IOException
+    {
+      Integer index = dict.get(value);
+      if (null == index) {
+        index = dict.size();
+        dict.put(value, index);
+        out.writeByte(tag);
+        writeString(value);
+      }
+      return index;
+    }
+
+    private boolean isDictString (String token)
+    {
+      return token.length() <= MAX_DICT_STRING
+          && !isLong(token) && !isDouble(token)
+          && (strings.containsKey(token) || strings.size() < MAX_DICT_SIZE);
+    }
+
+    private void writeToken (String token) throws IOException
+    {
+      Integer index = strings.get(token);
+      if (null != index) {
+        out.writeByte(T_STRING);
+        writeVarint(index);
+      }
+      else if (isLong(token)) {
+        out.writeByte(T_LONG);
+        writeVarlong(zigzag(Long.parseLong(token)));
+      }
+      else if (isDouble(token)) {
+        out.writeByte(T_DOUBLE);
+        out.writeDouble(Double.parseDouble(token));
+      }
+      else {
+        out.writeByte(T_LITERAL);
+        writeString(token);
+      }
+    }
+
+    private void writeString (String value) throws IOException
+    {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      writeVarint(bytes.length);
+      out.write(bytes);
+    }
+
+    private void writeVarint (int value) throws IOException
+    {
+      writeVarlong(value & 0xffffffffL);
+    }
+
+    private void writeVarlong (long value) throws IOException
+    {
+      while ((value & ~0x7fL) != 0) {
+        out.writeByte((int) ((value & 0x7f) | 0x80));
+        value >>>= 7;
+      }
+      out.writeByte((int) value);
+    }
+  }
+
+  // A long whose text form is exactly what Long.toString() gives
+  static boolean isLong (String token)
+  {
+    int length = token.length();
+    if (length == 0 || length > 19)
+      return false;
+    int start = token.charAt(0) == '-' ? 1 : 0;
+    if (start == length)
+      return false;
+    for (int i = start; i < length; i++) {
+      char c = token.charAt(i);
+      if (c < '0' || c > '9')
+        return false;
+    }
+    if (token.charAt(start) == '0' && (length - start > 1 || start == 1))
+      // leading zero, or -0
+      return false;
+    try {
+      Long.parseLong(token);
+      return true;
+    }
+    catch (NumberFormatException nfe) {
+      return false;
+    }
+  }
+
+  // A double whose text form is exactly what Double.toString() gives
+  static boolean isDouble (String token)
+  {
+    if (token.isEmpty())
+      return false;
+    char first = token.charAt(0);
+    if (first != '-' && (first < '0' || first > '9'))
+      return false;
+    if (token.indexOf('.') < 0)
+      return false;
+    try {
+      return Double.toString(Double.parseDouble(token)).equals(token);
+    }
+    catch (NumberFormatException nfe) {
+      return false;
+    }
+  }
+
+  static long zigzag (long value)
+  {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  static long unzigzag (long value)
+  {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  // ------------------------------------------------------------------
+
+  /**
+   * One decoded state-log record
+   */
+  public static class Record
+  {
+    private long msec;
+    private String[] tokens;
+    private String raw;
+    private boolean timestamped = true;
+
+    Record (long msec, String[] tokens, String raw)
+    {
+      super();
+      this.msec = msec;
+      this.tokens = tokens;
+      this.raw = raw;
+    }
+
+    /** Timestamp, msec from the start of the log */
+    public long getMsec ()
+    {
+      return msec;
+    }
+
+    /**
+     * Tokens class, id, method, args..., or null for a record that was
+     * written as raw text
+     */
+    public String[] getTokens ()
+    {
+      return tokens;
+    }
+
+    /**
+     * Returns the record as a text state-log line
+     */
+    public String toLine ()
+    {
+      if (null != raw) {
+        if (!timestamped)
+          return raw;
+        return msec + ":" + raw;
+      }
+      StringBuilder result = new StringBuilder();
+      result.append(msec).append(':').append(tokens[0]);
+      for (int i = 1; i < tokens.length; i++) {
+        result.append("::").append(tokens[i]);
+      }
+      return result.toString();
+    }
+  }
+
+  /**
+   * Reads a binary state log. Not thread-safe.
+   */
+  public static class Reader
+  {
+    private DataInputStream in;
+    private ArrayList<String> classes = new ArrayList<>();
+    private ArrayList<String> methods = new ArrayList<>();
+    private ArrayList<String> strings = new ArrayList<>();
+    private long lastMsec = 0;
+
+    /**
+     * Creates a reader on in, which must be positioned at the header
+     */
+    public Reader (InputStream in) throws IOException
+    {
+      super();
+      this.in = new DataInputStream(in);
+      byte[] header = new byte[MAGIC.length + 1];
+      this.in.readFully(header);
+      if (!Arrays.equals(Arrays.copyOf(header, MAGIC.length), MAGIC))
+        throw new IOException("Not a binary state log");
+      if (header[MAGIC.length] != VERSION)
+        throw new IOException("Unsupported binary state log version "
+                              + header[MAGIC.length]);
+    }
+
+    /**
+     * Returns the next record, or null at the end of the log
+     */
+    public Record next () throws IOException
+    {
+      while (true) {
+        int tag = in.read();
+        switch (tag) {
+        case -1:
+          return null;
+        case CLASS_DEF:
+          classes.add(readString());
+          break;
+        case METHOD_DEF:
+          methods.add(readString());
+          break;
+        case STRING_DEF:
+          strings.add(readString());
+          break;
+        case RAW:
+          return new Record(readTime(), null, readString());
+        case RAW_LINE:
+          Record result = new Record(lastMsec, null, readString());
+          result.timestamped = false;
+          return result;
+        case ENTRY:
+          return readEntry();
+        default:
+          throw new IOException("Bad record tag " + tag);
+        }
+      }
+    }
+
+    /**
+     * Returns the next record as a text line, or null at the end of the log
+     */
+    public String readLine () throws IOException
+    {
+      Record record = next();
+      if (null == record)
+        return null;
+      return record.toLine();
+    }
+
+    private Record readEntry () throws IOException
+    {
+      long msec = readTime();
+      String className = classes.get(readVarint());
+      String id = readToken();
+      String method = methods.get(readVarint());
+      int argCount = readVarint();
+      String[] tokens = new String[argCount + 3];
+      tokens[0] = className;
+      tokens[1] = id;
+      tokens[2] = method;
+      for (int i = 0; i < argCount; i++) {
+        tokens[i + 3] = readToken();
+      }
+      return new Record(msec, tokens, null);
+    }
+
+    private long readTime () throws IOException
+    {
+      lastMsec += unzigzag(readVarlong());
+      return lastMsec;
+    }
+
+    private String readToken () throws IOException
+    {
+      int type = in.readUnsignedByte();
+      switch (type) {
+      case T_STRING:
+        return strings.get(readVarint());
+      case T_LITERAL:
+        return readString();
+      case T_LONG:
+        return Long.toString(unzigzag(readVarlong()));
+      case T_DOUBLE:
+        return Double.toString(in.readDouble());
+      default:
+        throw new IOException("Bad token type " + type);
+      }
+    }
+
+    private String readString () throws IOException
+    {
+      byte[] bytes = new byte[readVarint()];
+      in.readFully(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int readVarint () throws IOException
+    {
+      return (int) readVarlong();
+    }
+
+    private long readVarlong () throws IOException
+    {
+      long result = 0;
+      int shift = 0;
+      while (true) {
+        int b = in.read();
+        if (b < 0)
+          throw new EOFException("Truncated binary state log");
+        result |= (long) (b & 0x7f) << shift;
+        if ((b & 0x80) == 0)
+          return result;
+        shift += 7;
+      }
+    }
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.common;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Per-thread holding area for postings to shared services. When a customer
+ * model runs on a worker thread, services such as Accounting and
+ * TariffMarket record the model's postings here instead of applying them
+ * immediately. The caller then replays each thread's postings on the sim
+ * thread in a fixed order, so transaction and subscription ids, and the
+ * order of the pending lists, are the same as in a sequential run.
+ * <p>
+ * Services use it like this:
+ * <pre>
+ *   if (DeferredPostings.defer(() -&gt; addThing(args)))
+ *     return null;
+ * </pre>
+ * Outside a deferral scope, defer() returns false and the service
+ * proceeds normally.</p>
+ *
+ * @author agent
+ */
+public class DeferredPostings
+{
+  private static final ThreadLocal<List<Runnable>> pending =
+      new ThreadLocal<>();
+
+  // not instantiable
+  private DeferredPostings ()
+  {
+    super();
+  }
+
+  /**
+   * Starts a deferral scope on the calling thread.
+   */
+  public static void begin ()
+  {
+    pending.set(new ArrayList<>());
+  }
+
+  /**
+   * Ends the deferral scope on the calling thread, and returns the
+   * postings recorded since the call to begin(), in the order they
+   * were made.
+   */
+  public static List<Runnable> end ()
+  {
+    List<Runnable> result = pending.get();
+    pending.remove();
+    if (null == result)
+      return Collections.emptyList();
+    return result;
+  }
+
+  /**
+   * True just in case the calling thread is inside a deferral scope.
+   */
+  public static boolean isDeferring ()
+  {
+    return null != pending.get();
+  }
+
+  /**
+   * Records the posting if the calling thread is inside a deferral scope,
+   * and returns true. Otherwise returns false, and the caller must
+   * complete the posting itself.
+   */
+  public static boolean defer (Runnable posting)
+  {
+    List<Runnable> list = pending.get();
+    if (null == list)
+      return false;
+    list.add(posting);
+    return true;
+  }
+
+  /**
+   * Replays a list of postings on the calling thread.
+   */
+  public static void post (List<Runnable> postings)
+  {
+    for (Runnable posting : postings) {
+      posting.run();
+    }
+  }
+}
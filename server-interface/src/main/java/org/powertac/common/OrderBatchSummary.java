@@ -0,0 +1,81 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.common;
+
+import java.util.List;
+
+/**
+ * Summary of a batch of Orders submitted at once by an in-process
+ * wholesale participant, forwarded to visualizers in place of the
+ * individual orders. Quantities are in MWh; bought is the total of the
+ * positive quantities, sold the total of the negative ones.
+ *
+ * Instances are immutable.
+ *
+ * @author agent
+ */
+public class OrderBatchSummary
+{
+  private final String broker;
+  private final int orderCount;
+  private final double boughtMWh;
+  private final double soldMWh;
+
+  public OrderBatchSummary (Broker broker, List<Order> orders)
+  {
+    super();
+    this.broker = broker.getUsername();
+    this.orderCount = orders.size();
+    double bought = 0.0;
+    double sold = 0.0;
+    for (Order order : orders) {
+      double qty = order.getMWh();
+      if (qty > 0.0)
+        bought += qty;
+      else
+        sold += qty;
+    }
+    this.boughtMWh = bought;
+    this.soldMWh = sold;
+  }
+
+  public String getBroker ()
+  {
+    return broker;
+  }
+
+  public int getOrderCount ()
+  {
+    return orderCount;
+  }
+
+  public double getBoughtMWh ()
+  {
+    return boughtMWh;
+  }
+
+  public double getSoldMWh ()
+  {
+    return soldMWh;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return "OrderBatchSummary(" + broker + ", " + orderCount + " orders, "
+        + boughtMWh + " bought, " + soldMWh + " sold)";
+  }
+}
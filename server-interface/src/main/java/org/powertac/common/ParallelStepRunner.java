@@ -0,0 +1,198 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Runs a task over a list of independent items, such as customer models,
+ * either sequentially on the calling thread or concurrently on a fixed
+ * pool. In concurrent mode, each item's postings to Accounting and
+ * TariffMarket are collected through {@link DeferredPostings} and replayed
+ * on the calling thread in list order once all items are done, so the
+ * outcome does not depend on thread scheduling. Each item must own its
+ * own random sequence and state.
+ *
+ * @author agent
+ */
+public class ParallelStepRunner
+{
+  static private Logger log =
+      LogManager.getLogger(ParallelStepRunner.class.getName());
+
+  private ExecutorService executor = null;
+  private int threads = 0;
+
+  // number of chunks per thread in runChunked()
+  private static final int CHUNKS_PER_THREAD = 4;
+
+  /**
+   * Creates a runner with the given number of threads. If threads is
+   * zero or less, items are run sequentially on the calling thread.
+   */
+  public ParallelStepRunner (String name, int threads)
+  {
+    super();
+    if (threads > 0) {
+      this.threads = threads;
+      executor = Executors.newFixedThreadPool(threads,
+                                              new WorkerFactory(name));
+    }
+  }
+
+  /**
+   * True just in case this runner uses a thread pool.
+   */
+  public boolean isParallel ()
+  {
+    return null != executor;
+  }
+
+  /**
+   * Runs task on each item and waits for all of them to finish.
+   * In concurrent mode, deferred postings are replayed in item order;
+   * if any task failed, the first failure is re-thrown after the postings
+   * of the others have been replayed.
+   */
+  public <T> void runAll (List<T> items, Consumer<T> task)
+  {
+    if (null == executor) {
+      for (T item : items) {
+        task.accept(item);
+      }
+      return;
+    }
+    List<Future<Outcome>> results = new ArrayList<>(items.size());
+    for (T item : items) {
+      results.add(executor.submit(() -> runDeferred(item, task)));
+    }
+    RuntimeException failure = null;
+    for (Future<Outcome> result : results) {
+      try {
+        Outcome outcome = result.get();
+        DeferredPostings.post(outcome.postings);
+        if (null != outcome.failure && null == failure)
+          failure = outcome.failure;
+      }
+      catch (ExecutionException ee) {
+        log.error("task failed", ee.getCause());
+        if (null == failure)
+          failure = new RuntimeException(ee.getCause());
+      }
+      catch (InterruptedException ie) {
+        log.warn("interrupted waiting for task");
+        Thread.currentThread().interrupt();
+      }
+    }
+    if (null != failure)
+      throw failure;
+  }
+
+  /**
+   * Like runAll(), but for long lists of small tasks. Items are split
+   * into a few contiguous chunks per thread, and each chunk is run as
+   * a single task, in list order.
+   */
+  public <T> void runChunked (List<T> items, Consumer<T> task)
+  {
+    if (null == executor) {
+      runAll(items, task);
+      return;
+    }
+    int chunkCount = Math.min(items.size(), threads * CHUNKS_PER_THREAD);
+    List<List<T>> chunks = new ArrayList<>(chunkCount);
+    for (int i = 0; i < chunkCount; i++) {
+      chunks.add(items.subList(i * items.size() / chunkCount,
+                               (i + 1) * items.size() / chunkCount));
+    }
+    runAll(chunks, chunk -> {
+      for (T item : chunk) {
+        task.accept(item);
+      }
+    });
+  }
+
+  // Runs one task in a deferral scope on a worker thread. Postings made
+  // before a failure are kept, as they would be in sequential mode.
+  private <T> Outcome runDeferred (T item, Consumer<T> task)
+  {
+    DeferredPostings.begin();
+    RuntimeException failure = null;
+    try {
+      task.accept(item);
+    }
+    catch (RuntimeException re) {
+      log.error("task failed", re);
+      failure = re;
+    }
+    return new Outcome(DeferredPostings.end(), failure);
+  }
+
+  /**
+   * Releases the thread pool, if any.
+   */
+  public void shutdown ()
+  {
+    if (null != executor) {
+      executor.shutdown();
+      executor = null;
+    }
+  }
+
+  // Result of running one task
+  private static class Outcome
+  {
+    final List<Runnable> postings;
+    final RuntimeException failure;
+
+    Outcome (List<Runnable> postings, RuntimeException failure)
+    {
+      this.postings = postings;
+      this.failure = failure;
+    }
+  }
+
+  // Daemon threads, so an abandoned runner cannot hold up server exit
+  private static class WorkerFactory implements ThreadFactory
+  {
+    private final String prefix;
+    private final AtomicInteger count = new AtomicInteger(0);
+
+    WorkerFactory (String name)
+    {
+      prefix = name + "-";
+    }
+
+    @Override
+    public Thread newThread (Runnable r)
+    {
+      Thread result = new Thread(r, prefix + count.incrementAndGet());
+      result.setDaemon(true);
+      return result;
+    }
+  }
+}
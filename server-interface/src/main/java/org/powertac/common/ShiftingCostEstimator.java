@@ -0,0 +1,164 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.common;
+
+import java.util.Arrays;
+
+import org.joda.time.Instant;
+
+/**
+ * Scores candidate start hours for shiftable appliance loads against a
+ * single tariff over a day of usage. Appliance models set a base load
+ * vector, then ask for the cost of that vector with a few hours changed.
+ * <p>
+ * For tariffs without tiers or variable rates, the cost of a usage vector
+ * is a fixed charge plus a per-hour price times the usage in that hour.
+ * In that case the estimator derives the per-hour marginal price curve
+ * from the TariffEvaluationHelper once, and each candidate is scored in
+ * constant time as a delta from the cost of the base vector. For tiered
+ * and variable-rate tariffs, where cost is not linear in usage, each
+ * candidate is evaluated in full by the helper.</p>
+ * <p>
+ * Instances are not thread-safe; create one per tariff, day, and
+ * shifting pass.</p>
+ *
+ * @author agent
+ */
+public class ShiftingCostEstimator
+{
+  private TariffEvaluationHelper helper;
+  private Tariff tariff;
+  private Instant start;
+  private int hours;
+
+  // linear model: cost(usage) = fixedCost + sum(price[h] * usage[h])
+  private boolean incremental;
+  private double fixedCost = 0.0;
+  private double[] price;
+
+  // current base load and its cost
+  private double[] base;
+  private double baseCost = 0.0;
+
+  /**
+   * Creates an estimator for the given tariff over the given number of
+   * hours, starting at start.
+   */
+  public ShiftingCostEstimator (TariffEvaluationHelper helper,
+                                Tariff tariff, Instant start, int hours)
+  {
+    super();
+    this.helper = helper;
+    this.tariff = tariff;
+    this.start = start;
+    this.hours = hours;
+    incremental = !(tariff.isTiered() || tariff.isVariableRate());
+    if (incremental)
+      buildPriceCurve();
+  }
+
+  // Derives the fixed charge and the marginal price of each hour from
+  // the helper itself, so the linear model agrees with full evaluation.
+  private void buildPriceCurve ()
+  {
+    double[] usage = new double[hours];
+    fixedCost = helper.estimateCost(tariff, usage, start);
+    price = new double[hours];
+    for (int h = 0; h < hours; h++) {
+      usage[h] = 1.0;
+      price[h] = helper.estimateCost(tariff, usage, start) - fixedCost;
+      usage[h] = 0.0;
+    }
+  }
+
+  /**
+   * True just in case candidates are scored as deltas from the base load
+   * rather than by full evaluation.
+   */
+  public boolean isIncremental ()
+  {
+    return incremental;
+  }
+
+  /**
+   * Returns the tariff being evaluated.
+   */
+  public Tariff getTariff ()
+  {
+    return tariff;
+  }
+
+  /**
+   * Sets the base load against which candidates are scored. The array is
+   * not copied, and must not be modified until the next call.
+   */
+  public void setBase (double[] usage)
+  {
+    base = usage;
+    if (incremental) {
+      baseCost = fixedCost;
+      for (int h = 0; h < hours; h++) {
+        baseCost += price[h] * usage[h];
+      }
+    }
+  }
+
+  /**
+   * Returns the cost of the base load with kWh added in the given hour.
+   */
+  public double costWith (int hour, double kWh)
+  {
+    if (incremental)
+      return baseCost + price[hour] * kWh;
+    double[] usage = Arrays.copyOf(base, base.length);
+    usage[hour] += kWh;
+    return helper.estimateCost(tariff, usage, start);
+  }
+
+  /**
+   * Returns the cost of the base load with kWh1 added in hour1 and
+   * kWh2 added in hour2.
+   */
+  public double costWith (int hour1, double kWh1, int hour2, double kWh2)
+  {
+    if (incremental)
+      return baseCost + price[hour1] * kWh1 + price[hour2] * kWh2;
+    double[] usage = Arrays.copyOf(base, base.length);
+    usage[hour1] += kWh1;
+    usage[hour2] += kWh2;
+    return helper.estimateCost(tariff, usage, start);
+  }
+
+  /**
+   * Returns the cost of the base load with kWh[i] added in hour[i], for
+   * each i.
+   */
+  public double costWith (int[] hour, double[] kWh)
+  {
+    if (incremental) {
+      double result = baseCost;
+      for (int i = 0; i < hour.length; i++) {
+        result += price[hour[i]] * kWh[i];
+      }
+      return result;
+    }
+    double[] usage = Arrays.copyOf(base, base.length);
+    for (int i = 0; i < hour.length; i++) {
+      usage[hour[i]] += kWh[i];
+    }
+    return helper.estimateCost(tariff, usage, start);
+  }
+}
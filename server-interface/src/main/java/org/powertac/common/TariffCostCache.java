@@ -0,0 +1,239 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.common;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Process-wide memo of profile cost estimates, shared by all
+ * TariffEvaluators. Many customer models submit identical capacity
+ * profiles, so when new tariffs are published the number of estimates
+ * computed depends on the number of distinct profiles rather than the
+ * number of customers.
+ * <p>
+ * An estimate is keyed by the tariff, the profile values and start time,
+ * and the cost and regulation factors of the evaluator's helper, so a
+ * cached value is always the one the helper would compute. Tariffs with
+ * variable rates are not cached, because their realized prices change
+ * over time. Entries for a tariff are dropped when it is revoked, and
+ * entries for expired or revoked tariffs are pruned as new tariffs are
+ * seen. The cache must be cleared between simulations.</p>
+ *
+ * @author agent
+ */
+public class TariffCostCache
+{
+  static private Logger log = LogManager.getLogger(TariffCostCache.class);
+
+  // entries allowed before the cache is cleared
+  private static final int MAX_ENTRIES = 200000;
+
+  private static final TariffCostCache instance = new TariffCostCache();
+
+  private ConcurrentHashMap<Tariff, TariffCosts> costs =
+      new ConcurrentHashMap<>();
+  private AtomicInteger size = new AtomicInteger(0);
+  private AtomicLong hits = new AtomicLong(0);
+  private AtomicLong misses = new AtomicLong(0);
+
+  /**
+   * Returns the shared instance.
+   */
+  public static TariffCostCache getInstance ()
+  {
+    return instance;
+  }
+
+  TariffCostCache ()
+  {
+    super();
+  }
+
+  /**
+   * Returns the cost of the profile under the tariff as estimated by the
+   * helper, computing it only if an identical estimate has not been
+   * cached. The factors array holds the helper's cost and regulation
+   * factors, which are part of the key.
+   */
+  public double estimateCost (TariffEvaluationHelper helper, double[] factors,
+                              Tariff tariff, CapacityProfile profile)
+  {
+    if (tariff.isVariableRate()) {
+      return helper.estimateCost(tariff, profile.getProfile(),
+                                 profile.getStart());
+    }
+    TariffCosts tariffCosts = getTariffCosts(tariff);
+    ProfileKey key = new ProfileKey(profile, factors);
+    Double cost = tariffCosts.estimates.get(key);
+    if (null != cost) {
+      hits.incrementAndGet();
+      return cost;
+    }
+    misses.incrementAndGet();
+    double result = helper.estimateCost(tariff, profile.getProfile(),
+                                        profile.getStart());
+    if (size.get() >= MAX_ENTRIES) {
+      log.info("cost cache full, clearing " + report());
+      recycle();
+      tariffCosts = getTariffCosts(tariff);
+    }
+    if (null == tariffCosts.estimates.putIfAbsent(key, result))
+      size.incrementAndGet();
+    return result;
+  }
+
+  // Finds the estimates for this tariff instance, replacing any left by
+  // an equal tariff from an earlier simulation
+  private TariffCosts getTariffCosts (Tariff tariff)
+  {
+    TariffCosts result = costs.get(tariff);
+    if (null != result && result.tariff == tariff)
+      return result;
+    prune();
+    TariffCosts fresh = new TariffCosts(tariff);
+    result = costs.compute(tariff, (t, old) -> {
+      if (null != old && old.tariff == tariff)
+        return old;
+      if (null != old)
+        size.addAndGet(-old.estimates.size());
+      return fresh;
+    });
+    return result;
+  }
+
+  /**
+   * Drops the cached estimates for a tariff.
+   */
+  public void evict (Tariff tariff)
+  {
+    TariffCosts removed = costs.remove(tariff);
+    if (null != removed)
+      size.addAndGet(-removed.estimates.size());
+  }
+
+  // Drops the estimates for tariffs that can no longer be subscribed
+  private void prune ()
+  {
+    Iterator<TariffCosts> entries = costs.values().iterator();
+    while (entries.hasNext()) {
+      TariffCosts entry = entries.next();
+      if (entry.tariff.isExpired()
+          || entry.tariff.getState() == Tariff.State.KILLED) {
+        entries.remove();
+        size.addAndGet(-entry.estimates.size());
+      }
+    }
+  }
+
+  /**
+   * Clears the cache in preparation for another simulation.
+   */
+  public void recycle ()
+  {
+    costs.clear();
+    size.set(0);
+  }
+
+  /** Number of cached estimates */
+  public int size ()
+  {
+    return size.get();
+  }
+
+  /** Number of estimates found in the cache */
+  public long getHitCount ()
+  {
+    return hits.get();
+  }
+
+  /** Number of estimates computed */
+  public long getMissCount ()
+  {
+    return misses.get();
+  }
+
+  /**
+   * Returns a one-line summary of the cache state
+   */
+  public String report ()
+  {
+    return "TariffCostCache: " + costs.size() + " tariffs, " + size()
+        + " estimates, " + getHitCount() + " hits, "
+        + getMissCount() + " misses";
+  }
+
+  // Estimates for one tariff
+  static class TariffCosts
+  {
+    final Tariff tariff;
+    final ConcurrentHashMap<ProfileKey, Double> estimates =
+        new ConcurrentHashMap<>();
+
+    TariffCosts (Tariff tariff)
+    {
+      super();
+      this.tariff = tariff;
+    }
+  }
+
+  // Profile values, start time, and helper factors. The values are copied,
+  // so later changes to the caller's arrays do not affect the key.
+  static class ProfileKey
+  {
+    private final double[] values;
+    private final long start;
+    private final double[] factors;
+    private final int hash;
+
+    ProfileKey (CapacityProfile profile, double[] factors)
+    {
+      super();
+      this.values = profile.getProfile().clone();
+      this.start = null == profile.getStart()
+          ? Long.MIN_VALUE : profile.getStart().getMillis();
+      this.factors = factors.clone();
+      this.hash = 31 * (31 * Arrays.hashCode(values) + Long.hashCode(start))
+          + Arrays.hashCode(this.factors);
+    }
+
+    @Override
+    public int hashCode ()
+    {
+      return hash;
+    }
+
+    @Override
+    public boolean equals (Object obj)
+    {
+      if (this == obj)
+        return true;
+      if (!(obj instanceof ProfileKey))
+        return false;
+      ProfileKey other = (ProfileKey) obj;
+      return hash == other.hash
+          && start == other.start
+          && Arrays.equals(values, other.values)
+          && Arrays.equals(factors, other.factors);
+    }
+  }
+}
@@ -15,6 +15,7 @@
  */
 package org.powertac.common;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
@@ -22,6 +23,7 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.function.DoubleSupplier;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -65,8 +67,10 @@ public class TariffEvaluator
   // minimum usable tariff-expiration interval
   private long minExpirationInterval = TimeService.DAY;
 
-  // profile cost analyzer
+  // profile cost analyzer, and its cost and regulation factors as
+  // part of the key for shared cost estimates; NaN means not set
   private TariffEvaluationHelper helper;
+  private double[] helperFactors = new double[7];
 
   // per-customer parameter settings
   private int chunkSize = 1; // max size of allocation chunks
@@ -79,6 +83,7 @@ public class TariffEvaluator
   private double tariffSwitchFactor = 0.04;
   private double preferredDuration = 6;
   private boolean evaluateAllTariffs = false;
+  private boolean batchAllocation = true;
 
   // state
   private int evaluationCounter = 0;
@@ -96,6 +101,7 @@ public class TariffEvaluator
     accessor = cma;
     customerInfo = cma.getCustomerInfo();
     helper = new TariffEvaluationHelper();
+    Arrays.fill(helperFactors, Double.NaN);
     evaluatedTariffs = new HashMap<>();
     allocations = new LinkedHashMap<>();
   }
@@ -113,6 +119,10 @@ public class TariffEvaluator
                                      double wtRealized, double soldThreshold)
   {
     helper.initializeCostFactors(wtExpected, wtMax, wtRealized, soldThreshold);
+    helperFactors[0] = wtExpected;
+    helperFactors[1] = wtMax;
+    helperFactors[2] = wtRealized;
+    helperFactors[3] = soldThreshold;
   }
 
   /**
@@ -165,6 +175,9 @@ public class TariffEvaluator
       expDown = 0.0;
     }
     helper.initializeRegulationFactors(expCurtail, expDis, expDown);
+    helperFactors[4] = expCurtail;
+    helperFactors[5] = expDis;
+    helperFactors[6] = expDown;
   }
 
   // parameter settings
@@ -234,6 +247,19 @@ public class TariffEvaluator
     return this;
   }
 
+  /**
+   * If true, which is the default, the population of a subscription is
+   * allocated among the alternative tariffs all at once, with a single
+   * draw for the number of chunks that move and one draw per tariff for
+   * the way they split. If false, each chunk is allocated separately,
+   * with two draws per chunk. The results are statistically the same.
+   */
+  public TariffEvaluator withBatchAllocation (boolean value)
+  {
+    batchAllocation = value;
+    return this;
+  }
+
   /**
    * Sets the level of rationality for this customer.
    * Household customers are expected to have lower rationality than
@@ -357,7 +383,7 @@ public class TariffEvaluator
     // Iterate through the current active subscriptions
     for (TariffSubscription subscription
             : getTariffSubscriptionRepo().
-            findActiveSubscriptionsForCustomer(customerInfo)) {
+            getActiveSubscriptionsForCustomer(customerInfo)) {
       Tariff subTariff = subscription.getTariff();
       // find out how many of these customers can withdraw without penalty
       double withdrawCost = subTariff.getEarlyWithdrawPayment();
@@ -518,50 +544,166 @@ public class TariffEvaluator
       log.debug("Tariff {} probability={}",
                 util.tariff.getId(), util.probability);
     }
-    int remainingPopulation = population;
-    int chunk = remainingPopulation;
+    int chunk = population;
     if (customerInfo.isMultiContracting()) {
       // Ideally, each individual customer makes a choice.
       // For large populations, we do it in chunks.
       chunk = getChunkSize(population);
     }
+    // A chunk stays put if the inertia sample is below this value:
+    // -- if not processing revoked tariff, and there is no payment
+    //    possible from withdrawing, and the customer was not induced by
+    //    a positive signup cost, the customer may not be paying attention.
+    // -- use lower inertia in case the current tariff had a signup bonus
+    double inertiaThreshold = 0.0;
+    if (!revoked && withdraw0 <= 0.0 && signupCost <= 0.0) {
+      inertiaThreshold = inertia;
+    }
+    else if (signupCost > 0.0) {
+      inertiaThreshold = inertia * signupBonusFactor;
+    }
+    if (batchAllocation) {
+      allocatePopulation(currentTariff, evals, population, chunk,
+                         inertiaThreshold);
+      return;
+    }
+    int remainingPopulation = population;
     while (remainingPopulation > 0) {
       int count = (int)Math.min(remainingPopulation, chunk);
       remainingPopulation -= count;
       // allocate a chunk
       double inertiaSample = accessor.getInertiaSample();
-      if (!revoked && withdraw0 <= 0.0 &&
-          signupCost <= 0.0 && inertiaSample < inertia) {
-        // skip this one if not processing revoked tariff,
-        // or if there is no payment possible from withdrawing,
-        // or if the customer was not induced by a positive signup cost,
-        // or if the customer is not paying attention.
+      if (inertiaSample < inertiaThreshold) {
         continue;
       }
-      else if (signupCost > 0.0 &&
-          inertiaSample < inertia * signupBonusFactor) {
-        // Use lower inertia in case the current tariff had a signup bonus
-        continue;
+      allocateChunk(currentTariff, evals, count,
+                    accessor.getTariffChoiceSample());
+    }
+  }
+
+  // Allocates one chunk to the tariff picked by walking down the list
+  // until we run out of probability
+  private void allocateChunk (Tariff currentTariff,
+                              TreeSet<TariffUtility> evals,
+                              int count, double tariffSample)
+  {
+    for (TariffUtility tu : evals) {
+      log.debug("tariff {}: sample={}, probability={}",
+                tu.tariff.getId(), tariffSample, tu.probability);
+      if (tariffSample <= tu.probability) {
+        addAllocation(currentTariff, tu.tariff, count);
+        return;
       }
-      double tariffSample = accessor.getTariffChoiceSample();
-      // walk down the list until we run out of probability
-      boolean allocated = false;
-      for (TariffUtility tu : evals) {
-        log.debug("tariff {}: sample={}, probability={}",
-                  tu.tariff.getId(), tariffSample, tu.probability);
-        if (tariffSample <= tu.probability) {
-          addAllocation(currentTariff, tu.tariff, count);
-          allocated = true;
-          break;
-        }
-        else {
-          tariffSample -= tu.probability;
-        }
+      else {
+        tariffSample -= tu.probability;
       }
-      if (!allocated) {
-        log.error(getName() + ": Failed to allocate: P=" + tariffSample);
+    }
+    log.error(getName() + ": Failed to allocate: P=" + tariffSample);
+  }
+
+  // Allocates all the chunks of a population at once. The number of full
+  // chunks that move is binomial, and they are split among the tariffs
+  // by a multinomial draw, made as a sequence of conditional binomials.
+  // A final partial chunk is allocated by itself.
+  private void allocatePopulation (Tariff currentTariff,
+                                   TreeSet<TariffUtility> evals,
+                                   int population, int chunk,
+                                   double inertiaThreshold)
+  {
+    int chunkCount = population / chunk;
+    int partial = population - chunkCount * chunk;
+    double moveProbability = 1.0 - Math.min(1.0, Math.max(0.0, inertiaThreshold));
+    double[] probabilities = new double[evals.size()];
+    int index = 0;
+    for (TariffUtility tu : evals) {
+      probabilities[index++] = tu.probability;
+    }
+    int[] moves =
+        sampleAllocation(chunkCount, moveProbability, probabilities,
+                         accessor.getInertiaSample(),
+                         accessor::getTariffChoiceSample);
+    index = 0;
+    int allocated = 0;
+    for (TariffUtility tu : evals) {
+      int count = moves[index++];
+      if (count > 0) {
+        addAllocation(currentTariff, tu.tariff, count * chunk);
+        allocated += count;
       }
     }
+    if (allocated < moves[probabilities.length]) {
+      log.error(getName() + ": Failed to allocate "
+                + (moves[probabilities.length] - allocated) + " chunks");
+    }
+    if (partial > 0 && accessor.getInertiaSample() >= inertiaThreshold) {
+      allocateChunk(currentTariff, evals, partial,
+                    accessor.getTariffChoiceSample());
+    }
+  }
+
+  /**
+   * Decides how many of chunkCount chunks move, each with probability
+   * moveProbability, and how the movers split among the tariffs, which
+   * a mover picks with the given probabilities. Uses one uniform inertia
+   * sample and at most one choice sample per tariff, however many chunks
+   * there are. Returns the number of chunks for each tariff, followed by
+   * the total number that moved; if the probabilities add up to less
+   * than one, some movers may be left unallocated.
+   */
+  static int[] sampleAllocation (int chunkCount, double moveProbability,
+                                 double[] probabilities,
+                                 double inertiaSample,
+                                 DoubleSupplier choiceSamples)
+  {
+    int[] result = new int[probabilities.length + 1];
+    int movers = binomialSample(chunkCount, moveProbability, inertiaSample);
+    result[probabilities.length] = movers;
+    int remaining = movers;
+    double remainingProbability = 1.0;
+    for (int i = 0; i < probabilities.length && remaining > 0; i++) {
+      if (probabilities[i] <= 0.0)
+        continue;
+      double p = probabilities[i] / remainingProbability;
+      int count;
+      if (p >= 1.0 - 1e-9) {
+        // the rest go here
+        count = remaining;
+      }
+      else {
+        count = binomialSample(remaining, p, choiceSamples.getAsDouble());
+      }
+      result[i] = count;
+      remaining -= count;
+      remainingProbability -= probabilities[i];
+    }
+    return result;
+  }
+
+  /**
+   * Returns a sample from the binomial distribution with n trials and
+   * success probability p, by inverting the distribution at the uniform
+   * sample u. Takes time proportional to n at most, and works in log
+   * space so that large n cannot underflow.
+   */
+  static int binomialSample (int n, double p, double u)
+  {
+    if (n <= 0 || p <= 0.0)
+      return 0;
+    if (p >= 1.0)
+      return n;
+    if (p > 0.5)
+      // walk the shorter tail
+      return n - binomialSample(n, 1.0 - p, 1.0 - u);
+    double logOdds = Math.log(p / (1.0 - p));
+    double logPmf = n * Math.log1p(-p);
+    double cdf = Math.exp(logPmf);
+    int k = 0;
+    while (cdf < u && k < n) {
+      logPmf += logOdds + Math.log((double)(n - k) / (k + 1));
+      k += 1;
+      cdf += Math.exp(logPmf);
+    }
+    return k;
   }
 
   // Customers really, really don't like paying to sign up. This computation
@@ -660,9 +802,11 @@ public class TariffEvaluator
     // since the previous writes inconv. factors.
     // Always 0 except for AdaptiveCapacityOriginator
     double inconv = accessor.getShiftingInconvenienceFactor(tariff);
-    double profileCost = helper.estimateCost(tariff,
-                                             profile.getProfile(),
-                                             profile.getStart());
+    // State-dependent profiles are not worth sharing
+    double profileCost = evaluateAllTariffs
+        ? helper.estimateCost(tariff, profile.getProfile(), profile.getStart())
+        : TariffCostCache.getInstance().estimateCost(helper, helperFactors,
+                                                     tariff, profile);
     if (Double.isNaN(profileCost)) {
       log.error(getName() + ": profile cost NaN for tariff "
                 + tariff.getId());
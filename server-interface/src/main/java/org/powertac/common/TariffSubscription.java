@@ -24,6 +24,7 @@ import org.apache.logging.log4j.Logger;
 import org.joda.time.Instant;
 import org.powertac.common.interfaces.Accounting;
 import org.powertac.common.interfaces.TariffMarket;
+import org.powertac.common.repo.TariffSubscriptionRepo;
 import org.powertac.common.spring.SpringApplicationContext;
 import org.powertac.common.state.Domain;
 import org.powertac.common.state.StateChange;
@@ -50,6 +51,9 @@ public class TariffSubscription
 
   private TariffMarket tariffMarketService;
 
+  // repo holding this subscription, told when it becomes active or inactive
+  private TariffSubscriptionRepo repo;
+
   /** The customer who has this Subscription */
   private CustomerInfo customer;
 
@@ -145,7 +149,19 @@ public class TariffSubscription
   @StateChange
   public void setCustomersCommitted (int value)
   {
+    int previous = customersCommitted;
     customersCommitted = value;
+    if (null != repo && (previous > 0) != (value > 0))
+      repo.activityChanged(this);
+  }
+
+  /**
+   * Sets the repo that holds this subscription. Called by the repo when
+   * the subscription is stored.
+   */
+  public void setRepo (TariffSubscriptionRepo repo)
+  {
+    this.repo = repo;
   }
 
   public double getTotalUsage ()
@@ -352,9 +368,15 @@ public class TariffSubscription
     // generate the usage transaction
     TariffTransaction.Type txType =
         actualKwh < 0 ? TariffTransaction.Type.PRODUCE: TariffTransaction.Type.CONSUME;
-    getAccounting().addTariffTransaction(txType, tariff,
-        customer, customersCommitted, -actualKwh,
-        customersCommitted * -tariff.getUsageCharge(actualKwh / customersCommitted, totalUsage, true));
+    // Pricing the usage records it in the tariff's realized-price totals,
+    // which are shared by all subscribers. When models are stepped
+    // concurrently, this has to happen when the postings are replayed,
+    // so the totals are updated in model order on one thread.
+    final int count = customersCommitted;
+    final double cumulativeUsage = totalUsage;
+    post(() -> getAccounting().addTariffTransaction(txType, tariff,
+        customer, count, -actualKwh,
+        count * -tariff.getUsageCharge(actualKwh / count, cumulativeUsage, true)));
     if (getTimeService().getHourOfDay() == 0) {
       //reset the daily usage counter
       totalUsage = 0.0;
@@ -631,6 +653,14 @@ public class TariffSubscription
 
   // ================= access to Spring components =======================
   
+  // Runs a posting now, or records it if the caller is inside a
+  // DeferredPostings scope
+  private void post (Runnable posting)
+  {
+    if (!DeferredPostings.defer(posting))
+      posting.run();
+  }
+
   private TimeService getTimeService ()
   {
     if (null == timeService)
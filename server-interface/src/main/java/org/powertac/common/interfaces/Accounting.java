@@ -52,6 +52,10 @@ public interface Accounting
 
   /**
    * Adds a tariff transaction to the current-hour transaction list.
+   * If the caller is running inside a
+   * {@link org.powertac.common.DeferredPostings} scope, the transaction is
+   * created later, when the scope's postings are replayed, and the
+   * return value is null.
    */
   public TariffTransaction
   addTariffTransaction (TariffTransaction.Type txType, Tariff tariff,
@@ -60,7 +64,8 @@ public interface Accounting
 
   /**
    * Adds a tariff transaction representing a curtailment or balancing action
-   * to the current-hour transaction list.
+   * to the current-hour transaction list. Like addTariffTransaction(),
+   * returns null if the posting is deferred.
    */
   public TariffTransaction
   addRegulationTransaction (Tariff tariff, CustomerInfo customer,
@@ -17,6 +17,7 @@
 package org.powertac.common.interfaces;
 
 import org.powertac.common.Broker;
+import org.powertac.common.Order;
 
 import java.util.List;
 
@@ -54,6 +55,14 @@ public interface BrokerProxy {
    * dropped into the bit-bucket.
    */
   public void routeMessage (Object message);
+
+  /**
+   * Routes a batch of Orders from an in-process wholesale participant, such
+   * as a genco, in one step. The broker's enabled state is checked once for
+   * the batch, and visualizers get a single OrderBatchSummary in place of
+   * the individual orders.
+   */
+  public void routeOrders (Broker broker, List<Order> orders);
   
   /**
    * Sets up a dispatch listener for market messages
@@ -42,7 +42,9 @@ public interface TariffMarket {
    * the specified Tariff, as long as the Tariff has not expired. The
    * actual subscription processing is deferred until the TariffMarket is
    * next activated. Unsubscribe is indicated by a negative
-   * value for customerCount.
+   * value for customerCount. Calls made inside a
+   * {@link org.powertac.common.DeferredPostings} scope are recorded and
+   * carried out when the scope's postings are replayed.
    */
   public void subscribeToTariff (Tariff tariff,
                                  CustomerInfo customer, 
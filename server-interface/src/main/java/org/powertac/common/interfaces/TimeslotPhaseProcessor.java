@@ -36,6 +36,8 @@ public abstract class TimeslotPhaseProcessor
   private CompetitionControl competitionControlService;
   
   private int timeslotPhase = 0;
+
+  private boolean phaseIndependent = false;
   
   public TimeslotPhaseProcessor ()
   {
@@ -59,6 +61,27 @@ public abstract class TimeslotPhaseProcessor
     timeslotPhase = newValue;
   }
   
+  /**
+   * Spring-accessible setter for the phase-independence flag. A processor
+   * that sets this flag declares that its activate() method does not depend
+   * on, and does not interfere with, any other independent processor
+   * registered in the same phase. If the CompetitionControl is configured
+   * for parallel phase execution, such processors may be run concurrently.
+   */
+  public void setPhaseIndependent (boolean value)
+  {
+    phaseIndependent = value;
+  }
+
+  /**
+   * True just in case this processor may be activated concurrently with
+   * other independent processors in the same phase.
+   */
+  public boolean isPhaseIndependent ()
+  {
+    return phaseIndependent;
+  }
+
   /**
    * This method gets called once during each timeslot. To get called, the
    * module must first call the register(phaseNumber) method on CompetitionControl.
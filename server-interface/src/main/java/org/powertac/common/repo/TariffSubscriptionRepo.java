@@ -15,23 +15,32 @@
  */
 package org.powertac.common.repo;
 
-import static org.powertac.util.ListTools.*;
-
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.powertac.common.Broker;
 import org.powertac.common.CustomerInfo;
 import org.powertac.common.Tariff;
 import org.powertac.common.TariffSubscription;
-import org.powertac.util.Predicate;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 /**
  * Repository for TariffSubscriptions. This cannot be in common, because
  * TariffSubscription is not in common.
+ * <p>
+ * Subscriptions are indexed by the (tariff, customer) pair, so finding
+ * or creating the subscription for a customer takes constant time no
+ * matter how many customers hold the tariff. Each customer's
+ * subscriptions, and the subset of them that are active, are kept as
+ * read-only snapshot lists that are replaced when they change; the
+ * subscriptions report changes in their committed-customer counts to the
+ * repo. The snapshots can be read without copying, and can be iterated
+ * while subscriptions change. Lookups do not lock, and changes are
+ * synchronized, so customer models can be run in parallel.</p>
  * 
  * @author John Collins
  */
@@ -39,9 +48,9 @@ import org.springframework.stereotype.Service;
 public class TariffSubscriptionRepo implements DomainRepo
 {
   // subscriptions are indexed by Tariff, CustomerInfo, and Broker
-  private HashMap<Tariff, List<TariffSubscription>> tariffMap;
-  private HashMap<CustomerInfo, List<TariffSubscription>> customerMap;
-  private HashMap<Broker, List<TariffSubscription>> brokerMap;
+  private ConcurrentHashMap<Tariff, TariffEntry> tariffMap;
+  private ConcurrentHashMap<CustomerInfo, CustomerEntry> customerMap;
+  private ConcurrentHashMap<Broker, List<TariffSubscription>> brokerMap;
 
   @Autowired
   private TariffRepo tariffRepo;
@@ -49,17 +58,19 @@ public class TariffSubscriptionRepo implements DomainRepo
   public TariffSubscriptionRepo ()
   {
     super();
-    tariffMap = new HashMap<Tariff, List<TariffSubscription>>();
-    customerMap = new HashMap<CustomerInfo, List<TariffSubscription>>();
-    brokerMap = new HashMap<Broker, List<TariffSubscription>>();
+    tariffMap = new ConcurrentHashMap<>();
+    customerMap = new ConcurrentHashMap<>();
+    brokerMap = new ConcurrentHashMap<>();
   }
 
   /** Adds an existing subscription to the repo. */
   public TariffSubscription add (TariffSubscription subscription)
   {
-    storeSubscription(subscription,
-                      subscription.getCustomer(),
-                      subscription.getTariff());
+    synchronized (this) {
+      storeSubscription(subscription,
+                        subscription.getCustomer(),
+                        subscription.getTariff());
+    }
     return subscription;
   }
 
@@ -73,13 +84,19 @@ public class TariffSubscriptionRepo implements DomainRepo
                                              Tariff tariff)
   {
     TariffSubscription result =
-        findSubscriptionForCustomer(tariffMap.get(tariff), customer);
+        findSubscriptionForTariffAndCustomer(tariff, customer);
     if (null != result) {
       // subscription exists
       return result;
     }
-    result = new TariffSubscription(customer, tariff);
-    storeSubscription(result, customer, tariff);
+    synchronized (this) {
+      // someone else may have created it while we waited
+      result = findSubscriptionForTariffAndCustomer(tariff, customer);
+      if (null == result) {
+        result = new TariffSubscription(customer, tariff);
+        storeSubscription(result, customer, tariff);
+      }
+    }
     return result;
   }
 
@@ -90,14 +107,10 @@ public class TariffSubscriptionRepo implements DomainRepo
   public TariffSubscription
   findSubscriptionForTariffAndCustomer (Tariff tariff, CustomerInfo customer)
   {
-    List<TariffSubscription> subs = findSubscriptionsForTariff(tariff);
-    if (subs == null)
+    TariffEntry entry = tariffMap.get(tariff);
+    if (null == entry)
       return null;
-    for (TariffSubscription sub : subs) {
-      if (sub.getCustomer() == customer)
-        return sub;
-    }
-    return null;
+    return entry.byCustomer.get(customer);
   }
 
   /** Returns the list of subscriptions for a given tariff. Return value
@@ -105,11 +118,12 @@ public class TariffSubscriptionRepo implements DomainRepo
   public List<TariffSubscription> findSubscriptionsForTariff (Tariff tariff)
   {
     // new list allows caller to smash the return value
-    List<TariffSubscription> result = tariffMap.get(tariff);
-    if (result == null)
+    TariffEntry entry = tariffMap.get(tariff);
+    if (entry == null)
       return new ArrayList<TariffSubscription>();
-    else
-      return new ArrayList<TariffSubscription>(result);
+    synchronized (entry) {
+      return new ArrayList<TariffSubscription>(entry.subscriptions);
+    }
   }
 
   /** Returns the list of subscriptions for a given customer. Return value
@@ -117,27 +131,47 @@ public class TariffSubscriptionRepo implements DomainRepo
   public List<TariffSubscription>
   findSubscriptionsForCustomer (CustomerInfo customer)
   {
-    List<TariffSubscription> result = customerMap.get(customer);
-    if (null == result)
-      return new ArrayList<TariffSubscription>();
-    else
-      return new ArrayList<TariffSubscription>(result);
+    return new ArrayList<TariffSubscription>(getSubscriptionsForCustomer(customer));
   }
 
   /**
    * Returns the list of active subscriptions for a given customer.
    * These are subscriptions that have non-zero committed-customer counts.
+   * Return value does not share structure with the repo.
    */
   public List<TariffSubscription>
   findActiveSubscriptionsForCustomer (CustomerInfo customer)
   {
-    List<TariffSubscription> result = new ArrayList<TariffSubscription>();
-    for (TariffSubscription sub : findSubscriptionsForCustomer(customer)) {
-      if (sub.getCustomersCommitted() > 0) {
-        result.add(sub);
-      }
-    }
-    return result;
+    return new ArrayList<TariffSubscription>(getActiveSubscriptionsForCustomer(customer));
+  }
+
+  /**
+   * Returns the subscriptions for a given customer, in the order they
+   * were created, as a read-only list. The list is not copied, and does
+   * not change; subscriptions created later are not in it.
+   */
+  public List<TariffSubscription>
+  getSubscriptionsForCustomer (CustomerInfo customer)
+  {
+    CustomerEntry entry = customerMap.get(customer);
+    if (null == entry)
+      return Collections.emptyList();
+    return entry.all;
+  }
+
+  /**
+   * Returns the active subscriptions for a given customer, in the order
+   * they were created, as a read-only list. These are subscriptions that
+   * have non-zero committed-customer counts. The list is not copied, and
+   * does not change when subscriptions become active or inactive.
+   */
+  public List<TariffSubscription>
+  getActiveSubscriptionsForCustomer (CustomerInfo customer)
+  {
+    CustomerEntry entry = customerMap.get(customer);
+    if (null == entry)
+      return Collections.emptyList();
+    return entry.active;
   }
 
   /**
@@ -147,11 +181,12 @@ public class TariffSubscriptionRepo implements DomainRepo
   public List<TariffSubscription> findSubscriptionsForBroker(Broker b)
   {
     
-    List<TariffSubscription> result = brokerMap.get(b);
-    if (null == result)
+    List<TariffSubscription> subs = brokerMap.get(b);
+    if (null == subs)
       return new ArrayList<TariffSubscription>();
-    else
-      return new ArrayList<TariffSubscription>(result);
+    synchronized (subs) {
+      return new ArrayList<TariffSubscription>(subs);
+    }
   }
 
   /**
@@ -162,9 +197,14 @@ public class TariffSubscriptionRepo implements DomainRepo
   findActiveSubscriptionsForBroker (Broker broker)
   {
     List<TariffSubscription> result = new ArrayList<TariffSubscription>();
-    for (TariffSubscription sub : findSubscriptionsForBroker(broker)) {
-      if (sub.getCustomersCommitted() > 0) {
-        result.add(sub);
+    List<TariffSubscription> subs = brokerMap.get(broker);
+    if (null == subs)
+      return result;
+    synchronized (subs) {
+      for (TariffSubscription sub : subs) {
+        if (sub.getCustomersCommitted() > 0) {
+          result.add(sub);
+        }
       }
     }
     return result;
@@ -179,48 +219,55 @@ public class TariffSubscriptionRepo implements DomainRepo
   public List<TariffSubscription>
   getRevokedSubscriptionList (CustomerInfo customer)
   {
-    if (null == customerMap.get(customer))
-      // can happen first time...
-      return new ArrayList<TariffSubscription>();
-    List<TariffSubscription> result = 
-        filter(customerMap.get(customer),
-               new Predicate<TariffSubscription> () {
-          @Override
-          public boolean apply (TariffSubscription sub)
-          {
-            return (null != tariffRepo.findTariffById(sub.getTariff().getId())
-                    && sub.getTariff().getState() == Tariff.State.KILLED
-                    && sub.getCustomersCommitted() > 0);
-          }
-        });
+    List<TariffSubscription> result = new ArrayList<TariffSubscription>();
+    for (TariffSubscription sub : getActiveSubscriptionsForCustomer(customer)) {
+      if (null != tariffRepo.findTariffById(sub.getTariff().getId())
+          && sub.getTariff().getState() == Tariff.State.KILLED) {
+        result.add(sub);
+      }
+    }
     return result;
   }
+
+  /**
+   * Called by a subscription in this repo when its committed-customer
+   * count changes between zero and non-zero, to update the customer's
+   * active subscriptions.
+   */
+  public void activityChanged (TariffSubscription subscription)
+  {
+    CustomerEntry entry = customerMap.get(subscription.getCustomer());
+    if (null != entry)
+      entry.updateActive();
+  }
   
   /**
    * Removes all subscriptions for the given tariff. Presumably this is done
    * when the tariff has been revoked and all revocation processing is complete.
    */
-  public void removeSubscriptionsForTariff (Tariff tariff)
+  public synchronized void removeSubscriptionsForTariff (Tariff tariff)
   {
-    List<TariffSubscription> subs = tariffMap.get(tariff);
-    if (null == subs)
+    TariffEntry entry = tariffMap.remove(tariff);
+    if (null == entry)
       return;
     
-    // first, remove the subscriptions from the customer map and broker map
-    for (TariffSubscription sub : subs) {
-      customerMap.get(sub.getCustomer()).remove(sub);
-    }
-    for (TariffSubscription sub : subs) {
-      brokerMap.get(sub.getTariff().getBroker()).remove(sub);
+    // remove the subscriptions from the customer map and broker map
+    List<TariffSubscription> brokerSubs = brokerMap.get(tariff.getBroker());
+    synchronized (entry) {
+      for (TariffSubscription sub : entry.subscriptions) {
+        customerMap.get(sub.getCustomer()).remove(sub);
+      }
+      if (null != brokerSubs) {
+        synchronized (brokerSubs) {
+          brokerSubs.removeAll(new HashSet<>(entry.subscriptions));
+        }
+      }
     }
-
-    // then clear out the tariff entry
-    tariffMap.remove(tariff);
   }
 
   /** Clears out the repo in preparation for another simulation. */
   @Override
-  public void recycle ()
+  public synchronized void recycle ()
   {
     tariffMap.clear();
     customerMap.clear();
@@ -229,32 +276,72 @@ public class TariffSubscriptionRepo implements DomainRepo
 
   // ----- helper methods -----
 
-  private TariffSubscription
-  findSubscriptionForCustomer (List<TariffSubscription> subs,
-                               CustomerInfo customer)
-  {
-    if (subs == null)
-      return null;
-    for (TariffSubscription sub : subs) {
-      if (sub.getCustomer() == customer)
-        return sub;
-    }
-    return null;
-  }
-
+  // Called with the repo lock held
   private void storeSubscription (TariffSubscription subscription,
                                   CustomerInfo customer,
                                   Tariff tariff)
   {
-    if (tariffMap.get(tariff) == null)
-      tariffMap.put(tariff, new ArrayList<TariffSubscription>());
-    tariffMap.get(tariff).add(subscription);
-    if (customerMap.get(customer) == null)
-      customerMap.put(customer, new ArrayList<TariffSubscription>());
-    customerMap.get(customer).add(subscription);
+    TariffEntry tariffEntry =
+        tariffMap.computeIfAbsent(tariff, t -> new TariffEntry());
+    synchronized (tariffEntry) {
+      tariffEntry.subscriptions.add(subscription);
+      tariffEntry.byCustomer.put(customer, subscription);
+    }
     Broker broker = tariff.getBroker();
-    if (brokerMap.get(broker) == null)
-      brokerMap.put(broker, new ArrayList<TariffSubscription>());
-    brokerMap.get(broker).add(subscription);
+    List<TariffSubscription> brokerSubs =
+        brokerMap.computeIfAbsent(broker, b -> new ArrayList<>());
+    synchronized (brokerSubs) {
+      brokerSubs.add(subscription);
+    }
+    subscription.setRepo(this);
+    customerMap.computeIfAbsent(customer, c -> new CustomerEntry())
+        .add(subscription);
+  }
+
+  // Subscriptions for a tariff, in order of creation and by customer
+  private static class TariffEntry
+  {
+    ArrayList<TariffSubscription> subscriptions = new ArrayList<>();
+    ConcurrentHashMap<CustomerInfo, TariffSubscription> byCustomer =
+        new ConcurrentHashMap<>();
+  }
+
+  // Subscriptions for a customer. The lists are never modified; they are
+  // replaced by new ones when subscriptions are added or removed, or
+  // become active or inactive.
+  private static class CustomerEntry
+  {
+    volatile List<TariffSubscription> all = Collections.emptyList();
+    volatile List<TariffSubscription> active = Collections.emptyList();
+
+    synchronized void add (TariffSubscription sub)
+    {
+      ArrayList<TariffSubscription> subs = new ArrayList<>(all.size() + 1);
+      subs.addAll(all);
+      subs.add(sub);
+      all = Collections.unmodifiableList(subs);
+      updateActive();
+    }
+
+    synchronized void remove (TariffSubscription sub)
+    {
+      ArrayList<TariffSubscription> subs = new ArrayList<>(all);
+      if (subs.remove(sub)) {
+        all = Collections.unmodifiableList(subs);
+        updateActive();
+      }
+    }
+
+    synchronized void updateActive ()
+    {
+      ArrayList<TariffSubscription> subs = new ArrayList<>();
+      for (TariffSubscription sub : all) {
+        if (sub.getCustomersCommitted() > 0)
+          subs.add(sub);
+      }
+      active = subs.isEmpty()
+          ? Collections.<TariffSubscription>emptyList()
+          : Collections.unmodifiableList(subs);
+    }
   }
 }
@@ -26,8 +26,10 @@ import org.apache.logging.log4j.Logger;
 import org.joda.time.Instant;
 import org.powertac.common.Competition;
 import org.powertac.common.CustomerInfo;
+import org.powertac.common.ParallelStepRunner;
 import org.powertac.common.Tariff;
 import org.powertac.common.TimeService;
+import org.powertac.common.config.ConfigurableValue;
 import org.powertac.common.interfaces.BootstrapState;
 import org.powertac.common.interfaces.CustomerServiceAccessor;
 import org.powertac.common.interfaces.InitializationService;
@@ -50,6 +52,12 @@ import org.springframework.stereotype.Service;
  * In each timeslot, each model has its step() method called. When tariffs
  * are published, each has its evaluateTariffs() method called. At the end
  * of a boot session, each has its bootstrap state saved to the boot record.
+ * <p>
+ * If parallelThreads is positive, models are stepped and evaluate tariffs
+ * concurrently. Their postings to Accounting and TariffMarket, and the
+ * usage they record on shared tariffs, are replayed in model order, so a
+ * seeded game produces the same transactions as it would in sequential
+ * mode.</p>
  * 
  * @author John Collins
  */
@@ -93,6 +101,12 @@ implements InitializationService, BootstrapState, NewTariffListener,
   //private ArrayList<Class<AbstractCustomerDeprecated>> modelTypes;
   private ArrayList<AbstractCustomer> models;
 
+  @ConfigurableValue(valueType = "Integer",
+      description = "Number of threads for stepping models; 0 is sequential")
+  private int parallelThreads = 0;
+
+  private ParallelStepRunner runner = null;
+
   @Override
   public String
     initialize (Competition competition, List<String> completedInits)
@@ -101,6 +115,10 @@ implements InitializationService, BootstrapState, NewTariffListener,
         || !completedInits.contains("TariffMarket"))
       return null;
     super.init();
+    serverConfig.configureMe(this);
+    if (null != runner)
+      runner.shutdown();
+    runner = new ParallelStepRunner("customer-model", parallelThreads);
     models = new ArrayList<AbstractCustomer>();
     // extract the model types
     ServiceLoader<AbstractCustomer> loader =
@@ -136,19 +154,19 @@ implements InitializationService, BootstrapState, NewTariffListener,
   @Override
   public void activate (Instant time, int phaseNumber)
   {
-    for (AbstractCustomer model : models) {
+    runner.runAll(models, model -> {
       log.info("Step model " + model.getName());
       model.step();
-    }
+    });
   }
 
   @Override
   public void publishNewTariffs (List<Tariff> tariffs)
   {
-    for (AbstractCustomer model : models) {
+    runner.runAll(models, model -> {
       log.info("Evaluating tariffs for " + model.getName());
       model.evaluateTariffs(tariffs);
-    }
+    });
   }
 
   // test support methods
@@ -157,6 +175,11 @@ implements InitializationService, BootstrapState, NewTariffListener,
     return models;
   }
 
+  int getParallelThreads ()
+  {
+    return parallelThreads;
+  }
+
   @Override
   public void saveBootstrapState ()
   {
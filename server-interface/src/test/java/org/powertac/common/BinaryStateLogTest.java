@@ -0,0 +1,100 @@
+package org.powertac.common;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class BinaryStateLogTest
+{
+  private List<String> lines = Arrays.asList(
+      "4366:org.powertac.common.Competition::0::withSimulationBaseTime::1255132800000",
+      "4370:org.powertac.common.TimeService::null::setCurrentTime::2009-10-10T00:00:00.000Z",
+      "4377:org.powertac.common.Broker::1:-rr::new::default broker",
+      "4381:org.powertac.common.Rate::200000001::withValue::-0.045598969348039364",
+      "4381:org.powertac.common.Rate::200000001::withValue::1.0E-4",
+      "4382:org.powertac.common.Rate::200000001::withValue::1.50",
+      "4382:org.powertac.common.Rate::200000001::withMinValue::-0",
+      "4390:org.powertac.common.Order::200000417::new::007::null::-12",
+      "4390:org.powertac.common.Order::200000418::new::::1.0::",
+      "3900:org.powertac.common.Broker::1::setEnabled::true",
+      "3901:started without a method",
+      "no timestamp at all",
+      "4400:org.powertac.common.Broker::1::setEnabled::true");
+
+  private byte[] encode (List<String> input) throws IOException
+  {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    BinaryStateLog.Writer writer = new BinaryStateLog.Writer(out, true);
+    for (String line : input)
+      writer.writeLine(line);
+    writer.flush();
+    return out.toByteArray();
+  }
+
+  @Test
+  public void roundTrip () throws IOException
+  {
+    BinaryStateLog.Reader reader =
+        new BinaryStateLog.Reader(new ByteArrayInputStream(encode(lines)));
+    for (String line : lines)
+      assertEquals(line, reader.readLine());
+    assertNull(reader.readLine());
+  }
+
+  @Test
+  public void tokens () throws IOException
+  {
+    BinaryStateLog.Reader reader =
+        new BinaryStateLog.Reader(new ByteArrayInputStream(encode(lines)));
+    BinaryStateLog.Record first = reader.next();
+    assertEquals(4366, first.getMsec());
+    assertArrayEquals(new String[] {"org.powertac.common.Competition", "0",
+                                    "withSimulationBaseTime", "1255132800000"},
+                      first.getTokens());
+    for (int i = 1; i < 10; i++)
+      reader.next();
+    BinaryStateLog.Record raw = reader.next();
+    assertEquals(3901, raw.getMsec());
+    assertNull(raw.getTokens());
+  }
+
+  @Test
+  public void smallerThanText () throws IOException
+  {
+    StringBuilder text = new StringBuilder();
+    List<String> repeated = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      String line = (5000 + i) + ":org.powertac.common.Rate::"
+          + (200000001 + i) + "::withValue::" + (i * 0.0123);
+      repeated.add(line);
+      text.append(line).append('\n');
+    }
+    assertTrue(encode(repeated).length * 2
+               < text.toString().getBytes(StandardCharsets.UTF_8).length);
+  }
+
+  @Test
+  public void detectFormat () throws IOException
+  {
+    InputStream binary =
+        new BufferedInputStream(new ByteArrayInputStream(encode(lines)));
+    assertTrue(BinaryStateLog.isBinary(binary));
+    // position unchanged
+    assertEquals(lines.get(0), new BinaryStateLog.Reader(binary).readLine());
+    InputStream text =
+        new BufferedInputStream(new ByteArrayInputStream(
+            lines.get(0).getBytes(StandardCharsets.UTF_8)));
+    assertFalse(BinaryStateLog.isBinary(text));
+    assertEquals('4', text.read());
+  }
+}
@@ -0,0 +1,81 @@
+package org.powertac.common;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class ParallelStepRunnerTest
+{
+  private ParallelStepRunner runner;
+  private List<String> posted = new ArrayList<>();
+
+  @AfterEach
+  public void tearDown ()
+  {
+    if (null != runner)
+      runner.shutdown();
+  }
+
+  // stands in for a service posting a transaction
+  private void post (String item)
+  {
+    if (DeferredPostings.defer(() -> post(item)))
+      return;
+    posted.add(item);
+  }
+
+  @Test
+  public void sequential ()
+  {
+    runner = new ParallelStepRunner("test", 0);
+    assertFalse(runner.isParallel());
+    runner.runAll(Arrays.asList("a", "b", "c"), item -> post(item));
+    assertEquals(Arrays.asList("a", "b", "c"), posted);
+  }
+
+  @Test
+  public void postingsInItemOrder ()
+  {
+    runner = new ParallelStepRunner("test", 4);
+    assertTrue(runner.isParallel());
+    List<Integer> items = new ArrayList<>();
+    List<String> expected = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      items.add(i);
+      expected.add(i + "-1");
+      expected.add(i + "-2");
+    }
+    runner.runAll(items, item -> {
+      post(item + "-1");
+      // later items finish first
+      try {
+        Thread.sleep(50 - item);
+      }
+      catch (InterruptedException ie) {
+        fail("interrupted");
+      }
+      post(item + "-2");
+    });
+    assertEquals(expected, posted);
+    assertFalse(DeferredPostings.isDeferring());
+  }
+
+  @Test
+  public void failureRethrown ()
+  {
+    runner = new ParallelStepRunner("test", 2);
+    assertThrows(IllegalStateException.class, () ->
+      runner.runAll(Arrays.asList("a", "b", "c"), item -> {
+        post(item);
+        if ("b".equals(item))
+          throw new IllegalStateException("b failed");
+      }));
+    // postings made before the failure are kept
+    assertEquals(Arrays.asList("a", "b", "c"), posted);
+  }
+}
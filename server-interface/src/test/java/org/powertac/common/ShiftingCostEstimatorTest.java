@@ -0,0 +1,116 @@
+package org.powertac.common;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.util.Arrays;
+
+import org.joda.time.Instant;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.powertac.common.enumerations.PowerType;
+import org.powertac.common.repo.TariffRepo;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class ShiftingCostEstimatorTest
+{
+  private Competition competition;
+  private TimeService timeService;
+  private TariffRepo tariffRepo;
+  private Broker broker;
+  private Instant start;
+  private TariffEvaluationHelper helper;
+  private double[] base;
+
+  @BeforeEach
+  public void setUp ()
+  {
+    competition = Competition.newInstance("shifting-cost-test");
+    timeService = new TimeService();
+    timeService.setCurrentTime(competition.getSimulationBaseTime());
+    start = timeService.getCurrentTime().plus(TimeService.DAY);
+    tariffRepo = mock(TariffRepo.class);
+    broker = new Broker("Bob");
+    helper = new TariffEvaluationHelper();
+    base = new double[24];
+    for (int i = 0; i < base.length; i++) {
+      base[i] = 10.0 + (i % 5);
+    }
+  }
+
+  private Tariff initTariff (TariffSpecification spec)
+  {
+    Tariff tariff = new Tariff(spec);
+    ReflectionTestUtils.setField(tariff, "timeService", timeService);
+    ReflectionTestUtils.setField(tariff, "tariffRepo", tariffRepo);
+    tariff.init();
+    return tariff;
+  }
+
+  private double fullCost (Tariff tariff, int hour, double kWh)
+  {
+    double[] usage = Arrays.copyOf(base, base.length);
+    usage[hour] += kWh;
+    return helper.estimateCost(tariff, usage, start);
+  }
+
+  @Test
+  public void timeOfUseMatchesFullEvaluation ()
+  {
+    TariffSpecification spec =
+        new TariffSpecification(broker, PowerType.CONSUMPTION)
+        .withPeriodicPayment(-0.5)
+        .addRate(new Rate().withValue(-0.10).withDailyBegin(0).withDailyEnd(6))
+        .addRate(new Rate().withValue(-0.25).withDailyBegin(7).withDailyEnd(18))
+        .addRate(new Rate().withValue(-0.15).withDailyBegin(19).withDailyEnd(23));
+    Tariff tariff = initTariff(spec);
+    ShiftingCostEstimator estimator =
+        new ShiftingCostEstimator(helper, tariff, start, 24);
+    assertTrue(estimator.isIncremental());
+    estimator.setBase(base);
+    for (int hour = 0; hour < 23; hour++) {
+      assertEquals(fullCost(tariff, hour, 4.0),
+                   estimator.costWith(hour, 4.0), 1e-9, "hour " + hour);
+      double[] usage = Arrays.copyOf(base, base.length);
+      usage[hour] += 4.0;
+      usage[hour + 1] += 2.0;
+      assertEquals(helper.estimateCost(tariff, usage, start),
+                   estimator.costWith(hour, 4.0, hour + 1, 2.0), 1e-9,
+                   "pair at " + hour);
+    }
+  }
+
+  @Test
+  public void flatRateTies ()
+  {
+    TariffSpecification spec =
+        new TariffSpecification(broker, PowerType.CONSUMPTION)
+        .addRate(new Rate().withValue(-0.12));
+    Tariff tariff = initTariff(spec);
+    ShiftingCostEstimator estimator =
+        new ShiftingCostEstimator(helper, tariff, start, 24);
+    estimator.setBase(base);
+    double first = estimator.costWith(0, 3.0);
+    for (int hour = 1; hour < 24; hour++) {
+      assertEquals(first, estimator.costWith(hour, 3.0), 0.0, "exact tie");
+    }
+  }
+
+  @Test
+  public void tieredFallsBack ()
+  {
+    TariffSpecification spec =
+        new TariffSpecification(broker, PowerType.CONSUMPTION)
+        .addRate(new Rate().withValue(-0.10))
+        .addRate(new Rate().withValue(-0.30).withTierThreshold(12.0));
+    Tariff tariff = initTariff(spec);
+    ShiftingCostEstimator estimator =
+        new ShiftingCostEstimator(helper, tariff, start, 24);
+    assertFalse(estimator.isIncremental());
+    estimator.setBase(base);
+    for (int hour = 0; hour < 24; hour++) {
+      assertEquals(fullCost(tariff, hour, 4.0),
+                   estimator.costWith(hour, 4.0), 1e-9, "hour " + hour);
+    }
+  }
+}
@@ -21,6 +21,7 @@ import static org.mockito.Mockito.*;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Random;
 
 import org.joda.time.Instant;
 import org.junit.jupiter.api.BeforeEach;
@@ -116,9 +117,11 @@ public class TariffEvaluatorTest
       .withMultiContracting(true);
     cma = new TestAccessor();
 
-    // uut setup
+    // uut setup - the fixed sample sequences in these tests assume
+    // chunk-by-chunk allocation
     evaluator = new TariffEvaluator(cma).
-            withPreferredContractDuration(4).withRationality(0.8);
+            withPreferredContractDuration(4).withRationality(0.8)
+            .withBatchAllocation(false);
     ReflectionTestUtils.setField(evaluator,
                                  "tariffRepo", tariffRepo);
     ReflectionTestUtils.setField(evaluator,
@@ -180,6 +183,62 @@ public class TariffEvaluatorTest
     evaluator.evaluateTariffs();
   }
 
+  // evaluators with identical profiles share cost estimates
+  @Test
+  public void sharedCostEstimates ()
+  {
+    subscribeTo(defaultConsumption, customer.getPopulation());
+    TariffSpecification ts1 =
+        new TariffSpecification(bob, PowerType.CONSUMPTION).
+                                addRate(new Rate().withValue(-0.59));
+    Tariff tariff1 = new Tariff(ts1);
+    initTariff(tariff1);
+    ArrayList<Tariff> tariffs = new ArrayList<Tariff>();
+    tariffs.add(defaultConsumption);
+    tariffs.add(tariff1);
+    when(tariffRepo.findRecentActiveTariffs(anyInt(), any(PowerType.class)))
+        .thenReturn(tariffs);
+    TariffCostCache cache = TariffCostCache.getInstance();
+
+    cma.capacityProfile = new CapacityProfile(new double[] {1.0, 2.0}, start);
+    long misses = cache.getMissCount();
+    evaluator.evaluateTariffs();
+    assertEquals(misses + 2, cache.getMissCount(), "both tariffs estimated");
+
+    // same profile values in a different array
+    TestAccessor other = new TestAccessor();
+    other.capacityProfile = new CapacityProfile(new double[] {1.0, 2.0}, start);
+    TariffEvaluator second = new TariffEvaluator(other);
+    ReflectionTestUtils.setField(second, "tariffRepo", tariffRepo);
+    ReflectionTestUtils.setField(second, "tariffMarket", tariffMarket);
+    ReflectionTestUtils.setField(second, "tariffSubscriptionRepo",
+                                 tariffSubscriptionRepo);
+    long hits = cache.getHitCount();
+    second.evaluateTariffs();
+    assertEquals(misses + 2, cache.getMissCount(), "nothing estimated");
+    assertEquals(hits + 2, cache.getHitCount(), "both shared");
+
+    // a different profile, or different cost factors, is estimated again
+    TariffEvaluator third = new TariffEvaluator(other);
+    third.initializeCostFactors(0.7, 0.1, 0.2, 10000.0);
+    ReflectionTestUtils.setField(third, "tariffRepo", tariffRepo);
+    ReflectionTestUtils.setField(third, "tariffMarket", tariffMarket);
+    ReflectionTestUtils.setField(third, "tariffSubscriptionRepo",
+                                 tariffSubscriptionRepo);
+    third.evaluateTariffs();
+    assertEquals(misses + 4, cache.getMissCount(), "new cost factors");
+
+    cache.evict(tariff1);
+    other.capacityProfile = new CapacityProfile(new double[] {1.0, 2.0}, start);
+    TariffEvaluator fourth = new TariffEvaluator(other);
+    ReflectionTestUtils.setField(fourth, "tariffRepo", tariffRepo);
+    ReflectionTestUtils.setField(fourth, "tariffMarket", tariffMarket);
+    ReflectionTestUtils.setField(fourth, "tariffSubscriptionRepo",
+                                 tariffSubscriptionRepo);
+    fourth.evaluateTariffs();
+    assertEquals(misses + 5, cache.getMissCount(), "evicted tariff");
+  }
+
   @Test
   public void testScaleFactor ()
   {
@@ -398,6 +457,121 @@ public class TariffEvaluatorTest
     assertEquals(new Integer(5000), calls.get(newTariff), "+5000 for new");
   }
 
+  @Test
+  public void singleNewTariffBatch ()
+  {
+    subscribeTo(defaultConsumption, customer.getPopulation());
+    TariffSpecification newTS =
+            new TariffSpecification(bob,
+                                    PowerType.CONSUMPTION).
+                                    addRate(new Rate().withValue(-0.59));
+    Tariff newTariff = new Tariff(newTS);
+    initTariff(newTariff);
+    ArrayList<Tariff> tariffs = new ArrayList<Tariff>();
+    tariffs.add(defaultConsumption);
+    tariffs.add(newTariff);
+    when(tariffRepo.findRecentActiveTariffs(anyInt(), any(PowerType.class)))
+        .thenReturn(tariffs);
+
+    double[] profile = {1.0, 2.0};
+    cma.capacityProfile = new CapacityProfile(profile, start);
+    cma.setChoiceSamples(0.4, 0.6);
+
+    // capture calls to tariffMarket
+    final HashMap<Tariff, Integer> calls = new HashMap<Tariff, Integer>();
+    doAnswer(new Answer<Object>() {
+      @Override
+      public Object answer(InvocationOnMock invocation) {
+        Object[] args = invocation.getArguments();
+        assertEquals(customer, args[1], "correct customer");
+        calls.put((Tariff)args[0], (Integer)args[2]);
+        return null;
+      }
+    }).when(tariffMarket).subscribeToTariff(any(Tariff.class),
+                                            any(CustomerInfo.class),
+                                            anyInt());
+
+    evaluator.withBatchAllocation(true).withChunkSize(50); // 200 chunks
+    evaluator.evaluateTariffs();
+    assertEquals(2, calls.size(), "two tariffs");
+    int moved = calls.get(newTariff);
+    assertTrue(moved > 0, "some move");
+    assertEquals(0, moved % 50, "whole chunks");
+    assertEquals(-moved, calls.get(defaultConsumption).intValue(), "balanced");
+    // one inertia and one choice sample for all 200 chunks
+    assertEquals(1, cma.inertiaCount);
+    assertEquals(1, cma.choiceCount);
+  }
+
+  @Test
+  public void binomialSample ()
+  {
+    assertEquals(0, TariffEvaluator.binomialSample(10, 0.0, 0.9));
+    assertEquals(10, TariffEvaluator.binomialSample(10, 1.0, 0.1));
+    assertEquals(0, TariffEvaluator.binomialSample(1, 0.2, 0.79), "stays");
+    assertEquals(1, TariffEvaluator.binomialSample(1, 0.2, 0.81), "moves");
+    assertEquals(0, TariffEvaluator.binomialSample(5, 0.9, 0.0), "low tail");
+    assertEquals(5, TariffEvaluator.binomialSample(5, 0.9, 1.0), "high tail");
+    // median of a large distribution, no underflow
+    assertEquals(30000, TariffEvaluator.binomialSample(100000, 0.3, 0.5));
+  }
+
+  // Batch allocation must give the same distribution of chunk counts
+  // as allocating one chunk at a time
+  @Test
+  public void batchAllocationDistribution ()
+  {
+    double[] probabilities = {0.5, 0.3, 0.2};
+    int chunks = 200;
+    double move = 0.4;
+    int trials = 20000;
+    Random chunkRandom = new Random(1);
+    Random batchRandom = new Random(2);
+    double[] chunkSum = new double[3];
+    double[] chunkSq = new double[3];
+    double[] batchSum = new double[3];
+    double[] batchSq = new double[3];
+    for (int trial = 0; trial < trials; trial++) {
+      int[] counts = new int[3];
+      for (int chunk = 0; chunk < chunks; chunk++) {
+        if (chunkRandom.nextDouble() < 1.0 - move)
+          continue;
+        double sample = chunkRandom.nextDouble();
+        for (int i = 0; i < 3; i++) {
+          if (sample <= probabilities[i]) {
+            counts[i] += 1;
+            break;
+          }
+          sample -= probabilities[i];
+        }
+      }
+      int[] batch =
+          TariffEvaluator.sampleAllocation(chunks, move, probabilities,
+                                           batchRandom.nextDouble(),
+                                           batchRandom::nextDouble);
+      assertEquals(batch[0] + batch[1] + batch[2], batch[3], "all allocated");
+      for (int i = 0; i < 3; i++) {
+        chunkSum[i] += counts[i];
+        chunkSq[i] += counts[i] * counts[i];
+        batchSum[i] += batch[i];
+        batchSq[i] += batch[i] * batch[i];
+      }
+    }
+    for (int i = 0; i < 3; i++) {
+      double p = move * probabilities[i];
+      double mean = chunks * p;
+      double variance = chunks * p * (1.0 - p);
+      double chunkMean = chunkSum[i] / trials;
+      double batchMean = batchSum[i] / trials;
+      assertEquals(mean, chunkMean, 0.2, "chunk mean " + i);
+      assertEquals(mean, batchMean, 0.2, "batch mean " + i);
+      assertEquals(variance, chunkSq[i] / trials - chunkMean * chunkMean,
+                   variance * 0.05, "chunk variance " + i);
+      assertEquals(variance, batchSq[i] / trials - batchMean * batchMean,
+                   variance * 0.05, "batch variance " + i);
+    }
+  }
+
   @Test
   public void twoTariffSplit ()
   {
@@ -1176,6 +1350,8 @@ public class TariffEvaluatorTest
     int choicePtr = 0;
     double[] inertiaSamples = {0.5};
     int inertiaPtr = 0;
+    int choiceCount = 0;
+    int inertiaCount = 0;
     
     TestAccessor ()
     {
@@ -1204,6 +1380,7 @@ public class TariffEvaluatorTest
     @Override
     public double getTariffChoiceSample ()
     {
+      choiceCount += 1;
       if (choicePtr >= choiceSamples.length)
         choicePtr = 0;
       return choiceSamples[choicePtr++];
@@ -1212,6 +1389,7 @@ public class TariffEvaluatorTest
     @Override
     public double getInertiaSample ()
     {
+      inertiaCount += 1;
       if (inertiaPtr >= inertiaSamples.length)
         inertiaPtr = 0;
       return inertiaSamples[inertiaPtr++];
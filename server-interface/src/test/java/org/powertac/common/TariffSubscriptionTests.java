@@ -18,6 +18,11 @@ package org.powertac.common;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
 import org.mockito.ArgumentCaptor;
 
 import javax.annotation.Resource;
@@ -607,4 +612,62 @@ public class TariffSubscriptionTests
     sub.unsubscribe(8);
     assertEquals(0.0, sub.getRemainingRegulationCapacity().getUpRegulationCapacity(), 1e-6, "correct remaining regulation");
   }
+
+  // Subscribers to a shared tariff using power concurrently must produce
+  // the same transactions and realized price as a sequential run
+  @Test
+  public void parallelUsePowerMatchesSequential ()
+  {
+    List<String> sequential = new ArrayList<>();
+    double sequentialPrice = runUsage(0, sequential);
+    List<String> parallel = new ArrayList<>();
+    double parallelPrice = runUsage(4, parallel);
+    assertEquals(200, sequential.size());
+    assertEquals(sequential, parallel);
+    assertEquals(sequentialPrice, parallelPrice, 0.0);
+  }
+
+  // Runs 200 seeded subscribers through usePower() on a fresh tariff,
+  // and returns the tariff's realized price
+  private double runUsage (int threads, List<String> transactions)
+  {
+    TariffSpecification usageSpec =
+        new TariffSpecification(broker, PowerType.CONSUMPTION)
+            .addRate(new Rate().withValue(-0.11).withTierThreshold(0.0))
+            .addRate(new Rate().withValue(-0.07).withTierThreshold(20.0));
+    Tariff usageTariff = new Tariff(usageSpec);
+    usageTariff.init();
+    Random random = new Random(42);
+    List<TariffSubscription> subs = new ArrayList<>();
+    List<Integer> indices = new ArrayList<>();
+    double[] usage = new double[200];
+    for (int i = 0; i < 200; i++) {
+      CustomerInfo info =
+          new CustomerInfo("c" + i, 100).withPowerType(PowerType.CONSUMPTION);
+      TariffSubscription sub = new TariffSubscription(info, usageTariff);
+      sub.subscribe(1 + random.nextInt(100));
+      subs.add(sub);
+      indices.add(i);
+      usage[i] = random.nextDouble() * 1000.0;
+    }
+    List<String> recorded = Collections.synchronizedList(transactions);
+    doAnswer(invocation -> {
+      CustomerInfo info = invocation.getArgument(2);
+      recorded.add(info.getName() + ":" + invocation.getArgument(3) + ":"
+                   + invocation.getArgument(4) + ":"
+                   + invocation.getArgument(5));
+      return null;
+    }).when(mockAccounting)
+        .addTariffTransaction(eq(TariffTransaction.Type.CONSUME),
+                              eq(usageTariff), any(CustomerInfo.class),
+                              anyInt(), anyDouble(), anyDouble());
+    ParallelStepRunner runner = new ParallelStepRunner("test", threads);
+    try {
+      runner.runAll(indices, i -> subs.get(i).usePower(usage[i]));
+    }
+    finally {
+      runner.shutdown();
+    }
+    return usageTariff.getRealizedPrice();
+  }
 }
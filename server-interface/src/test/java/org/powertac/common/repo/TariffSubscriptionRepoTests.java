@@ -3,7 +3,11 @@ package org.powertac.common.repo;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
@@ -188,6 +192,92 @@ public class TariffSubscriptionRepoTests
     assertEquals(sub2, subs.get(0), "t2 killed");
   }
 
+  @Test
+  public void testActiveView ()
+  {
+    Tariff t1 = new Tariff(ts1);
+    Tariff t2 = new Tariff(ts2);
+    t1.init();
+    t2.init();
+    TariffSubscription sub1 = repo.getSubscription(c1, t1);
+    TariffSubscription sub2 = repo.getSubscription(c1, t2);
+    assertEquals(0, repo.getActiveSubscriptionsForCustomer(c1).size(), "none active");
+    sub2.subscribe(4);
+    sub1.subscribe(7);
+    List<TariffSubscription> active = repo.getActiveSubscriptionsForCustomer(c1);
+    assertEquals(2, active.size(), "two active");
+    assertEquals(sub1, active.get(0), "creation order");
+    assertSame(active, repo.getActiveSubscriptionsForCustomer(c1), "not copied");
+    assertThrows(UnsupportedOperationException.class,
+                 () -> repo.getActiveSubscriptionsForCustomer(c1).clear());
+    sub1.deferredUnsubscribe(7);
+    assertEquals(2, active.size(), "earlier view unchanged");
+    active = repo.getActiveSubscriptionsForCustomer(c1);
+    assertEquals(1, active.size(), "one active");
+    assertEquals(sub2, active.get(0), "sub2 active");
+    assertEquals(1, repo.findActiveSubscriptionsForBroker(b2).size(), "Barb active");
+    assertEquals(0, repo.findActiveSubscriptionsForBroker(b1).size(), "Bob inactive");
+    assertEquals(0, repo.getActiveSubscriptionsForCustomer(c2).size(), "none for c2");
+  }
+
+  @Test
+  public void testRemoveSubscriptionsForTariff ()
+  {
+    Tariff t1 = new Tariff(ts1);
+    Tariff t2 = new Tariff(ts2);
+    t1.init();
+    t2.init();
+    TariffSubscription sub1 = repo.getSubscription(c1, t1);
+    repo.getSubscription(c2, t1);
+    TariffSubscription sub3 = repo.getSubscription(c1, t2);
+    sub1.subscribe(3);
+    sub3.subscribe(2);
+    repo.removeSubscriptionsForTariff(t1);
+    assertNull(repo.findSubscriptionForTariffAndCustomer(t1, c1), "s1 gone");
+    assertEquals(0, repo.findSubscriptionsForTariff(t1).size(), "none for t1");
+    assertEquals(0, repo.findSubscriptionsForBroker(b1).size(), "none for Bob");
+    assertEquals(0, repo.getSubscriptionsForCustomer(c2).size(), "none for c2");
+    List<TariffSubscription> active = repo.getActiveSubscriptionsForCustomer(c1);
+    assertEquals(1, active.size(), "one left for c1");
+    assertEquals(sub3, active.get(0), "sub3 left");
+  }
+
+  // customers look up and change their own subscriptions in parallel
+  @Test
+  public void testParallelCustomers () throws Exception
+  {
+    Tariff t1 = new Tariff(ts1);
+    Tariff t2 = new Tariff(ts2);
+    t1.init();
+    t2.init();
+    List<CustomerInfo> customers = new ArrayList<>();
+    for (int i = 0; i < 200; i++)
+      customers.add(new CustomerInfo("c" + i, 10));
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    List<Future<?>> results = new ArrayList<>();
+    for (CustomerInfo customer : customers) {
+      results.add(pool.submit(() -> {
+        repo.getSubscription(customer, t1).subscribe(10);
+        repo.getSubscription(customer, t2);
+        repo.getSubscription(customer, t1).deferredUnsubscribe(4);
+        repo.getSubscription(customer, t2).subscribe(4);
+      }));
+    }
+    for (Future<?> result : results)
+      result.get();
+    pool.shutdown();
+    assertEquals(200, repo.findSubscriptionsForTariff(t1).size(), "all on t1");
+    assertEquals(200, repo.findSubscriptionsForTariff(t2).size(), "all on t2");
+    assertEquals(200, repo.findActiveSubscriptionsForBroker(b2).size(), "all on Barb");
+    for (CustomerInfo customer : customers) {
+      List<TariffSubscription> active =
+          repo.getActiveSubscriptionsForCustomer(customer);
+      assertEquals(2, active.size(), "two active");
+      assertEquals(6, active.get(0).getCustomersCommitted(), "six on t1");
+      assertSame(active.get(1), repo.findSubscriptionForTariffAndCustomer(t2, customer));
+    }
+  }
+
   @Test
   public void testRecycle ()
   {
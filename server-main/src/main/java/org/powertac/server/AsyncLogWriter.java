@@ -0,0 +1,303 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.server;
+
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.appender.FileAppender;
+import org.apache.logging.log4j.core.config.Property;
+
+/**
+ * Log4j appender that hands events to a single writer thread through a
+ * bounded ring buffer, so the threads that log never wait on file I/O.
+ * The writer drains the buffer in batches into a file appender that does
+ * not flush on each event, and flushes the file according to the flush
+ * interval: after every batch if it is zero, otherwise at most once per
+ * interval, so written events reach the file within about one interval
+ * even when the server is idle.
+ * <p>
+ * The state log must be complete, so nothing is dropped: when the buffer
+ * is full, a logging thread waits for space. The number and total length
+ * of these stalls, along with the peak buffer depth, are kept as
+ * backpressure metrics. Stopping the appender writes and flushes
+ * everything still in the buffer. The writer is a daemon thread, so a
+ * shutdown hook does the same if the JVM exits before the appender is
+ * stopped.</p>
+ * <p>
+ * Logging threads hold the read side of a gate while they check whether
+ * the writer is running and queue their event; stopping holds the write
+ * side until the buffer is written. So no event can be queued after the
+ * writer has gone, and events logged once it has stopped are written
+ * directly, after everything that was queued.</p>
+ * @author agent
+ */
+public class AsyncLogWriter extends AbstractAppender
+{
+  // how long the writer waits for events before checking for a flush
+  private static final long IDLE_WAIT = 50; // msec
+
+  private final FileAppender file;
+  private final ArrayBlockingQueue<LogEvent> buffer;
+  private final int batchSize;
+  private final long flushInterval;
+  private Thread writer;
+  private Thread shutdownHook;
+  private volatile boolean running = false;
+  private final ReentrantReadWriteLock gate = new ReentrantReadWriteLock();
+
+  // metrics
+  private volatile long eventCount = 0;
+  private volatile long batchCount = 0;
+  private volatile long flushCount = 0;
+  private final AtomicInteger maxDepth = new AtomicInteger();
+  private final AtomicLong stallCount = new AtomicLong();
+  private final AtomicLong stallNanos = new AtomicLong();
+
+  /**
+   * Creates a writer named name that writes to file, which should be
+   * built with immediateFlush off. Capacity is the size of the ring
+   * buffer, in events; flushInterval is in msec.
+   */
+  public AsyncLogWriter (String name, FileAppender file,
+                         int capacity, long flushInterval)
+  {
+    super(name, null, file.getLayout(), true, Property.EMPTY_ARRAY);
+    this.file = file;
+    this.buffer = new ArrayBlockingQueue<>(capacity);
+    this.batchSize = Math.max(1, Math.min(capacity, 1024));
+    this.flushInterval = flushInterval;
+  }
+
+  @Override
+  public void start ()
+  {
+    if (!file.isStarted())
+      file.start();
+    running = true;
+    writer = new Thread(this::writeLoop, getName() + "-writer");
+    writer.setDaemon(true);
+    writer.start();
+    shutdownHook = new Thread(this::drain, getName() + "-shutdown");
+    Runtime.getRuntime().addShutdownHook(shutdownHook);
+    super.start();
+  }
+
+  /**
+   * Queues the event. Waits for space if the buffer is full.
+   */
+  @Override
+  public void append (LogEvent event)
+  {
+    LogEvent copy = event.toImmutable();
+    gate.readLock().lock();
+    try {
+      if (!running) {
+        synchronized (file) {
+          file.append(copy);
+        }
+        return;
+      }
+      if (!buffer.offer(copy)) {
+        // the writer keeps draining while we wait, so stop cannot
+        // be held up for long
+        long start = System.nanoTime();
+        try {
+          buffer.put(copy);
+        }
+        catch (InterruptedException ie) {
+          // write it here rather than lose it
+          Thread.currentThread().interrupt();
+          synchronized (file) {
+            file.append(copy);
+          }
+        }
+        stallCount.incrementAndGet();
+        stallNanos.addAndGet(System.nanoTime() - start);
+      }
+      maxDepth.accumulateAndGet(buffer.size(), Math::max);
+    }
+    finally {
+      gate.readLock().unlock();
+    }
+  }
+
+  // Runs on the writer thread
+  private void writeLoop ()
+  {
+    ArrayList<LogEvent> batch = new ArrayList<>(batchSize);
+    long lastFlush = System.currentTimeMillis();
+    boolean dirty = false;
+    while (running || !buffer.isEmpty()) {
+      try {
+        LogEvent first = buffer.poll(IDLE_WAIT, TimeUnit.MILLISECONDS);
+        if (null != first) {
+          batch.add(first);
+          buffer.drainTo(batch, batchSize - 1);
+          write(batch);
+          batch.clear();
+          dirty = true;
+        }
+      }
+      catch (InterruptedException ie) {
+        // nothing interrupts the writer; running says when to stop
+      }
+      long now = System.currentTimeMillis();
+      if (dirty && now - lastFlush >= flushInterval) {
+        flush();
+        lastFlush = now;
+        dirty = false;
+      }
+    }
+    if (dirty)
+      flush();
+  }
+
+  private void write (ArrayList<LogEvent> batch)
+  {
+    synchronized (file) {
+      for (LogEvent event : batch) {
+        file.append(event);
+      }
+    }
+    eventCount += batch.size();
+    batchCount += 1;
+  }
+
+  private void flush ()
+  {
+    synchronized (file) {
+      file.getManager().flush();
+    }
+    flushCount += 1;
+  }
+
+  /**
+   * Writes and flushes everything in the buffer, then stops the writer
+   * thread and the file appender.
+   */
+  @Override
+  public boolean stop (long timeout, TimeUnit timeUnit)
+  {
+    setStopping();
+    drain();
+    file.stop(timeout, timeUnit);
+    setStopped();
+    return true;
+  }
+
+  @Override
+  public void stop ()
+  {
+    stop(0, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Waits until the writer thread has written and flushed everything in
+   * the buffer, and stops it. Logging threads wait until this is done;
+   * events appended after this are written directly.
+   */
+  public synchronized void drain ()
+  {
+    if (null == writer)
+      return;
+    if (Thread.currentThread() != shutdownHook) {
+      try {
+        Runtime.getRuntime().removeShutdownHook(shutdownHook);
+      }
+      catch (IllegalStateException ise) {
+        // already shutting down; the hook finds nothing left to do
+      }
+    }
+    shutdownHook = null;
+    // waits for logging threads that are queueing events, and holds off
+    // new ones until the writer has emptied the buffer
+    gate.writeLock().lock();
+    try {
+      running = false;
+      try {
+        writer.join();
+      }
+      catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+      }
+      writer = null;
+      // only left behind if the join was interrupted
+      ArrayList<LogEvent> rest = new ArrayList<>();
+      buffer.drainTo(rest);
+      if (!rest.isEmpty())
+        write(rest);
+      flush();
+    }
+    finally {
+      gate.writeLock().unlock();
+    }
+  }
+
+  /** Number of events written */
+  public long getEventCount ()
+  {
+    return eventCount;
+  }
+
+  /** Number of batches written */
+  public long getBatchCount ()
+  {
+    return batchCount;
+  }
+
+  /** Number of times the file was flushed */
+  public long getFlushCount ()
+  {
+    return flushCount;
+  }
+
+  /** Largest number of events seen waiting in the buffer */
+  public int getMaxDepth ()
+  {
+    return maxDepth.get();
+  }
+
+  /** Number of times a logging thread waited for space in the buffer */
+  public long getStallCount ()
+  {
+    return stallCount.get();
+  }
+
+  /** Total time logging threads spent waiting for space, in msec */
+  public long getStallMillis ()
+  {
+    return TimeUnit.NANOSECONDS.toMillis(stallNanos.get());
+  }
+
+  /**
+   * Returns a one-line summary of the metrics
+   */
+  public String report ()
+  {
+    return getName() + ": " + getEventCount() + " events in "
+        + getBatchCount() + " batches, " + getFlushCount() + " flushes, "
+        + "max depth " + getMaxDepth() + "/" + (buffer.size()
+            + buffer.remainingCapacity())
+        + ", " + getStallCount() + " stalls (" + getStallMillis() + " msec)";
+  }
+}
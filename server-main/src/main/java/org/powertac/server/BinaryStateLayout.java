@@ -0,0 +1,93 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.config.Configuration;
+import org.apache.logging.log4j.core.layout.AbstractLayout;
+import org.apache.logging.log4j.core.layout.ByteBufferDestination;
+import org.powertac.common.BinaryStateLog;
+
+/**
+ * Log4j layout that writes state-log messages in the BinaryStateLog
+ * encoding. The timestamp is the same as the text layout's %r, msec since
+ * the JVM started. The encoding carries dictionaries from one record to
+ * the next, so each layout instance must write to exactly one file.
+ * @author agent
+ */
+public class BinaryStateLayout extends AbstractLayout<byte[]>
+{
+  private final long startTime =
+      ManagementFactory.getRuntimeMXBean().getStartTime();
+
+  private ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+  private BinaryStateLog.Writer writer;
+
+  public BinaryStateLayout (Configuration configuration)
+  {
+    super(configuration, BinaryStateLog.header(), null);
+    try {
+      writer = new BinaryStateLog.Writer(buffer, false);
+    }
+    catch (IOException ioe) {
+      // cannot happen on a byte array
+      throw new IllegalStateException(ioe);
+    }
+  }
+
+  @Override
+  public synchronized byte[] toByteArray (LogEvent event)
+  {
+    buffer.reset();
+    try {
+      writer.write(event.getTimeMillis() - startTime,
+                   event.getMessage().getFormattedMessage());
+      writer.flush();
+    }
+    catch (IOException ioe) {
+      // cannot happen on a byte array
+      throw new IllegalStateException(ioe);
+    }
+    return buffer.toByteArray();
+  }
+
+  @Override
+  public byte[] toSerializable (LogEvent event)
+  {
+    return toByteArray(event);
+  }
+
+  // Records must reach the file in the order they were encoded, since
+  // later records refer to dictionary entries defined by earlier ones.
+  @Override
+  public void encode (LogEvent event, ByteBufferDestination destination)
+  {
+    synchronized (destination) {
+      byte[] data = toByteArray(event);
+      destination.writeBytes(data, 0, data.length);
+    }
+  }
+
+  @Override
+  public String getContentType ()
+  {
+    return "application/octet-stream";
+  }
+}
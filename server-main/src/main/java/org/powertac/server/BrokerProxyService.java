@@ -15,9 +15,15 @@ import javax.jms.TextMessage;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 import org.powertac.common.Broker;
+import org.powertac.common.Competition;
+import org.powertac.common.Order;
+import org.powertac.common.OrderBatchSummary;
 import org.powertac.common.TariffSpecification;
 import org.powertac.common.XMLMessageConverter;
+import org.powertac.common.config.ConfigurableValue;
 import org.powertac.common.interfaces.BrokerProxy;
+import org.powertac.common.interfaces.InitializationService;
+import org.powertac.common.interfaces.ServerConfiguration;
 import org.powertac.common.interfaces.VisualizerProxy;
 import org.powertac.common.repo.BrokerRepo;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -26,7 +32,8 @@ import org.springframework.jms.core.MessageCreator;
 import org.springframework.stereotype.Service;
 
 @Service
-public class BrokerProxyService implements BrokerProxy
+public class BrokerProxyService
+implements BrokerProxy, InitializationService
 {
   static private Logger log = LogManager.getLogger(BrokerProxyService.class);
 
@@ -45,6 +52,14 @@ public class BrokerProxyService implements BrokerProxy
   @Autowired
   private VisualizerProxy visualizerProxyService;
 
+  @Autowired
+  private ServerConfiguration serverConfig;
+
+  @ConfigurableValue(valueType = "Boolean",
+          description = "true to send each broadcast once to a composite "
+                  + "destination naming all remote broker queues")
+  private boolean compositeBroadcast = false;
+
   // Deferred messages during initialization
   boolean deferredBroadcast = false;
   ArrayList<Object> deferredMessages;
@@ -94,23 +109,28 @@ public class BrokerProxyService implements BrokerProxy
       broker.receiveMessage(messageObject);
     } 
     else {
-      final String text = converter.toXML(messageObject);
+      String text = converter.toXML(messageObject);
       log.debug("send " + messageObject.toString() + 
                " to " + broker.getUsername());
-      log.debug("sending text: \n" + text);
-      final String queueName = broker.toQueueName();
-
-      template.send(queueName, new MessageCreator() {
-        @Override
-        public Message createMessage (Session session) throws JMSException
-        {
-          TextMessage message = session.createTextMessage(text);
-          return message;
-        }
-      });
+      send(broker.toQueueName(), text);
     }
   }
 
+  // sends text to a queue, or to a composite destination given as a
+  // comma-separated list of queue names
+  private void send (String queueName, final String text)
+  {
+    log.debug("sending text: \n" + text);
+    template.send(queueName, new MessageCreator() {
+      @Override
+      public Message createMessage (Session session) throws JMSException
+      {
+        TextMessage message = session.createTextMessage(text);
+        return message;
+      }
+    });
+  }
+
   /*
    * (non-Javadoc)
    * 
@@ -144,14 +164,42 @@ public class BrokerProxyService implements BrokerProxy
     // dispatch to visualizers
     visualizerProxyService.forwardMessage(messageObject);
 
+    // don't send null messages
+    if (messageObject == null) {
+      log.error("null message ignored");
+      return;
+    }
+
+    // The message is serialized once, the first time it's needed, and
+    // the same text goes to every remote broker. In composite mode it is
+    // sent once, to an ActiveMQ composite destination made from the
+    // queue names of all the remote brokers.
+    String text = null;
+    StringBuilder composite = null;
     Collection<Broker> brokers = brokerRepo.list();
     for (Broker broker : brokers) {
-      // let's be JMS provider neutral and not take advance of special queues in
-      // ActiveMQ
-      // if we have JMS performance issue, we will look into optimization using
-      // ActiveMQ special queues.
-      localSendMessage(broker, messageObject);
+      if (!broker.isEnabled())
+        continue;
+      if (broker.isLocal()) {
+        broker.receiveMessage(messageObject);
+        continue;
+      }
+      if (null == text) {
+        text = converter.toXML(messageObject);
+        log.debug("broadcast " + messageObject.toString());
+      }
+      if (!compositeBroadcast) {
+        send(broker.toQueueName(), text);
+      }
+      else if (null == composite) {
+        composite = new StringBuilder(broker.toQueueName());
+      }
+      else {
+        composite.append(',').append(broker.toQueueName());
+      }
     }
+    if (null != composite)
+      send(composite.toString(), text);
   }
 
   /*
@@ -187,6 +235,46 @@ public class BrokerProxyService implements BrokerProxy
     }
   }
 
+  /*
+   * (non-Javadoc)
+   * 
+   * @see
+   * org.powertac.common.interfaces.BrokerProxy#routeOrders(org.powertac.common
+   * .Broker, java.util.List)
+   */
+  @Override
+  public void routeOrders (Broker broker, List<Order> orders)
+  {
+    if (router.routeBatch(broker, orders)) {
+      // dispatch a summary to visualizers
+      visualizerProxyService.forwardMessage(new OrderBatchSummary(broker, orders));
+    }
+  }
+
+  /**
+   * Sets whether broadcasts are sent once to a composite destination,
+   * rather than once to each remote broker's queue.
+   */
+  public void setCompositeBroadcast (boolean value)
+  {
+    compositeBroadcast = value;
+  }
+
+  public boolean isCompositeBroadcast ()
+  {
+    return compositeBroadcast;
+  }
+
+  @Override
+  public String initialize (Competition competition,
+                            List<String> completedInits)
+  {
+    serverConfig.configureMe(this);
+    if (compositeBroadcast)
+      log.info("Broadcasting to composite destinations");
+    return "BrokerProxy";
+  }
+
   @Override
   public void registerBrokerMessageListener (Object listener, Class<?> msgType)
   {
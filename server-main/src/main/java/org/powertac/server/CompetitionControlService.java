@@ -37,6 +37,12 @@ import org.springframework.stereotype.Service;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This is the competition controller. It has two major roles in the
@@ -160,6 +166,20 @@ public class CompetitionControlService
       description = "depth of stack trace on exception")
   private int stackTraceDepth = 5;
 
+  @ConfigurableValue(valueType = "Integer",
+      description = "Size of thread pool for running phase-independent "
+                    + "processors concurrently; 0 means sequential")
+  private int parallelPhaseThreads = 0;
+
+  @ConfigurableValue(valueType = "Boolean",
+      description = "If true, then in bootstrap mode, or when all brokers "
+                    + "are local, each timeslot starts as soon as the "
+                    + "previous one finishes")
+  private boolean unthrottledClock = false;
+
+  // pool for phase-independent processors, null if running sequentially
+  private ExecutorService phaseExecutor = null;
+
   // if we don't have a bootstrap dataset, we are in bootstrap mode.
   private boolean bootstrapMode = true;
   //private List<Object> bootstrapDataset = null;
@@ -570,6 +590,23 @@ public class CompetitionControlService
     broker.setKey(key);
   }
 
+  // The clock can run unthrottled if it is configured to, and no remote
+  // broker has to keep time with it
+  boolean useUnthrottledClock ()
+  {
+    return unthrottledClock && (bootstrapMode || allBrokersLocal());
+  }
+
+  // true if no remote broker needs to keep time with the server
+  private boolean allBrokersLocal ()
+  {
+    for (Broker broker : brokerRepo.list()) {
+      if (!broker.isLocal())
+        return false;
+    }
+    return true;
+  }
+
   // set simulation time parameters, making sure that simulationStartTime
   // is still sufficiently in the future.
   private void setTimeParameters()
@@ -758,6 +795,7 @@ public class CompetitionControlService
    */
   private void runSimulation (long scheduleMillis)
   {
+    startPhaseExecutor();
     SimRunner runner = new SimRunner(this);
     runner.start();
     try {
@@ -766,6 +804,9 @@ public class CompetitionControlService
     catch (InterruptedException ie) {
       log.warn("sim interrupted", ie);
     }
+    finally {
+      stopPhaseExecutor();
+    }
   }
 
   /**
@@ -795,9 +836,7 @@ public class CompetitionControlService
 
     for (int index = 0; index < phaseRegistrations.size(); index++) {
       log.info("activate phase " + (index + 1));
-      for (TimeslotPhaseProcessor fn : phaseRegistrations.get(index)) {
-        fn.activate(time, index + 1);
-      }
+      activatePhase(phaseRegistrations.get(index), time, index + 1);
     }
     TimeslotComplete msg = new TimeslotComplete(ts);
     brokerProxyService.broadcastMessage(msg);
@@ -813,6 +852,80 @@ public class CompetitionControlService
     }
   }
 
+  // Activates the processors registered for a phase. Processors run in
+  // registration order, except that each run of consecutive
+  // phase-independent processors is handed to the phase executor and
+  // completed before the next processor starts.
+  void activatePhase (List<TimeslotPhaseProcessor> processors,
+                      Instant time, int phase)
+  {
+    if (null == phaseExecutor) {
+      for (TimeslotPhaseProcessor fn : processors) {
+        fn.activate(time, phase);
+      }
+      return;
+    }
+    List<Future<?>> pending = new ArrayList<>();
+    for (TimeslotPhaseProcessor fn : processors) {
+      if (fn.isPhaseIndependent()) {
+        pending.add(phaseExecutor.submit(() -> fn.activate(time, phase)));
+      }
+      else {
+        awaitPhaseTasks(pending, phase);
+        fn.activate(time, phase);
+      }
+    }
+    awaitPhaseTasks(pending, phase);
+  }
+
+  // Waits for completion of concurrently-running processors. Exceptions
+  // thrown by a processor are re-thrown on the sim thread, so they are
+  // handled the same way as in sequential mode.
+  private void awaitPhaseTasks (List<Future<?>> pending, int phase)
+  {
+    RuntimeException failure = null;
+    for (Future<?> task : pending) {
+      try {
+        task.get();
+      }
+      catch (ExecutionException ee) {
+        log.error("processor failed in phase " + phase, ee.getCause());
+        if (null == failure) {
+          failure = (ee.getCause() instanceof RuntimeException)
+                  ? (RuntimeException) ee.getCause()
+                  : new RuntimeException(ee.getCause());
+        }
+      }
+      catch (InterruptedException ie) {
+        log.warn("interrupted waiting for phase " + phase);
+        Thread.currentThread().interrupt();
+      }
+    }
+    pending.clear();
+    if (null != failure)
+      throw failure;
+  }
+
+  // Creates the phase executor if parallel phase execution is configured
+  void startPhaseExecutor ()
+  {
+    if (parallelPhaseThreads > 0) {
+      log.info("parallel phase execution with {} threads",
+               parallelPhaseThreads);
+      phaseExecutor =
+          Executors.newFixedThreadPool(parallelPhaseThreads,
+                                       new PhaseThreadFactory());
+    }
+  }
+
+  void stopPhaseExecutor ()
+  {
+    if (null != phaseExecutor) {
+      phaseExecutor.shutdown();
+      phaseExecutor = null;
+    }
+  }
+
   private void detectAndKillHangingQueues() {
     Set<String> badQueues = jmsManagementService.processQueues();
     if (badQueues != null && badQueues.size() > 0) {
@@ -1076,6 +1189,11 @@ public class CompetitionControlService
     return bootstrapTimeslotMillis;
   }
 
+  int getParallelPhaseThreads ()
+  {
+    return parallelPhaseThreads;
+  }
+
   /**
    * This is the simulation thread. It sets up the clock, waits for ticks,
    * and runs the processing steps. The thread can be stopped in an orderly
@@ -1099,6 +1217,10 @@ public class CompetitionControlService
 
       SimulationClockControl.initialize(parent, timeService);
       clock = SimulationClockControl.getInstance();
+      if (useUnthrottledClock()) {
+        log.info("Running unthrottled clock");
+        clock.setUnthrottled(true);
+      }
       // wait for start time
       long now = new Date().getTime();
       // start is beginning of boot
@@ -1163,4 +1285,18 @@ public class CompetitionControlService
   {
     return brokerNames;
   }
+
+  // Names phase threads, and keeps them from holding up server exit
+  private static class PhaseThreadFactory implements ThreadFactory
+  {
+    private final AtomicInteger count = new AtomicInteger(0);
+
+    @Override
+    public Thread newThread (Runnable r)
+    {
+      Thread result = new Thread(r, "phase-worker-" + count.incrementAndGet());
+      result.setDaemon(true);
+      return result;
+    }
+  }
 }
@@ -36,19 +36,13 @@ import org.powertac.common.repo.RandomSeedRepo;
 import org.powertac.common.spring.SpringApplicationContext;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import javax.xml.xpath.*;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
 
 import java.io.*;
 import java.net.MalformedURLException;
@@ -539,21 +533,21 @@ public class CompetitionSetupService
 
   private String getBaseTimeXML(String weatherData)
   {
-    try {
-      DocumentBuilderFactory domFactory = DocumentBuilderFactory.newInstance();
-      DocumentBuilder builder = domFactory.newDocumentBuilder();
-      Document doc = builder.parse(weatherData);
-      XPathFactory factory = XPathFactory.newInstance();
-      XPath xPath = factory.newXPath();
-      XPathExpression expr =
-          xPath.compile("/data/weatherReports/weatherReport/@date");
-
+    try (InputStream in =
+             new BufferedInputStream(makeUrl(weatherData).openStream())) {
+      // stream the file, looking only at the report dates
+      XMLStreamReader reader =
+          XMLInputFactory.newInstance().createXMLStreamReader(in);
       String earliest = "ZZZZ-ZZ-ZZ";
-      NodeList nodes = (NodeList) expr.evaluate(doc, XPathConstants.NODESET);
-      for (int i = 0; i < nodes.getLength(); i++) {
-        String date = nodes.item(i).toString().split(" ")[0].split("\"")[1];
+      while (reader.hasNext()) {
+        if (reader.next() != XMLStreamConstants.START_ELEMENT
+            || !reader.getLocalName().equals("weatherReport")) {
+          continue;
+        }
+        String date = reader.getAttributeValue(null, "date").split(" ")[0];
         earliest = date.compareTo(earliest) < 0 ? date : earliest;
       }
+      reader.close();
       return earliest;
     } catch (Exception e) {
       log.error("Error extracting BaseTime from : " + weatherData);
@@ -635,37 +629,15 @@ public class CompetitionSetupService
       public void run () {
         cc.setAuthorizedBrokerList(brokers);
         cc.setInputQueueName(inputQueueName);
-        Document document = getDocument(bootUrl);
-        if (document != null) {
-          if (preGame(document)) {
-            bootstrapDataRepo.add(processBootDataset(document));
-            cc.runOnce(false);
-            nextGameId();
-          }
+        if (preGame(bootUrl)) {
+          cc.runOnce(false);
+          nextGameId();
         }
       }
     };
     session.start();
   }
 
-  // copied to BootstrapDataRepo
-  private Document getDocument (URL bootUrl)
-  {
-    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-    factory.setNamespaceAware(true);
-    DocumentBuilder builder;
-    Document doc = null;
-    try {
-      builder = factory.newDocumentBuilder();
-      doc = builder.parse(bootUrl.openStream());
-    }
-    catch (Exception e) {
-      e.printStackTrace();
-    }
-
-    return doc;
-  }
-
   // Create a gameId if it's not already set (mainly for Viz-driven games)
   private void ensureGameId (String game)
   {
@@ -690,6 +662,14 @@ public class CompetitionSetupService
   public void preGame ()
   {    
     String suffix = serverProps.getProperty("server.logfileSuffix", "x");
+    logService.setStateFormat(serverProps.getProperty("server.stateLogFormat",
+                                                      "text"));
+    logService.setAsync(Boolean.valueOf(serverProps.getProperty("server.asyncLog",
+                                                                "true")));
+    logService.setAsyncCapacity(serverProps.getIntegerProperty("server.asyncLogCapacity",
+                                                               65536));
+    logService.setFlushInterval(serverProps.getIntegerProperty("server.asyncLogFlushInterval",
+                                                               0));
     logService.startLog(suffix);
     extractPomId();
     log.info("preGame() - start game " + gameId);
@@ -727,55 +707,138 @@ public class CompetitionSetupService
   }
 
   /**
-   * Sets up the simulator, with config overrides provided in a file.
+   * Sets up the simulator, with config overrides and the bootstrap
+   * dataset provided in a boot record.
    */
-  private boolean preGame (Document document)
+  private boolean preGame (URL bootUrl)
   {
     log.info("preGame(File) - start");
     // run the basic pre-game setup
     preGame();
 
-    // read the config info from the bootReader - We need to find a Competition
-    Competition bootstrapCompetition = readBootRecord(document);
-    if (null == bootstrapCompetition)
+    // read the boot record - We need to find a Competition
+    BootRecord record = readBootRecord(bootUrl);
+    if (null == record || null == record.competition)
       return false;
 
+    // add the bootstrap-state to the config
+    if (null != record.bootState)
+      serverProps.addProperties(record.bootState);
+
     // update the existing Competition - should be the current competition
-    Competition.currentCompetition().update(bootstrapCompetition);
+    Competition.currentCompetition().update(record.competition);
     timeService.setClockParameters(competition);
     timeService.setCurrentTime(competition.getSimulationBaseTime());
+    bootstrapDataRepo.add(record.dataset);
     return true;
   }
 
-  Competition readBootRecord (Document document)
+  /**
+   * Reads the Competition, bootstrap-state, and bootstrap dataset from a
+   * boot record in a single streaming pass, without building a document.
+   * Each item is copied out of the stream and converted as it is reached.
+   * Returns null if the record cannot be read.
+   */
+  BootRecord readBootRecord (URL bootUrl)
   {
-    XPathFactory factory = XPathFactory.newInstance();
-    XPath xPath = factory.newXPath();
-    Competition bootstrapCompetition = null;
-    try {
-      // first grab the Competition
-      XPathExpression exp =
-          xPath.compile("/powertac-bootstrap-data/config/competition");
-      NodeList nodes = (NodeList) exp.evaluate(document,
-          XPathConstants.NODESET);
-      String xml = nodeToString(nodes.item(0));
-      bootstrapCompetition = (Competition) messageConverter.fromXML(xml);
-
-      // next, grab the bootstrap-state and add it to the config
-      exp = xPath.compile("/powertac-bootstrap-data/bootstrap-state/properties");
-      nodes = (NodeList) exp.evaluate(document, XPathConstants.NODESET);
-      if (null != nodes && nodes.getLength() > 0) {
-        // handle the case where there is no bootstrap-state clause
-        xml = nodeToString(nodes.item(0));
-        Properties bootState = (Properties) messageConverter.fromXML(xml);
-        serverProps.addProperties(bootState);
+    BootRecord record = new BootRecord();
+    XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+    StringWriter buffer = new StringWriter();
+    try (InputStream in = new BufferedInputStream(bootUrl.openStream())) {
+      XMLStreamReader reader =
+          XMLInputFactory.newInstance().createXMLStreamReader(in);
+      // sections are children of the root, items are their children
+      int depth = 0;
+      String section = null;
+      while (reader.hasNext()) {
+        int event = reader.next();
+        if (event == XMLStreamConstants.END_ELEMENT) {
+          depth -= 1;
+          continue;
+        }
+        if (event != XMLStreamConstants.START_ELEMENT) {
+          continue;
+        }
+        depth += 1;
+        if (depth == 2) {
+          section = reader.getLocalName();
+        }
+        else if (depth == 3) {
+          String name = reader.getLocalName();
+          if (section.equals("config") && name.equals("competition")
+              && null == record.competition) {
+            record.competition = (Competition) messageConverter
+                .fromXML(readElement(reader, outputFactory, buffer));
+          }
+          else if (section.equals("bootstrap-state")
+                   && name.equals("properties")) {
+            record.bootState = (Properties) messageConverter
+                .fromXML(readElement(reader, outputFactory, buffer));
+          }
+          else if (section.equals("bootstrap")) {
+            record.dataset.add(messageConverter
+                .fromXML(readElement(reader, outputFactory, buffer)));
+          }
+          else {
+            continue;
+          }
+          // readElement() consumed the end tag
+          depth -= 1;
+        }
       }
+      reader.close();
+    }
+    catch (IOException | XMLStreamException e) {
+      log.error("preGame: Error reading boot record from " + bootUrl
+                + ": " + e.toString());
+      return null;
     }
-    catch (XPathExpressionException xee) {
-      log.error("preGame: Error reading boot dataset: " + xee.toString());
-      System.out.println("preGame: Error reading boot dataset: " + xee.toString());
+    if (null == record.competition)
+      log.error("preGame: No competition in boot record " + bootUrl);
+    log.info("Found " + record.dataset.size() + " bootstrap items");
+    return record;
+  }
+
+  // Copies the element at the reader's position, through its end tag,
+  // into a string that can be converted by XStream
+  private String readElement (XMLStreamReader reader,
+                              XMLOutputFactory outputFactory,
+                              StringWriter buffer)
+      throws XMLStreamException
+  {
+    buffer.getBuffer().setLength(0);
+    XMLStreamWriter writer = outputFactory.createXMLStreamWriter(buffer);
+    int depth = 0;
+    while (true) {
+      switch (reader.getEventType()) {
+      case XMLStreamConstants.START_ELEMENT:
+        writer.writeStartElement(reader.getLocalName());
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+          writer.writeAttribute(reader.getAttributeLocalName(i),
+                                reader.getAttributeValue(i));
+        }
+        depth += 1;
+        break;
+      case XMLStreamConstants.END_ELEMENT:
+        writer.writeEndElement();
+        depth -= 1;
+        break;
+      case XMLStreamConstants.CHARACTERS:
+      case XMLStreamConstants.CDATA:
+      case XMLStreamConstants.SPACE:
+        writer.writeCharacters(reader.getTextCharacters(),
+                               reader.getTextStart(),
+                               reader.getTextLength());
+        break;
+      default:
+        // comments and processing instructions are dropped
+      }
+      if (depth == 0)
+        break;
+      reader.next();
     }
-    return bootstrapCompetition;
+    writer.close();
+    return buffer.toString();
   }
 
   // method broken out to simplify testing
@@ -834,47 +897,6 @@ public class CompetitionSetupService
     return output;
   }
 
-  // Extracts a bootstrap dataset from its file
-  private ArrayList<Object> processBootDataset (Document document)
-  {
-    // Read and convert the bootstrap dataset
-    ArrayList<Object> result = new ArrayList<>();
-    XPathFactory factory = XPathFactory.newInstance();
-    XPath xPath = factory.newXPath();
-    try {
-      // we want all the children of the bootstrap node
-      XPathExpression exp =
-          xPath.compile("/powertac-bootstrap-data/bootstrap/*");
-      NodeList nodes = (NodeList)exp.evaluate(document, XPathConstants.NODESET);
-      log.info("Found " + nodes.getLength() + " bootstrap nodes");
-      // Each node is a bootstrap data item
-      for (int i = 0; i < nodes.getLength(); i++) {
-        String xml = nodeToString(nodes.item(i));
-        Object msg = messageConverter.fromXML(xml);
-        result.add(msg);
-      }
-    }
-    catch (XPathExpressionException xee) {
-      log.error("runOnce: Error reading config file: " + xee.toString());
-    }
-    return result;
-  }
-
-  // Converts an xml node into a string that can be converted by XStream
-  private String nodeToString(Node node) {
-    StringWriter sw = new StringWriter();
-    try {
-      Transformer t = TransformerFactory.newInstance().newTransformer();
-      t.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
-      t.setOutputProperty(OutputKeys.INDENT, "no");
-      t.transform(new DOMSource(node), new StreamResult(sw));
-    }
-    catch (TransformerException te) {
-      log.error("nodeToString Transformer Exception " + te.toString());
-    }
-    return sw.toString();
-  }
-
   // Extracts the pom ID from the manifest, adds it to server properties
   private void extractPomId ()
   {
@@ -891,4 +913,12 @@ public class CompetitionSetupService
       log.error("Failed to load properties from manifest");
     }
   }
+
+  // Contents of a boot record
+  static class BootRecord
+  {
+    Competition competition;
+    Properties bootState;
+    ArrayList<Object> dataset = new ArrayList<>();
+  }
 }
@@ -15,9 +15,17 @@
 */
 package org.powertac.server;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.Appender;
 import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.appender.FileAppender;
+import org.apache.logging.log4j.core.config.Configuration;
+import org.apache.logging.log4j.core.config.LoggerConfig;
 import org.springframework.stereotype.Service;
 
 /**
@@ -45,12 +53,30 @@ import org.springframework.stereotype.Service;
  * object, op (used only for update) is the operation, and the args are the arguments for
  * that operation. The logger format will prepend the current offset from the beginning 
  * of the simulation in milliseconds.</p>
+ * <p>
+ * If the state-log format is set to "binary", the state log is written in
+ * the compact BinaryStateLog encoding instead, under the same name. The
+ * logtool recognizes either format.</p>
+ * <p>
+ * If asynchronous logging is turned on, the state and trace files are
+ * written by AsyncLogWriter threads, so the threads that log do not wait on
+ * disk I/O. Everything logged before stopLog() is flushed to the files by
+ * stopLog().</p>
  * @author John Collins
  */
 @Service
 public class LogService
 {
+  static private Logger log = LogManager.getLogger(LogService.class.getName());
+
   private String filenamePrefix = "powertac";
+  private boolean binaryState = false;
+
+  // asynchronous logging
+  private boolean async = false;
+  private int asyncCapacity = 65536;
+  private long flushInterval = 0;
+  private List<AsyncLogWriter> writers = new ArrayList<>();
   
   public LogService ()
   {
@@ -70,6 +96,71 @@ public class LogService
   {
     return filenamePrefix;
   }
+
+  /**
+   * Sets the state-log format, either "text" (the default) or "binary".
+   * Takes effect at the next startLog().
+   */
+  public void setStateFormat (String format)
+  {
+    binaryState = "binary".equalsIgnoreCase(format);
+  }
+
+  public String getStateFormat ()
+  {
+    return binaryState ? "binary" : "text";
+  }
+  
+  /**
+   * Turns asynchronous writing of the state and trace logs on or off.
+   * Takes effect at the next startLog().
+   */
+  public void setAsync (boolean value)
+  {
+    async = value;
+  }
+
+  public boolean isAsync ()
+  {
+    return async;
+  }
+
+  /**
+   * Sets the number of log events each asynchronous writer can hold
+   * before a logging thread has to wait
+   */
+  public void setAsyncCapacity (int capacity)
+  {
+    asyncCapacity = Math.max(1, capacity);
+  }
+
+  public int getAsyncCapacity ()
+  {
+    return asyncCapacity;
+  }
+
+  /**
+   * Sets the longest time in msec that written events may stay unflushed
+   * in an asynchronous writer. Zero flushes after every batch.
+   */
+  public void setFlushInterval (long msec)
+  {
+    flushInterval = Math.max(0, msec);
+  }
+
+  public long getFlushInterval ()
+  {
+    return flushInterval;
+  }
+
+  /**
+   * Returns the asynchronous writers for the current logs, empty if
+   * logging is synchronous
+   */
+  public List<AsyncLogWriter> getWriters ()
+  {
+    return writers;
+  }
   
   public Logger getStateLogger ()
   {
@@ -89,10 +180,16 @@ public class LogService
       }
       
       String logDir = System.getProperty("logdir", "log");
+      String stateFile = logDir + "/" + filename + ".state";
       System.setProperty("logfile", logDir + "/" + filename + ".trace");
-      System.setProperty("statefile", logDir + "/" + filename + ".state");
+      System.setProperty("statefile", stateFile);
       
+      drainWriters();
       ((LoggerContext) LogManager.getContext(false)).reconfigure();
+      if (binaryState)
+        useBinaryState(stateFile);
+      if (async)
+        useAsync();
     }
     catch (Exception ioe) {
       System.out.println("Can't open log file");
@@ -100,8 +197,91 @@ public class LogService
     }
   }
 
+  // Replaces the text appenders on the State logger with one that writes
+  // the binary encoding to the same file
+  private void useBinaryState (String stateFile)
+  {
+    LoggerContext ctx = (LoggerContext) LogManager.getContext(false);
+    Configuration config = ctx.getConfiguration();
+    LoggerConfig stateConfig = config.getLoggerConfig("State");
+    if (!"State".equals(stateConfig.getName())) {
+      log.warn("No State logger, keeping text state log");
+      return;
+    }
+    for (String name : new ArrayList<>(stateConfig.getAppenders().keySet())) {
+      Appender text = stateConfig.getAppenders().get(name);
+      stateConfig.removeAppender(name);
+      text.stop();
+    }
+    FileAppender binary = FileAppender.newBuilder()
+        .withFileName(stateFile)
+        .withAppend(false)
+        .setName("BinaryStateFile")
+        .setLayout(new BinaryStateLayout(config))
+        .setConfiguration(config)
+        .build();
+    binary.start();
+    config.addAppender(binary);
+    stateConfig.addAppender(binary, null, null);
+    ctx.updateLoggers();
+  }
+
+  // Replaces the file appenders on the State and root loggers with
+  // asynchronous writers to the same files
+  private void useAsync ()
+  {
+    LoggerContext ctx = (LoggerContext) LogManager.getContext(false);
+    Configuration config = ctx.getConfiguration();
+    ArrayList<LoggerConfig> loggers = new ArrayList<>(config.getLoggers().values());
+    loggers.add(config.getRootLogger());
+    LinkedHashSet<String> names = new LinkedHashSet<>();
+    names.addAll(config.getLoggerConfig("State").getAppenders().keySet());
+    names.addAll(config.getRootLogger().getAppenders().keySet());
+    for (String name : names) {
+      Appender appender = config.getAppender(name);
+      if (!(appender instanceof FileAppender))
+        continue;
+      FileAppender text = (FileAppender) appender;
+      // shares the file manager, and so the open file, with text
+      FileAppender file = FileAppender.newBuilder()
+          .withFileName(text.getFileName())
+          .withAppend(false)
+          .withImmediateFlush(false)
+          .setName(name + "-file")
+          .setLayout(text.getLayout())
+          .setConfiguration(config)
+          .build();
+      AsyncLogWriter writer =
+          new AsyncLogWriter(name + "-async", file, asyncCapacity, flushInterval);
+      writer.start();
+      config.addAppender(writer);
+      for (LoggerConfig logger : loggers) {
+        if (logger.getAppenders().containsKey(name)) {
+          logger.removeAppender(name);
+          logger.addAppender(writer, null, null);
+        }
+      }
+      text.stop();
+      writers.add(writer);
+    }
+    ctx.updateLoggers();
+  }
+
+  // Writes out everything logged so far, before the appenders go away
+  private void drainWriters ()
+  {
+    for (AsyncLogWriter writer : writers) {
+      writer.drain();
+    }
+    for (AsyncLogWriter writer : writers) {
+      log.info(writer.report());
+    }
+    writers.clear();
+  }
+
   public void stopLog ()
   {
+    drainWriters();
     // Removing the system props causes log4j2 to revert to the ones
     // given in log4j2.xml (typically init.state and init.trace)
     System.getProperties().remove("logfile");
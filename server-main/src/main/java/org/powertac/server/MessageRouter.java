@@ -15,15 +15,20 @@
  */
 package org.powertac.server;
 
-import static org.powertac.util.MessageDispatcher.dispatch;
-
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
-import org.apache.commons.beanutils.PropertyUtils;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 import org.powertac.common.Broker;
@@ -32,15 +37,38 @@ import org.powertac.common.interfaces.InitializationService;
 import org.powertac.common.msg.BrokerAuthentication;
 import org.springframework.stereotype.Service;
 
+/**
+ * Routes incoming broker messages to the listeners registered for their
+ * classes. The routing table is built when listeners register: for each
+ * message class it holds a handle on the message's getBroker() accessor,
+ * and for each listener a handle on its handleMessage() method for that
+ * class, so routing a message involves no reflective lookups.
+ * <p>
+ * Batches of messages from in-process brokers go through routeBatch().
+ * A listener that has a handleMessages(List&lt;T&gt;) method, where T is the
+ * message class or a supertype of it, gets the whole batch in one call;
+ * other listeners get the messages one at a time.</p>
+ */
 @Service
 public class MessageRouter implements InitializationService
 {
   static private Logger log = LogManager.getLogger(MessageRouter.class);
 
+  private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+  private static final MethodType BROKER_TYPE =
+      MethodType.methodType(Object.class, Object.class);
+  private static final MethodType HANDLER_TYPE =
+      MethodType.methodType(void.class, Object.class);
+  private static final MethodType BATCH_HANDLER_TYPE =
+      MethodType.methodType(void.class, List.class);
+
   // Routing data
   private HashMap<Class<?>, Set<Object>> registrations =
       new HashMap<Class<?>, Set<Object>>();
 
+  // Routing table, by message class
+  private Map<Class<?>, Route> routes = new ConcurrentHashMap<>();
+
   /**
    * returns the registrations for the given message
    */
@@ -52,13 +80,16 @@ public class MessageRouter implements InitializationService
   /* (non-Javadoc)
    * @see org.powertac.common.interfaces.BrokerProxy#registerBrokerMarketListener(org.powertac.common.interfaces.BrokerMessageListener)
    */
-  public void registerBrokerMessageListener(Object listener, Class<?> clazz) {
+  public synchronized void registerBrokerMessageListener(Object listener, Class<?> clazz) {
     Set<Object> targetSet= registrations.get(clazz);
     if (null == targetSet) {
       targetSet = new HashSet<Object>();
       registrations.put(clazz, targetSet);
     }
-    targetSet.add(listener);
+    if (targetSet.add(listener)) {
+      Route route = getRoute(clazz);
+      route.targets = route.withTarget(listener);
+    }
   }
 
   /**
@@ -66,10 +97,11 @@ public class MessageRouter implements InitializationService
    * once per game.
    */
 
-  public void recycle ()
+  public synchronized void recycle ()
   {
     // initialize the registrations
     registrations = new HashMap<Class<?>, Set<Object>>();
+    routes = new ConcurrentHashMap<>();
   }
 
   @Override
@@ -83,33 +115,25 @@ public class MessageRouter implements InitializationService
     boolean routed = false;
     
     boolean byPassed = (message instanceof BrokerAuthentication);
+    Route route = getRoute(message.getClass());
     
     String username = "unknown";
     Broker broker = null;
     if (!byPassed) {
-      try {
-        broker = (Broker)PropertyUtils.getSimpleProperty(message, "broker");
+      broker = route.getBroker(message);
+      if (null != broker) {
         username = broker.getUsername();
       }
-      catch (IllegalAccessException e) {
-        log.error("Failed to extract broker", e);
-      }
-      catch (InvocationTargetException e) {
-        log.error("Failed to extract broker", e);
-      }
-      catch (NoSuchMethodException e) {
-        log.error("Failed to extract broker", e);
-      }
     }
     if (byPassed || (broker != null && broker.isEnabled())) {     
       log.debug("route(Object) - routing " + message.getClass().getSimpleName() + " from " + username);
-      Set<Object> targets = registrations.get(message.getClass());
+      Target[] targets = route.targets;
       if (targets == null) {
         log.warn("no targets for message of type " + message.getClass().getSimpleName());
       }
       else {
-        for (Object target: targets) {
-          dispatch(target, "handleMessage", message);
+        for (Target target: targets) {
+          target.handle(message);
         }
         routed = true;
       }
@@ -117,4 +141,208 @@ public class MessageRouter implements InitializationService
     log.debug("route(Object) - routed:" + routed);
     return routed;
   }
+
+  /**
+   * Routes a batch of messages of one class from one broker. Returns
+   * false if the broker is not enabled or there are no listeners.
+   * A batch with mixed classes is routed one message at a time.
+   */
+  public boolean routeBatch (Broker broker, List<?> messages)
+  {
+    if (messages.isEmpty()) {
+      return false;
+    }
+    if (broker == null || !broker.isEnabled()) {
+      log.debug("routeBatch - broker not enabled");
+      return false;
+    }
+    Class<?> clazz = messages.get(0).getClass();
+    for (Object message : messages) {
+      if (message.getClass() != clazz) {
+        boolean routed = false;
+        for (Object each : messages) {
+          routed |= route(each);
+        }
+        return routed;
+      }
+    }
+    Target[] targets = getRoute(clazz).targets;
+    if (targets == null) {
+      log.warn("no targets for message of type " + clazz.getSimpleName());
+      return false;
+    }
+    log.debug("routeBatch - routing " + messages.size() + " "
+              + clazz.getSimpleName() + " from " + broker.getUsername());
+    for (Target target : targets) {
+      target.handleBatch(messages);
+    }
+    return true;
+  }
+
+  // Returns the route for a message class, creating it the first time
+  private Route getRoute (Class<?> clazz)
+  {
+    Map<Class<?>, Route> table = routes;
+    Route result = table.get(clazz);
+    if (null == result) {
+      result = table.computeIfAbsent(clazz, Route::new);
+    }
+    return result;
+  }
+
+  // Public methods of non-public classes need their access check
+  // turned off, as they would for Method.invoke()
+  private static MethodHandle unreflect (Method method)
+      throws IllegalAccessException
+  {
+    try {
+      return lookup.unreflect(method);
+    }
+    catch (IllegalAccessException iae) {
+      method.setAccessible(true);
+      return lookup.unreflect(method);
+    }
+  }
+
+  // Routing for one message class
+  static class Route
+  {
+    private final Class<?> clazz;
+    private final MethodHandle brokerGetter;
+    private final String brokerError;
+
+    // replaced, never modified, so route() can read it without locking
+    private volatile Target[] targets = null;
+
+    Route (Class<?> clazz)
+    {
+      super();
+      this.clazz = clazz;
+      MethodHandle getter = null;
+      String error = null;
+      try {
+        Method method = clazz.getMethod("getBroker");
+        getter = unreflect(method).asType(BROKER_TYPE);
+      }
+      catch (NoSuchMethodException | IllegalAccessException e) {
+        error = e.toString();
+      }
+      brokerGetter = getter;
+      brokerError = error;
+    }
+
+    Broker getBroker (Object message)
+    {
+      if (null == brokerGetter) {
+        log.error("Failed to extract broker from "
+                  + clazz.getSimpleName() + ": " + brokerError);
+        return null;
+      }
+      try {
+        return (Broker) (Object) brokerGetter.invokeExact(message);
+      }
+      catch (RuntimeException | Error e) {
+        throw e;
+      }
+      catch (Throwable thr) {
+        log.error("Failed to extract broker", thr);
+        return null;
+      }
+    }
+
+    Target[] withTarget (Object listener)
+    {
+      ArrayList<Target> result = new ArrayList<>();
+      if (null != targets) {
+        result.addAll(List.of(targets));
+      }
+      result.add(new Target(listener, clazz));
+      return result.toArray(new Target[result.size()]);
+    }
+  }
+
+  // A listener's handler for one message class
+  static class Target
+  {
+    private final Object listener;
+    private final MethodHandle handler;
+    private final MethodHandle batchHandler;
+
+    Target (Object listener, Class<?> clazz)
+    {
+      super();
+      this.listener = listener;
+      MethodHandle found = null;
+      try {
+        Method method = listener.getClass().getMethod("handleMessage", clazz);
+        found = unreflect(method).bindTo(listener).asType(HANDLER_TYPE);
+      }
+      catch (NoSuchMethodException nsme) {
+        log.debug("Could not find exact match: " + nsme.toString());
+      }
+      catch (IllegalAccessException iae) {
+        log.error("Cannot call handleMessage on "
+                  + listener.getClass().getName() + ": " + iae.toString());
+      }
+      handler = found;
+      MethodHandle batch = null;
+      try {
+        Method method = listener.getClass().getMethod("handleMessages", List.class);
+        if (acceptsBatchOf(method, clazz))
+          batch = unreflect(method).bindTo(listener).asType(BATCH_HANDLER_TYPE);
+      }
+      catch (NoSuchMethodException nsme) {
+        // messages are delivered one at a time
+      }
+      catch (IllegalAccessException iae) {
+        log.error("Cannot call handleMessages on "
+                  + listener.getClass().getName() + ": " + iae.toString());
+      }
+      batchHandler = batch;
+    }
+
+    // True if the method's List parameter is declared to hold clazz
+    private static boolean acceptsBatchOf (Method method, Class<?> clazz)
+    {
+      Type param = method.getGenericParameterTypes()[0];
+      if (!(param instanceof ParameterizedType))
+        return false;
+      Type element = ((ParameterizedType) param).getActualTypeArguments()[0];
+      return element instanceof Class
+          && ((Class<?>) element).isAssignableFrom(clazz);
+    }
+
+    void handleBatch (List<?> messages)
+    {
+      if (null == batchHandler) {
+        for (Object message : messages) {
+          handle(message);
+        }
+        return;
+      }
+      try {
+        batchHandler.invokeExact((List<?>) messages);
+      }
+      catch (Throwable thr) {
+        log.error("Cannot call handleMessages on "
+                  + listener.getClass().getName() + ": " + thr, thr);
+      }
+    }
+
+    void handle (Object message)
+    {
+      if (null == handler) {
+        return;
+      }
+      try {
+        handler.invokeExact(message);
+      }
+      catch (Throwable thr) {
+        log.error("Cannot call handleMessage on "
+                  + listener.getClass().getName() + ": " + thr
+                  + "\n  ..at " + (thr.getStackTrace().length > 0 ?
+                                    thr.getStackTrace()[0] : "?"), thr);
+      }
+    }
+  }
 }
@@ -25,6 +25,7 @@ import java.util.concurrent.Semaphore;
 
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
+import org.joda.time.Instant;
 import org.powertac.common.TimeService;
 import org.powertac.common.config.ConfigurableValue;
 import org.powertac.common.interfaces.ServerConfiguration;
@@ -56,6 +57,11 @@ import org.powertac.common.spring.SpringApplicationContext;
  * a user to fill out a dialog or otherwise interact with a user. Given
  * an appropriate set of messages, this event could be handled in much
  * the same way as a server timeslot overrun.</p>
+ * <p>
+ * When no remote broker needs to keep time with the server, the clock
+ * can run unthrottled. Then the next tick comes as soon as the simulator
+ * calls complete(), and each tick advances sim time by one timeslot
+ * without reference to the system clock.</p>
  * 
  * @author John Collins
  */
@@ -87,6 +93,10 @@ public class SimulationClockControl
   private Status state = Status.CLEAR; // package visibility for testing
   private int nextTick = -1;
   private boolean pauseRequested = false;
+
+  // unthrottled mode - sim time at the first tick
+  private boolean unthrottled = false;
+  private long firstTickTime;
   
   private Timer theTimer;
   private WatchdogAction currentWatchdog;
@@ -133,6 +143,20 @@ public class SimulationClockControl
   }
   
   // --------------- external api ----------------
+  /**
+   * Sets unthrottled mode, in which ticks are not tied to the system
+   * clock. Must be called before setStart().
+   */
+  public void setUnthrottled (boolean value)
+  {
+    unthrottled = value;
+  }
+
+  public boolean isUnthrottled ()
+  {
+    return unthrottled;
+  }
+
   /**
    * Sets the sim clock start time, which in turn gets propagated to the
    * timeService.
@@ -141,6 +165,8 @@ public class SimulationClockControl
   {
     this.start = start;
     timeService.setStart(start);
+    // setStart() leaves the clock one notch before the first tick
+    firstTickTime = timeService.getCurrentTime().getMillis() + modulo;
     if (!competitionControl.isBootstrapMode()) {
       minWindow = minAgentWindow;
     }
@@ -154,6 +180,11 @@ public class SimulationClockControl
   public void scheduleTick ()
   {
     //System.out.println("scheduleTick() " + new Date().getTime());
+    if (unthrottled) {
+      // no waiting
+      notifyTick();
+      return;
+    }
     long nextTick = computeNextTickTime();
     boolean success = false;
     while (!success) {
@@ -177,6 +208,19 @@ public class SimulationClockControl
   public synchronized void complete ()
   {
     //System.out.println("complete() " + new Date().getTime());
+    if (unthrottled) {
+      // no watchdog; start the next tick now unless a pause is wanted
+      if (pauseRequested) {
+        state = Status.PAUSED;
+        competitionControl.pause();
+        pauseRequested = false;
+      }
+      else {
+        state = Status.COMPLETE;
+        scheduleTick();
+      }
+      return;
+    }
     if (state == Status.DELAYED) {
       if (pauseRequested) {
         // already paused, just change the state
@@ -237,6 +281,13 @@ public class SimulationClockControl
       catch (InterruptedException ie) { }
     }
 
+    if (unthrottled) {
+      // sim time is simply the start time plus n timeslots
+      timeService.setCurrentTime(new Instant(firstTickTime + n * modulo));
+      setState(Status.CLEAR);
+      return;
+    }
+
     // find the delay offset for this tick
     long offset = new Date().getTime() - scheduledTickTime;
     if (offset > (long)(tickInterval / maxTickOffsetRatio)) {
@@ -260,6 +311,9 @@ public class SimulationClockControl
    * Compares sim time to sys time, updates start if it's off too much
    */
   public void checkClockDrift() {
+    if (unthrottled)
+      // sim time does not follow the system clock
+      return;
     long offset = timeService.getOffset();
     if (offset > (long)(tickInterval / maxTickOffsetRatio)) {
       log.warn("clock drift " + offset);
@@ -337,6 +391,12 @@ public class SimulationClockControl
   // the clock.
   private void resume ()
   {
+    if (unthrottled) {
+      // start is unchanged, but brokers still need to hear the pause is over
+      competitionControl.resume(start);
+      scheduleTick();
+      return;
+    }
     long originalNextTick = computeNextTickTime();
     long actualNextTick = new Date().getTime() + minWindow;
     updateStart(actualNextTick - originalNextTick);
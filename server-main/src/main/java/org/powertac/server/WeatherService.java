@@ -33,6 +33,7 @@ import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeFieldType;
+import org.joda.time.DateTimeZone;
 import org.joda.time.Instant;
 import org.powertac.common.*;
 import org.powertac.common.config.ConfigurableValue;
@@ -46,25 +47,33 @@ import org.powertac.common.repo.WeatherForecastRepo;
 import org.powertac.common.repo.WeatherReportRepo;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
 import java.io.*;
 import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 @Service
@@ -110,11 +119,33 @@ public class WeatherService extends TimeslotPhaseProcessor implements
   @Autowired
   private ServerConfiguration serverProps;
 
-  // These dates need to be fetched when using not blocking
-  private List<DateTime> aheadDays;
-  private DateTime simulationBaseTime;
+  @ConfigurableValue(valueType = "Integer",
+          description = "Days of weather to fetch ahead in non-blocking mode")
   private int daysAhead = 3;
 
+  @ConfigurableValue(valueType = "Integer",
+          description = "Threads fetching weather in non-blocking mode")
+  private int prefetchThreads = 2;
+
+  @ConfigurableValue(valueType = "Integer",
+          description = "Longest wait (msec) for weather that is needed now")
+  private int fetchTimeout = 10000;
+
+  @ConfigurableValue(valueType = "String",
+          description = "Directory for caching weather from the server; empty for no cache")
+  private String cacheDir = "";
+
+  private DateTime simulationBaseTime;
+
+  // Non-blocking mode: requests being fetched, and requests already
+  // processed, by request time. Used only on the sim thread.
+  private TreeMap<Long, WeatherRequester> prefetches = new TreeMap<>();
+  private HashSet<Long> fetched = new HashSet<>();
+  private ExecutorService prefetchExecutor = null;
+
+  // Weather read from a file, for the current game
+  private WeatherTable weatherTable;
+
 
   public int getWeatherReqInterval ()
   {
@@ -174,26 +205,35 @@ public class WeatherService extends TimeslotPhaseProcessor implements
   public void activate (Instant time, int phaseNumber)
   {
     long msec = time.getMillis();
-    if (msec % (getWeatherReqInterval() * TimeService.HOUR) != 0) {
+    long interval = getWeatherReqInterval() * TimeService.HOUR;
+    boolean requestTime = (msec % interval == 0);
+    if (!requestTime) {
       log.info("WeatherService reports not time to grab weather data.");
     }
     else {
       log.info("Timeslot "
           + timeslotRepo.currentTimeslot().getId()
           + " WeatherService reports time to make request for weather data");
+    }
 
-      DateTime dateTime = timeslotRepo.currentTimeslot().getStartTime();
-      if (blocking) {
+    if (blocking) {
+      if (requestTime) {
+        DateTime dateTime = timeslotRepo.currentTimeslot().getStartTime();
         WeatherRequester wr = new WeatherRequester(dateTime);
         wr.run();
       }
-      else {
-        aheadDays.add(dateTime.plusDays(daysAhead));
-        while (aheadDays.size() > 0) {
-          WeatherRequester wr = new WeatherRequester(aheadDays.remove(0));
-          new Thread(wr).start();
-        }
+    }
+    else {
+      // Every timeslot, retry failed requests in the current window and
+      // add any that have finished. Only at request time do we wait for
+      // the request that is due.
+      DateTime windowStart =
+          new DateTime(msec - msec % interval, DateTimeZone.UTC);
+      prefetch(windowStart);
+      if (requestTime) {
+        awaitRequest(windowStart);
       }
+      collectFinished();
     }
 
     broadcastWeatherReports();
@@ -253,7 +293,8 @@ public class WeatherService extends TimeslotPhaseProcessor implements
   public String initialize (Competition competition, List<String> completedInits)
   {
     super.init();
-    aheadDays = new CopyOnWriteArrayList<DateTime>();
+    weatherTable = null;
+    stopPrefetch();
     serverProps.configureMe(this);
     weatherReqInterval = Math.min(24, weatherReqInterval);
     simulationBaseTime = competition.getSimulationBaseTime().toDateTime();
@@ -265,29 +306,155 @@ public class WeatherService extends TimeslotPhaseProcessor implements
     }
 
     if (!blocking) {
+      // Get the first request before the game starts, fetch the rest of
+      // the look-ahead window in the background
+      startPrefetch();
       DateTime dateTime = timeslotRepo.currentTimeslot().getStartTime();
-      // Get the first 3 days of weather, blocking!
-      for (int i = 0; i < daysAhead; i++) {
-        WeatherRequester weatherRequester = new WeatherRequester(dateTime);
-        weatherRequester.run();
-        dateTime = dateTime.plusDays(1);
-      }
+      prefetch(dateTime);
+      awaitRequest(dateTime);
+      collectFinished();
     }
 
     return "WeatherService";
   }
 
-  private class WeatherRequester implements Runnable
+  // Reads the weather file the first time it is needed in a game. If it
+  // cannot be read, requests fall back to the weather server.
+  private synchronized WeatherTable getWeatherTable ()
+  {
+    if (weatherTable == null) {
+      try {
+        if (weatherData.endsWith(".xml")) {
+          weatherTable = new WeatherXmlTable(weatherData);
+        }
+        else {
+          weatherTable = new StateFileTable(weatherData);
+        }
+      }
+      catch (Exception e) {
+        log.error("Cannot read weather from " + weatherData + ": "
+                  + e.toString());
+        weatherTable = requestDate -> null;
+      }
+    }
+    return weatherTable;
+  }
+
+  private void startPrefetch ()
+  {
+    AtomicInteger threadCount = new AtomicInteger(0);
+    prefetchExecutor =
+        Executors.newFixedThreadPool(Math.max(1, prefetchThreads), runnable -> {
+          Thread thread = new Thread(runnable, "weather-prefetch-"
+                                     + threadCount.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        });
+  }
+
+  private void stopPrefetch ()
+  {
+    if (null != prefetchExecutor) {
+      prefetchExecutor.shutdownNow();
+      prefetchExecutor = null;
+    }
+    prefetches.clear();
+    fetched.clear();
+  }
+
+  // Starts fetching every request in the look-ahead window that starts at
+  // dateTime and is not already fetched or being fetched
+  private void prefetch (DateTime dateTime)
+  {
+    if (null == prefetchExecutor) {
+      startPrefetch();
+    }
+    int requests = Math.max(1, daysAhead * 24 / weatherReqInterval);
+    for (int i = 0; i < requests; i++) {
+      DateTime requestDate = dateTime.plusHours(i * weatherReqInterval);
+      long key = requestDate.getMillis();
+      if (fetched.contains(key) || prefetches.containsKey(key)) {
+        continue;
+      }
+      WeatherRequester wr = new WeatherRequester(requestDate);
+      wr.result = prefetchExecutor.submit((Callable<Data>) wr);
+      prefetches.put(key, wr);
+    }
+  }
+
+  // Waits up to fetchTimeout for the request at dateTime to finish. Its
+  // data is added to the repos by the next collectFinished().
+  private void awaitRequest (DateTime dateTime)
+  {
+    WeatherRequester current = prefetches.get(dateTime.getMillis());
+    if (null != current) {
+      try {
+        current.result.get(fetchTimeout, TimeUnit.MILLISECONDS);
+      }
+      catch (TimeoutException te) {
+        log.warn("Weather for " + dateStringLong(dateTime)
+                 + " not ready after " + fetchTimeout + " msec");
+      }
+      catch (InterruptedException | ExecutionException e) {
+        log.error("Weather fetch failed: " + e.toString());
+      }
+    }
+  }
+
+  // Adds every finished request to the repos, without waiting. A request
+  // that failed is dropped, so the next prefetch() tries it again if it
+  // is still in the window.
+  private void collectFinished ()
+  {
+    Iterator<WeatherRequester> pending = prefetches.values().iterator();
+    while (pending.hasNext()) {
+      WeatherRequester wr = pending.next();
+      if (!wr.result.isDone()) {
+        continue;
+      }
+      pending.remove();
+      Data data = null;
+      try {
+        data = wr.result.get();
+      }
+      catch (InterruptedException | ExecutionException e) {
+        log.error("Weather fetch failed: " + e.toString());
+      }
+      if (data == null) {
+        log.warn("Retrying : " + dateStringLong(wr.requestDate));
+        continue;
+      }
+      wr.process(data);
+      fetched.add(wr.requestDate.getMillis());
+    }
+  }
+
+  private class WeatherRequester implements Runnable, Callable<Data>
   {
     private DateTime requestDate;
 
+    // set when the request is prefetched
+    private Future<Data> result;
+
     public WeatherRequester (DateTime requestDate)
     {
       this.requestDate = requestDate;
     }
 
+    // Fetches the data and adds it to the repos
     @Override
     public void run ()
+    {
+      Data data = call();
+      if (data != null) {
+        process(data);
+      }
+    }
+
+    // Fetches the data without touching the repos. Returns null if
+    // there is none.
+    @Override
+    public Data call ()
     {
       String currentMethod = "";
       try {
@@ -295,14 +462,11 @@ public class WeatherService extends TimeslotPhaseProcessor implements
 
         if (weatherData != null && weatherData.endsWith(".xml")) {
           currentMethod = "xml file";
-          WeatherXmlExtractor wxe = new WeatherXmlExtractor(weatherData);
-          String weatherXml = wxe.extractPartialXml(requestDate);
-          data = parseXML(weatherXml);
+          data = getWeatherTable().slice(requestDate);
         }
         else if (weatherData != null && weatherData.endsWith(".state")) {
           currentMethod = "state file";
-          StateFileExtractor sfe = new StateFileExtractor(weatherData);
-          data = sfe.extractData();
+          data = getWeatherTable().slice(requestDate);
         }
 
         if (data == null) {
@@ -310,24 +474,49 @@ public class WeatherService extends TimeslotPhaseProcessor implements
           data = webRequest();
         }
 
-        processData(data);
-
+        if (data == null) {
+          log.error("Unable to get weather from weather : " + currentMethod);
+          return null;
+        }
         log.debug("Got data via a " + currentMethod + " request");
+        return data;
       }
       catch (Exception e) {
         log.error("Unable to get weather from weather : " + currentMethod);
-        if (!blocking) {
-          log.warn("Retrying : " + dateStringLong(requestDate));
-          aheadDays.add(requestDate);
-        }
-
         log.error(e.getMessage());
+        return null;
+      }
+    }
+
+    private void process (Data data)
+    {
+      try {
+        processData(data);
+      }
+      catch (Exception e) {
+        log.error("Unable to process weather for "
+                  + dateStringLong(requestDate) + ": " + e.toString());
       }
     }
 
     private Data webRequest ()
     {
       String queryDate = dateString(requestDate);
+      File cached = cacheFile(queryDate);
+      if (cached != null && cached.canRead()) {
+        try {
+          Data data = parseXML(new String(Files.readAllBytes(cached.toPath()),
+                                          StandardCharsets.UTF_8));
+          if (data != null) {
+            log.info("Weather for " + queryDate + " from cache");
+            return data;
+          }
+        }
+        catch (IOException ioe) {
+          log.warn("Cannot read cached weather " + cached.getPath());
+        }
+      }
+
       log.info("Query datetime value for REST call: " + queryDate);
 
       String urlString = String.format("%s?weatherDate=%s&weatherLocation=%s",
@@ -340,10 +529,15 @@ public class WeatherService extends TimeslotPhaseProcessor implements
         conn.setReadTimeout(10 * 1000);
 
         // Get the response in xml
-        BufferedReader input = new BufferedReader(
-            new InputStreamReader(conn.getInputStream()));
-
-        return parseXML(input);
+        String xml;
+        try (InputStream input = conn.getInputStream()) {
+          xml = new String(input.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        Data data = parseXML(xml);
+        if (data != null && cached != null) {
+          saveToCache(cached, xml);
+        }
+        return data;
       }
       catch (FileNotFoundException fnfe) {
         log.warn("FileNotFoundException on : " + urlString);
@@ -359,6 +553,33 @@ public class WeatherService extends TimeslotPhaseProcessor implements
       return null;
     }
 
+    // Cache file for a query, or null if there is no cache
+    private File cacheFile (String queryDate)
+    {
+      if (cacheDir == null || cacheDir.isEmpty()) {
+        return null;
+      }
+      return new File(cacheDir, weatherLocation + "-" + queryDate + ".xml");
+    }
+
+    // Writes through a temporary file, so a reader never sees part of one
+    private void saveToCache (File cached, String xml)
+    {
+      try {
+        cached.getParentFile().mkdirs();
+        File temp = File.createTempFile("weather", ".tmp",
+                                        cached.getParentFile());
+        Files.write(temp.toPath(), xml.getBytes(StandardCharsets.UTF_8));
+        Files.move(temp.toPath(), cached.toPath(),
+                   StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch (IOException ioe) {
+        log.warn("Cannot cache weather in " + cached.getPath() + ": "
+                 + ioe.toString());
+      }
+    }
+
     private Data parseXML (Object input)
     {
       if (input == null) {
@@ -545,243 +766,244 @@ public class WeatherService extends TimeslotPhaseProcessor implements
     }
   }
 
-  private class WeatherXmlExtractor
+  /**
+   * A weather source read once from a file, from which the requester takes
+   * the Data for one request at a time
+   */
+  private interface WeatherTable
   {
     /**
-     * This class extracts a part of a weather-xml, which contacins the weather
-     * for the complete duration of the simulation.
-     * It returns 24 reports and 24 * 24 forecasts
+     * Returns the reports and forecasts for the weatherReqInterval hours
+     * starting at requestDate, or null if the source does not have them
      */
-    private NodeList nodeListRead = null;
-    private Document documentWrite;
-    private Element weatherReports;
-    private Element weatherForecasts;
+    Data slice (DateTime requestDate);
+  }
 
-    public WeatherXmlExtractor (String fileName)
-    {
-      try {
-        DocumentBuilderFactory docBuilderFactory = DocumentBuilderFactory
-            .newInstance();
-        DocumentBuilder docBuilderRead = docBuilderFactory.newDocumentBuilder();
-        Document documentRead = docBuilderRead.parse(new File(fileName));
-        Node rootNode = documentRead.getDocumentElement();
-        nodeListRead = rootNode.getChildNodes();
+  // One weather report or forecast prediction, as read from a source
+  private static class WeatherRow
+  {
+    private int id;
+    private double temp;
+    private double wind;
+    private double dir;
+    private double cloud;
 
-        // Output document
-        DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder docBuilderWrite = docFactory.newDocumentBuilder();
-        documentWrite = docBuilderWrite.newDocument();
-        documentWrite.setXmlStandalone(true);
-        Element rootElement = documentWrite.createElement("data");
-        documentWrite.appendChild(rootElement);
+    WeatherRow (int id, double temp, double wind, double dir, double cloud)
+    {
+      super();
+      this.id = id;
+      this.temp = temp;
+      this.wind = wind;
+      this.dir = dir;
+      this.cloud = cloud;
+    }
 
-        // weatherReports and weatherForecasts elements
-        weatherReports = documentWrite.createElement("weatherReports");
-        rootElement.appendChild(weatherReports);
-        weatherForecasts = documentWrite.createElement("weatherForecasts");
-        rootElement.appendChild(weatherForecasts);
-      }
-      catch (Exception ignored) {
-      }
+    WeatherReport toReport (int timeIndex)
+    {
+      return new WeatherReport(timeIndex, temp, wind, dir, cloud);
     }
 
-    private String extractPartialXml (DateTime requestDate)
+    WeatherForecastPrediction toPrediction ()
     {
-      if (nodeListRead == null) {
-        return null;
-      }
+      return new WeatherForecastPrediction(id, temp, wind, dir, cloud);
+    }
+  }
 
-      try {
-        // Find 24 weatherReport starting at startDate
-        for (int i = 0; i < nodeListRead.getLength(); i++) {
-          Node currentNode = nodeListRead.item(i);
+  /**
+   * Weather from an xml file, which contains the weather for the complete
+   * duration of the simulation. The file is streamed once, keeping the
+   * reports in date order and the forecasts by origin, and each request
+   * takes $weatherReqInterval reports starting at the request date and
+   * the forecasts that originate in those hours.
+   */
+  private class WeatherXmlTable implements WeatherTable
+  {
+    private String[] reportDates;
+    private WeatherRow[] reports;
+    private HashMap<String, List<WeatherRow>> forecasts = new HashMap<>();
 
-          if (!currentNode.getNodeName().equals("weatherReports")) {
+    public WeatherXmlTable (String fileName) throws Exception
+    {
+      TreeMap<String, List<WeatherRow>> byDate = new TreeMap<>();
+      int count = 0;
+      try (InputStream in =
+               new BufferedInputStream(new FileInputStream(fileName))) {
+        XMLStreamReader reader =
+            XMLInputFactory.newInstance().createXMLStreamReader(in);
+        while (reader.hasNext()) {
+          if (reader.next() != XMLStreamConstants.START_ELEMENT) {
             continue;
           }
-
-          NodeList nodeListReports = currentNode.getChildNodes();
-          findReports(nodeListReports, dateStringLong(requestDate));
-        }
-
-        // Find all weatherForecasts belonging to the 24 reports
-        for (int i = 0; i < weatherReqInterval; i++) {
-          for (int j = 0; j < nodeListRead.getLength(); j++) {
-            Node currentNode = nodeListRead.item(j);
-
-            if (!currentNode.getNodeName().equals("weatherForecasts")) {
-              continue;
-            }
-
-            String origin = dateStringLong(requestDate.plusHours(i));
-            NodeList nodes = currentNode.getChildNodes();
-            findForecasts(nodes, origin);
+          String name = reader.getLocalName();
+          if (name.equals("weatherReport")) {
+            byDate.computeIfAbsent(reader.getAttributeValue(null, "date"),
+                                   d -> new ArrayList<>())
+                .add(readRow(reader, 0));
+            count += 1;
+          }
+          else if (name.equals("weatherForecast")) {
+            int id = Integer.parseInt(reader.getAttributeValue(null, "id"));
+            forecasts.computeIfAbsent(reader.getAttributeValue(null, "origin"),
+                                      o -> new ArrayList<>())
+                .add(readRow(reader, id));
           }
         }
+        reader.close();
+      }
 
-        if (weatherReports.getChildNodes().getLength() != weatherReqInterval ||
-            weatherForecasts.getChildNodes().getLength() !=
-                weatherReqInterval * forecastHorizon) {
-          return null;
+      // reports in date order, keeping file order within a date
+      reportDates = new String[count];
+      reports = new WeatherRow[count];
+      int index = 0;
+      for (Map.Entry<String, List<WeatherRow>> entry : byDate.entrySet()) {
+        for (WeatherRow row : entry.getValue()) {
+          reportDates[index] = entry.getKey();
+          reports[index++] = row;
         }
-
-        TransformerFactory transFactory = TransformerFactory.newInstance();
-        Transformer transformer = transFactory.newTransformer();
-        transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-        StringWriter buffer = new StringWriter();
-        transformer.transform(new DOMSource(documentWrite), new StreamResult(buffer));
-
-        return buffer.toString();
-      }
-      catch (Exception e) {
-        e.printStackTrace();
       }
-      return null;
+      log.info("Read " + count + " weather reports and forecasts for "
+               + forecasts.size() + " hours from " + fileName);
     }
 
-    private void findReports (NodeList nodes, String startDate)
+    private WeatherRow readRow (XMLStreamReader reader, int id)
     {
-      // Find reports starting at startDate, copy 24 reports to output document
-      for (int j = 0; j < nodes.getLength(); j++) {
-        Node report = nodes.item(j);
-        if (!report.getNodeName().equals("weatherReport")) {
-          continue;
-        }
-
-        // TODO We shouldn't assume the reports are ordered on date
-        String date = ((Element) report).getAttribute("date");
-        if (date.compareTo(startDate) < 0) {
-          continue;
-        }
-
-        Node temp = documentWrite.importNode(report, true);
-        weatherReports.appendChild(temp);
-
-        if (weatherReports.getChildNodes().getLength() == weatherReqInterval) {
-          break;
-        }
-      }
+      return new WeatherRow(id,
+          Double.parseDouble(reader.getAttributeValue(null, "temp")),
+          Double.parseDouble(reader.getAttributeValue(null, "windspeed")),
+          Double.parseDouble(reader.getAttributeValue(null, "winddir")),
+          Double.parseDouble(reader.getAttributeValue(null, "cloudcover")));
     }
 
-    private void findForecasts (NodeList nodes, String target)
+    @Override
+    public Data slice (DateTime requestDate)
     {
-      // Find all forecasts belonging to a report-date, copy to output document
-      for (int i = 0; i < nodes.getLength(); i++) {
-        Node forecast = nodes.item(i);
+      // first report at or after the request date
+      String startDate = dateStringLong(requestDate);
+      int low = 0;
+      int high = reportDates.length;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (reportDates[mid].compareTo(startDate) < 0)
+          low = mid + 1;
+        else
+          high = mid;
+      }
+      if (reports.length - low < weatherReqInterval) {
+        return null;
+      }
 
-        if (!forecast.getNodeName().equals("weatherForecast")) {
+      Data data = new Data();
+      int timeIndex = getTimeIndex(requestDate);
+      for (int i = 0; i < weatherReqInterval; i++) {
+        data.getWeatherReports().add(reports[low + i].toReport(timeIndex++));
+      }
+      for (int i = 0; i < weatherReqInterval; i++) {
+        List<WeatherRow> rows =
+            forecasts.get(dateStringLong(requestDate.plusHours(i)));
+        if (rows == null) {
           continue;
         }
-
-        String origin = ((Element) forecast).getAttribute("origin");
-        if (!origin.equals(target)) {
-          continue;
+        for (WeatherRow row : rows) {
+          data.getWeatherForecasts().add(row.toPrediction());
         }
-
-        Node temp = documentWrite.importNode(forecast, true);
-        weatherForecasts.appendChild(temp);
       }
+      if (data.getWeatherForecasts().size() !=
+          weatherReqInterval * forecastHorizon) {
+        return null;
+      }
+      return data;
     }
   }
 
   /**
-   * This class extracts a part of a state file (or URL).
-   * It returns $weatherReqInterval reports
-   * and $weatherReqInterval forecasts, each with $forecastHorizon predictions
+   * Weather from a state file (or URL). The state log is read once, keeping
+   * its weather reports and forecast predictions in log order, with an index
+   * from timeslot to the first report for that timeslot. Each request takes
+   * $weatherReqInterval reports, and $weatherReqInterval forecasts, each with
+   * $forecastHorizon predictions, starting at the current timeslot.
    */
-  private class StateFileExtractor
+  private class StateFileTable implements WeatherTable
   {
-    private URL weatherSource = null;
     private String report = "org.powertac.common.WeatherReport";
     private String forecast = "org.powertac.common.WeatherForecastPrediction";
 
-    public StateFileExtractor (String weatherData)
-    {
-      try {
-        String urlName = weatherData;
-        if (!urlName.contains(":")) {
-          urlName = "file:" + urlName;
-        }
-        weatherSource = new URL(urlName);
-      }
-      catch (Exception ignored) {
-      }
-    }
+    // reports and predictions in log order; a report's id is its timeslot
+    private ArrayList<WeatherRow> rows = new ArrayList<>();
+    private BitSet isReport = new BitSet();
+    private HashMap<Integer, Integer> firstReport = new HashMap<>();
 
-    public Data extractData ()
+    public StateFileTable (String weatherData) throws Exception
     {
-      int startIndex = timeslotRepo.currentSerialNumber();
-      if (weatherSource == null) {
-        return null;
+      String urlName = weatherData;
+      if (!urlName.contains(":")) {
+        urlName = "file:" + urlName;
       }
+      URL weatherSource = new URL(urlName);
 
-      BufferedReader br = null;
-      try {
-        Data data = new Data();
-        br = new BufferedReader(
-            new InputStreamReader(weatherSource.openStream()));
-
+      try (BufferedReader br = new BufferedReader(
+          new InputStreamReader(weatherSource.openStream()))) {
         String line;
-        boolean inRange = false;
-        int timeIndex = startIndex;
         while ((line = br.readLine()) != null) {
-          if (!line.contains(report) && !line.contains(forecast)) {
+          boolean reportLine = line.contains(report);
+          if (!reportLine && !line.contains(forecast)) {
             continue;
           }
-
           String[] temp = line.split("::");
-
-          if (line.contains(report)) {
-            int stamp = Integer.parseInt(temp[3]);
-            if (stamp < startIndex) {
-              continue;
-            }
-            else if (stamp >= startIndex + weatherReqInterval) {
-              // should not get here...
-              log.error("Forecast underflow: "
-                  + data.getWeatherForecasts().size());
-              break;
-            }
-            inRange = true;
-
-            data.getWeatherReports().add(
-                new WeatherReport(
-                    timeIndex,
-                    Double.parseDouble(temp[4]), Double.parseDouble(temp[5]),
-                    Double.parseDouble(temp[6]), Double.parseDouble(temp[7])));
-
-            timeIndex += 1;
-          }
-          else if (inRange && line.contains(forecast)) {
-            data.getWeatherForecasts().add(
-                new WeatherForecastPrediction(
-                    Integer.parseInt(temp[3]),
-                    Double.parseDouble(temp[4]), Double.parseDouble(temp[5]),
-                    Double.parseDouble(temp[6]), Double.parseDouble(temp[7])));
-          }
-
-          if (data.getWeatherForecasts().size() ==
-              weatherReqInterval * forecastHorizon) {
-            break;
+          int id = Integer.parseInt(temp[3]);
+          if (reportLine) {
+            isReport.set(rows.size());
+            firstReport.putIfAbsent(id, rows.size());
           }
+          rows.add(new WeatherRow(id,
+              Double.parseDouble(temp[4]), Double.parseDouble(temp[5]),
+              Double.parseDouble(temp[6]), Double.parseDouble(temp[7])));
         }
-
-        return data;
       }
-      catch (Exception e) {
-        e.printStackTrace();
-        return null;
+      log.info("Read " + firstReport.size() + " timeslots of weather from "
+               + weatherData);
+    }
+
+    @Override
+    public Data slice (DateTime requestDate)
+    {
+      int startIndex = timeslotRepo.currentSerialNumber();
+      Data data = new Data();
+
+      // start at the first report in range
+      int start = rows.size();
+      for (int slot = startIndex; slot < startIndex + weatherReqInterval; slot++) {
+        Integer position = firstReport.get(slot);
+        if (position != null && position < start) {
+          start = position;
+        }
       }
-      finally {
-        try {
-          if (br != null) {
-            br.close();
+
+      int timeIndex = startIndex;
+      for (int i = start; i < rows.size(); i++) {
+        WeatherRow row = rows.get(i);
+        if (isReport.get(i)) {
+          if (row.id < startIndex) {
+            continue;
           }
+          else if (row.id >= startIndex + weatherReqInterval) {
+            // should not get here...
+            log.error("Forecast underflow: "
+                + data.getWeatherForecasts().size());
+            break;
+          }
+          data.getWeatherReports().add(row.toReport(timeIndex));
+          timeIndex += 1;
+        }
+        else {
+          data.getWeatherForecasts().add(row.toPrediction());
         }
-        catch (IOException ex) {
-          ex.printStackTrace();
+
+        if (data.getWeatherForecasts().size() ==
+            weatherReqInterval * forecastHorizon) {
+          break;
         }
       }
+      return data;
     }
   }
 }
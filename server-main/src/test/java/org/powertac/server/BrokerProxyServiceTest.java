@@ -5,16 +5,19 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.powertac.common.Broker;
 import org.powertac.common.CustomerInfo;
 import org.powertac.common.XMLMessageConverter;
 import org.powertac.common.interfaces.BrokerProxy;
 import org.powertac.common.interfaces.VisualizerProxy;
+import org.powertac.common.repo.BrokerRepo;
 import org.springframework.jms.core.JmsTemplate;
 import org.springframework.jms.core.MessageCreator;
 import org.springframework.test.util.ReflectionTestUtils;
@@ -33,6 +36,7 @@ public class BrokerProxyServiceTest
   private VisualizerProxy visualizer;
   private JmsTemplate template;
   private XMLMessageConverter converter;
+  private BrokerRepo brokerRepo;
 
   @BeforeEach
   public void setUp() throws Exception 
@@ -52,6 +56,8 @@ public class BrokerProxyServiceTest
     ReflectionTestUtils.setField(brokerProxy, "visualizerProxyService", visualizer);    
     converter = mock(XMLMessageConverter.class);
     ReflectionTestUtils.setField(brokerProxy, "converter", converter);     
+    brokerRepo = mock(BrokerRepo.class);
+    ReflectionTestUtils.setField(brokerProxy, "brokerRepo", brokerRepo);
   }
 
   @AfterEach
@@ -122,6 +128,58 @@ public class BrokerProxyServiceTest
     verify(visualizer, times(1)).forwardMessage(message);
   }
   
+  @Test
+  public void broadcastSerializesOnce ()
+  {
+    TestBroker b1 = new TestBroker("b1", false, false);
+    TestBroker b2 = new TestBroker("b2", false, false);
+    TestBroker b3 = new TestBroker("b3", false, false);
+    b1.setEnabled(true);
+    b3.setEnabled(true);
+    localBroker.setEnabled(true);
+    when(brokerRepo.list())
+        .thenReturn(Arrays.asList(b1, b2, localBroker, b3));
+    when(converter.toXML(message)).thenReturn("<customer-info/>");
+    brokerProxy.broadcastMessage(message);
+    verify(converter, times(1)).toXML(message);
+    ArgumentCaptor<String> queues = ArgumentCaptor.forClass(String.class);
+    verify(template, times(2)).send(queues.capture(),
+                                    any(MessageCreator.class));
+    assertEquals(Arrays.asList(b1.toQueueName(), b3.toQueueName()),
+                 queues.getAllValues());
+    assertEquals(1, localBroker.messages.size(), "local broker gets message");
+    verify(visualizer, times(1)).forwardMessage(message);
+  }
+
+  @Test
+  public void broadcastComposite ()
+  {
+    TestBroker b1 = new TestBroker("b1", false, false);
+    TestBroker b2 = new TestBroker("b2", false, false);
+    b1.setEnabled(true);
+    b2.setEnabled(true);
+    when(brokerRepo.list()).thenReturn(Arrays.asList(b1, b2));
+    when(converter.toXML(message)).thenReturn("<customer-info/>");
+    ((BrokerProxyService) brokerProxy).setCompositeBroadcast(true);
+    brokerProxy.broadcastMessage(message);
+    verify(converter, times(1)).toXML(message);
+    verify(template, times(1)).send(eq(b1.toQueueName() + ","
+                                       + b2.toQueueName()),
+                                    any(MessageCreator.class));
+  }
+
+  @Test
+  public void broadcastNoRemote ()
+  {
+    localBroker.setEnabled(true);
+    when(brokerRepo.list()).thenReturn(Arrays.asList(stdBroker, localBroker));
+    brokerProxy.broadcastMessage(message);
+    verify(converter, times(0)).toXML(any());
+    verify(template, times(0)).send(any(String.class),
+                                    any(MessageCreator.class));
+    assertEquals(1, localBroker.messages.size());
+  }
+
   // Broker that collects the messages it receives
   class TestBroker extends Broker
   {
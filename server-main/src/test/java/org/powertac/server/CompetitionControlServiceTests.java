@@ -8,6 +8,9 @@ import java.io.CharArrayWriter;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
@@ -22,16 +25,20 @@ import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.powertac.common.Broker;
 import org.powertac.common.CustomerInfo;
 import org.powertac.common.enumerations.PowerType;
 import org.powertac.common.interfaces.BootstrapDataCollector;
+import org.powertac.common.interfaces.TimeslotPhaseProcessor;
 import org.powertac.common.msg.CustomerBootstrapData;
+import org.powertac.common.repo.BrokerRepo;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.TestExecutionListeners;
 import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
 import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
 import org.springframework.test.context.support.DirtiesContextTestExecutionListener;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.w3c.dom.NodeList;
 import org.xml.sax.InputSource;
 
@@ -153,4 +160,126 @@ public class CompetitionControlServiceTests
     assertEquals(2, names.indexOf("Sally"), "Sally first");
     assertEquals(3, names.indexOf("Jenny"), "Jenny second");
   }
+
+  @Test
+  public void unthrottledClockGate ()
+  {
+    CompetitionControlService ccs = new CompetitionControlService();
+    BrokerRepo repo = new BrokerRepo();
+    ReflectionTestUtils.setField(ccs, "brokerRepo", repo);
+    repo.add(new Broker("buyer", true, true));
+    ReflectionTestUtils.setField(ccs, "bootstrapMode", true);
+    assertFalse(ccs.useUnthrottledClock(), "off unless configured");
+
+    ReflectionTestUtils.setField(ccs, "unthrottledClock", true);
+    assertTrue(ccs.useUnthrottledClock(), "bootstrap");
+    ReflectionTestUtils.setField(ccs, "bootstrapMode", false);
+    assertTrue(ccs.useUnthrottledClock(), "sim, all brokers local");
+    repo.add(new Broker("Sally"));
+    assertFalse(ccs.useUnthrottledClock(), "sim, remote broker");
+    ReflectionTestUtils.setField(ccs, "bootstrapMode", true);
+    assertTrue(ccs.useUnthrottledClock(), "bootstrap, remote broker");
+  }
+
+  // Records its activation; an independent one waits until the others
+  // in its group have started, so it only finishes if they run together
+  private class Recorder extends TimeslotPhaseProcessor
+  {
+    final String name;
+    final List<String> record;
+    final CountDownLatch together;
+    String threadName;
+    boolean daemon;
+
+    Recorder (String name, List<String> record, CountDownLatch together)
+    {
+      super();
+      this.name = name;
+      this.record = record;
+      this.together = together;
+      setPhaseIndependent(null != together);
+    }
+
+    @Override
+    public void activate (Instant time, int phaseNumber)
+    {
+      threadName = Thread.currentThread().getName();
+      daemon = Thread.currentThread().isDaemon();
+      if (null != together) {
+        together.countDown();
+        try {
+          if (!together.await(5, TimeUnit.SECONDS))
+            throw new IllegalStateException(name + " ran alone");
+        }
+        catch (InterruptedException ie) {
+          throw new IllegalStateException(name + " interrupted");
+        }
+      }
+      record.add(name);
+    }
+  }
+
+  @Test
+  public void parallelPhase ()
+  {
+    CompetitionControlService ccs = new CompetitionControlService();
+    ReflectionTestUtils.setField(ccs, "parallelPhaseThreads", 2);
+    ccs.startPhaseExecutor();
+    try {
+      List<String> record = Collections.synchronizedList(new ArrayList<>());
+      CountDownLatch first = new CountDownLatch(2);
+      CountDownLatch second = new CountDownLatch(2);
+      Recorder a = new Recorder("a", record, first);
+      Recorder b = new Recorder("b", record, first);
+      Recorder c = new Recorder("c", record, null);
+      Recorder d = new Recorder("d", record, second);
+      Recorder e = new Recorder("e", record, second);
+      ccs.activatePhase(Arrays.asList(a, b, c, d, e), new Instant(0), 1);
+
+      assertEquals(5, record.size(), "all activated");
+      // c waits for a and b; d and e wait for c
+      assertEquals("c", record.get(2), "dependent processor in order");
+      assertTrue(record.subList(0, 2).containsAll(Arrays.asList("a", "b")),
+                 "a and b before c");
+      assertTrue(record.subList(3, 5).containsAll(Arrays.asList("d", "e")),
+                 "d and e after c");
+      assertEquals(Thread.currentThread().getName(), c.threadName,
+                   "dependent processor on the sim thread");
+      assertTrue(a.threadName.startsWith("phase-worker-"), "named worker");
+      assertTrue(a.daemon, "daemon worker");
+    }
+    finally {
+      ccs.stopPhaseExecutor();
+    }
+  }
+
+  @Test
+  public void parallelPhaseFailure ()
+  {
+    CompetitionControlService ccs = new CompetitionControlService();
+    ReflectionTestUtils.setField(ccs, "parallelPhaseThreads", 2);
+    ccs.startPhaseExecutor();
+    try {
+      List<String> record = Collections.synchronizedList(new ArrayList<>());
+      Recorder a = new Recorder("a", record, new CountDownLatch(1)) {
+        @Override
+        public void activate (Instant time, int phaseNumber)
+        {
+          throw new IllegalArgumentException("a failed");
+        }
+      };
+      Recorder b = new Recorder("b", record, new CountDownLatch(1));
+      Recorder c = new Recorder("c", record, null);
+      IllegalArgumentException failure =
+          assertThrows(IllegalArgumentException.class,
+                       () -> ccs.activatePhase(Arrays.asList(a, b, c),
+                                               new Instant(0), 1));
+      assertEquals("a failed", failure.getMessage(), "thrown on sim thread");
+      assertEquals(Arrays.asList("b"), record,
+                   "others in the group finish, later ones do not run");
+    }
+    finally {
+      ccs.stopPhaseExecutor();
+    }
+  }
 }
@@ -0,0 +1,125 @@
+package org.powertac.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.powertac.common.Competition;
+import org.powertac.common.XMLMessageConverter;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class CompetitionSetupServiceTest
+{
+  private CompetitionSetupService css;
+  private XMLMessageConverter converter;
+  private Competition competition;
+  private Properties bootState;
+  private List<String> converted;
+
+  @TempDir
+  File tempDir;
+
+  @BeforeEach
+  public void setUp ()
+  {
+    css = new CompetitionSetupService();
+    competition = Competition.newInstance("boot-test");
+    bootState = new Properties();
+    converted = new ArrayList<>();
+    // the converter just records what it's given
+    converter = mock(XMLMessageConverter.class);
+    when(converter.fromXML(anyString())).thenAnswer(invocation -> {
+      String xml = invocation.getArgument(0);
+      converted.add(xml);
+      if (xml.startsWith("<competition"))
+        return competition;
+      if (xml.startsWith("<properties"))
+        return bootState;
+      return xml;
+    });
+    ReflectionTestUtils.setField(css, "messageConverter", converter);
+  }
+
+  private File bootFile (String content) throws Exception
+  {
+    File file = new File(tempDir, "boot.xml");
+    Files.writeString(file.toPath(), content);
+    return file;
+  }
+
+  @Test
+  public void readBootRecord () throws Exception
+  {
+    File file = bootFile("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+        + "<powertac-bootstrap-data>\n"
+        + "<config>\n"
+        + "<competition id=\"1\"><name>game-0</name>"
+        + "<customers><customer-info id=\"2\" name=\"a&amp;b\"/></customers>"
+        + "</competition>\n"
+        + "</config>\n"
+        + "<bootstrap-state>\n"
+        + "<properties><property name=\"x\" value=\"1\"/></properties>\n"
+        + "</bootstrap-state>\n"
+        + "<bootstrap>\n"
+        + "<customer-bootstrap-data id=\"5\">"
+        + "<netUsage>1.0,2.0</netUsage></customer-bootstrap-data>\n"
+        + "<!-- comment -->\n"
+        + "<market-bootstrap-data id=\"6\" x=\"&lt;\">"
+        + "<mwh>3</mwh></market-bootstrap-data>\n"
+        + "</bootstrap>\n"
+        + "</powertac-bootstrap-data>\n");
+    CompetitionSetupService.BootRecord record =
+        css.readBootRecord(file.toURI().toURL());
+    assertNotNull(record);
+    assertSame(competition, record.competition);
+    assertSame(bootState, record.bootState);
+    assertEquals(2, record.dataset.size());
+
+    // each item is converted once, in file order, with its markup intact
+    assertEquals(4, converted.size());
+    assertEquals("<competition id=\"1\"><name>game-0</name>"
+                 + "<customers><customer-info id=\"2\" name=\"a&amp;b\">"
+                 + "</customer-info></customers></competition>",
+                 converted.get(0));
+    assertEquals("<properties><property name=\"x\" value=\"1\"></property>"
+                 + "</properties>", converted.get(1));
+    assertEquals("<customer-bootstrap-data id=\"5\">"
+                 + "<netUsage>1.0,2.0</netUsage></customer-bootstrap-data>",
+                 record.dataset.get(0));
+    assertEquals("<market-bootstrap-data id=\"6\" x=\"&lt;\">"
+                 + "<mwh>3</mwh></market-bootstrap-data>",
+                 record.dataset.get(1));
+  }
+
+  @Test
+  public void noBootstrapState () throws Exception
+  {
+    File file = bootFile("<powertac-bootstrap-data>"
+        + "<config><competition id=\"1\"/></config>"
+        + "<bootstrap><item id=\"3\"/></bootstrap>"
+        + "</powertac-bootstrap-data>");
+    CompetitionSetupService.BootRecord record =
+        css.readBootRecord(file.toURI().toURL());
+    assertSame(competition, record.competition);
+    assertNull(record.bootState);
+    assertEquals(1, record.dataset.size());
+  }
+
+  @Test
+  public void badBootRecord () throws Exception
+  {
+    File file = bootFile("<powertac-bootstrap-data><config>");
+    assertNull(css.readBootRecord(file.toURI().toURL()));
+    assertNull(css.readBootRecord(new File(tempDir, "missing.xml")
+                                  .toURI().toURL()));
+  }
+}
@@ -21,9 +21,14 @@ import static org.junit.jupiter.api.Assertions.*;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
+import java.util.HashSet;
+import java.util.concurrent.CountDownLatch;
 
+import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.SimpleMessage;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
@@ -157,4 +162,111 @@ public class LogServiceTests
     
     logService.stopLog();
   }
+
+  // write the state log asynchronously, check that stopLog writes it all
+  @Test
+  public void asyncLogging ()
+  {
+    logService.setPrefix("test");
+    int capacity = logService.getAsyncCapacity();
+    AsyncLogWriter stateWriter;
+    try {
+      logService.setAsync(true);
+      logService.setAsyncCapacity(16);
+      logService.startLog("44");
+      assertEquals(2, logService.getWriters().size(), "state and trace writers");
+      stateWriter = logService.getWriters().get(0);
+
+      for (int i = 0; i < 1000; i++) {
+        stateLog.info("async-state-" + i);
+      }
+      log.info("start sim 44");
+    }
+    finally {
+      logService.stopLog();
+      logService.setAsync(false);
+      logService.setAsyncCapacity(capacity);
+    }
+    assertEquals(1000, stateWriter.getEventCount(), "all events written");
+    assertTrue(stateWriter.getMaxDepth() <= 16, "depth within capacity");
+    assertTrue(stateWriter.getBatchCount() <= 1000, "batched");
+    
+    File stateFile = new File("log/test-44.state");
+    try {
+      BufferedReader stateReader = new BufferedReader(new FileReader(stateFile));
+      for (int i = 0; i < 1000; i++) {
+        String line = stateReader.readLine();
+        assertNotNull(line, "line " + i + " in file");
+        assertEquals("async-state-" + i, line.split(":")[1], "in order");
+      }
+      assertNull(stateReader.readLine(), "no more lines");
+      stateReader.close();
+    }
+    catch (Exception e) {
+      fail(e.toString());
+    }
+  }
+
+  // stop the writer while other threads are logging; nothing is lost
+  @Test
+  public void asyncStopWhileLogging () throws InterruptedException
+  {
+    logService.setPrefix("test");
+    int capacity = logService.getAsyncCapacity();
+    int threads = 4;
+    int events = 2000;
+    AsyncLogWriter stateWriter;
+    try {
+      logService.setAsync(true);
+      logService.setAsyncCapacity(8);
+      logService.startLog("45");
+      stateWriter = logService.getWriters().get(0);
+
+      CountDownLatch started = new CountDownLatch(threads);
+      Thread[] producers = new Thread[threads];
+      for (int t = 0; t < threads; t++) {
+        final int id = t;
+        producers[t] = new Thread(() -> {
+          started.countDown();
+          for (int i = 0; i < events; i++) {
+            stateWriter.append(Log4jLogEvent.newBuilder()
+                               .setLoggerName("State")
+                               .setLevel(Level.INFO)
+                               .setMessage(new SimpleMessage("race-" + id
+                                                             + "-" + i))
+                               .build());
+          }
+        });
+        producers[t].start();
+      }
+      started.await();
+      stateWriter.drain();
+      for (Thread producer : producers) {
+        producer.join();
+      }
+    }
+    finally {
+      logService.stopLog();
+      logService.setAsync(false);
+      logService.setAsyncCapacity(capacity);
+    }
+
+    File stateFile = new File("log/test-45.state");
+    HashSet<String> seen = new HashSet<>();
+    int lines = 0;
+    try {
+      BufferedReader stateReader = new BufferedReader(new FileReader(stateFile));
+      String line;
+      while (null != (line = stateReader.readLine())) {
+        seen.add(line.split(":")[1]);
+        lines += 1;
+      }
+      stateReader.close();
+    }
+    catch (Exception e) {
+      fail(e.toString());
+    }
+    assertEquals(threads * events, lines, "every event written");
+    assertEquals(threads * events, seen.size(), "no duplicates");
+  }
 }
@@ -0,0 +1,177 @@
+package org.powertac.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.powertac.common.Broker;
+import org.powertac.common.Order;
+import org.powertac.common.TariffSpecification;
+import org.powertac.common.enumerations.PowerType;
+import org.powertac.common.msg.BalancingOrder;
+
+public class MessageRouterTest
+{
+  private MessageRouter router;
+  private Broker broker;
+  private Listener listener;
+
+  @BeforeEach
+  public void setUp ()
+  {
+    router = new MessageRouter();
+    broker = new Broker("Sally");
+    broker.setEnabled(true);
+    listener = new Listener();
+    router.registerBrokerMessageListener(listener, Order.class);
+    router.registerBrokerMessageListener(listener, TariffSpecification.class);
+    router.registerBrokerMessageListener(listener, BalancingOrder.class);
+  }
+
+  @Test
+  public void routeByClass ()
+  {
+    Order order = new Order(broker, 3, 10.0, -20.0);
+    TariffSpecification spec =
+        new TariffSpecification(broker, PowerType.CONSUMPTION);
+    BalancingOrder bo = new BalancingOrder(broker, spec, 0.5, 0.1);
+    assertTrue(router.route(order));
+    assertTrue(router.route(spec));
+    assertTrue(router.route(bo));
+    assertEquals(3, listener.messages.size());
+    assertSame(order, listener.messages.get(0));
+    assertSame(spec, listener.messages.get(1));
+    assertSame(bo, listener.messages.get(2));
+    assertEquals("order", listener.handlers.get(0));
+    assertEquals("spec", listener.handlers.get(1));
+    assertEquals("balancing", listener.handlers.get(2));
+  }
+
+  @Test
+  public void disabledBroker ()
+  {
+    broker.setEnabled(false);
+    assertFalse(router.route(new Order(broker, 3, 10.0, -20.0)));
+    assertEquals(0, listener.messages.size());
+  }
+
+  @Test
+  public void severalListeners ()
+  {
+    Listener other = new Listener();
+    router.registerBrokerMessageListener(other, Order.class);
+    // registering twice does not deliver twice
+    router.registerBrokerMessageListener(listener, Order.class);
+    assertTrue(router.route(new Order(broker, 3, 10.0, -20.0)));
+    assertEquals(1, listener.messages.size());
+    assertEquals(1, other.messages.size());
+    assertEquals(2, router.getRegistrations(new Order(broker, 4, 1.0, -1.0)).size());
+  }
+
+  @Test
+  public void noTargets ()
+  {
+    router.recycle();
+    assertFalse(router.route(new Order(broker, 3, 10.0, -20.0)));
+    assertEquals(0, listener.messages.size());
+  }
+
+  @Test
+  public void listenerFailure ()
+  {
+    Listener failing = new Listener();
+    failing.fail = true;
+    router.registerBrokerMessageListener(failing, Order.class);
+    // the failure is logged, other listeners still get the message
+    assertTrue(router.route(new Order(broker, 3, 10.0, -20.0)));
+    assertEquals(1, listener.messages.size());
+  }
+
+  @Test
+  public void routeBatch ()
+  {
+    BatchListener batched = new BatchListener();
+    router.registerBrokerMessageListener(batched, Order.class);
+    List<Order> orders = Arrays.asList(new Order(broker, 3, 10.0, -20.0),
+                                       new Order(broker, 4, 10.0, -20.0),
+                                       new Order(broker, 5, -10.0, 20.0));
+    assertTrue(router.routeBatch(broker, orders));
+    // one call for the batch listener, one per order for the other
+    assertEquals(1, batched.batches.size());
+    assertEquals(orders, batched.batches.get(0));
+    assertEquals(0, batched.singles.size());
+    assertEquals(orders, listener.messages);
+
+    broker.setEnabled(false);
+    assertFalse(router.routeBatch(broker, orders));
+    assertEquals(1, batched.batches.size());
+  }
+
+  @Test
+  public void batchHandlerForItsClassOnly ()
+  {
+    BatchListener batched = new BatchListener();
+    router.registerBrokerMessageListener(batched, TariffSpecification.class);
+    List<TariffSpecification> specs =
+        Arrays.asList(new TariffSpecification(broker, PowerType.CONSUMPTION),
+                      new TariffSpecification(broker, PowerType.PRODUCTION));
+    assertTrue(router.routeBatch(broker, specs));
+    // handleMessages(List<Order>) must not see the specs
+    assertEquals(0, batched.batches.size());
+    assertEquals(specs, batched.specs);
+    assertEquals(specs, listener.messages);
+  }
+
+  public static class BatchListener
+  {
+    List<List<Order>> batches = new ArrayList<>();
+    List<Order> singles = new ArrayList<>();
+    List<TariffSpecification> specs = new ArrayList<>();
+
+    public void handleMessage (Order msg)
+    {
+      singles.add(msg);
+    }
+
+    public void handleMessage (TariffSpecification msg)
+    {
+      specs.add(msg);
+    }
+
+    public void handleMessages (List<Order> msgs)
+    {
+      batches.add(msgs);
+    }
+  }
+
+  public static class Listener
+  {
+    List<Object> messages = new ArrayList<>();
+    List<String> handlers = new ArrayList<>();
+    boolean fail = false;
+
+    public void handleMessage (Order msg)
+    {
+      if (fail)
+        throw new IllegalStateException("failing listener");
+      messages.add(msg);
+      handlers.add("order");
+    }
+
+    public void handleMessage (TariffSpecification msg)
+    {
+      messages.add(msg);
+      handlers.add("spec");
+    }
+
+    public void handleMessage (BalancingOrder msg)
+    {
+      messages.add(msg);
+      handlers.add("balancing");
+    }
+  }
+}
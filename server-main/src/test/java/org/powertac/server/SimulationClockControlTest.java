@@ -0,0 +1,126 @@
+package org.powertac.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.powertac.common.TimeService;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.context.support.DirtiesContextTestExecutionListener;
+
+/**
+ * Tests for the unthrottled mode of SimulationClockControl. The Spring
+ * context is only needed for the configuration done by initialize().
+ */
+@SpringJUnitConfig(locations = {"classpath:cc-config.xml"})
+@DirtiesContext
+@TestExecutionListeners(listeners = {
+  DependencyInjectionTestExecutionListener.class,
+  DirtiesContextTestExecutionListener.class
+})
+public class SimulationClockControlTest
+{
+  private CompetitionControlService competitionControl;
+  private TimeService timeService;
+  private SimulationClockControl clock;
+  private long firstTickTime;
+
+  @BeforeEach
+  public void setUp ()
+  {
+    competitionControl = mock(CompetitionControlService.class);
+    timeService = new TimeService();
+    long base =
+        new DateTime(2009, 1, 1, 0, 0, 0, 0, DateTimeZone.UTC).getMillis();
+    timeService.setClockParameters(base, 720, TimeService.HOUR);
+    SimulationClockControl.initialize(competitionControl, timeService);
+    clock = SimulationClockControl.getInstance();
+    clock.setUnthrottled(true);
+    clock.setStart(System.currentTimeMillis() + TimeService.HOUR);
+    // setStart() leaves the clock one timeslot before the first tick
+    firstTickTime = timeService.getCurrentTime().getMillis() + TimeService.HOUR;
+  }
+
+  // Starts a thread that waits for tick n
+  private Thread waiter (int n)
+  {
+    Thread result = new Thread(() -> clock.waitForTick(n), "waiter-" + n);
+    result.setDaemon(true);
+    result.start();
+    return result;
+  }
+
+  @Test
+  public void completeReleasesNextTick () throws InterruptedException
+  {
+    clock.scheduleTick();
+    clock.waitForTick(0);
+    Thread next = waiter(1);
+    next.join(200);
+    assertTrue(next.isAlive(), "waits until tick 0 is complete");
+    long before = System.currentTimeMillis();
+    clock.complete();
+    next.join(2000);
+    assertFalse(next.isAlive(), "tick 1 released");
+    // the start time is an hour away; nothing waited for it
+    assertTrue(System.currentTimeMillis() - before < 2000, "no clock wait");
+    verify(competitionControl, never()).pause();
+  }
+
+  @Test
+  public void simTimeFollowsTicks ()
+  {
+    clock.scheduleTick();
+    for (int n = 0; n < 5; n++) {
+      clock.waitForTick(n);
+      assertEquals(firstTickTime + n * TimeService.HOUR,
+                   timeService.getCurrentTime().getMillis(),
+                   "time at tick " + n);
+      assertEquals(SimulationClockControl.Status.CLEAR, clock.getState(),
+                   "clear at tick " + n);
+      clock.complete();
+    }
+  }
+
+  @Test
+  public void pauseAndRelease () throws InterruptedException
+  {
+    clock.scheduleTick();
+    clock.waitForTick(0);
+    clock.requestPause();
+    clock.complete();
+    assertEquals(SimulationClockControl.Status.PAUSED, clock.getState(),
+                 "paused at completion");
+    verify(competitionControl).pause();
+
+    Thread next = waiter(1);
+    next.join(200);
+    assertTrue(next.isAlive(), "no tick while paused");
+    clock.releasePause();
+    next.join(2000);
+    assertFalse(next.isAlive(), "tick 1 released");
+    verify(competitionControl).resume(anyLong());
+    assertEquals(firstTickTime + TimeService.HOUR,
+                 timeService.getCurrentTime().getMillis(), "time at tick 1");
+  }
+
+  @Test
+  public void releaseBeforeCompletion ()
+  {
+    clock.scheduleTick();
+    clock.waitForTick(0);
+    clock.requestPause();
+    clock.releasePause();
+    clock.complete();
+    verify(competitionControl, never()).pause();
+    clock.waitForTick(1);
+    assertEquals(firstTickTime + TimeService.HOUR,
+                 timeService.getCurrentTime().getMillis(), "time at tick 1");
+  }
+}
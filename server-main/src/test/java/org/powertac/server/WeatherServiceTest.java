@@ -10,6 +10,7 @@ import org.joda.time.DateTimeZone;
 import org.joda.time.Instant;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
@@ -34,8 +35,20 @@ import org.springframework.test.context.support.DependencyInjectionTestExecution
 import org.springframework.test.context.support.DirtiesContextTestExecutionListener;
 import org.springframework.test.util.ReflectionTestUtils;
 
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 @SpringJUnitConfig(locations = { "classpath:weather-test-config.xml" })
@@ -289,4 +302,241 @@ public class WeatherServiceTest
     }
 
   }
+
+  // configures a small file source: 2-hour requests, 3-hour forecasts
+  private void useWeatherFile (File file)
+  {
+    TreeMap<String, String> map = new TreeMap<String, String>();
+    map.put("server.weatherService.weatherData", file.getPath());
+    map.put("server.weatherService.weatherReqInterval", "2");
+    map.put("server.weatherService.forecastHorizon", "3");
+    config.setConfiguration(new MapConfiguration(map));
+    weatherService.initialize(comp, new ArrayList<String>());
+  }
+
+  @Test
+  public void xmlFileData (@TempDir File dir) throws IOException
+  {
+    File file = new File(dir, "weather.xml");
+    try (PrintWriter out = new PrintWriter(new FileWriter(file))) {
+      out.println("<data>");
+      out.println("<weatherReports>");
+      // out of order, to check that reports are taken by date
+      for (int hour = 5; hour >= 0; hour--) {
+        out.printf("<weatherReport date=\"2010-04-01 %02d:00\" temp=\"%d.0\""
+                   + " windspeed=\"4.0\" winddir=\"250.0\" cloudcover=\"1.0\"/>%n",
+                   hour, hour);
+      }
+      out.println("</weatherReports>");
+      out.println("<weatherForecasts>");
+      for (int hour = 0; hour < 6; hour++) {
+        for (int id = 1; id <= 3; id++) {
+          out.printf("<weatherForecast origin=\"2010-04-01 %02d:00\" id=\"%d\""
+                     + " temp=\"%d.5\" windspeed=\"4.0\" winddir=\"250.0\""
+                     + " cloudcover=\"1.0\"/>%n", hour, id, hour);
+        }
+      }
+      out.println("</weatherForecasts>");
+      out.println("</data>");
+    }
+    useWeatherFile(file);
+
+    weatherService.activate(start, 1);
+    assertEquals(2, weatherReportRepo.count());
+    assertEquals(2, weatherForecastRepo.count());
+    assertEquals(0.0, weatherReportRepo.currentWeatherReport().getTemperature(), 1e-6);
+    assertEquals(3, weatherForecastRepo.currentWeatherForecast().getPredictions().size());
+    assertEquals(0.5, weatherForecastRepo.currentWeatherForecast()
+                 .getPredictions().get(0).getTemperature(), 1e-6);
+
+    // the next request comes from the same table
+    Instant later = start.plus(2 * TimeService.HOUR);
+    timeService.setCurrentTime(later);
+    weatherService.activate(later, 1);
+    assertEquals(4, weatherReportRepo.count());
+    assertEquals(2.0, weatherReportRepo.currentWeatherReport().getTemperature(), 1e-6);
+    assertEquals(2.5, weatherForecastRepo.currentWeatherForecast()
+                 .getPredictions().get(0).getTemperature(), 1e-6);
+  }
+
+  @Test
+  public void stateFileData (@TempDir File dir) throws IOException
+  {
+    File file = new File(dir, "weather.state");
+    try (PrintWriter out = new PrintWriter(new FileWriter(file))) {
+      int id = 100;
+      for (int slot = 0; slot < 4; slot++) {
+        out.printf("%d:org.powertac.common.WeatherReport::%d::new::%d::%d.0::4.0::250.0::1.0%n",
+                   slot, id++, slot, slot);
+        out.printf("%d:org.powertac.common.Broker::1::setEnabled::true%n", slot);
+        for (int hour = 1; hour <= 3; hour++) {
+          out.printf("%d:org.powertac.common.WeatherForecastPrediction::%d::new::%d::%d.5::4.0::250.0::1.0%n",
+                     slot, id++, hour, slot);
+        }
+      }
+    }
+    useWeatherFile(file);
+
+    weatherService.activate(start, 1);
+    assertEquals(2, weatherReportRepo.count());
+    assertEquals(2, weatherForecastRepo.count());
+    assertEquals(0.0, weatherReportRepo.currentWeatherReport().getTemperature(), 1e-6);
+
+    Instant later = start.plus(2 * TimeService.HOUR);
+    timeService.setCurrentTime(later);
+    weatherService.activate(later, 1);
+    assertEquals(4, weatherReportRepo.count());
+    assertEquals(2.0, weatherReportRepo.currentWeatherReport().getTemperature(), 1e-6);
+    List<WeatherForecastPrediction> predictions =
+        weatherForecastRepo.currentWeatherForecast().getPredictions();
+    assertEquals(3, predictions.size());
+    assertEquals(3, predictions.get(2).getForecastTime());
+    assertEquals(2.5, predictions.get(2).getTemperature(), 1e-6);
+  }
+
+  // a day of weather, as the weather server sends it
+  private String weatherXml ()
+  {
+    StringBuilder xml = new StringBuilder("<data>\n<weatherReports>\n");
+    for (int hour = 0; hour < 24; hour++) {
+      xml.append("<weatherReport temp=\"" + hour + ".0\" windspeed=\"4.0\""
+                 + " winddir=\"250.0\" cloudcover=\"1.0\"/>\n");
+    }
+    xml.append("</weatherReports>\n<weatherForecasts>\n");
+    for (int hour = 0; hour < 24; hour++) {
+      for (int id = 1; id <= 24; id++) {
+        xml.append("<weatherForecast id=\"" + id + "\" temp=\"" + hour
+                   + ".5\" windspeed=\"4.0\" winddir=\"250.0\""
+                   + " cloudcover=\"1.0\"/>\n");
+      }
+    }
+    xml.append("</weatherForecasts>\n</data>\n");
+    return xml.toString();
+  }
+
+  @Test
+  public void prefetchFromServer (@TempDir File dir) throws Exception
+  {
+    // local stand-in for the weather server
+    AtomicInteger requests = new AtomicInteger();
+    byte[] body = weatherXml().getBytes(StandardCharsets.UTF_8);
+    HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/weather", exchange -> {
+      requests.incrementAndGet();
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    });
+    server.start();
+    try {
+      TreeMap<String, String> map = new TreeMap<String, String>();
+      map.put("server.weatherService.serverUrl",
+              "http://localhost:" + server.getAddress().getPort() + "/weather");
+      map.put("server.weatherService.blocking", "false");
+      map.put("server.weatherService.daysAhead", "3");
+      map.put("server.weatherService.cacheDir", dir.getPath());
+      config.setConfiguration(new MapConfiguration(map));
+
+      // the first day is there when initialize() returns
+      weatherService.initialize(comp, new ArrayList<String>());
+      assertTrue(weatherReportRepo.count() >= 24, "first day fetched");
+
+      // the next day was fetched ahead, and the window moves on
+      Instant day1 = start.plus(24 * TimeService.HOUR);
+      timeService.setCurrentTime(day1);
+      weatherService.activate(day1, 1);
+      assertTrue(weatherReportRepo.count() >= 48, "second day fetched");
+      FilenameFilter cached = (d, name) -> name.endsWith(".xml");
+      long deadline = System.currentTimeMillis() + 10000;
+      while (dir.list(cached).length < 4
+             && System.currentTimeMillis() < deadline) {
+        Thread.sleep(20);
+      }
+      assertEquals(4, dir.list(cached).length, "four days cached");
+      assertEquals(4, requests.get(), "one request per day");
+
+      // a second game over the same period uses the cache
+      timeService.setCurrentTime(start);
+      weatherReportRepo.recycle();
+      weatherForecastRepo.recycle();
+      weatherService.initialize(comp, new ArrayList<String>());
+      assertTrue(weatherReportRepo.count() >= 24, "first day from cache");
+      assertEquals(4, requests.get(), "no more requests");
+    }
+    finally {
+      server.stop(0);
+    }
+  }
+
+  @Test
+  public void lateAndFailedRequests (@TempDir File dir) throws Exception
+  {
+    // the first request succeeds, the second fails, the third is slow
+    AtomicInteger requests = new AtomicInteger();
+    byte[] body = weatherXml().getBytes(StandardCharsets.UTF_8);
+    HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/weather", exchange -> {
+      int n = requests.incrementAndGet();
+      if (n == 2) {
+        exchange.sendResponseHeaders(500, -1);
+        exchange.close();
+        return;
+      }
+      if (n == 3) {
+        try {
+          Thread.sleep(500);
+        }
+        catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    });
+    server.start();
+    try {
+      TreeMap<String, String> map = new TreeMap<String, String>();
+      map.put("server.weatherService.serverUrl",
+              "http://localhost:" + server.getAddress().getPort() + "/weather");
+      map.put("server.weatherService.blocking", "false");
+      map.put("server.weatherService.daysAhead", "1");
+      map.put("server.weatherService.fetchTimeout", "100");
+      map.put("server.weatherService.cacheDir", dir.getPath());
+      config.setConfiguration(new MapConfiguration(map));
+      weatherService.initialize(comp, new ArrayList<String>());
+      assertTrue(weatherReportRepo.count() >= 24, "first day fetched");
+
+      // the request for the next day fails
+      Instant day1 = start.plus(24 * TimeService.HOUR);
+      timeService.setCurrentTime(day1);
+      weatherService.activate(day1, 1);
+      assertTrue(weatherReportRepo.count() < 48, "second day missing");
+
+      // it's retried in the next timeslot, and is too slow to collect then
+      Instant hour1 = day1.plus(TimeService.HOUR);
+      timeService.setCurrentTime(hour1);
+      weatherService.activate(hour1, 1);
+      assertTrue(weatherReportRepo.count() < 48, "second day not ready");
+
+      // a later timeslot picks it up without waiting for the next day
+      Instant hour2 = hour1.plus(TimeService.HOUR);
+      timeService.setCurrentTime(hour2);
+      long deadline = System.currentTimeMillis() + 10000;
+      while (weatherReportRepo.count() < 48
+             && System.currentTimeMillis() < deadline) {
+        Thread.sleep(50);
+        weatherService.activate(hour2, 1);
+      }
+      assertTrue(weatherReportRepo.count() >= 48, "second day collected");
+      assertEquals(3, requests.get(), "failed request retried once");
+    }
+    finally {
+      server.stop(0);
+      ReflectionTestUtils.setField(weatherService, "fetchTimeout", 10000);
+      ReflectionTestUtils.setField(weatherService, "daysAhead", 3);
+    }
+  }
 }